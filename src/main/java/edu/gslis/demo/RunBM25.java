@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -145,16 +146,11 @@ public class RunBM25 {
 			
 			System.err.println(accumulated.size());
 			
-			SearchHits results = new SearchHits();
+			SearchHits results = new SearchHits(new ArrayList<SearchHit>(accumulated.size()));
 			Iterator<UnscoredSearchHit> docIterator = accumulated.iterator();
-			while(docIterator.hasNext()) {
-				UnscoredSearchHit unscoredHit = docIterator.next();
-				SearchHit hit = unscoredHit.toSearchHit();
-				double score = docScorer.score(hit);
-				hit.setScore(score);
-				
-				results.add(hit);
-			}
+			while(docIterator.hasNext())
+				results.add(docIterator.next().toSearchHit());
+			docScorer.scoreAll(results);
 			output.write(results, query.getTitle());
 		}
 		output.close();
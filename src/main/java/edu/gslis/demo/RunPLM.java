@@ -13,6 +13,7 @@ import org.apache.commons.validator.GenericValidator;
 import edu.gslis.docscoring.QueryDocScorer;
 import edu.gslis.docscoring.ScorerDirichlet;
 import edu.gslis.docscoring.ScorerPLM;
+import edu.gslis.docscoring.ScorerPLMFast;
 import edu.gslis.docscoring.support.CollectionStats;
 import edu.gslis.filtering.session.FilterSession;
 import edu.gslis.indexes.IndexWrapper;
@@ -21,7 +22,6 @@ import edu.gslis.output.FormattedOutputTrecEval;
 import edu.gslis.queries.GQueries;
 import edu.gslis.queries.GQueriesJsonImpl;
 import edu.gslis.queries.GQuery;
-import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 import edu.gslis.textrepresentation.FeatureVector;
 import edu.gslis.utils.ParameterBroker;
@@ -85,12 +85,25 @@ public class RunPLM {
 		QueryDocScorer docScorer = new ScorerDirichlet();
 		docScorer.setCollectionStats(corpusStats);
 		
-        ScorerPLM  plmScorer = new ScorerPLM();
-        plmScorer.setIndex(index);
+        // plm-truncation selects the table-driven scorer 
+        QueryDocScorer plmScorer;
         String mu = params.getParamValue("plm-mu");
         String sigma = params.getParamValue("plm-sigma");
-        plmScorer.setMu(Double.valueOf(mu));
-        plmScorer.setSigma(Double.valueOf(sigma));
+        String truncation = params.getParamValue("plm-truncation");
+        if (truncation != null) {
+            ScorerPLMFast fastScorer = new ScorerPLMFast();
+            fastScorer.setIndex(index);
+            fastScorer.setMu(Double.valueOf(mu));
+            fastScorer.setSigma(Double.valueOf(sigma));
+            fastScorer.setTruncation(Double.valueOf(truncation));
+            plmScorer = fastScorer;
+        } else {
+            ScorerPLM scorer = new ScorerPLM();
+            scorer.setIndex(index);
+            scorer.setMu(Double.valueOf(mu));
+            scorer.setSigma(Double.valueOf(sigma));
+            plmScorer = scorer;
+        }
 		    
 		Iterator<String> parameterIt = params.getAllParams().keySet().iterator();
 		while(parameterIt.hasNext()) {
@@ -140,16 +153,10 @@ public class RunPLM {
 
 	        // Re-score documents using PLM
 	        plmScorer.setQuery(query);
-            SearchHits plmResults = new SearchHits();	       
-	        for (int i=0; i < results.size(); i++) {
-	            SearchHit hit = results.getHit(i);
-	            double score = plmScorer.score(hit);	            
-	            hit.setScore(score);	            
-	            plmResults.add(hit);
-	        }
-	        plmResults.rank();
+	        plmScorer.scoreAll(results);
+	        results.rank();
 
-            output.write(plmResults, query.getTitle(), 1000);
+            output.write(results, query.getTitle(), 1000);
         }
         output.close();
 	}
@@ -6,6 +6,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -140,14 +141,10 @@ public class RunScorer {
 	        Map<Integer, UnscoredSearchHit> accumulated = 
 	                accumulator.getAccumulatedDocs();
 	        
-	        SearchHits results = new SearchHits();
-	        for (UnscoredSearchHit unscoredHit: accumulated.values()) {
-
-	            SearchHit hit = unscoredHit.toSearchHit();
-	            double score = docScorer.score(hit);
-	            hit.setScore(score);  
-	            results.add(hit);
-	        }   
+	        SearchHits results = new SearchHits(new ArrayList<SearchHit>(accumulated.size()));
+	        for (UnscoredSearchHit unscoredHit: accumulated.values())
+	            results.add(unscoredHit.toSearchHit());
+	        docScorer.scoreAll(results);
 	            
 	        results.rank();
             output.write(results, query.getTitle(), 1000);
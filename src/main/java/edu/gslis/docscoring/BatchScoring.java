@@ -0,0 +1,86 @@
+package edu.gslis.docscoring;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+
+
+/**
+ * Helpers for Scorer.scoreAll implementations. Batches of at least
+ * PARALLEL_THRESHOLD hits are split into ranges scored on the common
+ * fork-join pool; smaller batches are scored on the calling thread.
+ */
+public class BatchScoring {
+	public static final int PARALLEL_THRESHOLD = 4096;
+	public static final int MIN_RANGE = 1024;
+
+	/**
+	 * Scores the hits in [from, to). Ranges don't overlap, so implementations
+	 * may write their own part of a shared scores array.
+	 */
+	public interface RangeScorer {
+		public void score(int from, int to);
+	}
+
+	public static void run(int size, RangeScorer scorer) {
+		if (size < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() <= 1)
+			scorer.score(0, size);
+		else
+			ForkJoinPool.commonPool().invoke(new RangeTask(scorer, 0, size));
+	}
+
+	/**
+	 * Copies the hits into an array; SearchHits are usually a LinkedList
+	 */
+	public static SearchHit[] toArray(SearchHits hits) {
+		return hits.hits().toArray(new SearchHit[hits.size()]);
+	}
+
+	/**
+	 * Checks that every hit carries its document vector. Scorers have no
+	 * index to fetch vectors from, so callers set them first (e.g. with
+	 * IndexWrapper.getDocVector), as for score(SearchHit). A hit's vector is
+	 * missing if it is null, or empty although the hit has a length: hits
+	 * start with an empty vector, which runQuery leaves in place.
+	 */
+	public static void requireVectors(SearchHit[] hits) {
+		for (SearchHit hit: hits) {
+			FeatureVector vector = hit.getFeatureVector();
+			if (vector == null || (vector.getFeatureCount() == 0 && hit.getLength() > 0))
+				throw new IllegalArgumentException("Hit " + hit.getDocno() + " (docID " + hit.getDocID() +
+						") has no document vector");
+		}
+	}
+
+	public static void setScores(SearchHit[] hits, double[] scores) {
+		for (int i = 0; i < hits.length; i++)
+			hits[i].setScore(scores[i]);
+	}
+
+	static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		RangeScorer scorer;
+		int from;
+		int to;
+
+		RangeTask(RangeScorer scorer, int from, int to) {
+			this.scorer = scorer;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= MIN_RANGE) {
+				scorer.score(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RangeTask(scorer, from, mid), new RangeTask(scorer, mid, to));
+		}
+	}
+}
@@ -5,24 +5,131 @@ import java.util.HashMap;
 import java.util.Map;
 
 import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.docscoring.support.TermStats;
 import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
 
 public abstract class QueryDocScorer implements Scorer {
 	protected GQuery gQuery;
 	protected CollectionStats collectionStats;
 	protected Map<String,Double> paramTable;
+	protected TermStats queryStats;
+	protected QueryKernel kernel;
+	// The query vector the statistics were looked up for, with its feature
+	// count and length at the time
+	private FeatureVector statsVector;
+	private int statsFeatureCount;
+	private double statsLength;
 	
 	public void setQuery(GQuery gQuery) {
 		this.gQuery = gQuery;
+		precompute();
 	}
 	public void setCollectionStats(CollectionStats collectionStats) {
 		this.collectionStats = collectionStats;
+		precompute();
+	}
+	
+	/**
+	 * Per-query precomputation hook, run whenever the query or the
+	 * collection stats change. Does nothing by default; scorers that score
+	 * from the query term statistics override it to call lookupQueryStats()
+	 * and compile(). A query vector changed in place is noticed by its
+	 * feature count and length, and precomputed again before scoring; call
+	 * setQuery again after changes that keep both.
+	 */
+	protected void precompute() {}
+	
+	/**
+	 * Looks up the statistics of all query terms in one call, so that
+	 * score() doesn't go back to the collection
+	 */
+	protected void lookupQueryStats() {
+		FeatureVector fv = (gQuery == null) ? null : gQuery.getFeatureVector();
+		if (fv == null || collectionStats == null) {
+			queryStats = null;
+			statsVector = null;
+		} else {
+			queryStats = collectionStats.getTermStats(fv);
+			statsVector = fv;
+			statsFeatureCount = fv.getFeatureCount();
+			statsLength = fv.getLength();
+		}
+	}
+
+	/**
+	 * Whether the query's vector was replaced or changed in place since its
+	 * statistics were looked up
+	 */
+	private boolean queryChanged() {
+		if (statsVector == null)
+			return false;
+		FeatureVector fv = (gQuery == null) ? null : gQuery.getFeatureVector();
+		return fv != statsVector || fv.getFeatureCount() != statsFeatureCount || fv.getLength() != statsLength;
+	}
+
+	/**
+	 * Returns the kernel for the current query, precomputed again if the
+	 * query changed in place. For score(SearchHit) in scorers that compile
+	 * their queries.
+	 *
+	 * @throws IllegalStateException
+	 *             if there is no kernel because setQuery or
+	 *             setCollectionStats hasn't been called yet
+	 */
+	protected QueryKernel currentKernel() {
+		if (queryChanged())
+			precompute();
+		if (kernel == null)
+			throw new IllegalStateException(getClass().getSimpleName() +
+					": call setQuery and setCollectionStats before scoring");
+		return kernel;
+	}
+	
+	/**
+	 * Builds the kernel for the current query statistics and parameters.
+	 * Run after precompute() and whenever a parameter changes; scorers with
+	 * a kernel set it here, or null if there is no query yet.
+	 */
+	protected void compile() {}
+	
+	/**
+	 * Returns the compiled kernel for the current query, or null if this
+	 * scorer doesn't compile its queries. ScoringKernel.forScorer returns
+	 * this kernel, or an adapter for scorers without one.
+	 */
+	public QueryKernel getKernel() {
+		if (queryChanged())
+			precompute();
+		return kernel;
+	}
+	
+	/**
+	 * Scores the hits with the compiled kernel, if there is one, and
+	 * otherwise through ScoringKernel.forScorer's adapter. The hits must
+	 * carry their document vectors; for a kernel this is checked (see
+	 * BatchScoring.requireVectors).
+	 */
+	@Override
+	public double[] scoreAll(SearchHits hits) {
+		if (queryChanged())
+			precompute();
+		SearchHit[] array = BatchScoring.toArray(hits);
+		if (kernel != null)
+			BatchScoring.requireVectors(array);
+		double[] scores = new double[array.length];
+		ScoringKernel.forScorer(this).scoreAll(array, scores);
+		BatchScoring.setScores(array, scores);
+		return scores;
 	}
 	
 	public void setParameter(String paramName, double paramValue) {
 		if(paramTable == null)
 			paramTable = new HashMap<String,Double>();
 		paramTable.put(paramName, paramValue);
+		compile();
 	}
 	
 	/**
@@ -0,0 +1,142 @@
+package edu.gslis.docscoring;
+
+import edu.gslis.docscoring.support.TermStats;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.InternedFeatureVector;
+import edu.gslis.textrepresentation.Vocabulary;
+
+
+/**
+ * Scoring kernel over the terms of a query model. Subclasses precompute
+ * their per-term constants into arrays parallel to the query terms, and
+ * score a document from the frequencies of the query terms in it:
+ * score(double[], int, double) is a loop over those arrays.
+ *
+ * Term frequencies are gathered by term id when the document vector is an
+ * InternedFeatureVector. The ids of the query terms are looked up, not
+ * interned, so scoring doesn't add query terms to a shared vocabulary;
+ * terms missing from the vocabulary are looked up again once it has grown.
+ *
+ * A kernel is compiled for one query and one set of parameters (see
+ * QueryDocScorer.getKernel) and is immutable once built, so it can be
+ * shared between threads. Scorers without a kernel are used through
+ * ScoringKernel.forScorer.
+ */
+public abstract class QueryKernel extends ScoringKernel {
+	protected final String[] terms;
+	protected final double[] weights;
+	private volatile TermIds termIds;
+
+	protected QueryKernel(TermStats stats) {
+		this.terms = stats.getTerms();
+		this.weights = stats.getWeights();
+	}
+
+	public int size() {
+		return terms.length;
+	}
+
+	/**
+	 * The query terms, in the order score(double[], int, double) expects
+	 * their frequencies
+	 */
+	public String[] getTerms() {
+		return terms.clone();
+	}
+
+	/**
+	 * Scores a document given the frequency of each query term in it
+	 *
+	 * @param tf
+	 *            Frequencies, in query term order, starting at offset
+	 * @param offset
+	 *            Offset of the document's frequencies in tf
+	 * @param docLength
+	 *            Document length
+	 */
+	public abstract double score(double[] tf, int offset, double docLength);
+
+	public double score(double[] tf, double docLength) {
+		return score(tf, 0, docLength);
+	}
+
+	@Override
+	public double score(SearchHit doc) {
+		double[] tf = new double[terms.length];
+		gather(doc.getFeatureVector(), tf, 0);
+		return score(tf, 0, doc.getLength());
+	}
+
+	/**
+	 * Scores a batch of hits into scores. The query term frequencies of
+	 * each range of hits are gathered into one array first, then scored.
+	 */
+	@Override
+	public void scoreAll(final SearchHit[] hits, final double[] scores) {
+		final int n = terms.length;
+		BatchScoring.run(hits.length, new BatchScoring.RangeScorer() {
+			public void score(int from, int to) {
+				double[] tfs = new double[(to - from) * n];
+				double[] lengths = new double[to - from];
+				for (int d = from; d < to; d++) {
+					gather(hits[d].getFeatureVector(), tfs, (d - from) * n);
+					lengths[d - from] = hits[d].getLength();
+				}
+				for (int d = from; d < to; d++)
+					scores[d] = QueryKernel.this.score(tfs, (d - from) * n, lengths[d - from]);
+			}
+		});
+	}
+
+	/**
+	 * Copies the frequencies of the query terms in the document into tf,
+	 * starting at offset
+	 */
+	public void gather(FeatureVector docVector, double[] tf, int offset) {
+		if (docVector instanceof InternedFeatureVector) {
+			InternedFeatureVector interned = (InternedFeatureVector)docVector;
+			int[] ids = getTermIds(interned.getVocabulary());
+			for (int i = 0; i < ids.length; i++)
+				tf[offset + i] = (ids[i] == Vocabulary.UNKNOWN) ? 0.0 : interned.getFeatureWeight(ids[i]);
+		} else {
+			for (int i = 0; i < terms.length; i++)
+				tf[offset + i] = docVector.getFeatureWeight(terms[i]);
+		}
+	}
+
+	private int[] getTermIds(Vocabulary vocabulary) {
+		TermIds current = termIds;
+		if (current == null || current.vocabulary != vocabulary) {
+			current = new TermIds(vocabulary, terms);
+			termIds = current;
+		} else if (current.missing && current.size != vocabulary.size()) {
+			// A document read since may contain a term that was missing
+			current = new TermIds(vocabulary, terms);
+			termIds = current;
+		}
+		return current.ids;
+	}
+
+	private static class TermIds {
+		final Vocabulary vocabulary;
+		final int[] ids;
+		// Vocabulary size when the ids were looked up
+		final int size;
+		// Whether any term was UNKNOWN
+		final boolean missing;
+
+		TermIds(Vocabulary vocabulary, String[] terms) {
+			this.vocabulary = vocabulary;
+			// Read the size first: terms added after it are looked up again
+			this.size = vocabulary.size();
+			this.ids = new int[terms.length];
+			boolean missing = false;
+			for (int i = 0; i < terms.length; i++) {
+				ids[i] = vocabulary.lookup(terms[i]);
+				missing |= (ids[i] == Vocabulary.UNKNOWN);
+			}
+			this.missing = missing;
+		}
+	}
+}
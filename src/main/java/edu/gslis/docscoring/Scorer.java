@@ -1,18 +1,32 @@
 package edu.gslis.docscoring;
 
 import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
 
 
 /**
  * Generic behavior for deriving a score for a doc.  can be query-dependent or query-independent.
- * 
+ *
  * @author mefron
  *
  */
 public interface Scorer {
 
 	public double score(SearchHit doc);
-	
+
 	public void setParameter(String paramName, double paramValue);
-	
+
+	/**
+	 * Scores every hit, sets each hit's score, and returns the scores in
+	 * hit order. Scorers that can score a batch faster than one hit at a
+	 * time override this. As for score(SearchHit), the hits must carry
+	 * their document vectors.
+	 */
+	public default double[] scoreAll(SearchHits hits) {
+		SearchHit[] array = BatchScoring.toArray(hits);
+		double[] scores = new double[array.length];
+		ScoringKernel.forScorer(this).scoreAll(array, scores);
+		BatchScoring.setScores(array, scores);
+		return scores;
+	}
 }
@@ -1,8 +1,7 @@
 package edu.gslis.docscoring;
 
-import java.util.Iterator;
-
 import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.docscoring.support.TermStats;
 import edu.gslis.queries.GQuery;
 import edu.gslis.searchhits.SearchHit;
 
@@ -19,11 +18,11 @@ public class ScorerBM25 extends QueryDocScorer {
 	private static final double K2_DEFAULT = 2.0;
 
 	public ScorerBM25(GQuery query, CollectionStats stats, double k1, double b, double k2) {
+		setParameter(PARAM_K1_NAME, k1);
+		setParameter(PARAM_B_NAME, b);
+		setParameter(PARAM_K2_NAME, k2);
 		gQuery = query;
-		collectionStats = stats;
-		paramTable.put(PARAM_K1_NAME, k1);
-		paramTable.put(PARAM_B_NAME, b);
-		paramTable.put(PARAM_K2_NAME, k2);
+		setCollectionStats(stats);
 	}
 
 	public ScorerBM25() {
@@ -41,42 +40,86 @@ public class ScorerBM25 extends QueryDocScorer {
 		this(query, stats, K1_DEFAULT, B_DEFAULT, K2_DEFAULT);
 	}
 
-	public double score(SearchHit doc) {
-		double N = collectionStats.getDocCount();
-		double totalTerms = collectionStats.getTokCount();
-		double avgDocLength = totalTerms / N;
+	@Override
+	protected void precompute() {
+		lookupQueryStats();
+		compile();
+	}
 
-		double docLength = doc.getLength();
+	/**
+	 * Parameters not set (e.g. after the no-arg constructor) take the
+	 * defaults
+	 */
+	@Override
+	protected void compile() {
+		if (queryStats == null) {
+			kernel = null;
+			return;
+		}
+		kernel = new Kernel(queryStats, collectionStats.getDocCount(), collectionStats.getTokCount(),
+				getParameter(PARAM_K1_NAME, K1_DEFAULT), getParameter(PARAM_B_NAME, B_DEFAULT),
+				getParameter(PARAM_K2_NAME, K2_DEFAULT));
+	}
 
-		double docScore = 0;
+	private double getParameter(String name, double defaultValue) {
+		Double value = (paramTable == null) ? null : paramTable.get(name);
+		return (value == null) ? defaultValue : value;
+	}
 
-		Iterator<String> queryIt = this.gQuery.getFeatureVector().iterator();
-		while (queryIt.hasNext()) {
-			String term = queryIt.next();
+	public double score(SearchHit doc) {
+		return currentKernel().score(doc);
+	}
 
-			double termFreq = doc.getFeatureVector().getFeatureWeight(term);
+	/**
+	 * BM25 with the idf and query weight term of each query term precomputed
+	 */
+	public static class Kernel extends QueryKernel {
+		final double k1;
+		final double b;
+		final double avgDocLength;
+		final double[] idfs;
+		final double[] queryScalings;
+
+		public Kernel(TermStats stats, double N, double totalTerms, double k1, double b, double k2) {
+			super(stats);
+			this.k1 = k1;
+			this.b = b;
+			this.avgDocLength = totalTerms / N;
+			idfs = new double[terms.length];
+			queryScalings = (k2 >= 0) ? new double[terms.length] : null;
+			for (int i = 0; i < terms.length; i++) {
+				double n = stats.docCount(i);
+				idfs[i] = Math.log((N - n + 0.5) / (n + 0.5));
+
+				// If we're including the query weight term
+				// (i.e. if k2 is non-negative)
+				if (queryScalings != null) {
+					double termFreqQuery = weights[i];
+					queryScalings[i] = (k2 + 1) * termFreqQuery / (k2 + termFreqQuery);
+				}
+			}
+		}
 
-			double n = collectionStats.docCount(term);
-			double idf = Math.log((N - n + 0.5) / (n + 0.5));
+		public double score(double[] tf, int offset, double docLength) {
+			double K = k1 * ((1 - b) + b * (docLength / avgDocLength));
+			double k1Plus1 = k1 + 1;
+			double[] idfs = this.idfs;
+			double[] queryScalings = this.queryScalings;
 
-			double K = paramTable.get(PARAM_K1_NAME) * ((1 - paramTable.get(PARAM_B_NAME)) + paramTable.get(PARAM_B_NAME) * (docLength / avgDocLength));
-			double documentScaling = ((termFreq * (paramTable.get(PARAM_K1_NAME) + 1)) / (K + termFreq));
+			double docScore = 0;
+			for (int i = 0; i < idfs.length; i++) {
+				double termFreq = tf[offset + i];
+				double documentScaling = ((termFreq * k1Plus1) / (K + termFreq));
 
-			double termScore = idf * documentScaling;
+				double termScore = idfs[i] * documentScaling;
+				if (queryScalings != null)
+					termScore *= queryScalings[i];
 
-			// If we're including the query weight term
-			// (i.e. if k2 is non-negative)
-			if (paramTable.get(PARAM_K2_NAME) >= 0) {
-				double termFreqQuery = this.gQuery.getFeatureVector().getFeatureWeight(term);
-				double queryScaling = (paramTable.get(PARAM_K2_NAME) + 1) * termFreqQuery / (paramTable.get(PARAM_K2_NAME) + termFreqQuery);
-				termScore *= queryScaling;
+				// add to doc score
+				docScore += termScore;
 			}
-
-			// add to doc score
-			docScore += termScore;
+			return docScore;
 		}
-
-		return docScore;
 	}
 
 }
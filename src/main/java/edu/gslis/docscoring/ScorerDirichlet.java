@@ -1,53 +1,68 @@
 package edu.gslis.docscoring;
 
-import java.util.Iterator;
-
-import edu.gslis.queries.GQuery;
+import edu.gslis.docscoring.support.TermStats;
 import edu.gslis.searchhits.SearchHit;
 
 /**
  * Standard dirichlet query likelihood scorer
- * 
+ *
  * @author mefron
  *
  */
 public class ScorerDirichlet extends QueryDocScorer {
 	public String PARAMETER_NAME = "mu";
 	public double EPSILON = 1.0;
-	
+
 	public ScorerDirichlet() {
 		setParameter(PARAMETER_NAME, 2500);
 	}
-	public void setQuery(GQuery query) {
-		this.gQuery = query;
+
+	@Override
+	protected void precompute() {
+		lookupQueryStats();
+		compile();
+	}
+
+	@Override
+	protected void compile() {
+		kernel = (queryStats == null) ? null :
+			new Kernel(queryStats, collectionStats.getTokCount(), EPSILON, paramTable.get(PARAMETER_NAME));
 	}
-	
+
 	/**
 	 * retrieves the log-likelihood.  assumes the search hit is populated w term counts.
 	 */
 	public double score(SearchHit doc) {
-		double logLikelihood = 0.0;
-		Iterator<String> queryIterator = gQuery.getFeatureVector().iterator();
-		while(queryIterator.hasNext()) {
-			String feature = queryIterator.next();
-			double docFreq = doc.getFeatureVector().getFeatureWeight(feature);
-			double docLength = doc.getLength();
-			double collectionProb = (EPSILON + collectionStats.termCount(feature)) / collectionStats.getTokCount();
-			double pr = (docFreq + 
-					paramTable.get(PARAMETER_NAME)*collectionProb) / 
-					(docLength + paramTable.get(PARAMETER_NAME));
-			double queryWeight = gQuery.getFeatureVector().getFeatureWeight(feature);
-			logLikelihood += queryWeight * Math.log(pr);
-		}
-		return logLikelihood;
+		return currentKernel().score(doc);
 	}
-	
 
-	
-
-
-	
-	
+	/**
+	 * Query likelihood with the collection probabilities of the query terms
+	 * precomputed
+	 */
+	public static class Kernel extends QueryKernel {
+		final double mu;
+		final double[] collectionProbs;
 
+		public Kernel(TermStats stats, double tokCount, double epsilon, double mu) {
+			super(stats);
+			this.mu = mu;
+			collectionProbs = new double[terms.length];
+			for (int i = 0; i < terms.length; i++)
+				collectionProbs[i] = (epsilon + stats.termCount(i)) / tokCount;
+		}
 
+		public double score(double[] tf, int offset, double docLength) {
+			double logLikelihood = 0.0;
+			double[] weights = this.weights;
+			double[] collectionProbs = this.collectionProbs;
+			for (int i = 0; i < collectionProbs.length; i++) {
+				double pr = (tf[offset + i] +
+						mu*collectionProbs[i]) /
+						(docLength + mu);
+				logLikelihood += weights[i] * Math.log(pr);
+			}
+			return logLikelihood;
+		}
+	}
 }
@@ -1,51 +1,77 @@
 package edu.gslis.docscoring;
 
-import java.util.Iterator;
-
-import edu.gslis.queries.GQuery;
+import edu.gslis.docscoring.support.TermStats;
 import edu.gslis.searchhits.SearchHit;
 
 
 /**
- * Preliminary KL-divergence scorer implementation with Dirichlet smoothing. 
+ * Preliminary KL-divergence scorer implementation with Dirichlet smoothing.
  */
-public class ScorerDirichletKL extends QueryDocScorer 
+public class ScorerDirichletKL extends QueryDocScorer
 {
 	public static final String MU = "mu";
-	
+
 	public ScorerDirichletKL() {
 		setParameter(MU, 2500);
 	}
-	public void setQuery(GQuery query) {
-		this.gQuery = query;
+
+	@Override
+	protected void precompute() {
+		lookupQueryStats();
+		compile();
+	}
+
+	@Override
+	protected void compile() {
+		kernel = (queryStats == null) ? null :
+			new Kernel(queryStats, collectionStats.getTokCount(), paramTable.get(MU));
 	}
 
-   
-    public double score(SearchHit doc) 
+
+    public double score(SearchHit doc)
     {
-        double logLikelihood = 0.0;
-        Iterator<String> queryIterator = gQuery.getFeatureVector().iterator();
-        
-        double mu = paramTable.get(MU);
-
-        double dl = doc.getLength();
-                        
-        while(queryIterator.hasNext()) {            
-            String feature = queryIterator.next();
-            double cwd = doc.getFeatureVector().getFeatureWeight(feature);
-            
-            // p(w|C)
-            double pwc =  collectionStats.termCount(feature) / collectionStats.getTokCount();
-            // p(w|Q)
-            double pwq =  gQuery.getFeatureVector().getFeatureWeight(feature)/
-                               gQuery.getFeatureVector().getFeatureCount();            
-            // p(w|D)
-            double pwd = (cwd + mu * pwc)/(dl + mu);
-           
-            logLikelihood += pwq*Math.log(pwq) - pwq*Math.log(pwd);
-        }
-        
-        return -1*logLikelihood;
-    }   
-   
+        return currentKernel().score(doc);
+    }
+
+	/**
+	 * Negative KL divergence with p(w|C), p(w|Q) and the query entropy terms
+	 * precomputed
+	 */
+	public static class Kernel extends QueryKernel {
+		final double mu;
+		final double[] pwcs;
+		final double[] pwqs;
+		final double[] queryEntropies;
+
+		public Kernel(TermStats stats, double tokCount, double mu) {
+			super(stats);
+			this.mu = mu;
+			int n = terms.length;
+			pwcs = new double[n];
+			pwqs = new double[n];
+			queryEntropies = new double[n];
+			for (int i = 0; i < n; i++) {
+				// p(w|C)
+				pwcs[i] = stats.termCount(i) / tokCount;
+				// p(w|Q)
+				pwqs[i] = weights[i] / n;
+				queryEntropies[i] = pwqs[i]*Math.log(pwqs[i]);
+			}
+		}
+
+		public double score(double[] tf, int offset, double dl) {
+			double logLikelihood = 0.0;
+			double[] pwcs = this.pwcs;
+			double[] pwqs = this.pwqs;
+			double[] queryEntropies = this.queryEntropies;
+			for (int i = 0; i < pwqs.length; i++) {
+				// p(w|D)
+				double pwd = (tf[offset + i] + mu * pwcs[i])/(dl + mu);
+
+				logLikelihood += queryEntropies[i] - pwqs[i]*Math.log(pwd);
+			}
+			return -1*logLikelihood;
+		}
+	}
+
 }
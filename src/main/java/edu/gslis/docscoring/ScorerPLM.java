@@ -2,9 +2,6 @@ package edu.gslis.docscoring;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 
 import org.apache.commons.math3.distribution.NormalDistribution;
 
@@ -12,6 +9,7 @@ import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.queries.GQuery;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.PositionalDocument;
 
 /**
  * Implements the positional language model 
@@ -92,35 +90,41 @@ public class ScorerPLM extends QueryDocScorer {
     {      
         double score = -10000;
         
-        // Ordered list of terms in this document
-        List<String> docTerms = index.getDocTerms(doc.getDocID());
+        // Terms in this document by position
+        PositionalDocument posDoc = index.getPositionalDocument(doc.getDocID());
+        int[] positions = posDoc.getPositions();
+        String[] terms = posDoc.getTerms();
 
-        // Map to store the query terms and positions
-        Map<Integer, String> qposMap = new TreeMap<Integer, String>();
-
-        // Set of query terms
-        Set<String> qterms = gQuery.getFeatureVector().getFeatures();
+        // Flag the query terms in the document dictionary
+        boolean[] isQueryTerm = new boolean[terms.length];
+        for (String qterm: gQuery.getFeatureVector().getFeatures()) {
+            int id = posDoc.getTermId(qterm);
+            if (id != PositionalDocument.UNKNOWN)
+                isQueryTerm[id] = true;
+        }
 
         // First pass: get position of query terms
-        for (int i=0; i< docTerms.size(); i++)
+        int[] qpos = new int[positions.length];
+        int numQpos = 0;
+        for (int i=0; i< positions.length; i++)
         {
-            String term = docTerms.get(i);
-            if (qterms.contains(term)) {
-                qposMap.put(i, term);
-            }
+            if (isQueryTerm[positions[i]]) 
+                qpos[numQpos++] = i;
         }
         
         FeatureVector plm = new FeatureVector(null);
-        int docLen = docTerms.size();
+        int docLen = positions.length;
         
         // Only score positions where query terms occur
-        for (int i: qposMap.keySet()) {
+        for (int a = 0; a < numQpos; a++) {
+            int i = qpos[a];
             double psgLen = getPassageLength(i, docLen, sigma);
             
-            for (int j: qposMap.keySet()) {
+            for (int b = 0; b < numQpos; b++) {
+                int j = qpos[b];
                 if (j == i) continue;
                 
-                String term = qposMap.get(j);
+                String term = terms[positions[j]];
                 
                 double distance = Math.abs(j - i) / sigma;
                 double pr =  Math.exp( - distance * distance / 2) / psgLen;
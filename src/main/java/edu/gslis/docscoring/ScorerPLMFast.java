@@ -0,0 +1,190 @@
+package edu.gslis.docscoring;
+
+import java.util.Iterator;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.TermPositions;
+
+/**
+ * Positional language model scorer. Produces the same scores as ScorerPLM
+ * but:
+ *
+ * 1. Reads only the query term positions (IndexWrapper.getTermPositions)
+ * instead of the whole document.
+ *
+ * 2. Uses precomputed tables for the Gaussian kernel and the normal CDF in
+ * the passage length. Positions are integers, so both are exact lookups.
+ *
+ * 3. Truncates the kernel at a configurable number of sigmas (default 5).
+ * Query positions farther apart than that don't propagate counts, so each
+ * position only looks at its neighbours in the sorted position list.
+ *
+ * Scores differ from ScorerPLM only by the truncated kernel mass, which is
+ * below 1e-5 relative at the default.
+ */
+public class ScorerPLMFast extends QueryDocScorer {
+
+    public static final double DEFAULT_TRUNCATION = 5;
+
+    double sigma = 50;
+    double mu = 2500;
+    double truncation = DEFAULT_TRUNCATION;
+
+    IndexWrapper index;
+
+    // Lookup tables, built on first use
+    int window = -1;
+    double[] kernel;
+    double[] cdf;
+
+    // Per-query state
+    String[] qterms;
+    double[] qweights;
+    double[] cprs;
+
+    public void setIndex(IndexWrapper index) {
+        this.index = index;
+    }
+
+    public void setMu(double mu) {
+        this.mu = mu;
+    }
+
+    public void setSigma(double sigma) {
+        this.sigma = sigma;
+        this.window = -1;
+    }
+
+    /**
+     * Number of sigmas beyond which the kernel is treated as zero
+     * @param truncation
+     */
+    public void setTruncation(double truncation) {
+        this.truncation = truncation;
+        this.window = -1;
+    }
+
+    @Override
+    public void setQuery(GQuery gQuery) {
+        super.setQuery(gQuery);
+        qterms = null;
+    }
+
+    private void buildTables() {
+        window = (int)Math.floor(truncation * sigma);
+        kernel = new double[window + 1];
+        for (int d = 0; d <= window; d++) {
+            double distance = d / sigma;
+            kernel[d] = Math.exp( - distance * distance / 2);
+        }
+
+        // cdf[x + window] = P(Z <= x / sigma)
+        NormalDistribution dnorm = new NormalDistribution(0, 1);
+        cdf = new double[2 * window + 1];
+        for (int x = -window; x <= window; x++)
+            cdf[x + window] = dnorm.cumulativeProbability(x / sigma);
+    }
+
+    private double cdf(int x) {
+        if (x < -window)
+            return 0;
+        if (x > window)
+            return 1;
+        return cdf[x + window];
+    }
+
+    private void prepareQuery() {
+        FeatureVector qv = gQuery.getFeatureVector();
+        int n = qv.getFeatureCount();
+        qterms = new String[n];
+        qweights = new double[n];
+        cprs = new double[n];
+        double termCount = index.termCount();
+        Iterator<String> it = qv.iterator();
+        for (int t = 0; t < n && it.hasNext(); t++) {
+            qterms[t] = it.next();
+            qweights[t] = qv.getFeatureWeight(qterms[t]);
+            cprs[t] = index.termFreq(qterms[t]) / termCount;
+        }
+    }
+
+    /**
+     * Same as ScorerPLM.getPassageLength, from the CDF table
+     */
+    public double getPassageLength(int pos, int docLen)
+    {
+        if (window < 0)
+            buildTables();
+        return Math.sqrt(2 * Math.PI) * sigma * (cdf(docLen - pos) - cdf(-pos));
+    }
+
+    public double score(SearchHit doc)
+    {
+        if (window < 0)
+            buildTables();
+        if (qterms == null)
+            prepareQuery();
+
+        double score = -10000;
+
+        TermPositions tp = index.getTermPositions(doc.getDocID(), qterms);
+        int docLen = tp.length();
+
+        // Merge the query term positions into one sorted list
+        int numQpos = 0;
+        for (int t = 0; t < qterms.length; t++)
+            numQpos += tp.getPositions(t).length;
+        int[] qpos = new int[numQpos];
+        int[] qterm = new int[numQpos];
+        int[] next = new int[qterms.length];
+        for (int k = 0; k < numQpos; k++) {
+            int best = -1;
+            for (int t = 0; t < qterms.length; t++) {
+                int[] p = tp.getPositions(t);
+                if (next[t] < p.length && (best < 0 || p[next[t]] < tp.getPositions(best)[next[best]]))
+                    best = t;
+            }
+            qpos[k] = tp.getPositions(best)[next[best]++];
+            qterm[k] = best;
+        }
+
+        // As in ScorerPLM, propagated counts accumulate over the scored positions
+        double[] plm = new double[qterms.length];
+        double[] sums = new double[qterms.length];
+
+        // Only score positions where query terms occur
+        for (int a = 0; a < numQpos; a++) {
+            int i = qpos[a];
+            double psgLen = getPassageLength(i, docLen);
+
+            for (int b = a - 1; b >= 0 && i - qpos[b] <= window; b--) {
+                if (qpos[b] != i)
+                    sums[qterm[b]] += kernel[i - qpos[b]];
+            }
+            for (int b = a + 1; b < numQpos && qpos[b] - i <= window; b++) {
+                if (qpos[b] != i)
+                    sums[qterm[b]] += kernel[qpos[b] - i];
+            }
+
+            // KL score for the passage centered on position i
+            double plmScore = 0;
+            for (int t = 0; t < qterms.length; t++) {
+                plm[t] += sums[t] / psgLen;
+                sums[t] = 0;
+
+                double pr = (plm[t] + mu * cprs[t]) / (psgLen + mu);
+                if (pr > 0)
+                    plmScore += qweights[t] * Math.log(pr);
+            }
+
+            if (plmScore > score)
+                score = plmScore;
+        }
+        return score;
+    }
+}
@@ -1,6 +1,8 @@
 package edu.gslis.docscoring;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.gslis.docscoring.smart.IDFWeights;
 import edu.gslis.docscoring.smart.IDFWeights.IDFWeight;
@@ -186,6 +188,35 @@ public class ScorerSMART extends QueryDocScorer
     }
     
 
+    /**
+     * Looks up the document frequencies of all the hits' terms in one
+     * batch, then scores the hits (in parallel for large batches, when all
+     * the terms fit in the IDF weight's cache). The hits must carry their
+     * document vectors.
+     */
+    @Override
+    public double[] scoreAll(SearchHits hits) {
+        final SearchHit[] array = BatchScoring.toArray(hits);
+        BatchScoring.requireVectors(array);
+        final double[] scores = new double[array.length];
+        List<FeatureVector> vectors = new ArrayList<FeatureVector>(array.length);
+        for (SearchHit hit: array)
+            vectors.add(hit.getFeatureVector());
+
+        BatchScoring.RangeScorer scorer = new BatchScoring.RangeScorer() {
+            public void score(int from, int to) {
+                for (int i = from; i < to; i++)
+                    scores[i] = ScorerSMART.this.score(array[i]);
+            }
+        };
+        if (docIDF.prefetch(vectors))
+            BatchScoring.run(array.length, scorer);
+        else
+            scorer.score(0, array.length);
+        BatchScoring.setScores(array, scores);
+        return scores;
+    }
+
     public void setParameter(String paramName, String paramValue) {
         if (paramName.equals(PARAM_SMART_SPEC)) {
             this.smartSpec = paramValue;
@@ -0,0 +1,57 @@
+package edu.gslis.docscoring;
+
+import edu.gslis.searchhits.SearchHit;
+
+
+/**
+ * A scorer compiled for one query and one set of parameters.
+ *
+ * Kernels are immutable once built, so they can be shared between threads.
+ * Scorers that compile their query into a QueryKernel return it from
+ * QueryDocScorer.getKernel; any other Scorer can be used through
+ * forScorer, which calls its score method.
+ */
+public abstract class ScoringKernel {
+
+	public abstract double score(SearchHit doc);
+
+	/**
+	 * Scores a batch of hits into scores, one hit at a time unless the
+	 * kernel can do better
+	 */
+	public void scoreAll(SearchHit[] hits, double[] scores) {
+		for (int i = 0; i < hits.length; i++)
+			scores[i] = score(hits[i]);
+	}
+
+	/**
+	 * The compiled kernel of the scorer's current query, or an adapter that
+	 * delegates to the scorer if it doesn't have one
+	 */
+	public static ScoringKernel forScorer(Scorer scorer) {
+		if (scorer instanceof QueryDocScorer) {
+			ScoringKernel kernel = ((QueryDocScorer)scorer).getKernel();
+			if (kernel != null)
+				return kernel;
+		}
+		return new ScorerAdapter(scorer);
+	}
+
+	/**
+	 * Adapter for scorers that don't compile their queries. It calls the
+	 * scorer, so unlike a QueryKernel it is only as thread-safe as the
+	 * scorer is, and it follows the scorer's later query and parameter
+	 * changes.
+	 */
+	static class ScorerAdapter extends ScoringKernel {
+		Scorer scorer;
+
+		ScorerAdapter(Scorer scorer) {
+			this.scorer = scorer;
+		}
+
+		public double score(SearchHit doc) {
+			return scorer.score(doc);
+		}
+	}
+}
@@ -1,8 +1,15 @@
 package edu.gslis.docscoring.smart;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.docscoring.support.TermStats;
 import edu.gslis.textrepresentation.FeatureVector;
 
 /** 
@@ -47,10 +54,15 @@ public class IDFWeights {
             throw new Exception("Unsupported IDF weight type '" + type + "'");
     }    
 
+    // Document frequencies held by each IDFWeight before the cache is reset
+    public static final int MAX_CACHED_TERMS = 100000;
+
     // Simple interface for IDFWeights
     public class IDFWeight {
         double numDocs = 0;
         CollectionStats collectionStats = null;
+        Map<String, Double> docFreqs = new HashMap<String, Double>();
+        int maxCachedTerms = MAX_CACHED_TERMS;
 
         public void weight(FeatureVector fv) throws Exception {}
         public void setNumDocs(double numDocs) {
@@ -59,18 +71,109 @@ public class IDFWeights {
         
         public void setCollectionStats(CollectionStats collectionStats) {
             this.collectionStats = collectionStats;
+            docFreqs.clear();
+        }
+
+        /**
+         * Sets the number of document frequencies held before the cache is
+         * reset (MAX_CACHED_TERMS by default)
+         */
+        public void setMaxCachedTerms(int maxCachedTerms) {
+            this.maxCachedTerms = maxCachedTerms;
+            docFreqs.clear();
+        }
+
+        /**
+         * Looks up the document frequencies of the vector's terms that aren't
+         * cached yet in one call. Document vectors are reweighted for every
+         * scored document, so most terms are only looked up once. If they
+         * don't fit, the cache is reset and all of the vector's terms are
+         * looked up.
+         */
+        protected void prefetch(FeatureVector fv) {
+            List<String> missing = new ArrayList<String>();
+            Iterator<String> it = fv.iterator();
+            while (it.hasNext()) {
+                String term = it.next();
+                if (!docFreqs.containsKey(term))
+                    missing.add(term);
+            }
+            if (missing.isEmpty())
+                return;
+            if (docFreqs.size() + missing.size() > maxCachedTerms) {
+                docFreqs.clear();
+                missing.clear();
+                it = fv.iterator();
+                while (it.hasNext())
+                    missing.add(it.next());
+            }
+
+            String[] terms = missing.toArray(new String[missing.size()]);
+            TermStats stats = collectionStats.getTermStats(terms, new double[terms.length]);
+            for (int i = 0; i < terms.length; i++)
+                docFreqs.put(terms[i], stats.docCount(i));
+        }
+
+        /**
+         * Looks up the document frequencies of all terms of the vectors that
+         * aren't cached yet in one call.
+         *
+         * @return true if all terms are now cached, so weight() won't modify
+         *         the cache and can be called from several threads
+         */
+        public boolean prefetch(List<FeatureVector> vectors) {
+            if (!usesDocFreqs())
+                return true;
+            Set<String> missing = new HashSet<String>();
+            for (FeatureVector fv: vectors) {
+                Iterator<String> it = fv.iterator();
+                while (it.hasNext()) {
+                    String term = it.next();
+                    if (!docFreqs.containsKey(term))
+                        missing.add(term);
+                }
+            }
+            if (docFreqs.size() + missing.size() > maxCachedTerms)
+                return false;
+
+            String[] terms = missing.toArray(new String[missing.size()]);
+            TermStats stats = collectionStats.getTermStats(terms, new double[terms.length]);
+            for (int i = 0; i < terms.length; i++)
+                docFreqs.put(terms[i], stats.docCount(i));
+            return true;
+        }
+
+        /**
+         * Whether weight() reads document frequencies
+         */
+        protected boolean usesDocFreqs() {
+            return false;
+        }
+
+        /**
+         * The cached document frequency of the term, or the collection's if
+         * it isn't cached
+         */
+        protected double docFreq(String term) {
+            Double docFreq = docFreqs.get(term);
+            return (docFreq == null) ? collectionStats.docCount(term) : docFreq;
         }
     }
     
     // tfidf    new_wt = new_tf * log (num_docs / coll_freq_of_term)
     class LogIDFWeight extends IDFWeight {
         
+        protected boolean usesDocFreqs() {
+            return true;
+        }
+        
         public void weight(FeatureVector fv) throws Exception {
+            prefetch(fv);
             Iterator<String> it = fv.iterator();
             while (it.hasNext()) {
                 String term = it.next();
                 double weight = fv.getFeatureWeight(term);
-                double docFreq = collectionStats.docCount(term);
+                double docFreq = docFreq(term);
                 if(docFreq > 0)
                     weight = weight * Math.log(numDocs/docFreq);
                 fv.setTerm(term, weight);
@@ -81,12 +184,17 @@ public class IDFWeights {
     // prob    new_wt = new_tf * log ((num_docs - coll_freq)   / coll_freq))
     class IDFProbWeight extends IDFWeight {
         
+        protected boolean usesDocFreqs() {
+            return true;
+        }
+        
         public void weight(FeatureVector fv) throws Exception {
+            prefetch(fv);
             Iterator<String> it = fv.iterator();
             while (it.hasNext()) {
                 String term = it.next();
                 double weight = fv.getFeatureWeight(term);
-                double docFreq = collectionStats.docCount(term);
+                double docFreq = docFreq(term);
                 weight = weight * Math.log((numDocs - docFreq)/docFreq);
                 fv.setTerm(term, weight);
             }         
@@ -109,12 +217,17 @@ public class IDFWeights {
   //squared     new_wt = new_tf * log(num_docs/coll_freq_of_term)**2
     class IDFSquareWeight extends IDFWeight {
         
+        protected boolean usesDocFreqs() {
+            return true;
+        }
+        
         public void weight(FeatureVector fv) throws Exception {
+            prefetch(fv);
             Iterator<String> it = fv.iterator();
             while (it.hasNext()) {
                 String term = it.next();
                 double weight = fv.getFeatureWeight(term);
-                double docFreq = collectionStats.docCount(term);
+                double docFreq = docFreq(term);
                 weight = weight * Math.pow(Math.log(numDocs/docFreq), 2);
                 fv.setTerm(term, weight);
             }         
@@ -1,26 +1,67 @@
 package edu.gslis.docscoring.support;
 
+import java.util.Iterator;
+
+import edu.gslis.textrepresentation.FeatureVector;
+
 
 public abstract class CollectionStats {
 	protected double tokCount;
 	protected double docCount;
 	protected double termTypeCount;
-	
+
 	public abstract double termCount(String term);
 	public abstract double docCount(String term);
-	
+
 	public abstract void setStatSource(String statSource);
-	
+
+	/**
+	 * Statistics for all terms of a query or expansion model, in the
+	 * vector's iteration order, with the vector's weights
+	 */
+	public TermStats getTermStats(FeatureVector fv) {
+		int n = fv.getFeatureCount();
+		String[] terms = new String[n];
+		double[] weights = new double[n];
+		Iterator<String> it = fv.iterator();
+		for (int i = 0; i < n; i++) {
+			terms[i] = it.next();
+			weights[i] = fv.getFeatureWeight(terms[i]);
+		}
+		return getTermStats(terms, weights);
+	}
+
+	/**
+	 * Statistics for the given terms, looked up in one call
+	 */
+	public TermStats getTermStats(String[] terms, double[] weights) {
+		double[] termCounts = new double[terms.length];
+		double[] docCounts = new double[terms.length];
+		getTermCounts(terms, termCounts, docCounts);
+		return new TermStats(terms, weights, termCounts, docCounts);
+	}
+
+	/**
+	 * Fills in the collection and document frequencies of several terms.
+	 * Implementations that can resolve terms in bulk should override this.
+	 */
+	protected void getTermCounts(String[] terms, double[] termCounts, double[] docCounts) {
+		for (int i = 0; i < terms.length; i++) {
+			termCounts[i] = termCount(terms[i]);
+			docCounts[i] = docCount(terms[i]);
+		}
+	}
+
 	public double getTokCount() {
 		return tokCount;
 	}
-	
+
 	public double getDocCount() {
 		return docCount;
 	}
-	
+
 	public double getTermTypeCount() {
 	    return termTypeCount;
 	}
-	
+
 }
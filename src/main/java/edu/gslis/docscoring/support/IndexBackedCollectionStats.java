@@ -3,6 +3,7 @@ package edu.gslis.docscoring.support;
 
 import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.indexes.IndexWrapperFactory;
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
 
 
 public class IndexBackedCollectionStats extends CollectionStats {	
@@ -27,6 +28,14 @@ public class IndexBackedCollectionStats extends CollectionStats {
 	public double docCount(String term) {
 		return index.docFreq(term);
 	}
+
+	@Override
+	protected void getTermCounts(String[] terms, double[] termCounts, double[] docCounts) {
+		if (index instanceof IndexWrapperLuceneImpl)
+			((IndexWrapperLuceneImpl)index).getTermStats(terms, docCounts, termCounts);
+		else
+			super.getTermCounts(terms, termCounts, docCounts);
+	}
 	
 	private void initialize() {
 		tokCount = index.termCount();
@@ -7,6 +7,9 @@ import edu.gslis.indexes.IndexWrapperLuceneImpl;
 
 public class IndexBackedCollectionStatsLucene extends CollectionStats {	
 	protected IndexWrapper index;
+	// The vocabulary size may need a walk over the terms dictionary, so it
+	// is looked up on first request
+	private volatile boolean termTypeCountKnown = false;
 	
 	public void setStatSource(String statSource) {
 		this.index = new IndexWrapperLuceneImpl(statSource);
@@ -18,6 +21,15 @@ public class IndexBackedCollectionStatsLucene extends CollectionStats {
 		initialize();
 	}
 
+	@Override
+	public double getTermTypeCount() {
+		if (!termTypeCountKnown) {
+			termTypeCount = index.termTypeCount();
+			termTypeCountKnown = true;
+		}
+		return termTypeCount;
+	}
+
 	@Override
 	public double termCount(String term) {
 		return index.termFreq(term);
@@ -27,12 +39,20 @@ public class IndexBackedCollectionStatsLucene extends CollectionStats {
 	public double docCount(String term) {
 		return index.docFreq(term);
 	}
+
+	@Override
+	protected void getTermCounts(String[] terms, double[] termCounts, double[] docCounts) {
+		if (index instanceof IndexWrapperLuceneImpl)
+			((IndexWrapperLuceneImpl)index).getTermStats(terms, docCounts, termCounts);
+		else
+			super.getTermCounts(terms, termCounts, docCounts);
+	}
 		
 	
 	private void initialize() {
 		tokCount = index.termCount();
 		docCount = index.docCount();
-		termTypeCount = index.termTypeCount();
+		termTypeCountKnown = false;
 	}
 
 
@@ -0,0 +1,263 @@
+package edu.gslis.docscoring.support;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+
+/**
+ * Collection statistics read from a memory-mapped binary term dictionary
+ * written by MappedCollectionStatsWriter.
+ *
+ * Nothing is loaded onto the heap: lookups binary search the block index and
+ * scan one block of front-coded terms in the mapped file, then read cf and
+ * df from the packed arrays. Opening is immediate, and JVMs mapping the same
+ * file share its pages through the OS page cache.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header    magic, version, tokCount, docCount, termTypeCount, numTerms,
+ *           blockSize, cfBytes, dfBytes, maxTermLength, blocksOffset,
+ *           indexOffset, numBlocks, cfOffset, dfOffset
+ * blocks    blockSize terms each, UTF-8 byte order; the first term is
+ *           vint length + bytes, the others vint prefix + vint suffix
+ *           length + suffix bytes
+ * index     numBlocks longs, block offsets relative to blocksOffset
+ * cf, df    numTerms signed values of cfBytes / dfBytes bytes each, by term
+ *           ordinal
+ * </pre>
+ *
+ * Lookups are thread-safe.
+ */
+public class MappedCollectionStats extends CollectionStats {
+	public static final int MAGIC = 0x54534431; // TSD1
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 4 + 4 + 8 * 3 + 8 + 4 * 4 + 8 * 5;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	static final int CHUNK_BITS = 30;
+	static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	MappedByteBuffer[] chunks;
+	long numTerms;
+	int blockSize;
+	int cfBytes;
+	int dfBytes;
+	int maxTermLength;
+	long blocksOffset;
+	long indexOffset;
+	long numBlocks;
+	long cfOffset;
+	long dfOffset;
+
+	public MappedCollectionStats() {
+	}
+
+	public MappedCollectionStats(String statSource) throws IOException {
+		open(statSource);
+	}
+
+	public void setStatSource(String statSource) {
+		try {
+			open(statSource);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void open(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException("Not a term statistics file: " + path);
+			int numChunks = (int)((size + CHUNK_MASK) >>> CHUNK_BITS);
+			chunks = new MappedByteBuffer[numChunks];
+			for (int i = 0; i < numChunks; i++) {
+				long start = (long)i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(1L << CHUNK_BITS, size - start));
+			}
+		} finally {
+			// The mapping stays valid after the channel is closed
+			file.close();
+		}
+
+		long pos = 0;
+		if (readInt(pos) != MAGIC)
+			throw new IOException("Not a term statistics file: " + path);
+		if (readInt(pos + 4) != VERSION)
+			throw new IOException("Unsupported term statistics version " + readInt(pos + 4) + ": " + path);
+		pos += 8;
+		tokCount = Double.longBitsToDouble(readLong(pos));
+		docCount = Double.longBitsToDouble(readLong(pos + 8));
+		termTypeCount = Double.longBitsToDouble(readLong(pos + 16));
+		numTerms = readLong(pos + 24);
+		pos += 32;
+		blockSize = readInt(pos);
+		cfBytes = readInt(pos + 4);
+		dfBytes = readInt(pos + 8);
+		maxTermLength = readInt(pos + 12);
+		pos += 16;
+		blocksOffset = readLong(pos);
+		indexOffset = readLong(pos + 8);
+		numBlocks = readLong(pos + 16);
+		cfOffset = readLong(pos + 24);
+		dfOffset = readLong(pos + 32);
+	}
+
+	@Override
+	public double termCount(String term) {
+		long ord = getOrdinal(term);
+		return (ord < 0) ? 0 : readSigned(cfOffset, cfBytes, ord);
+	}
+
+	@Override
+	public double docCount(String term) {
+		long ord = getOrdinal(term);
+		return (ord < 0) ? 0 : readSigned(dfOffset, dfBytes, ord);
+	}
+
+	/**
+	 * Number of terms in the dictionary
+	 */
+	public long size() {
+		return numTerms;
+	}
+
+	/**
+	 * Returns the ordinal of the term (its position in UTF-8 byte order),
+	 * or -1 if it isn't in the dictionary
+	 */
+	public long getOrdinal(String term) {
+		byte[] target = term.getBytes(UTF8);
+		if (numBlocks == 0 || target.length > maxTermLength)
+			return -1;
+
+		// Last block whose first term is <= target
+		long lo = 0;
+		long hi = numBlocks - 1;
+		while (lo < hi) {
+			long mid = (lo + hi + 1) >>> 1;
+			if (compareFirstTerm(mid, target) <= 0)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		// Scan the block
+		long pos = blocksOffset + readLong(indexOffset + 8 * lo);
+		long ord = lo * blockSize;
+		long end = Math.min(numTerms, ord + blockSize);
+		byte[] current = new byte[maxTermLength];
+		int length = 0;
+		long[] vint = new long[2];
+		for (; ord < end; ord++) {
+			int prefix = 0;
+			if (ord % blockSize != 0) {
+				pos = readVInt(pos, vint);
+				prefix = (int)vint[0];
+			}
+			pos = readVInt(pos, vint);
+			int suffix = (int)vint[0];
+			for (int i = 0; i < suffix; i++)
+				current[prefix + i] = readByte(pos + i);
+			pos += suffix;
+			length = prefix + suffix;
+
+			int cmp = compare(current, length, target);
+			if (cmp == 0)
+				return ord;
+			if (cmp > 0)
+				break;
+		}
+		return -1;
+	}
+
+	private int compareFirstTerm(long block, byte[] target) {
+		long pos = blocksOffset + readLong(indexOffset + 8 * block);
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = readByte(pos++);
+			length |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		int n = Math.min(length, target.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (readByte(pos + i) & 0xff) - (target[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return length - target.length;
+	}
+
+	static int compare(byte[] term, int length, byte[] target) {
+		int n = Math.min(length, target.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (term[i] & 0xff) - (target[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return length - target.length;
+	}
+
+	private byte readByte(long pos) {
+		return chunks[(int)(pos >>> CHUNK_BITS)].get((int)(pos & CHUNK_MASK));
+	}
+
+	private int readInt(long pos) {
+		int i = (int)(pos & CHUNK_MASK);
+		MappedByteBuffer chunk = chunks[(int)(pos >>> CHUNK_BITS)];
+		if (i + 4 <= chunk.limit())
+			return chunk.getInt(i);
+		return (int)readPacked(pos, 4, 0);
+	}
+
+	private long readLong(long pos) {
+		int i = (int)(pos & CHUNK_MASK);
+		MappedByteBuffer chunk = chunks[(int)(pos >>> CHUNK_BITS)];
+		if (i + 8 <= chunk.limit())
+			return chunk.getLong(i);
+		return readPacked(pos, 8, 0);
+	}
+
+	/**
+	 * Reads the big-endian value of the given width at index i
+	 */
+	private long readPacked(long offset, int width, long i) {
+		long pos = offset + i * width;
+		long value = 0;
+		for (int b = 0; b < width; b++)
+			value = (value << 8) | (readByte(pos + b) & 0xff);
+		return value;
+	}
+
+	/**
+	 * Reads the sign-extended value of the given width at index i
+	 */
+	private long readSigned(long offset, int width, long i) {
+		int shift = 64 - 8 * width;
+		return (readPacked(offset, width, i) << shift) >> shift;
+	}
+
+	/**
+	 * Reads a vint into value[0], returns the position after it
+	 */
+	private long readVInt(long pos, long[] value) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = readByte(pos++);
+			v |= (long)(b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		value[0] = v;
+		return pos;
+	}
+}
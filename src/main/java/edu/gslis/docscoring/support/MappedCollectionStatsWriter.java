@@ -0,0 +1,548 @@
+package edu.gslis.docscoring.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+
+
+/**
+ * Writes the binary term dictionary read by MappedCollectionStats. Terms
+ * must be added in increasing UTF-8 byte order (Lucene term order); cf and
+ * df are spooled to temporary files and packed when the writer is finished,
+ * so memory use doesn't grow with the vocabulary.
+ *
+ * The converters read Indri dumpindex output (the InMemoryCollectionStats
+ * format), LuceneDumpIndex vocabulary output, or a Lucene index. The text
+ * formats need not be sorted: they are sorted in runs of bounded size,
+ * spooled to temporary files next to the output and merged. A repeated term
+ * keeps its last value, as in InMemoryCollectionStats.
+ */
+public class MappedCollectionStatsWriter {
+	public static final int DEFAULT_BLOCK_SIZE = 32;
+	public static final String FORMAT_DUMPINDEX = "dumpindex";
+	public static final String FORMAT_VOCABULARY = "vocabulary";
+	public static final String FORMAT_LUCENE = "lucene";
+
+	// Terms sorted in memory at a time by the text converters
+	static final int RUN_SIZE = 1 << 20;
+
+	static final Pattern SPACE_PATTERN = Pattern.compile(" ");
+	static final Pattern TAB_PATTERN = Pattern.compile("\t");
+
+	File file;
+	File cfFile;
+	File dfFile;
+	DataOutputStream out;
+	DataOutputStream cfOut;
+	DataOutputStream dfOut;
+	int blockSize;
+
+	long position;
+	long numTerms = 0;
+	long maxCf = 0;
+	long maxDf = 0;
+	long minCf = 0;
+	long minDf = 0;
+	long sumCf = 0;
+	int maxTermLength = 0;
+	byte[] lastTerm = new byte[0];
+	long[] blockOffsets = new long[1024];
+	int numBlocks = 0;
+
+	public MappedCollectionStatsWriter(String path) throws IOException {
+		this(path, DEFAULT_BLOCK_SIZE);
+	}
+
+	public MappedCollectionStatsWriter(String path, int blockSize) throws IOException {
+		this.blockSize = blockSize;
+		file = new File(path);
+		cfFile = new File(path + ".cf.tmp");
+		dfFile = new File(path + ".df.tmp");
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		cfOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cfFile), 1 << 16));
+		dfOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dfFile), 1 << 16));
+
+		// Header is written by finish
+		out.write(new byte[MappedCollectionStats.HEADER_SIZE]);
+		position = MappedCollectionStats.HEADER_SIZE;
+	}
+
+	public void add(String term, long cf, long df) throws IOException {
+		add(term.getBytes(MappedCollectionStats.UTF8), cf, df);
+	}
+
+	/**
+	 * Adds a term, given as UTF-8 bytes greater than the previous term
+	 */
+	public void add(byte[] term, long cf, long df) throws IOException {
+		if (numTerms > 0 && MappedCollectionStats.compare(lastTerm, lastTerm.length, term) >= 0)
+			throw new IllegalArgumentException("Terms out of order: " + new String(term, MappedCollectionStats.UTF8));
+
+		if (numTerms % blockSize == 0) {
+			if (numBlocks == blockOffsets.length) {
+				long[] grown = new long[blockOffsets.length * 2];
+				System.arraycopy(blockOffsets, 0, grown, 0, numBlocks);
+				blockOffsets = grown;
+			}
+			blockOffsets[numBlocks++] = position - MappedCollectionStats.HEADER_SIZE;
+			writeVInt(term.length);
+			write(term, 0, term.length);
+		} else {
+			int prefix = 0;
+			int max = Math.min(lastTerm.length, term.length);
+			while (prefix < max && lastTerm[prefix] == term[prefix])
+				prefix++;
+			writeVInt(prefix);
+			writeVInt(term.length - prefix);
+			write(term, prefix, term.length - prefix);
+		}
+
+		cfOut.writeLong(cf);
+		dfOut.writeLong(df);
+		maxCf = Math.max(maxCf, cf);
+		maxDf = Math.max(maxDf, df);
+		minCf = Math.min(minCf, cf);
+		minDf = Math.min(minDf, df);
+		sumCf += cf;
+		maxTermLength = Math.max(maxTermLength, term.length);
+		lastTerm = term;
+		numTerms++;
+	}
+
+	/**
+	 * Writes the block index, the packed cf/df arrays and the header, and
+	 * closes the file
+	 */
+	public void finish(double tokCount, double docCount, double termTypeCount) throws IOException {
+		cfOut.close();
+		dfOut.close();
+
+		long indexOffset = position;
+		for (int i = 0; i < numBlocks; i++)
+			out.writeLong(blockOffsets[i]);
+		position += 8L * numBlocks;
+
+		int cfBytes = bytesPerValue(minCf, maxCf);
+		int dfBytes = bytesPerValue(minDf, maxDf);
+		long cfOffset = position;
+		pack(cfFile, cfBytes);
+		long dfOffset = position;
+		pack(dfFile, dfBytes);
+		out.close();
+		cfFile.delete();
+		dfFile.delete();
+
+		RandomAccessFile header = new RandomAccessFile(file, "rw");
+		try {
+			header.writeInt(MappedCollectionStats.MAGIC);
+			header.writeInt(MappedCollectionStats.VERSION);
+			header.writeDouble(tokCount);
+			header.writeDouble(docCount);
+			header.writeDouble(termTypeCount);
+			header.writeLong(numTerms);
+			header.writeInt(blockSize);
+			header.writeInt(cfBytes);
+			header.writeInt(dfBytes);
+			header.writeInt(maxTermLength);
+			header.writeLong(MappedCollectionStats.HEADER_SIZE);
+			header.writeLong(indexOffset);
+			header.writeLong(numBlocks);
+			header.writeLong(cfOffset);
+			header.writeLong(dfOffset);
+		} finally {
+			header.close();
+		}
+	}
+
+	public long getTermCount() {
+		return numTerms;
+	}
+
+	/**
+	 * Bytes needed to store values in [min, max] in two's complement
+	 */
+	private static int bytesPerValue(long min, long max) {
+		int bits = 65 - Math.min(Long.numberOfLeadingZeros(max), Long.numberOfLeadingZeros(min < 0 ? ~min : 0));
+		return Math.min(8, (bits + 7) / 8);
+	}
+
+	private void pack(File values, int width) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(values), 1 << 16));
+		try {
+			for (long i = 0; i < numTerms; i++) {
+				long value = in.readLong();
+				for (int b = width - 1; b >= 0; b--)
+					out.write((int)(value >>> (8 * b)));
+			}
+		} finally {
+			in.close();
+		}
+		position += (long)width * numTerms;
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		out.write(bytes, offset, length);
+		position += length;
+	}
+
+	private void writeVInt(long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int)((value & 0x7f) | 0x80));
+			value >>>= 7;
+			position++;
+		}
+		out.write((int)value);
+		position++;
+	}
+
+	/**
+	 * Converts Indri dumpindex output: a header line with the total term and
+	 * document counts, then "term cf df" lines
+	 */
+	public static long fromDumpIndex(String input, String output) throws IOException {
+		return fromDumpIndex(input, output, RUN_SIZE);
+	}
+
+	static long fromDumpIndex(String input, String output, int runSize) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), "UTF-8"));
+		TermSorter sorter = new TermSorter(new File(output), runSize);
+		try {
+			String line = reader.readLine();
+			if (line == null)
+				throw new IOException("Empty dumpindex file: " + input);
+			String[] toks = SPACE_PATTERN.split(line);
+			double tokCount = Double.parseDouble(toks[1]);
+			double docCount = Double.parseDouble(toks[2]);
+
+			while ((line = reader.readLine()) != null) {
+				toks = SPACE_PATTERN.split(line);
+				if (toks.length != 3)
+					continue;
+				sorter.add(new TermEntry(toks[0], Long.parseLong(toks[1]), Long.parseLong(toks[2])));
+			}
+
+			MappedCollectionStatsWriter writer = new MappedCollectionStatsWriter(output);
+			sorter.writeTo(writer);
+			writer.finish(tokCount, docCount, writer.getTermCount());
+			return writer.getTermCount();
+		} finally {
+			reader.close();
+			sorter.close();
+		}
+	}
+
+	/**
+	 * Converts LuceneDumpIndex vocabulary output ("term\tdf" lines). The
+	 * dump has no collection frequencies or totals: cf is set to df, the
+	 * total term count to the sum of cf, and the document count to docCount
+	 * (or the largest df if docCount is 0).
+	 */
+	public static long fromVocabulary(String input, String output, double docCount) throws IOException {
+		return fromVocabulary(input, output, docCount, RUN_SIZE);
+	}
+
+	static long fromVocabulary(String input, String output, double docCount, int runSize) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), "UTF-8"));
+		TermSorter sorter = new TermSorter(new File(output), runSize);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] toks = TAB_PATTERN.split(line);
+				if (toks.length != 2)
+					continue;
+				long df = Long.parseLong(toks[1]);
+				sorter.add(new TermEntry(toks[0], df, df));
+			}
+
+			MappedCollectionStatsWriter writer = new MappedCollectionStatsWriter(output);
+			sorter.writeTo(writer);
+			if (docCount <= 0) {
+				System.err.println("No document count given, using the largest df");
+				docCount = writer.maxDf;
+			}
+			writer.finish(writer.sumCf, docCount, writer.getTermCount());
+			return writer.getTermCount();
+		} finally {
+			reader.close();
+			sorter.close();
+		}
+	}
+
+	/**
+	 * Converts the term statistics of a Lucene index. With a field, only that
+	 * field's terms are written; otherwise cf and df are summed over all
+	 * fields, as IndexWrapperLuceneImpl.termFreq(term) and docFreq(term) do
+	 * (including the cf of -1 of fields that don't record frequencies).
+	 */
+	public static long fromIndex(IndexWrapperLuceneImpl index, String field, String output) throws IOException {
+		IndexReader reader = (IndexReader)index.getActualIndex();
+		Fields fields = MultiFields.getFields(reader);
+
+		// Merge the sorted term lists of the fields
+		PriorityQueue<FieldTerms> queue = new PriorityQueue<FieldTerms>();
+		if (fields != null) {
+			for (String name : fields) {
+				if (field != null && !field.equals(name))
+					continue;
+				Terms terms = fields.terms(name);
+				if (terms == null)
+					continue;
+				FieldTerms fieldTerms = new FieldTerms(terms.iterator());
+				if (fieldTerms.next())
+					queue.add(fieldTerms);
+			}
+		}
+
+		MappedCollectionStatsWriter writer = new MappedCollectionStatsWriter(output);
+		while (!queue.isEmpty()) {
+			BytesRef term = BytesRef.deepCopyOf(queue.peek().term);
+			long cf = 0;
+			long df = 0;
+			while (!queue.isEmpty() && queue.peek().term.bytesEquals(term)) {
+				FieldTerms fieldTerms = queue.poll();
+				cf += fieldTerms.termsEnum.totalTermFreq();
+				df += fieldTerms.termsEnum.docFreq();
+				if (fieldTerms.next())
+					queue.add(fieldTerms);
+			}
+			writer.add(Arrays.copyOfRange(term.bytes, term.offset, term.offset + term.length), cf, df);
+		}
+
+		double termTypeCount = (field == null) ? index.termTypeCount() : index.termTypeCount(field);
+		double tokCount = (field == null) ? index.termCount() : reader.getSumTotalTermFreq(field);
+		writer.finish(tokCount, index.docCount(), termTypeCount);
+		return writer.getTermCount();
+	}
+
+	static class TermEntry {
+		byte[] term;
+		long cf;
+		long df;
+
+		TermEntry(String term, long cf, long df) {
+			this(term.getBytes(MappedCollectionStats.UTF8), cf, df);
+		}
+
+		TermEntry(byte[] term, long cf, long df) {
+			this.term = term;
+			this.cf = cf;
+			this.df = df;
+		}
+	}
+
+	static final Comparator<TermEntry> TERM_ORDER = new Comparator<TermEntry>() {
+		public int compare(TermEntry e1, TermEntry e2) {
+			return MappedCollectionStats.compare(e1.term, e1.term.length, e2.term);
+		}
+	};
+
+	/**
+	 * External merge sort of term entries in UTF-8 byte order. Entries are
+	 * sorted runSize at a time (stable, so repeated terms stay in input
+	 * order) and spooled to temporary files, which are merged by term and
+	 * then run number. Of a repeated term, only the last entry is written.
+	 * Input that fits in one run never touches the disk.
+	 */
+	static class TermSorter {
+		File dir;
+		int runSize;
+		List<TermEntry> run = new ArrayList<TermEntry>();
+		List<File> runFiles = new ArrayList<File>();
+
+		TermSorter(File output, int runSize) {
+			this.dir = output.getAbsoluteFile().getParentFile();
+			this.runSize = runSize;
+		}
+
+		void add(TermEntry entry) throws IOException {
+			run.add(entry);
+			if (run.size() >= runSize)
+				spill();
+		}
+
+		private void spill() throws IOException {
+			Collections.sort(run, TERM_ORDER);
+			File runFile = File.createTempFile("terms", ".run", dir);
+			runFiles.add(runFile);
+			DataOutputStream runOut = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16));
+			try {
+				runOut.writeInt(run.size());
+				for (TermEntry entry : run) {
+					runOut.writeInt(entry.term.length);
+					runOut.write(entry.term);
+					runOut.writeLong(entry.cf);
+					runOut.writeLong(entry.df);
+				}
+			} finally {
+				runOut.close();
+			}
+			run.clear();
+		}
+
+		void writeTo(MappedCollectionStatsWriter writer) throws IOException {
+			TermEntry last = null;
+			if (runFiles.isEmpty()) {
+				Collections.sort(run, TERM_ORDER);
+				for (TermEntry entry : run)
+					last = writeLast(writer, last, entry);
+			} else {
+				if (!run.isEmpty())
+					spill();
+				List<RunReader> readers = new ArrayList<RunReader>();
+				PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+				try {
+					for (int i = 0; i < runFiles.size(); i++) {
+						RunReader reader = new RunReader(runFiles.get(i), i);
+						readers.add(reader);
+						if (reader.next())
+							queue.add(reader);
+					}
+					while (!queue.isEmpty()) {
+						RunReader reader = queue.poll();
+						last = writeLast(writer, last, reader.entry);
+						if (reader.next())
+							queue.add(reader);
+					}
+				} finally {
+					for (RunReader reader : readers)
+						reader.close();
+				}
+			}
+			if (last != null)
+				writer.add(last.term, last.cf, last.df);
+		}
+
+		/**
+		 * Writes the pending entry unless the next one repeats its term, in
+		 * which case the next replaces it. Returns the new pending entry.
+		 */
+		private static TermEntry writeLast(MappedCollectionStatsWriter writer, TermEntry last,
+				TermEntry entry) throws IOException {
+			if (last != null && TERM_ORDER.compare(last, entry) != 0)
+				writer.add(last.term, last.cf, last.df);
+			return entry;
+		}
+
+		void close() {
+			run.clear();
+			for (File runFile : runFiles)
+				runFile.delete();
+			runFiles.clear();
+		}
+	}
+
+	static class RunReader implements Comparable<RunReader> {
+		DataInputStream in;
+		int number;
+		int remaining;
+		TermEntry entry;
+
+		RunReader(File runFile, int number) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+			this.number = number;
+			remaining = in.readInt();
+		}
+
+		boolean next() throws IOException {
+			if (remaining == 0)
+				return false;
+			remaining--;
+			byte[] term = new byte[in.readInt()];
+			in.readFully(term);
+			entry = new TermEntry(term, in.readLong(), in.readLong());
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		public int compareTo(RunReader other) {
+			int cmp = TERM_ORDER.compare(entry, other.entry);
+			return (cmp != 0) ? cmp : number - other.number;
+		}
+	}
+
+	static class FieldTerms implements Comparable<FieldTerms> {
+		TermsEnum termsEnum;
+		BytesRef term;
+
+		FieldTerms(TermsEnum termsEnum) {
+			this.termsEnum = termsEnum;
+		}
+
+		boolean next() throws IOException {
+			term = termsEnum.next();
+			return term != null;
+		}
+
+		public int compareTo(FieldTerms other) {
+			return term.compareTo(other.term);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption("input", true, "Text file or index path");
+		options.addOption("format", true, "Input format: dumpindex, vocabulary or lucene (default: dumpindex)");
+		options.addOption("field", true, "Field to convert (lucene only, default: all)");
+		options.addOption("docs", true, "Number of documents (vocabulary only)");
+		options.addOption("output", true, "Binary term statistics file");
+		options.addOption("help", false, "Print this help message");
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cl = parser.parse(options, args);
+		if (args.length == 0 || cl.hasOption("help") || !cl.hasOption("input") || !cl.hasOption("output")) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp(MappedCollectionStatsWriter.class.getCanonicalName(), options);
+			return;
+		}
+
+		String input = cl.getOptionValue("input");
+		String output = cl.getOptionValue("output");
+		String format = cl.getOptionValue("format", FORMAT_DUMPINDEX);
+		long start = System.currentTimeMillis();
+		long count;
+		if (format.equals(FORMAT_LUCENE)) {
+			IndexWrapperLuceneImpl index = new IndexWrapperLuceneImpl(input);
+			count = fromIndex(index, cl.getOptionValue("field"), output);
+		} else if (format.equals(FORMAT_VOCABULARY)) {
+			count = fromVocabulary(input, output, Double.parseDouble(cl.getOptionValue("docs", "0")));
+		} else if (format.equals(FORMAT_DUMPINDEX)) {
+			count = fromDumpIndex(input, output);
+		} else {
+			throw new Exception("Unsupported format: " + format);
+		}
+		System.err.println("Wrote " + count + " terms in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,69 @@
+package edu.gslis.docscoring.support;
+
+
+/**
+ * Collection statistics for a fixed list of terms (e.g. the terms of a query
+ * or expansion model), in parallel arrays indexed by term position.
+ *
+ * Built once per query by CollectionStats.getTermStats, so scorers can read
+ * statistics by position instead of going back to the collection for every
+ * document.
+ */
+public class TermStats {
+	protected String[] terms;
+	protected double[] weights;
+	protected double[] termCounts;
+	protected double[] docCounts;
+
+	public TermStats(String[] terms, double[] weights, double[] termCounts, double[] docCounts) {
+		this.terms = terms;
+		this.weights = weights;
+		this.termCounts = termCounts;
+		this.docCounts = docCounts;
+	}
+
+	public int size() {
+		return terms.length;
+	}
+
+	public String getTerm(int i) {
+		return terms[i];
+	}
+
+	/**
+	 * Weight of the term in the query model
+	 */
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * Collection frequency of the term
+	 */
+	public double termCount(int i) {
+		return termCounts[i];
+	}
+
+	/**
+	 * Document frequency of the term
+	 */
+	public double docCount(int i) {
+		return docCounts[i];
+	}
+
+	public String[] getTerms() {
+		return terms;
+	}
+
+	public double[] getWeights() {
+		return weights;
+	}
+
+	public double[] getTermCounts() {
+		return termCounts;
+	}
+
+	public double[] getDocCounts() {
+		return docCounts;
+	}
+}
@@ -1,5 +1,6 @@
 package edu.gslis.filtering.session;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -53,15 +54,8 @@ public class SimpleFilterSessionImpl implements FilterSession {
 		List<UnscoredSearchHit> trainingAccumulated = accumulator.getChronologicallyOrderedDocs();
 		
 
-		SearchHits trainingHits = new SearchHits();
-		Iterator<UnscoredSearchHit> docIterator = trainingAccumulated.iterator();
-		while(docIterator.hasNext()) {
-			UnscoredSearchHit unscoredHit = docIterator.next();
-			SearchHit hit = unscoredHit.toSearchHit();
-			double score = scorer.score(hit);
-			hit.setScore(score);
-			trainingHits.add(hit); 
-		}	
+		SearchHits trainingHits = toSearchHits(trainingAccumulated);
+		scorer.scoreAll(trainingHits);
 		
 		
 		optimizer.init(query.getTitle(), trainingHits, trainQrels);
@@ -76,18 +70,15 @@ public class SimpleFilterSessionImpl implements FilterSession {
 		List<UnscoredSearchHit> testingAccumulated = accumulator.getChronologicallyOrderedDocs();
 		
 
+		SearchHits testingHits = toSearchHits(testingAccumulated);
+		double[] scores = scorer.scoreAll(testingHits);
+
 		SearchHits testingEmitted = new SearchHits();
-		Iterator<UnscoredSearchHit> docIterator = testingAccumulated.iterator();
-		while(docIterator.hasNext()) {
-			UnscoredSearchHit unscoredHit = docIterator.next();
-			SearchHit hit = unscoredHit.toSearchHit();
-			double score = scorer.score(hit);
-			hit.setScore(score);
-			
-			if(Double.isInfinite(thresholder.getThreshold()) || thresholder.emit(score))
+		Iterator<SearchHit> hitIterator = testingHits.iterator();
+		for (int i = 0; hitIterator.hasNext(); i++) {
+			SearchHit hit = hitIterator.next();
+			if(Double.isInfinite(thresholder.getThreshold()) || thresholder.emit(scores[i]))
 				testingEmitted.add(hit); 
-			
-			
 		}	
 		
 		System.err.println("accumulated: " + testingAccumulated.size() + 
@@ -97,4 +88,11 @@ public class SimpleFilterSessionImpl implements FilterSession {
 		return testingEmitted;
 	}
 
+	private static SearchHits toSearchHits(List<UnscoredSearchHit> accumulated) {
+		SearchHits hits = new SearchHits(new ArrayList<SearchHit>(accumulated.size()));
+		for (UnscoredSearchHit unscoredHit: accumulated)
+			hits.add(unscoredHit.toSearchHit());
+		return hits;
+	}
+
 }
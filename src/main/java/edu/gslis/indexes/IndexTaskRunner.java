@@ -0,0 +1,88 @@
+package edu.gslis.indexes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs tasks that read an index, on up to a given number of threads.
+ *
+ * Tasks only run concurrently if the index is thread-safe (see
+ * IndexWrapper.isThreadSafe); otherwise, or with one thread, they run in
+ * turn on the calling thread. The pool is created on first use and reused
+ * across calls. Its threads are daemons, so the JVM can exit without the
+ * runner being shut down.
+ */
+public class IndexTaskRunner {
+	int threads;
+	ExecutorService executor;
+
+	/**
+	 * @param threads
+	 *            Maximum number of tasks run at once
+	 */
+	public IndexTaskRunner(int threads) {
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Runs the tasks and returns their results in task order
+	 */
+	public <T> List<T> invokeAll(IndexWrapper index, List<? extends Callable<T>> tasks)
+			throws Exception
+	{
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (threads > 1 && tasks.size() > 1 && index.isThreadSafe()) {
+			try {
+				for (Future<T> future: getExecutor().invokeAll(tasks))
+					results.add(future.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception)e.getCause();
+				throw e;
+			}
+		} else {
+			for (Callable<T> task: tasks)
+				results.add(task.call());
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the pool's threads once their tasks are done
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null)
+			executor = newDaemonPool(threads);
+		return executor;
+	}
+
+	/**
+	 * Fixed pool of daemon threads
+	 */
+	public static ExecutorService newDaemonPool(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -8,6 +8,9 @@ import edu.gslis.queries.GQuery;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.PositionalDocument;
+import edu.gslis.textrepresentation.TermPositions;
+import edu.gslis.textrepresentation.Vocabulary;
 import edu.gslis.utils.Stopper;
 
 
@@ -48,6 +51,23 @@ public interface IndexWrapper {
 	
 	public void setTimeFieldName(String field);
 	
+	/**
+	 * When set, getDocVector returns InternedFeatureVectors keyed by
+	 * term ids in the specified vocabulary. Null restores plain vectors.
+	 * @param vocabulary Shared vocabulary, or null
+	 */
+	public void setVocabulary(Vocabulary vocabulary);
+	
+	/**
+	 * Whether queries and document reads may be issued from several threads
+	 * at once. Callers that fan work out over threads should stay on one
+	 * thread when this is false.
+	 * @return true if the wrapper is safe for concurrent use
+	 */
+	public default boolean isThreadSafe() {
+		return false;
+	}
+	
 	/**
 	 * Returns the text for the specified document id
 	 * @param docid Document ID
@@ -64,6 +84,26 @@ public interface IndexWrapper {
 	 */
 	public List<String> getDocTerms (int docid);
 	
+	/**
+	 * Returns the terms of the document by position as ids into a 
+	 * per-document dictionary. Preferred over getDocTerms for 
+	 * proximity-based models.
+	 * 
+	 * @param docid Document ID
+	 * @return positional document
+	 */
+	public PositionalDocument getPositionalDocument (int docid);
+	
+	/**
+	 * Returns the positions of the specified terms in the document, in
+	 * getPositionalDocument coordinates
+	 * 
+	 * @param docid Document ID
+	 * @param terms Terms of interest
+	 * @return term positions and document length
+	 */
+	public TermPositions getTermPositions (int docid, String[] terms);
+	
 	/**
 	 * Returns a map of docids to df for the given term
 	 * @param term Term
@@ -16,6 +16,9 @@ public class IndexWrapperFactory {
         if (manifest.exists()) {
             return new IndexWrapperIndriImpl(path);
         }
+        else if (IndexWrapperShardedLuceneImpl.isSharded(path)) {
+            return new IndexWrapperShardedLuceneImpl(path);
+        }
         else {
             return new IndexWrapperLuceneImpl(path);
         }
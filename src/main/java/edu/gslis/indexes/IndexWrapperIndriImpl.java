@@ -16,6 +16,9 @@ import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 import edu.gslis.textrepresentation.FeatureVector;
 import edu.gslis.textrepresentation.IndriDocument;
+import edu.gslis.textrepresentation.PositionalDocument;
+import edu.gslis.textrepresentation.TermPositions;
+import edu.gslis.textrepresentation.Vocabulary;
 import edu.gslis.utils.Stopper;
 import lemurproject.indri.QueryEnvironment;
 import lemurproject.indri.ScoredExtentResult;
@@ -30,6 +33,7 @@ public class IndexWrapperIndriImpl implements IndexWrapper{
 	private double vocabularySize = -1.0;
 	private double docLengthAvg   = -1.0;
 	private String timeFieldName  = null;
+	private Vocabulary vocabulary = null;
 	
 	private String defaultScoringRule = "method:dirichlet,mu:2500";
 	
@@ -174,6 +178,10 @@ public class IndexWrapperIndriImpl implements IndexWrapper{
 		this.timeFieldName = timeFieldName;
 	}
 
+	public void setVocabulary(Vocabulary vocabulary) {
+		this.vocabulary = vocabulary;
+	}
+
 	public double docCount() {
 		try {
 			return (double)index.documentCount();
@@ -220,7 +228,7 @@ public class IndexWrapperIndriImpl implements IndexWrapper{
 
 	public FeatureVector getDocVector(int docID, Stopper stopper) {
 		IndriDocument doc = new IndriDocument(index);
-		return doc.getFeatureVector(docID, stopper);
+		return doc.getFeatureVector(docID, stopper, vocabulary);
 	}
 
 	public FeatureVector getDocVector(String docno, Stopper stopper) {
@@ -318,6 +326,15 @@ public class IndexWrapperIndriImpl implements IndexWrapper{
        return doc.getTerms(docid);
    }
    
+   public PositionalDocument getPositionalDocument(int docid) {
+       IndriDocument doc = new IndriDocument(index);
+       return doc.getPositionalDocument(docid);
+   }
+   
+   public TermPositions getTermPositions(int docid, String[] terms) {
+       return TermPositions.fromDocument(getPositionalDocument(docid), terms);
+   }
+   
    public Map<Integer, Integer> getDocsByTerm(String term, Set<Integer> docids) {
        
        Map<Integer, Integer> df = new HashMap<Integer, Integer>();
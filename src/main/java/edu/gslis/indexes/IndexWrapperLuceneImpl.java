@@ -6,31 +6,38 @@ import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.StopwordAnalyzerBase;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -38,24 +45,36 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 
+import edu.gslis.docscoring.QueryDocScorer;
+import edu.gslis.docscoring.QueryKernel;
+import edu.gslis.docscoring.ScorerBM25;
 import edu.gslis.docscoring.ScorerDirichlet;
+import edu.gslis.docscoring.ScorerDirichletKL;
 import edu.gslis.docscoring.support.CollectionStats;
 import edu.gslis.docscoring.support.IndexBackedCollectionStatsLucene;
 import edu.gslis.lucene.indexer.Indexer;
+import edu.gslis.lucene.indexer.PositionGapsField;
 import edu.gslis.queries.GQuery;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.searchhits.SearchHits;
 import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.InternedFeatureVector;
+import edu.gslis.textrepresentation.PositionalDocument;
+import edu.gslis.textrepresentation.TermPositions;
+import edu.gslis.textrepresentation.Vocabulary;
 import edu.gslis.utils.Stopper;
 
 /**
@@ -66,13 +85,26 @@ import edu.gslis.utils.Stopper;
  * 
  * 1. DefaultSimilarity: Lucene requires the scorer (Similarity) to be set
  * during both indexing and retrieval. Fortunately, we rescore everything. For
- * now, the DefaultSimilarity is used for both.
+ * now, the DefaultSimilarity is used for both. Queries run with a
+ * QueryDocScorer (or a scoring rule with exact:true) are instead scored by
+ * the scorer's compiled kernel (see KernelQuery), so no rescoring is needed.
  * 
  * 2. Fields:
  * 
  * 3. Document length: Lucene doesn't store the document length in a useful way
  * for use. LuceneBuildIndex calculates the document length and stores it in a
- * separate field called "doclen" (Indexer.FIELD_DOC_LEN).
+ * separate field called "doclen" (Indexer.FIELD_DOC_LEN), counted during
+ * indexing and also written as NumericDocValues. If the index was built with
+ * docValues enabled, docno and the time field are also read from DocValues
+ * instead of stored fields.
+ * 
+ * 4. Thread safety: instances may be shared across query threads. Each
+ * scoring rule gets its own cached IndexSearcher and query parsers are
+ * per-thread.
+ * 
+ * 5. Refresh: reopen/maybeRefresh (or setRefreshInterval) pick up documents
+ * committed by another process. Each call holds a reference to the reader it
+ * started with, and collection statistics are rebuilt for the new reader.
  *
  */
 public class IndexWrapperLuceneImpl implements IndexWrapper {
@@ -82,61 +114,204 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 
 	private String defaultScoringRule = "method:dirichlet,mu:2500";
 
-	IndexReader index;
-	IndexSearcher searcher;
+	// Swapped on refresh. Readers are reference counted (see acquire).
+	volatile IndexReader index;
+	volatile IndexSearcher searcher;
 	Similarity similarity;
 	Analyzer analyzer;
 
-	double vocabularySize = -1.0;
-	double docLengthAvg = -1.0;
+	// One searcher per scoring rule. Each is configured once and never
+	// mutated, so concurrent queries with different rules can't interfere.
+	Map<String, IndexSearcher> searchers = new ConcurrentHashMap<String, IndexSearcher>();
+
+	// QueryParser is not thread-safe
+	ThreadLocal<QueryParser> parsers = new ThreadLocal<QueryParser>() {
+		@Override
+		protected QueryParser initialValue() {
+			return new QueryParser(Indexer.FIELD_TEXT, analyzer);
+		}
+	};
+
+	volatile LuceneStatsCache stats;
+
+	// Parsed exact scoring rules (see getExactScorer), and the collection
+	// statistics their scorers share, rebuilt when the reader changes
+	Map<String, ExactRule> exactRules = new ConcurrentHashMap<String, ExactRule>();
+	volatile ExactStats exactStats;
+
+	int statsCacheSize = LuceneStatsCache.DEFAULT_MAX_TERMS;
 	String timeFieldName = Indexer.FIELD_EPOCH;
+	Vocabulary vocabulary = null;
+	boolean autoRefresh = false;
+	long refreshInterval = -1;
+	long lastRefresh = 0;
 
 	/**
 	 * Construct an instance of this index wrapper using the specified path
 	 * 
 	 * @param pathToIndex
+	 * @throws IllegalArgumentException
+	 *             if the index can't be opened
 	 */
 	public IndexWrapperLuceneImpl(String pathToIndex) {
 		try {
 			Path path = FileSystems.getDefault().getPath(pathToIndex);
-			index = DirectoryReader.open(FSDirectory.open(path));
-			searcher = new IndexSearcher(index);
+			open(DirectoryReader.open(FSDirectory.open(path)), pathToIndex);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Can't open index " + pathToIndex + ": " + e.getMessage(), e);
+		}
+	}
 
-			// Read the analyzer/similarity class from the index metadata,
-			// otherwise use defaults.
-			Map<String, String> indexMetadata = readIndexMetadata(pathToIndex);
+	/**
+	 * For subclasses that open their own reader (see open)
+	 */
+	protected IndexWrapperLuceneImpl() {
+	}
 
-			if (indexMetadata.get("analyzer") != null) {
-				String analyzerClass = indexMetadata.get("analyzer");
+	/**
+	 * Initializes the wrapper for the reader.
+	 * 
+	 * @param reader
+	 *            Top-level reader
+	 * @param metadataPath
+	 *            Directory containing the index.metadata file
+	 */
+	protected void open(IndexReader reader, String metadataPath) throws Exception {
+		index = reader;
+		searcher = newSearcher(index);
+		stats = new LuceneStatsCache(index, statsCacheSize);
 
-				@SuppressWarnings("rawtypes")
-				Class analyzerCls = loader.loadClass(analyzerClass);
+		// Read the analyzer/similarity class from the index metadata,
+		// otherwise use defaults.
+		Map<String, String> indexMetadata = readIndexMetadata(metadataPath);
 
-				@SuppressWarnings({ "rawtypes", "unchecked" })
-				java.lang.reflect.Constructor analyzerConst = analyzerCls.getConstructor(Version.class);
-                analyzerConst.setAccessible(true);   
-				analyzer = (StopwordAnalyzerBase) analyzerConst.newInstance(Indexer.VERSION);
+		if (indexMetadata.get("analyzer") != null) {
+			String analyzerClass = indexMetadata.get("analyzer");
 
-			} else {
-				analyzer = new StandardAnalyzer();
-			}
+			@SuppressWarnings("rawtypes")
+			Class analyzerCls = loader.loadClass(analyzerClass);
 
-			if (indexMetadata.get("similarity") != null) {
-				String similarityClass = indexMetadata.get("similarity");
-				similarity = (Similarity) loader.loadClass(similarityClass).newInstance();
-			} else {
-				similarity = new LMDirichletSimilarity();
-			}
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, e.getMessage(), e);
+			@SuppressWarnings({ "rawtypes", "unchecked" })
+			java.lang.reflect.Constructor analyzerConst = analyzerCls.getConstructor(Version.class);
+			analyzerConst.setAccessible(true);   
+			analyzer = (StopwordAnalyzerBase) analyzerConst.newInstance(Indexer.VERSION);
+
+		} else {
+			analyzer = new StandardAnalyzer();
+		}
+
+		if (indexMetadata.get("similarity") != null) {
+			String similarityClass = indexMetadata.get("similarity");
+			similarity = (Similarity) loader.loadClass(similarityClass).newInstance();
+		} else {
+			similarity = new LMDirichletSimilarity();
 		}
 	}
 
+	/**
+	 * Creates a searcher over the reader. Subclasses may override to search
+	 * in parallel.
+	 */
+	protected IndexSearcher newSearcher(IndexReader reader) {
+		return new IndexSearcher(reader);
+	}
+
 	public SearchHits runQuery(GQuery gquery, int count, String rule) {
+		QueryDocScorer scorer = getExactScorer(rule);
+		if (scorer != null)
+			return runQuery(gquery, scorer, count);
 		String queryString = getLuceneQueryString(gquery);
 		return runQuery(queryString, count, rule);
 	}
 
+	/**
+	 * Execute a query scored by the specified scorer. Scorers that compile
+	 * their query into a QueryKernel (ScorerDirichlet, ScorerDirichletKL,
+	 * ScorerBM25) score every matching document in Lucene with the same
+	 * statistics and document lengths as rescoring would, so the hits are
+	 * final and have no document vectors. Other scorers rescore the results
+	 * of the default scoring rule.
+	 * 
+	 * The scorer is used for this query: its query is set to gquery, and
+	 * is left set when this returns. Don't share a scorer between
+	 * concurrent calls; runQuery(GQuery, int, String) with an exact rule
+	 * creates one per call.
+	 * 
+	 * @param gquery
+	 *            GQuery object
+	 * @param scorer
+	 *            Scorer with its collection stats and parameters set; its
+	 *            query is replaced
+	 * @param count
+	 *            Number of hits
+	 * @return SearchHits
+	 */
+	public SearchHits runQuery(GQuery gquery, QueryDocScorer scorer, int count) {
+		scorer.setQuery(gquery);
+		QueryKernel kernel = scorer.getKernel();
+		if (kernel != null)
+			return runQuery(kernel, count);
+
+		SearchHits hits = runQuery(gquery, count);
+		// getLuceneQueryString normalized the query vector
+		scorer.setQuery(gquery);
+		// Scorers have no index, so the vectors are fetched here; the hits
+		// only have the empty vector SearchHit starts with
+		Iterator<SearchHit> it = hits.iterator();
+		while (it.hasNext()) {
+			SearchHit hit = it.next();
+			hit.setFeatureVector(getDocVector(hit.getDocID(), null));
+		}
+		scorer.scoreAll(hits);
+		hits.rank();
+		return hits;
+	}
+
+	/**
+	 * Execute a compiled query (see KernelQuery). Term frequencies are summed
+	 * over the fields with term vectors, as in getDocVector.
+	 * 
+	 * @param kernel
+	 *            Compiled query
+	 * @param count
+	 *            Number of hits
+	 * @return SearchHits, with the kernel's scores
+	 */
+	public SearchHits runQuery(QueryKernel kernel, int count) {
+		SearchHits hits = new SearchHits();
+		Set<String> fields = getHitFields();
+
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
+		try {
+			KernelTopDocsCollector collector = new KernelTopDocsCollector(count);
+			searcher.search(new KernelQuery(kernel, getVectorFields(reader)), collector);
+
+			List<LeafReaderContext> leaves = reader.leaves();
+			for (KernelTopDocsCollector.ScoredDoc doc: collector.topDocs())
+				hits.add(toSearchHit(reader, leaves, doc.doc, doc.score, fields));
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
+		}
+		return hits;
+	}
+
+	/**
+	 * Names of the indexed fields that store term vectors, or the text field
+	 * if none do
+	 */
+	static String[] getVectorFields(IndexReader reader) {
+		List<String> fields = new ArrayList<String>();
+		for (FieldInfo info: MultiFields.getMergedFieldInfos(reader))
+			if (info.hasVectors())
+				fields.add(info.name);
+		if (fields.isEmpty())
+			fields.add(Indexer.FIELD_TEXT);
+		return fields.toArray(new String[fields.size()]);
+	}
+
 	/**
 	 * Execute a query given a GQuery object
 	 * 
@@ -229,21 +404,7 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	
 	public SearchHits runQuery(String q, int count, String rule) {
 
-		SearchHits hits = new SearchHits();
-		try {
-			List<String> fieldNames = new ArrayList<String>();
-			Fields fields = MultiFields.getFields(index);
-			Iterator<String> it = fields.iterator();
-			while (it.hasNext()) {
-				String fieldName = it.next();
-				fieldNames.add(fieldName);
-			}
-			hits = runQuery(q, fieldNames.toArray(new String[0]), count, rule);
-
-		} catch (IOException e) {
-			logger.log(Level.SEVERE, e.getMessage(), e);
-		}
-		return hits;
+		return runQuery(q, stats.getFieldNames(), count, rule);
 	}
 
 	/**
@@ -275,58 +436,131 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	public SearchHits runQuery(String q, String[] field, int count, String rule) {
 
 		SearchHits hits = new SearchHits();
-		Set<String> fields = new HashSet<String>();
-		fields.add(Indexer.FIELD_DOCNO);
-		fields.add(Indexer.FIELD_DOC_LEN);
-		fields.add(timeFieldName);
+		Set<String> fields = getHitFields();
 
-		Similarity similarity = getSimilarity(rule);
-		
 		//System.err.println("Fields: " + String.join(",", field));
-		//System.err.println("Similarity: " + similarity);
 		
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
 			//QueryParser parser = new MultiFieldQueryParser(Indexer.VERSION, tmp, analyzer);
-			QueryParser parser = new QueryParser("text", analyzer);
+			QueryParser parser = parsers.get();
 			Query query = parser.parse(q);
 			//System.err.println(query.toString());
-			searcher.setSimilarity(similarity);
-			TopDocs topDocs = searcher.search(query, count);
+			TopDocs topDocs = getSearcher(searcher, rule).search(query, count);
 			ScoreDoc[] docs = topDocs.scoreDocs;
 
+			List<LeafReaderContext> leaves = reader.leaves();
 			for (int i = 0; i < docs.length; i++) {
-				SearchHit hit = new SearchHit();
-				int docid = docs[i].doc;
-
-				Document d = index.document(docid, fields);
-
-				//Explanation exp = searcher.explain(query, docid);
+				//Explanation exp = searcher.explain(query, docs[i].doc);
 				//System.err.println("Explanation: " + exp.toString());
 
-				String docno = d.get(Indexer.FIELD_DOCNO);
-				hit.setDocID(docid);
-				hit.setDocno(docno);
-				hit.setScore(docs[i].score);
-				IndexableField dl = d.getField(Indexer.FIELD_DOC_LEN);
-				if (dl != null)
-					hit.setLength(dl.numericValue().longValue());
-				if (timeFieldName != null) {
-					String timeString = d.get(timeFieldName);
-					if (timeString != null) {
-						double time = Double.parseDouble(timeString);
-						hit.setMetadataValue(timeFieldName, time);
-					}
-				}
-
-				hits.add(hit);
+				hits.add(toSearchHit(reader, leaves, docs[i].doc, docs[i].score, fields));
 			}
 			hits.rank();
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
 		}
 		return hits;
 	}
 
+	/**
+	 * Stored fields read for each hit when DocValues don't have them
+	 */
+	Set<String> getHitFields() {
+		Set<String> fields = new HashSet<String>();
+		fields.add(Indexer.FIELD_DOCNO);
+		fields.add(Indexer.FIELD_DOC_LEN);
+		fields.add(timeFieldName);
+		return fields;
+	}
+
+	/**
+	 * Creates the hit for a document with its docno, length and time
+	 */
+	SearchHit toSearchHit(IndexReader reader, List<LeafReaderContext> leaves, int docid, double score,
+			Set<String> fields) throws IOException
+	{
+		SearchHit hit = new SearchHit();
+		hit.setDocID(docid);
+		hit.setScore(score);
+
+		// Prefer DocValues, load stored fields only for what's missing
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docid, leaves));
+		int leafDoc = docid - leaf.docBase;
+		Object docno = getDocValue(leaf.reader(), Indexer.FIELD_DOCNO, leafDoc);
+		Object length = getDocValue(leaf.reader(), Indexer.FIELD_DOC_LEN, leafDoc);
+		Object time = (timeFieldName == null) ? null 
+				: getDocValue(leaf.reader(), timeFieldName, leafDoc);
+
+		if (docno == null || length == null || (timeFieldName != null && time == null)) {
+			Document d = reader.document(docid, fields);
+			if (docno == null)
+				docno = d.get(Indexer.FIELD_DOCNO);
+			if (length == null) {
+				IndexableField dl = d.getField(Indexer.FIELD_DOC_LEN);
+				if (dl != null)
+					length = dl.numericValue().longValue();
+			}
+			if (time == null && timeFieldName != null)
+				time = d.get(timeFieldName);
+		}
+
+		hit.setDocno((String)docno);
+		if (length != null)
+			hit.setLength(((Number)length).longValue());
+		if (time != null) {
+			double t = (time instanceof Number) ? ((Number)time).doubleValue() 
+					: Double.parseDouble(time.toString());
+			hit.setMetadataValue(timeFieldName, t);
+		}
+		return hit;
+	}
+
+	/**
+	 * Reads a single-valued DocValues field as written by Indexer when
+	 * docValues is enabled: NUMERIC as Long, SORTED_NUMERIC as a Double
+	 * (sortable long encoding) and SORTED as a String.
+	 * 
+	 * @return the value, or null if the field has no DocValues for this document
+	 */
+	static Object getDocValue(LeafReader reader, String field, int doc) throws IOException {
+		FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+		if (info == null)
+			return null;
+		switch (info.getDocValuesType()) {
+		case NUMERIC:
+			if (!reader.getDocsWithField(field).get(doc))
+				return null;
+			return reader.getNumericDocValues(field).get(doc);
+		case SORTED_NUMERIC:
+			SortedNumericDocValues numerics = reader.getSortedNumericDocValues(field);
+			numerics.setDocument(doc);
+			if (numerics.count() == 0)
+				return null;
+			return NumericUtils.sortableLongToDouble(numerics.valueAt(0));
+		case SORTED:
+			SortedDocValues sorted = reader.getSortedDocValues(field);
+			int ord = sorted.getOrd(doc);
+			if (ord < 0)
+				return null;
+			return sorted.lookupOrd(ord).utf8ToString();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Searchers, parsers and statistics are per-thread or immutable (see
+	 * the class notes), so queries may run concurrently
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
 	/**
 	 * Set the field name used to store the document time. Defaults to "epoch".
 	 * 
@@ -338,57 +572,44 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 		this.timeFieldName = timeFieldName;
 	}
 
+	/**
+	 * When set, getDocVector returns InternedFeatureVectors keyed by term ids
+	 * in this vocabulary, avoiding boxed weights on the rescoring path.
+	 * 
+	 * @param vocabulary
+	 *            Shared vocabulary, or null for plain FeatureVectors
+	 */
+	public void setVocabulary(Vocabulary vocabulary) {
+		this.vocabulary = vocabulary;
+	}
+
 	/**
 	 * Returns the total number of documents in the index.
 	 */
 	public double docCount() {
-		try {
-			return (double) index.numDocs();
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, e.getMessage(), e);
-		}
-		return -1.0;
+		return stats.docCount();
 	}
 
 	/**
 	 * Returns the total number of terms across all fields
 	 */
 	public double termCount() {
-		double count = 0;
-		try {
-			Fields fields = MultiFields.getFields(index);
-			Iterator<String> it = fields.iterator();
-			while (it.hasNext()) {
-				String field = it.next();
-				count += index.getSumTotalTermFreq(field);
-			}
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, e.getMessage(), e);
-		}
-		return count;
+		return stats.termCount();
 	}
 
 	/**
 	 * Returns the total vocabulary size in all fields
 	 */
 	public double termTypeCount() {
-		if (vocabularySize == -1) {
-			try {
-				Fields fields = MultiFields.getFields(index);
-				Iterator<String> it = fields.iterator();
-				while (it.hasNext()) {
-					String field = it.next();
-					Terms terms = fields.terms(field);
-					long fieldSize = terms.size();
-					if (fieldSize > 0)
-						vocabularySize += fieldSize;
-
-				}
-			} catch (Exception e) {
-				logger.log(Level.SEVERE, e.getMessage(), e);
-			}
+		LuceneStatsCache stats = acquireStats();
+		try {
+			return stats.termTypeCount();
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
 		}
-		return vocabularySize;
+		return 0;
 	}
 
 	/**
@@ -399,16 +620,15 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 * @return total size
 	 */
 	public double termTypeCount(String field) {
-		if (vocabularySize == -1) {
-			try {
-				Fields fields = MultiFields.getFields(index);
-				Terms terms = fields.terms(field);
-				vocabularySize = terms.size();
-			} catch (Exception e) {
-				logger.log(Level.SEVERE, e.getMessage(), e);
-			}
+		LuceneStatsCache stats = acquireStats();
+		try {
+			return stats.termTypeCount(field);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
 		}
-		return vocabularySize;
+		return -1;
 	}
 
 	/**
@@ -419,19 +639,15 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 *            Term
 	 */
 	public double docFreq(String term) {
-		double df = 0;
-
+		LuceneStatsCache stats = acquireStats();
 		try {
-			Fields fields = MultiFields.getFields(index);
-			Iterator<String> it = fields.iterator();
-			while (it.hasNext()) {
-				String field = it.next();
-				df += index.docFreq(new Term(field, term));
-			}
+			return stats.docFreq(term);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
 		}
-		return df;
+		return 0;
 	}
 
 	/**
@@ -445,10 +661,13 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 * @return Document frequency
 	 */
 	public double docFreq(String term, String field) {
+		LuceneStatsCache stats = acquireStats();
 		try {
-			return (double) index.docFreq(new Term(field, term));
+			return stats.docFreq(term, field);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
 		}
 		return -1.0;
 	}
@@ -463,10 +682,13 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 * @return Term frequency
 	 */
 	public double termFreq(String term, String field) {
+		LuceneStatsCache stats = acquireStats();
 		try {
-			return (double) index.totalTermFreq(new Term(field, term));
+			return stats.termFreq(term, field);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
 		}
 		return -1.0;
 	}
@@ -478,34 +700,179 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 *            Term
 	 */
 	public double termFreq(String term) {
-		double tf = 0;
+		LuceneStatsCache stats = acquireStats();
+		try {
+			return stats.termFreq(term);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
+		}
+		return 0;
+	}
 
+	/**
+	 * Looks up the document and collection frequencies of several terms at
+	 * once, summed over all fields as in docFreq(String) and termFreq(String).
+	 * 
+	 * @param terms
+	 *            Terms
+	 * @param docFreqs
+	 *            Filled with the document frequency of each term
+	 * @param termFreqs
+	 *            Filled with the total frequency of each term
+	 */
+	public void getTermStats(String[] terms, double[] docFreqs, double[] termFreqs) {
+		LuceneStatsCache stats = acquireStats();
 		try {
-			Fields fields = MultiFields.getFields(index);
-			Iterator<String> it = fields.iterator();
-			while (it.hasNext()) {
-				String field = it.next();
-				tf += index.totalTermFreq(new Term(field, term));
-			}
+			stats.getTermStats(terms, null, docFreqs, termFreqs);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(stats.getReader());
 		}
-		return tf;
 	}
 
 	/**
 	 * Returns average document length
 	 */
 	public double docLengthAvg() {
-		
-		double avgDocLen = 0;
+		return stats.docLengthAvg();
+	}
+
+	/**
+	 * Returns the collection statistics cache for the current reader, e.g. to
+	 * inspect hit/miss counts.
+	 */
+	public LuceneStatsCache getStatsCache() {
+		return stats;
+	}
+
+	/**
+	 * Sets the maximum number of (field, term) entries held in the
+	 * statistics cache. Discards any cached entries.
+	 * 
+	 * @param maxTerms
+	 *            Maximum cache size
+	 */
+	public void setStatsCacheSize(int maxTerms) {
 		try {
-			double docCount = index.numDocs();
-			avgDocLen = index.getSumTotalTermFreq("text") / (double)docCount;
+			statsCacheSize = maxTerms;
+			stats = new LuceneStatsCache(index, statsCacheSize);
 		} catch (IOException e) {
-			
+			logger.log(Level.SEVERE, e.getMessage(), e);
 		}
-		return avgDocLen;
+	}
+
+	/**
+	 * Reopens the underlying reader if the index has changed on disk. Cached
+	 * searchers and collection statistics are rebuilt for the new reader.
+	 * Calls in progress keep using the previous reader, which is closed once
+	 * they have all released it. Document IDs from before the refresh may
+	 * refer to different documents afterwards (e.g., after segment merges).
+	 * 
+	 * @return true if the reader was reopened
+	 */
+	public synchronized boolean reopen() {
+		try {
+			DirectoryReader newReader = DirectoryReader.openIfChanged((DirectoryReader) index);
+			if (newReader == null)
+				return false;
+
+			swapReader(newReader).decRef();
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		}
+		return false;
+	}
+
+	/**
+	 * Calls reopen() if at least the refresh interval has passed since the
+	 * last check.
+	 * 
+	 * @return true if the reader was reopened
+	 */
+	public boolean maybeRefresh() {
+		long now = System.currentTimeMillis();
+		if (now - lastRefresh < refreshInterval)
+			return false;
+		synchronized (this) {
+			if (now - lastRefresh < refreshInterval)
+				return false;
+			lastRefresh = now;
+			return reopen();
+		}
+	}
+
+	/**
+	 * Checks for index changes (see maybeRefresh) before each query, at most
+	 * once per interval. Useful when another process is adding documents to
+	 * the index (e.g., LuceneBuildIndex in incremental mode). Disabled by
+	 * default.
+	 * 
+	 * @param millis
+	 *            Minimum time between checks, or a negative value to disable
+	 */
+	public void setRefreshInterval(long millis) {
+		this.refreshInterval = millis;
+		this.autoRefresh = millis >= 0;
+	}
+
+	/**
+	 * Returns the current searcher, holding a reference to its reader so
+	 * that a concurrent refresh doesn't close it. Must be paired with
+	 * release().
+	 */
+	protected IndexSearcher acquire() {
+		if (autoRefresh)
+			maybeRefresh();
+		while (true) {
+			IndexSearcher current = searcher;
+			if (current.getIndexReader().tryIncRef())
+				return current;
+			if (current == searcher)
+				throw new AlreadyClosedException("Index reader is closed");
+			// Otherwise replaced by a concurrent refresh, retry
+		}
+	}
+
+	/**
+	 * Same as acquire(), for the collection statistics
+	 */
+	protected LuceneStatsCache acquireStats() {
+		while (true) {
+			LuceneStatsCache current = stats;
+			if (current.getReader().tryIncRef())
+				return current;
+			if (current == stats)
+				throw new AlreadyClosedException("Index reader is closed");
+		}
+	}
+
+	protected void release(IndexReader reader) {
+		try {
+			reader.decRef();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Replaces the reader, rebuilding cached searchers and collection
+	 * statistics.
+	 * 
+	 * @return the previous reader, which the caller is responsible for
+	 *         releasing
+	 */
+	protected IndexReader swapReader(IndexReader newReader) throws IOException {
+		IndexReader oldReader = index;
+		LuceneStatsCache newStats = new LuceneStatsCache(newReader, statsCacheSize);
+		index = newReader;
+		stats = newStats;
+		searchers.clear();
+		searcher = newSearcher(newReader);
+		return oldReader;
 	}
 
 	/**
@@ -534,12 +901,15 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 */
 	public FeatureVector getDocVector(int docID, String field, Stopper stopper) {
 
-		FeatureVector fv = new FeatureVector(stopper);
+		FeatureVector fv = (vocabulary == null) ? new FeatureVector(stopper) 
+				: new InternedFeatureVector(stopper, vocabulary);
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
 			Set<Terms> termsSet = new HashSet<Terms>();
 
 			if (field == null) {
-				Fields fields = index.getTermVectors(docID);
+				Fields fields = reader.getTermVectors(docID);
 				Iterator<String> it = fields.iterator();
 				while (it.hasNext()) {
 					String fieldName = it.next();
@@ -549,7 +919,7 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 					}
 				}
 			} else {
-				Terms terms = index.getTermVector(docID, field);
+				Terms terms = reader.getTermVector(docID, field);
 				termsSet.add(terms);
 			}
 
@@ -569,6 +939,8 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
 		}
 		return fv;
 	}
@@ -581,39 +953,272 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 * @return List of terms
 	 */
 	public List<String> getDocTerms(int docID) {
-		Map<Integer, String> termPos = new TreeMap<Integer, String>();
-		try {
-			Fields fields = index.getTermVectors(docID);
-			Iterator<String> it = fields.iterator();
-			int fieldPos = 0;
-			while (it.hasNext()) {
-				String field = it.next();
+		return getPositionalDocument(docID).asList();
+	}
 
-				Terms terms = index.getTermVector(docID, field);
-				if (terms != null) {
-					TermsEnum termsEnum = terms.iterator();
-					PostingsEnum dp = null;
-					while (termsEnum.next() != null) {
-						String term = termsEnum.term().utf8ToString();
+	/**
+	 * Returns the terms of the specified document by position, all fields
+	 * concatenated in index order
+	 * 
+	 * @param docID
+	 *            Document ID
+	 */
+	public PositionalDocument getPositionalDocument(int docID) {
+		return getPositionalDocument(docID, null);
+	}
 
-						dp = termsEnum.postings(dp);
-						dp.nextDoc();
-						int freq = dp.freq();
-						for (int i = 0; i < freq; i++) {
-							int pos = fieldPos + dp.nextPosition();
-							termPos.put(pos, term);
-						}
+	/**
+	 * Returns the terms of the specified document by position, built directly
+	 * from the term vector postings.
+	 * 
+	 * @param docID
+	 *            Document ID
+	 * @param field
+	 *            Field name, or null for all fields
+	 */
+	public PositionalDocument getPositionalDocument(int docID, String field) {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> dictionary = new ArrayList<String>();
+		int[] positions = new int[0];
+		int length = 0;
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
+		try {
+			List<Terms> termsList = new ArrayList<Terms>();
+			if (field == null) {
+				Fields fields = reader.getTermVectors(docID);
+				if (fields != null) {
+					Iterator<String> it = fields.iterator();
+					while (it.hasNext()) {
+						Terms terms = fields.terms(it.next());
+						if (terms != null && terms.hasPositions())
+							termsList.add(terms);
 					}
-					fieldPos = termPos.size();
 				}
+			} else {
+				Terms terms = reader.getTermVector(docID, field);
+				if (terms != null && terms.hasPositions())
+					termsList.add(terms);
+			}
+
+			int[] sizes = new int[termsList.size()];
+			int size = 0;
+			for (int i = 0; i < sizes.length; i++) {
+				sizes[i] = tokenCount(termsList.get(i));
+				size += sizes[i];
+			}
+			positions = new int[size];
+			for (int i = 0; i < sizes.length; i++)
+				length = addPositions(termsList.get(i), sizes[i], ids, dictionary, positions, length);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
+		}
+		if (length < positions.length)
+			positions = Arrays.copyOf(positions, length);
+		return new PositionalDocument(dictionary.toArray(new String[dictionary.size()]), positions);
+	}
 
+	/**
+	 * Returns the positions of the specified terms in getPositionalDocument
+	 * coordinates. Only the requested terms are looked up in the term
+	 * vector; their positions are made dense with the field's position gaps
+	 * (see PositionGapsField). Indexes built without position gaps (see
+	 * IndexConfig fieldStats) fall back to visiting every term vector 
+	 * position to find the gaps.
+	 * 
+	 * @param docID
+	 *            Document ID
+	 * @param terms
+	 *            Terms of interest
+	 */
+	public TermPositions getTermPositions(int docID, String[] terms) {
+		BytesRef[] termBytes = new BytesRef[terms.length];
+		for (int t = 0; t < terms.length; t++)
+			termBytes[t] = new BytesRef(terms[t]);
+
+		int[][] positions = new int[terms.length][];
+		int[] counts = new int[terms.length];
+		for (int t = 0; t < terms.length; t++)
+			positions[t] = new int[8];
+		int length = 0;
+
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
+		try {
+			Fields fields = reader.getTermVectors(docID);
+			if (fields != null) {
+				List<LeafReaderContext> leaves = reader.leaves();
+				LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docID, leaves));
+				int leafDoc = docID - leaf.docBase;
+
+				Iterator<String> it = fields.iterator();
+				while (it.hasNext()) {
+					String field = it.next();
+					Terms tv = fields.terms(field);
+					if (tv == null || !tv.hasPositions())
+						continue;
+					PositionGapsField.Gaps gaps = getPositionGaps(leaf.reader(), field, leafDoc);
+					if (gaps != null)
+						length = addTermPositions(tv, gaps, termBytes, positions, counts, length);
+					else
+						length = addTermPositions(tv, termBytes, positions, counts, length);
+				}
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
+		}
+		for (int t = 0; t < terms.length; t++)
+			positions[t] = Arrays.copyOf(positions[t], counts[t]);
+		return new TermPositions(terms, positions, length);
+	}
+
+	/**
+	 * Reads the position gaps of a field, or null if the index doesn't have
+	 * them
+	 */
+	static PositionGapsField.Gaps getPositionGaps(LeafReader reader, String field, int doc) 
+			throws IOException
+	{
+		String name = Indexer.getFieldGapsName(field);
+		FieldInfo info = reader.getFieldInfos().fieldInfo(name);
+		if (info == null || info.getDocValuesType() != DocValuesType.BINARY)
+			return null;
+		return PositionGapsField.decode(reader.getBinaryDocValues(name).get(doc));
+	}
+
+	/**
+	 * Appends the dense positions of the requested terms in one field, which
+	 * starts at offset
+	 * 
+	 * @return the offset of the next field
+	 */
+	private int addTermPositions(Terms tv, PositionGapsField.Gaps gaps, BytesRef[] terms, 
+			int[][] positions, int[] counts, int offset) throws IOException
+	{
+		TermsEnum termsEnum = tv.iterator();
+		PostingsEnum dp = null;
+		for (int t = 0; t < terms.length; t++) {
+			if (!termsEnum.seekExact(terms[t]))
+				continue;
+			dp = termsEnum.postings(dp, PostingsEnum.POSITIONS);
+			dp.nextDoc();
+			int freq = dp.freq();
+			for (int i = 0; i < freq; i++)
+				addPosition(positions, counts, t, offset + gaps.toDense(dp.nextPosition()));
+		}
+		return offset + gaps.length();
+	}
+
+	/**
+	 * As above, for fields without recorded gaps: every position is visited
+	 * to find the occupied ones
+	 */
+	private int addTermPositions(Terms tv, BytesRef[] terms, int[][] positions, int[] counts,
+			int offset) throws IOException
+	{
+		Map<BytesRef, Integer> termIndex = new HashMap<BytesRef, Integer>();
+		for (int t = 0; t < terms.length; t++)
+			termIndex.put(terms[t], t);
+		int[] fieldStart = Arrays.copyOf(counts, counts.length);
+		BitSet occupied = new BitSet();
+
+		TermsEnum termsEnum = tv.iterator();
+		PostingsEnum dp = null;
+		BytesRef term;
+		while ((term = termsEnum.next()) != null) {
+			Integer t = termIndex.get(term);
+			dp = termsEnum.postings(dp, PostingsEnum.POSITIONS);
+			dp.nextDoc();
+			int freq = dp.freq();
+			for (int i = 0; i < freq; i++) {
+				int pos = dp.nextPosition();
+				occupied.set(pos);
+				if (t != null)
+					addPosition(positions, counts, t, pos);
+			}
 		}
-		List<String> termList = new LinkedList<String>();
-		termList.addAll(termPos.values());
-		return termList;
+
+		// Map raw positions to dense positions
+		int[] rank = new int[occupied.length()];
+		int r = 0;
+		for (int pos = occupied.nextSetBit(0); pos >= 0; pos = occupied.nextSetBit(pos + 1))
+			rank[pos] = r++;
+		for (int t = 0; t < terms.length; t++)
+			for (int k = fieldStart[t]; k < counts[t]; k++)
+				positions[t][k] = offset + rank[positions[t][k]];
+		return offset + r;
+	}
+
+	private static void addPosition(int[][] positions, int[] counts, int t, int pos) {
+		if (counts[t] == positions[t].length)
+			positions[t] = Arrays.copyOf(positions[t], counts[t] * 2);
+		positions[t][counts[t]++] = pos;
+	}
+
+	/**
+	 * Number of tokens in a term vector. Term vectors don't record
+	 * sumTotalTermFreq, so sum the per-term frequencies.
+	 */
+	private int tokenCount(Terms terms) throws IOException {
+		long size = terms.getSumTotalTermFreq();
+		if (size < 0) {
+			size = 0;
+			TermsEnum termsEnum = terms.iterator();
+			while (termsEnum.next() != null)
+				size += termsEnum.totalTermFreq();
+		}
+		return (int)size;
+	}
+
+	/**
+	 * Appends the term ids for one field's term vector to positions, starting
+	 * at offset, in position order. Analyzer gaps are dropped.
+	 * 
+	 * @return the new offset
+	 */
+	private int addPositions(Terms terms, int size, Map<String, Integer> ids, List<String> dictionary,
+			int[] positions, int offset) throws IOException {
+		int[] pos = new int[size];
+		int[] termIds = new int[size];
+		int count = 0;
+		int maxPos = -1;
+
+		TermsEnum termsEnum = terms.iterator();
+		PostingsEnum dp = null;
+		while (termsEnum.next() != null) {
+			String term = termsEnum.term().utf8ToString();
+			Integer id = ids.get(term);
+			if (id == null) {
+				id = dictionary.size();
+				ids.put(term, id);
+				dictionary.add(term);
+			}
+			dp = termsEnum.postings(dp, PostingsEnum.POSITIONS);
+			dp.nextDoc();
+			int freq = dp.freq();
+			for (int i = 0; i < freq && count < size; i++) {
+				int p = dp.nextPosition();
+				pos[count] = p;
+				termIds[count++] = id;
+				if (p > maxPos)
+					maxPos = p;
+			}
+		}
+
+		// Slot each term by position, then copy out in order
+		int[] slots = new int[maxPos + 1];
+		Arrays.fill(slots, -1);
+		for (int i = 0; i < count; i++)
+			slots[pos[i]] = termIds[i];
+		for (int p = 0; p <= maxPos; p++) {
+			if (slots[p] >= 0)
+				positions[offset++] = slots[p];
+		}
+		return offset;
 	}
 
 	/**
@@ -625,8 +1230,10 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 */
 	public String getDocText(int docID) {
 		StringBuffer text = new StringBuffer();
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
-			Fields fields = index.getTermVectors(docID);
+			Fields fields = reader.getTermVectors(docID);
 			Iterator<String> it = fields.iterator();
 			while (it.hasNext()) {
 				String fieldName = it.next();
@@ -635,6 +1242,8 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
 		}
 		return text.toString();
 	}
@@ -649,37 +1258,17 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	 * @return Document text
 	 */
 	public String getDocText(int docID, String field) {
-
-		StringBuffer text = new StringBuffer();
-		FeatureVector fv = new FeatureVector(null);
-		try {
-			Terms terms = index.getTermVector(docID, field);
-			Map<Integer, String> dv = new TreeMap<Integer, String>();
-			if (terms != null) {
-				TermsEnum termsEnum = terms.iterator();
-				PostingsEnum dp = null;
-				while (termsEnum.next() != null) {
-					String term = termsEnum.term().utf8ToString();
-
-					dp = termsEnum.postings(dp);
-					dp.nextDoc();
-					int freq = dp.freq();
-					for (int i = 0; i < freq; i++) {
-						int pos = dp.nextPosition();
-						dv.put(pos, term);
-					}
-					long f = termsEnum.totalTermFreq();
-					fv.addTerm(term, f);
-				}
-				for (int pos : dv.keySet())
-					text.append(dv.get(pos) + " ");
-			}
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, e.getMessage(), e);
+		PositionalDocument doc = getPositionalDocument(docID, field);
+		String[] terms = doc.getTerms();
+		StringBuilder text = new StringBuilder();
+		for (int id: doc.getPositions()) {
+			text.append(terms[id]);
+			text.append(" ");
 		}
 		return text.toString();
 	}
 
+
 	/**
 	 * Returns the internal document identifier given a docno
 	 * 
@@ -703,19 +1292,20 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	public int getDocId(String field, String value) {
 		int docid = -1;
 
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
-			IndexSearcher searcher = new IndexSearcher(index);
-			Analyzer analyzer = new KeywordAnalyzer();
-			QueryParser parser = new QueryParser(field, analyzer);
-			Query q = parser.parse("\"" + value + "\"");
+			// Equivalent to a KeywordAnalyzer phrase query on the value, without
+			// building a parser per lookup
+			Query q = new TermQuery(new Term(field, value));
 
-			// TermQuery q = new TermQuery(new Term(field, docno));
-
-			TopDocs docs = searcher.search(q, 100);
+			TopDocs docs = searcher.search(q, 1);
 			if (docs.totalHits > 0)
 				docid = docs.scoreDocs[0].doc;
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
 		}
 
 		return docid;
@@ -765,11 +1355,15 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	public String getMetadataValue(String docno, String metadataName) {
 		int docid = getDocId(docno);
 		String value = null;
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
-			Document doc = index.document(docid);
+			Document doc = reader.document(docid);
 			value = doc.get(metadataName);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
 		}
 		return value;
 	}
@@ -785,12 +1379,22 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	public double getDocLength(int docID) {
 		
 		double length = -1;
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
-			Document doc = index.document(docID);
+			List<LeafReaderContext> leaves = reader.leaves();
+			LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docID, leaves));
+			Object dl = getDocValue(leaf.reader(), Indexer.FIELD_DOC_LEN, docID - leaf.docBase);
+			if (dl != null)
+				return ((Number)dl).longValue();
+
+			Document doc = reader.document(docID);
 			if (doc != null)
 				length = doc.getField(Indexer.FIELD_DOC_LEN).numericValue().longValue();
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			release(reader);
 		}
 		return length;
 	}
@@ -883,12 +1487,11 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 
 	public Map<Integer, Integer> getDocsByTerm(String term, Set<Integer> docids) {
 		Map<Integer, Integer> df = new HashMap<Integer, Integer>();
+		IndexSearcher searcher = acquire();
+		IndexReader reader = searcher.getIndexReader();
 		try {
-			Fields fields = MultiFields.getFields(index);
-			Iterator<String> it = fields.iterator();
-			while (it.hasNext()) {
-				String field = it.next();
-				PostingsEnum de = MultiFields.getTermDocsEnum(index, field, new BytesRef(term));
+			for (String field: stats.getFieldNames()) {
+				PostingsEnum de = MultiFields.getTermDocsEnum(reader, field, new BytesRef(term));
 				if (de != null) {
 					int doc;
 					while ((doc = de.nextDoc()) != PostingsEnum.NO_MORE_DOCS) {
@@ -899,6 +1502,8 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			release(reader);
 		}
 		return df;
 	}
@@ -942,6 +1547,29 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 		return null;
 	}
 
+	/**
+	 * Returns the searcher for the specified scoring rule over the same reader
+	 * as the base searcher, creating it on first use. Searchers are cached by
+	 * rule string.
+	 * 
+	 * @param base
+	 *            Searcher returned by acquire()
+	 * @param rule
+	 *            Model specification (e.g., method:dir,mu:2500)
+	 * @return IndexSearcher using the rule's Similarity
+	 */
+	IndexSearcher getSearcher(IndexSearcher base, String rule) {
+		IndexReader reader = base.getIndexReader();
+		IndexSearcher ruleSearcher = searchers.get(rule);
+		if (ruleSearcher == null || ruleSearcher.getIndexReader() != reader) {
+			// Missing, or left over from before a refresh
+			ruleSearcher = newSearcher(reader);
+			ruleSearcher.setSimilarity(getSimilarity(rule));
+			searchers.put(rule, ruleSearcher);
+		}
+		return ruleSearcher;
+	}
+
 	/**
 	 * Construct a Similarity object based on the model specification
 	 * 
@@ -952,14 +1580,7 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 	private Similarity getSimilarity(String model) {
 
 		Similarity similarity = null;
-		Map<String, String> params = new HashMap<String, String>();
-		String[] fields = model.split(",");
-
-		// Parse the model spec
-		for (String field : fields) {
-			String[] nvpair = field.split(":");
-			params.put(nvpair[0], nvpair[1]);
-		}
+		Map<String, String> params = parseRule(model);
 
 		String method = params.get("method");
 		if (method.equals("dir") || method.equals("dirichlet")) {
@@ -990,4 +1611,121 @@ public class IndexWrapperLuceneImpl implements IndexWrapper {
 		return similarity;
 	}
 
+	/**
+	 * Construct the QueryDocScorer for a model specification with exact:true
+	 * (e.g., method:dirichlet,mu:2500,exact:true), using this index's
+	 * collection statistics. Supports dir/dirichlet (mu), kl (mu) and bm25
+	 * (k1, b, k2). Each rule is parsed once, and the statistics are shared
+	 * by all scorers for the current reader; the scorer itself is new, since
+	 * it holds the query.
+	 * 
+	 * @param model
+	 *            Model specification
+	 * @return Scorer, or null if the rule isn't exact or its method isn't
+	 *         supported
+	 * @throws IllegalArgumentException
+	 *             if the rule is exact but has no method
+	 */
+	QueryDocScorer getExactScorer(String model) {
+		ExactRule rule = exactRules.get(model);
+		if (rule == null) {
+			rule = new ExactRule(parseRule(model));
+			exactRules.put(model, rule);
+		}
+		QueryDocScorer scorer = rule.newScorer();
+		if (scorer != null)
+			scorer.setCollectionStats(getExactStats());
+		return scorer;
+	}
+
+	/**
+	 * Collection statistics for exact scorers, for the current reader
+	 */
+	CollectionStats getExactStats() {
+		LuceneStatsCache current = stats;
+		ExactStats cached = exactStats;
+		if (cached == null || cached.source != current) {
+			IndexBackedCollectionStatsLucene collectionStats = new IndexBackedCollectionStatsLucene();
+			collectionStats.setStatSource(this);
+			cached = new ExactStats(current, collectionStats);
+			exactStats = cached;
+		}
+		return cached.collectionStats;
+	}
+
+	/**
+	 * A parsed exact scoring rule
+	 */
+	static class ExactRule {
+		final String method;
+		final Map<String, String> params;
+
+		ExactRule(Map<String, String> params) {
+			String method = params.get("method");
+			if (!"true".equals(params.get("exact"))) {
+				method = null;
+			} else if (method == null) {
+				throw new IllegalArgumentException("Exact scoring rule " + params + " has no method");
+			} else if (!method.equals("dir") && !method.equals("dirichlet") && !method.equals("kl") &&
+					!method.equals("bm25")) {
+				System.err.println("Warning: no exact scorer for method " + method + ", using its similarity");
+				method = null;
+			}
+			this.method = method;
+			this.params = params;
+		}
+
+		/**
+		 * Returns a new scorer with the rule's parameters, or null if the
+		 * rule isn't exact
+		 */
+		QueryDocScorer newScorer() {
+			if (method == null)
+				return null;
+
+			QueryDocScorer scorer;
+			if (method.equals("kl")) {
+				scorer = new ScorerDirichletKL();
+				if (params.get("mu") != null)
+					scorer.setParameter(ScorerDirichletKL.MU, Double.parseDouble(params.get("mu")));
+			} else if (method.equals("bm25")) {
+				scorer = new ScorerBM25(null, null);
+				for (String name: new String[] { ScorerBM25.PARAM_K1_NAME, ScorerBM25.PARAM_B_NAME,
+						ScorerBM25.PARAM_K2_NAME }) {
+					if (params.get(name) != null)
+						scorer.setParameter(name, Double.parseDouble(params.get(name)));
+				}
+			} else {
+				scorer = new ScorerDirichlet();
+				if (params.get("mu") != null)
+					scorer.setParameter("mu", Double.parseDouble(params.get("mu")));
+			}
+			return scorer;
+		}
+	}
+
+	static class ExactStats {
+		final LuceneStatsCache source;
+		final CollectionStats collectionStats;
+
+		ExactStats(LuceneStatsCache source, CollectionStats collectionStats) {
+			this.source = source;
+			this.collectionStats = collectionStats;
+		}
+	}
+
+	/**
+	 * Parse a model specification (e.g., method:dir,mu:2500) into its
+	 * name/value pairs
+	 */
+	static Map<String, String> parseRule(String model) {
+		Map<String, String> params = new HashMap<String, String>();
+		String[] fields = model.split(",");
+		for (String field : fields) {
+			String[] nvpair = field.split(":");
+			params.put(nvpair[0], nvpair[1]);
+		}
+		return params;
+	}
+
 }
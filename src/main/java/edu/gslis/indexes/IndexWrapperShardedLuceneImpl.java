@@ -0,0 +1,189 @@
+package edu.gslis.indexes;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Lucene index wrapper over the shard0..shardN subdirectories written by
+ * LuceneBuildIndex.
+ *
+ * The shards are opened as a single MultiReader, so docCount, termFreq,
+ * docFreq, docLengthAvg and the statistics Lucene uses for first-stage
+ * scoring are computed over all shards. Scores are the same as for the merged
+ * index; only internal document IDs differ.
+ *
+ * Queries are searched in parallel, one task per shard, and the per-shard
+ * top-k are merged by the IndexSearcher. Threads are daemons, so the wrapper
+ * doesn't need to be closed for the JVM to exit.
+ */
+public class IndexWrapperShardedLuceneImpl extends IndexWrapperLuceneImpl {
+
+	static final Pattern SHARD_NAME = Pattern.compile("shard[0-9]+");
+
+	DirectoryReader[] shards;
+	ExecutorService executor;
+
+	/**
+	 * @param pathToIndex
+	 *            Directory containing the shard subdirectories
+	 */
+	public IndexWrapperShardedLuceneImpl(String pathToIndex) {
+		this(pathToIndex, 0);
+	}
+
+	/**
+	 * @param pathToIndex
+	 *            Directory containing the shard subdirectories
+	 * @param threads
+	 *            Number of search threads (0 for one per shard)
+	 * @throws IllegalArgumentException
+	 *             if the shards can't be opened
+	 */
+	public IndexWrapperShardedLuceneImpl(String pathToIndex, int threads) {
+		try {
+			List<File> shardDirs = getShardDirs(pathToIndex);
+			if (shardDirs.isEmpty())
+				throw new IOException("No shards found in " + pathToIndex);
+
+			shards = new DirectoryReader[shardDirs.size()];
+			for (int i = 0; i < shards.length; i++)
+				shards[i] = DirectoryReader.open(FSDirectory.open(
+						FileSystems.getDefault().getPath(shardDirs.get(i).getPath())));
+
+			if (threads <= 0)
+				threads = shards.length;
+			executor = IndexTaskRunner.newDaemonPool(threads);
+
+			open(new MultiReader(shards, false), shardDirs.get(0).getPath());
+		} catch (Exception e) {
+			if (executor != null)
+				executor.shutdown();
+			if (shards != null)
+				IOUtils.closeWhileHandlingException(shards);
+			throw new IllegalArgumentException("Can't open sharded index " + pathToIndex + ": " +
+					e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the shard subdirectories of the path, in shard order
+	 */
+	public static List<File> getShardDirs(String pathToIndex) {
+		File[] dirs = new File(pathToIndex).listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isDirectory() && SHARD_NAME.matcher(file.getName()).matches();
+			}
+		});
+		if (dirs == null)
+			return new ArrayList<File>();
+
+		Arrays.sort(dirs, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				return Integer.compare(shardNumber(f1), shardNumber(f2));
+			}
+		});
+		return Arrays.asList(dirs);
+	}
+
+	private static int shardNumber(File dir) {
+		return Integer.parseInt(dir.getName().substring("shard".length()));
+	}
+
+	/**
+	 * True if the path has shard subdirectories and isn't itself an index
+	 */
+	public static boolean isSharded(String pathToIndex) {
+		if (getShardDirs(pathToIndex).isEmpty())
+			return false;
+		try {
+			Directory dir = FSDirectory.open(FileSystems.getDefault().getPath(pathToIndex));
+			try {
+				return !DirectoryReader.indexExists(dir);
+			} finally {
+				dir.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	@Override
+	protected IndexSearcher newSearcher(IndexReader reader) {
+		return new IndexSearcher(reader, executor) {
+			@Override
+			protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+				// One slice per shard
+				List<List<LeafReaderContext>> groups = new ArrayList<List<LeafReaderContext>>();
+				int shard = -1;
+				int shardEnd = 0;
+				for (LeafReaderContext leaf : leaves) {
+					while (leaf.docBase >= shardEnd && shard + 1 < shards.length) {
+						shard++;
+						shardEnd += shards[shard].maxDoc();
+						groups.add(new ArrayList<LeafReaderContext>());
+					}
+					groups.get(groups.size() - 1).add(leaf);
+				}
+
+				List<LeafSlice> slices = new ArrayList<LeafSlice>();
+				for (List<LeafReaderContext> group : groups) {
+					if (!group.isEmpty())
+						slices.add(new LeafSlice(group.toArray(new LeafReaderContext[group.size()])));
+				}
+				return slices.toArray(new LeafSlice[slices.size()]);
+			}
+		};
+	}
+
+	/**
+	 * Reopens any shards that have changed on disk. New shard directories
+	 * are not picked up.
+	 */
+	@Override
+	public synchronized boolean reopen() {
+		try {
+			DirectoryReader[] newShards = shards.clone();
+			List<DirectoryReader> oldShards = new ArrayList<DirectoryReader>();
+			for (int i = 0; i < shards.length; i++) {
+				DirectoryReader newReader = DirectoryReader.openIfChanged(shards[i]);
+				if (newReader != null) {
+					oldShards.add(shards[i]);
+					newShards[i] = newReader;
+				}
+			}
+			if (oldShards.isEmpty())
+				return false;
+
+			shards = newShards;
+			swapReader(new MultiReader(shards, false)).decRef();
+			for (DirectoryReader reader : oldShards)
+				reader.decRef();
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		}
+		return false;
+	}
+}
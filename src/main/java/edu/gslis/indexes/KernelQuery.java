@@ -0,0 +1,272 @@
+package edu.gslis.indexes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import edu.gslis.docscoring.QueryKernel;
+import edu.gslis.lucene.indexer.Indexer;
+
+
+/**
+ * Lucene query that scores documents with a compiled QueryKernel, so the
+ * first-stage ranking is the one the kernel's scorer (ScorerDirichlet,
+ * ScorerDirichletKL, ScorerBM25) gives when rescoring the same documents.
+ *
+ * Matches the documents containing any query term in any of the fields. A
+ * term's frequency is summed over the fields, as getDocVector does over the
+ * term vectors, and the document length is read from the doclen field
+ * (Indexer.FIELD_DOC_LEN) rather than from Lucene's norms. Scores are
+ * computed in double precision: Scorer.score() rounds them to a float, so
+ * use KernelTopDocsCollector to keep the exact values.
+ */
+public class KernelQuery extends Query {
+	final QueryKernel kernel;
+	final String[] terms;
+	final String[] fields;
+
+	/**
+	 * @param kernel
+	 *            Compiled query
+	 * @param fields
+	 *            Fields whose term frequencies are summed
+	 */
+	public KernelQuery(QueryKernel kernel, String[] fields) {
+		this.kernel = kernel;
+		this.terms = kernel.getTerms();
+		this.fields = fields.clone();
+	}
+
+	public QueryKernel getKernel() {
+		return kernel;
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+		return new KernelWeight(this);
+	}
+
+	@Override
+	public String toString(String field) {
+		StringBuilder sb = new StringBuilder("kernel(");
+		for (int i = 0; i < terms.length; i++) {
+			if (i > 0)
+				sb.append(" ");
+			sb.append(terms[i]);
+		}
+		return sb.append(")").toString();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		// Kernels don't define equality; the same kernel is the same query
+		return sameClassAs(other) && kernel == ((KernelQuery)other).kernel
+				&& Arrays.equals(fields, ((KernelQuery)other).fields);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * classHash() + System.identityHashCode(kernel)) + Arrays.hashCode(fields);
+	}
+
+	static class KernelWeight extends Weight {
+		KernelQuery query;
+
+		KernelWeight(KernelQuery query) {
+			super(query);
+			this.query = query;
+		}
+
+		@Override
+		public void extractTerms(Set<Term> terms) {
+			for (String field: query.fields)
+				for (String term: query.terms)
+					terms.add(new Term(field, term));
+		}
+
+		@Override
+		public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+			KernelScorer scorer = scorer(context);
+			if (scorer == null || scorer.iterator().advance(doc) != doc)
+				return Explanation.noMatch("no matching term");
+			return Explanation.match((float)scorer.exactScore(), "kernel score, doc length "
+					+ scorer.docLength());
+		}
+
+		// Kernels aren't boosted or normalized
+		@Override
+		public float getValueForNormalization() {
+			return 1f;
+		}
+
+		@Override
+		public void normalize(float norm, float boost) {
+		}
+
+		@Override
+		public KernelScorer scorer(LeafReaderContext context) throws IOException {
+			LeafReader reader = context.reader();
+			List<PostingsEnum> postings = new ArrayList<PostingsEnum>();
+			List<Integer> termIndexes = new ArrayList<Integer>();
+			for (String field: query.fields) {
+				Terms fieldTerms = reader.terms(field);
+				if (fieldTerms == null)
+					continue;
+				TermsEnum termsEnum = fieldTerms.iterator();
+				for (int i = 0; i < query.terms.length; i++) {
+					if (termsEnum.seekExact(new BytesRef(query.terms[i]))) {
+						postings.add(termsEnum.postings(null, PostingsEnum.FREQS));
+						termIndexes.add(i);
+					}
+				}
+			}
+			if (postings.isEmpty())
+				return null;
+
+			int[] termIndex = new int[termIndexes.size()];
+			for (int i = 0; i < termIndex.length; i++)
+				termIndex[i] = termIndexes.get(i);
+			return new KernelScorer(this, reader, postings.toArray(new PostingsEnum[postings.size()]),
+					termIndex);
+		}
+	}
+
+	/**
+	 * Document-at-a-time disjunction over the postings of every (field, term)
+	 * pair. The postings positioned on the current document are the terms it
+	 * contains.
+	 */
+	public static class KernelScorer extends Scorer {
+		final QueryKernel kernel;
+		final LeafReader reader;
+		final PostingsEnum[] postings;
+		final int[] termIndex;
+		final double[] tf;
+		NumericDocValues lengths;
+		Bits hasLength;
+		int doc = -1;
+
+		final DocIdSetIterator iterator = new DocIdSetIterator() {
+			@Override
+			public int docID() {
+				return doc;
+			}
+
+			@Override
+			public int nextDoc() throws IOException {
+				return advance(doc + 1);
+			}
+
+			@Override
+			public int advance(int target) throws IOException {
+				int min = NO_MORE_DOCS;
+				for (PostingsEnum p: postings) {
+					int d = p.docID();
+					if (d < target)
+						d = p.advance(target);
+					if (d < min)
+						min = d;
+				}
+				return doc = min;
+			}
+
+			@Override
+			public long cost() {
+				long cost = 0;
+				for (PostingsEnum p: postings)
+					cost += p.cost();
+				return cost;
+			}
+		};
+
+		KernelScorer(KernelWeight weight, LeafReader reader, PostingsEnum[] postings, int[] termIndex)
+				throws IOException
+		{
+			super(weight);
+			this.kernel = weight.query.kernel;
+			this.reader = reader;
+			this.postings = postings;
+			this.termIndex = termIndex;
+			this.tf = new double[kernel.size()];
+
+			FieldInfo info = reader.getFieldInfos().fieldInfo(Indexer.FIELD_DOC_LEN);
+			if (info != null && info.getDocValuesType() == DocValuesType.NUMERIC) {
+				lengths = reader.getNumericDocValues(Indexer.FIELD_DOC_LEN);
+				hasLength = reader.getDocsWithField(Indexer.FIELD_DOC_LEN);
+			}
+		}
+
+		@Override
+		public int docID() {
+			return doc;
+		}
+
+		@Override
+		public DocIdSetIterator iterator() {
+			return iterator;
+		}
+
+		/**
+		 * Total frequency of the query terms in the current document
+		 */
+		@Override
+		public int freq() throws IOException {
+			int freq = 0;
+			for (PostingsEnum p: postings)
+				if (p.docID() == doc)
+					freq += p.freq();
+			return freq;
+		}
+
+		@Override
+		public float score() throws IOException {
+			return (float)exactScore();
+		}
+
+		/**
+		 * The kernel's score for the current document
+		 */
+		public double exactScore() throws IOException {
+			Arrays.fill(tf, 0);
+			for (int i = 0; i < postings.length; i++)
+				if (postings[i].docID() == doc)
+					tf[termIndex[i]] += postings[i].freq();
+			return kernel.score(tf, docLength());
+		}
+
+		/**
+		 * Length of the current document, from DocValues if the index has
+		 * them and from the stored doclen field otherwise
+		 */
+		public double docLength() throws IOException {
+			if (lengths != null && hasLength.get(doc))
+				return lengths.get(doc);
+			Document d = reader.document(doc, Collections.singleton(Indexer.FIELD_DOC_LEN));
+			IndexableField dl = d.getField(Indexer.FIELD_DOC_LEN);
+			return (dl == null) ? 0 : dl.numericValue().longValue();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package edu.gslis.indexes;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
+
+
+/**
+ * Collects the top documents by double-precision score. Documents scored by
+ * a KernelQuery keep their exact kernel scores, which Lucene's float
+ * TopDocs would round (and could reorder). Ties go to the lower doc id.
+ */
+public class KernelTopDocsCollector extends SimpleCollector {
+	final int count;
+	final PriorityQueue<ScoredDoc> queue;
+	Scorer scorer;
+	int docBase;
+
+	public static class ScoredDoc {
+		public final int doc;
+		public final double score;
+
+		ScoredDoc(int doc, double score) {
+			this.doc = doc;
+			this.score = score;
+		}
+	}
+
+	// Lowest score first; among equal scores, the later document
+	static final Comparator<ScoredDoc> WORST_FIRST = new Comparator<ScoredDoc>() {
+		public int compare(ScoredDoc a, ScoredDoc b) {
+			int c = Double.compare(a.score, b.score);
+			return (c != 0) ? c : Integer.compare(b.doc, a.doc);
+		}
+	};
+
+	/**
+	 * @param count
+	 *            Number of documents to keep
+	 */
+	public KernelTopDocsCollector(int count) {
+		this.count = count;
+		this.queue = new PriorityQueue<ScoredDoc>(Math.max(1, count), WORST_FIRST);
+	}
+
+	@Override
+	public boolean needsScores() {
+		return true;
+	}
+
+	@Override
+	protected void doSetNextReader(LeafReaderContext context) throws IOException {
+		docBase = context.docBase;
+	}
+
+	@Override
+	public void setScorer(Scorer scorer) {
+		this.scorer = scorer;
+	}
+
+	@Override
+	public void collect(int doc) throws IOException {
+		if (count <= 0)
+			return;
+		double score = (scorer instanceof KernelQuery.KernelScorer)
+				? ((KernelQuery.KernelScorer)scorer).exactScore() : scorer.score();
+		if (queue.size() < count)
+			queue.add(new ScoredDoc(docBase + doc, score));
+		else if (score > queue.peek().score) {
+			queue.poll();
+			queue.add(new ScoredDoc(docBase + doc, score));
+		}
+	}
+
+	/**
+	 * The collected documents, best first. Empties the collector.
+	 */
+	public ScoredDoc[] topDocs() {
+		ScoredDoc[] docs = new ScoredDoc[queue.size()];
+		for (int i = docs.length - 1; i >= 0; i--)
+			docs[i] = queue.poll();
+		return docs;
+	}
+}
@@ -0,0 +1,394 @@
+package edu.gslis.indexes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import edu.gslis.lucene.indexer.Indexer;
+
+
+/**
+ * Collection statistics for a single Lucene IndexReader.
+ *
+ * Field names and collection totals are computed once when the cache is
+ * created. Vocabulary sizes may need a walk over the terms dictionary, so
+ * they are counted on first request and kept for the life of the cache. Term-level document and collection frequencies are looked up on
+ * demand and held in a bounded LRU keyed by (field, term); a null field
+ * means "summed over all fields", matching IndexWrapperLuceneImpl.docFreq(String)
+ * and termFreq(String).
+ *
+ * A cache is only valid for the reader it was built from. When the reader is
+ * reopened, build a new cache rather than reusing this one.
+ */
+public class LuceneStatsCache {
+	public static final int DEFAULT_MAX_TERMS = 100000;
+
+	private static final int DF = 0;
+	private static final int CF = 1;
+
+	IndexReader reader;
+	String[] fieldNames;
+	Terms[] fieldTerms;
+	double termCount = 0;
+	double docCount;
+	double docLengthAvg = 0;
+	// Vocabulary sizes, counted on first request
+	private double termTypeCount = 0;
+	private Map<String, Double> fieldTermTypeCounts;
+
+	final Map<StatsKey, long[]> termStats;
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+
+	public LuceneStatsCache(IndexReader reader) throws IOException {
+		this(reader, DEFAULT_MAX_TERMS);
+	}
+
+	/**
+	 * @param reader
+	 *            Index reader
+	 * @param maxTerms
+	 *            Maximum number of (field, term) entries retained
+	 * @throws IOException
+	 */
+	public LuceneStatsCache(IndexReader reader, final int maxTerms) throws IOException {
+		this.reader = reader;
+		this.termStats = new LinkedHashMap<StatsKey, long[]>(1024, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<StatsKey, long[]> eldest) {
+				return size() > maxTerms;
+			}
+		};
+
+		List<String> names = new ArrayList<String>();
+		List<Terms> terms = new ArrayList<Terms>();
+		Fields fields = MultiFields.getFields(reader);
+		if (fields != null) {
+			Iterator<String> it = fields.iterator();
+			while (it.hasNext()) {
+				String field = it.next();
+				names.add(field);
+				terms.add(fields.terms(field));
+				termCount += reader.getSumTotalTermFreq(field);
+			}
+		}
+		fieldNames = names.toArray(new String[0]);
+		fieldTerms = terms.toArray(new Terms[0]);
+
+		docCount = reader.numDocs();
+		if (docCount > 0)
+			docLengthAvg = reader.getSumTotalTermFreq(Indexer.FIELD_TEXT) / docCount;
+	}
+
+	/**
+	 * Number of unique terms. Terms merged over several segments (or shards)
+	 * don't know their size, so those are counted.
+	 */
+	static long size(Terms terms) throws IOException {
+		long size = terms.size();
+		if (size >= 0)
+			return size;
+		size = 0;
+		TermsEnum termsEnum = terms.iterator();
+		while (termsEnum.next() != null)
+			size++;
+		return size;
+	}
+
+	public IndexReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * Returns the names of all indexed fields
+	 */
+	public String[] getFieldNames() {
+		return fieldNames;
+	}
+
+	/**
+	 * Returns the total number of terms across all fields
+	 */
+	public double termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the total vocabulary size across all fields
+	 */
+	public double termTypeCount() throws IOException {
+		countTermTypes();
+		return termTypeCount;
+	}
+
+	/**
+	 * Returns the vocabulary size of the specified field, or -1 if the codec
+	 * does not record it
+	 *
+	 * @param field
+	 *            Field name
+	 */
+	public double termTypeCount(String field) throws IOException {
+		Double size = countTermTypes().get(field);
+		return (size == null) ? -1 : size;
+	}
+
+	/**
+	 * Counts the vocabulary of each field, once
+	 */
+	private synchronized Map<String, Double> countTermTypes() throws IOException {
+		if (fieldTermTypeCounts != null)
+			return fieldTermTypeCounts;
+		Map<String, Double> counts = new LinkedHashMap<String, Double>();
+		double total = 0;
+		for (int f = 0; f < fieldNames.length; f++) {
+			long fieldSize = (fieldTerms[f] == null) ? -1 : size(fieldTerms[f]);
+			counts.put(fieldNames[f], (double)fieldSize);
+			if (fieldSize > 0)
+				total += fieldSize;
+		}
+		termTypeCount = total;
+		fieldTermTypeCounts = counts;
+		return counts;
+	}
+
+	public double docCount() {
+		return docCount;
+	}
+
+	/**
+	 * Average length of the text field
+	 */
+	public double docLengthAvg() {
+		return docLengthAvg;
+	}
+
+	/**
+	 * Returns the number of documents containing the term, summed over all
+	 * fields
+	 *
+	 * @param term
+	 *            Term
+	 */
+	public double docFreq(String term) throws IOException {
+		return getTermStats(null, term)[DF];
+	}
+
+	/**
+	 * Returns the number of documents containing the term in the field
+	 *
+	 * @param term
+	 *            Term
+	 * @param field
+	 *            Field
+	 */
+	public double docFreq(String term, String field) throws IOException {
+		return getTermStats(field, term)[DF];
+	}
+
+	/**
+	 * Returns the total frequency of the term, summed over all fields
+	 *
+	 * @param term
+	 *            Term
+	 */
+	public double termFreq(String term) throws IOException {
+		return getTermStats(null, term)[CF];
+	}
+
+	/**
+	 * Returns the total frequency of the term in the field
+	 *
+	 * @param term
+	 *            Term
+	 * @param field
+	 *            Field
+	 */
+	public double termFreq(String term, String field) throws IOException {
+		return getTermStats(field, term)[CF];
+	}
+
+	/**
+	 * Looks up several terms at once, summed over all fields if field is null.
+	 * Terms that aren't cached are sorted and looked up with a single
+	 * TermsEnum per field, so each field's terms dictionary is traversed
+	 * once in order instead of being sought from the start for each term.
+	 *
+	 * @param terms
+	 *            Terms
+	 * @param field
+	 *            Field, or null for all fields
+	 * @param docFreqs
+	 *            Filled with the document frequency of each term
+	 * @param termFreqs
+	 *            Filled with the collection frequency of each term
+	 */
+	public void getTermStats(String[] terms, String field, double[] docFreqs, double[] termFreqs) throws IOException {
+		long[][] stats = new long[terms.length][];
+		StatsKey[] keys = new StatsKey[terms.length];
+		List<Integer> missing = new ArrayList<Integer>();
+		synchronized (this) {
+			for (int i = 0; i < terms.length; i++) {
+				keys[i] = new StatsKey(field, terms[i]);
+				stats[i] = termStats.get(keys[i]);
+				if (stats[i] == null)
+					missing.add(i);
+			}
+		}
+		hits.addAndGet(terms.length - missing.size());
+		misses.addAndGet(missing.size());
+
+		if (!missing.isEmpty()) {
+			final BytesRef[] bytes = new BytesRef[terms.length];
+			for (int i: missing) {
+				bytes[i] = new BytesRef(terms[i]);
+				stats[i] = new long[2];
+			}
+			Collections.sort(missing, new Comparator<Integer>() {
+				public int compare(Integer i, Integer j) {
+					return bytes[i].compareTo(bytes[j]);
+				}
+			});
+
+			for (int f = 0; f < fieldTerms.length; f++) {
+				if (fieldTerms[f] == null || (field != null && !fieldNames[f].equals(field)))
+					continue;
+				TermsEnum termsEnum = fieldTerms[f].iterator();
+				for (int i: missing) {
+					if (termsEnum.seekExact(bytes[i])) {
+						stats[i][DF] += termsEnum.docFreq();
+						stats[i][CF] += termsEnum.totalTermFreq();
+					}
+				}
+			}
+
+			synchronized (this) {
+				for (int i: missing)
+					termStats.put(keys[i], stats[i]);
+			}
+		}
+
+		for (int i = 0; i < terms.length; i++) {
+			docFreqs[i] = stats[i][DF];
+			termFreqs[i] = stats[i][CF];
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return termStats.size();
+	}
+
+	@Override
+	public String toString() {
+		return "LuceneStatsCache[size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get() + "]";
+	}
+
+	private long[] getTermStats(String field, String term) throws IOException {
+		StatsKey key = new StatsKey(field, term);
+		long[] stats;
+		synchronized (this) {
+			stats = termStats.get(key);
+		}
+		if (stats != null) {
+			hits.incrementAndGet();
+			return stats;
+		}
+		misses.incrementAndGet();
+
+		// Look up outside the lock; a concurrent miss on the same key just
+		// computes the same values twice.
+		BytesRef bytes = new BytesRef(term);
+		if (field == null) {
+			stats = new long[2];
+			for (Terms terms: fieldTerms)
+				add(stats, lookup(terms, bytes));
+		} else {
+			int i = indexOf(field);
+			stats = (i < 0) ? new long[2] : lookup(fieldTerms[i], bytes);
+		}
+
+		synchronized (this) {
+			termStats.put(key, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * df and cf for one field, with a single terms dictionary seek
+	 */
+	private static long[] lookup(Terms terms, BytesRef bytes) throws IOException {
+		long[] stats = new long[2];
+		if (terms == null)
+			return stats;
+		TermsEnum termsEnum = terms.iterator();
+		if (termsEnum.seekExact(bytes)) {
+			stats[DF] = termsEnum.docFreq();
+			stats[CF] = termsEnum.totalTermFreq();
+		}
+		return stats;
+	}
+
+	/**
+	 * Sums per-field stats. As with IndexReader.totalTermFreq, a cf of -1
+	 * (field doesn't record frequencies) is added as-is.
+	 */
+	private static void add(long[] total, long[] stats) {
+		total[DF] += stats[DF];
+		total[CF] += stats[CF];
+	}
+
+	private int indexOf(String field) {
+		for (int i = 0; i < fieldNames.length; i++)
+			if (fieldNames[i].equals(field))
+				return i;
+		return -1;
+	}
+
+	private static final class StatsKey {
+		final String field;
+		final String term;
+		final int hash;
+
+		StatsKey(String field, String term) {
+			this.field = field;
+			this.term = term;
+			this.hash = 31 * ((field == null) ? 0 : field.hashCode()) + term.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof StatsKey))
+				return false;
+			StatsKey k = (StatsKey)o;
+			return term.equals(k.term) && ((field == null) ? k.field == null : field.equals(k.field));
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+
+
+/**
+ * Text field that adds the number of tokens produced by the analyzer to one
+ * or more DocLengthFields, and optionally records the field's position gaps
+ * in a PositionGapsField. Lengths are counted during the IndexWriter's own
+ * analysis pass, so the text is only analyzed once.
+ */
+public class CountingTextField extends Field
+{
+    final PositionGapsField gaps;
+    final DocLengthField[] lengths;
+
+    public CountingTextField(String name, String value, FieldType type, 
+            DocLengthField... lengths) 
+    {
+        this(name, value, type, null, lengths);
+    }
+
+    public CountingTextField(String name, String value, FieldType type, 
+            PositionGapsField gaps, DocLengthField... lengths) 
+    {
+        super(name, value, type);
+        this.gaps = gaps;
+        this.lengths = lengths;
+    }
+
+    @Override
+    public TokenStream tokenStream(Analyzer analyzer, TokenStream reuse) {
+        return new CountingFilter(super.tokenStream(analyzer, reuse), gaps, lengths,
+                analyzer.getPositionIncrementGap(name()));
+    }
+
+    static final class CountingFilter extends TokenFilter {
+        final PositionGapsField gaps;
+        final DocLengthField[] lengths;
+        final int positionIncrementGap;
+        final PositionIncrementAttribute posIncr = addAttribute(PositionIncrementAttribute.class);
+        long count = 0;
+
+        CountingFilter(TokenStream input, PositionGapsField gaps, DocLengthField[] lengths,
+                int positionIncrementGap) 
+        {
+            super(input);
+            this.gaps = gaps;
+            this.lengths = lengths;
+            this.positionIncrementGap = positionIncrementGap;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken())
+                return false;
+            count++;
+            if (gaps != null)
+                gaps.addToken(posIncr.getPositionIncrement());
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            for (DocLengthField length: lengths)
+                length.add(count);
+            if (gaps != null)
+                gaps.endValue(posIncr.getPositionIncrement() + positionIncrementGap);
+            count = 0;
+        }
+    }
+}
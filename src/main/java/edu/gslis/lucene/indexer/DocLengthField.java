@@ -0,0 +1,46 @@
+package edu.gslis.lucene.indexer;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DocValuesType;
+
+
+/**
+ * Token count for a document (or one of its fields), filled in by
+ * CountingTextField while the IndexWriter analyzes the text. Written as
+ * NumericDocValues and, optionally, as a stored long.
+ *
+ * The IndexWriter reads the value when it reaches this field, so it must
+ * come after the text fields it counts in the Document.
+ */
+public class DocLengthField extends Field
+{
+    static final FieldType TYPE_STORED = new FieldType();
+    static final FieldType TYPE_NOT_STORED = new FieldType();
+    static {
+        TYPE_STORED.setStored(true);
+        TYPE_STORED.setDocValuesType(DocValuesType.NUMERIC);
+        TYPE_STORED.freeze();
+        TYPE_NOT_STORED.setDocValuesType(DocValuesType.NUMERIC);
+        TYPE_NOT_STORED.freeze();
+    }
+
+    long length = 0;
+
+    public DocLengthField(String name, boolean stored) {
+        super(name, stored ? TYPE_STORED : TYPE_NOT_STORED);
+    }
+
+    public void add(long count) {
+        length += count;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public Number numericValue() {
+        return Long.valueOf(length);
+    }
+}
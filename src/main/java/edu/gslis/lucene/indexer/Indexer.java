@@ -1,30 +1,35 @@
 package edu.gslis.lucene.indexer;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.StringReader;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.LegacyDoubleField;
 import org.apache.lucene.document.LegacyIntField;
 import org.apache.lucene.document.LegacyLongField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 
 import edu.gslis.lucene.main.config.FieldConfig;
@@ -39,6 +44,9 @@ public abstract class Indexer
 
     public static final String FIELD_DOCNO = "docno";
     public static final String FIELD_DOC_LEN = "doclen";
+    public static final String FIELD_POSITION_GAPS = "posgaps";
+    public static final String FIELD_SOURCE_FILE = "sourcefile";
+    public static final String FIELD_SEQUENCE = "seq";
     public static final String FIELD_TEXT = "text"; 
     public static final String FIELD_EPOCH = "epoch"; 
     
@@ -58,10 +66,115 @@ public abstract class Indexer
     public static final String DEFAULT_ANALYZER = "org.apache.lucene.analysis.standard.StandardAnalyzer";
 
 
+    protected boolean docValues = false;
+    protected String timeFieldName = FIELD_EPOCH;
+    protected int threads = 1;
+    protected boolean appendOnly = false;
+    protected boolean fieldStats = false;
+    protected final AtomicLong docCount = new AtomicLong();
+    protected volatile String sourceFile = null;
+    protected AtomicLong sequence = null;
+
     public abstract void buildIndex(IndexWriter writer, Set<FieldConfig> fields,
             String name, InputStream is)
         throws Exception;
     
+    /**
+     * If true, also write the docno and time fields as DocValues so
+     * that search hits can be materialized without loading stored fields.
+     * @param docValues
+     */
+    public void setDocValues(boolean docValues) {
+        this.docValues = docValues;
+    }
+    
+    /**
+     * If true, also write the length (doclen_<field>) and position gaps 
+     * (posgaps_<field>) of each text field. Readers fall back to the term
+     * vectors without them.
+     * @param fieldStats
+     */
+    public void setFieldStats(boolean fieldStats) {
+        this.fieldStats = fieldStats;
+    }
+    
+    /**
+     * Number of documents added (or updated) by this indexer so far
+     */
+    public long getDocCount() {
+        return docCount.get();
+    }
+    
+    /**
+     * Prints indexer-specific statistics at the end of a build (none by 
+     * default)
+     */
+    public void printStats(PrintStream out) {
+    }
+    
+    /**
+     * Number of worker threads used to parse documents within a file, 
+     * for indexers that support it (trectext), or per pipeline stage 
+     * (streamcorpus). Defaults to 1.
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    
+    /**
+     * If true, indexers that replace documents by id (streamcorpus) add 
+     * them instead, without a delete lookup per document. Duplicate ids
+     * have to be removed after the build.
+     * @param appendOnly
+     */
+    public void setAppendOnly(boolean appendOnly) {
+        this.appendOnly = appendOnly;
+    }
+    
+    /**
+     * Corpus file being indexed. If set, every document gets the path as an
+     * unstored FIELD_SOURCE_FILE term, so the documents of a file can be
+     * deleted if it has to be indexed again.
+     * @param sourceFile
+     */
+    public void setSourceFile(String sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+    
+    /**
+     * Counter shared by the indexers adding to one IndexWriter. If set, 
+     * every document gets the next number as FIELD_SEQUENCE (NumericDocValues
+     * and LongPoint), so documents can be ordered by when they were added and
+     * the ones added since a given number can be found.
+     * @param sequence
+     */
+    public void setSequence(AtomicLong sequence) {
+        this.sequence = sequence;
+    }
+    
+    /**
+     * Adds the fields the build uses to track documents, if set: the source
+     * file (setSourceFile) and the sequence number (setSequence)
+     */
+    protected void addBuildFields(Document luceneDoc) {
+        if (sourceFile != null)
+            luceneDoc.add(new StringField(FIELD_SOURCE_FILE, sourceFile, Field.Store.NO));
+        if (sequence != null) {
+            long seq = sequence.getAndIncrement();
+            luceneDoc.add(new NumericDocValuesField(FIELD_SEQUENCE, seq));
+            luceneDoc.add(new LongPoint(FIELD_SEQUENCE, seq));
+        }
+    }
+    
+    /**
+     * Name of the field holding the document time (defaults to epoch)
+     * @param timeFieldName
+     */
+    public void setTimeFieldName(String timeFieldName) {
+        this.timeFieldName = timeFieldName;
+    }
+    
     
     protected void addField(Document luceneDoc, FieldConfig fieldConfig, String value, 
             Analyzer defaultAnalyzer) throws Exception
@@ -69,8 +182,11 @@ public abstract class Indexer
         String fieldName = fieldConfig.getName();
         String type = fieldConfig.getType();
         
-        value = value.replaceAll(":", "");
+        value = StringUtils.remove(value, ':');
         Field luceneField;
+        DocLengthField docLength = null;
+        PositionGapsField gaps = null;
+        DocLengthField fieldLength = null;
         Field.Store stored = fieldConfig.isStored() ? Field.Store.YES : Field.Store.NO;
 
         if (type.equals(FieldConfig.TYPE_ID)) {     
@@ -99,30 +215,167 @@ public abstract class Indexer
             fieldType.setStoreTermVectorPositions(fieldConfig.isStoredTermVectorPositions());
             fieldType.setStoreTermVectorOffsets(fieldConfig.isStoredTermVectorOffsets());
             fieldType.setStoreTermVectorPayloads(fieldConfig.isStoredTermVectorPayloads());
-            luceneField = new Field(fieldName, value, fieldType);
             
-            // Store the document length            
-            TokenStream stream = defaultAnalyzer.tokenStream(fieldName, new StringReader(value));
-            stream.reset();                            
-            long docLength = 0;                            
-            while (stream.incrementToken())
-                docLength++;
-            stream.end();
-            stream.close();
-
-            IndexableField docLen = luceneDoc.getField(FIELD_DOC_LEN);
-            if (docLen != null) {
-                docLength += docLen.numericValue().longValue();
-                luceneDoc.removeField(FIELD_DOC_LEN);
+            // Document and field lengths (and position gaps) are counted while
+            // the IndexWriter analyzes the text. These fields are moved to the
+            // end of the document so they are written after every text field.
+            docLength = getLengthField(luceneDoc, FIELD_DOC_LEN, true);
+            DocLengthField[] lengths = { docLength };
+            if (fieldStats) {
+                fieldLength = getLengthField(luceneDoc, getFieldLengthName(fieldName), false);
+                lengths = new DocLengthField[] { docLength, fieldLength };
+            }
+            if (fieldConfig.isIndexed()) {
+                if (fieldStats)
+                    gaps = getGapsField(luceneDoc, getFieldGapsName(fieldName));
+                luceneField = new CountingTextField(fieldName, value, fieldType, gaps, lengths);
+            } else {
+                luceneField = new Field(fieldName, value, fieldType);
+                long count = countTokens(defaultAnalyzer, fieldName, value);
+                for (DocLengthField length: lengths)
+                    length.add(count);
             }
-            luceneDoc.add(new LegacyLongField(FIELD_DOC_LEN, docLength, Store.YES));
         }
         else {
             throw new Exception("Unsupported field type: " + type);
         }        
         luceneDoc.add(luceneField);
+        if (docLength != null)
+            luceneDoc.add(docLength);
+        if (fieldLength != null)
+            luceneDoc.add(fieldLength);
+        if (gaps != null)
+            luceneDoc.add(gaps);
+        
+        if (docValues && (fieldName.equals(FIELD_DOCNO) || fieldName.equals(timeFieldName)))
+            addDocValuesField(luceneDoc, fieldName, type, value);
+    }
+    
+    /**
+     * Returns the length field with the given name, removed from the 
+     * document, or a new one if the document doesn't have it yet
+     */
+    private static DocLengthField getLengthField(Document luceneDoc, String name, boolean stored) {
+        IndexableField field = luceneDoc.getField(name);
+        luceneDoc.removeFields(name);
+        if (field instanceof DocLengthField)
+            return (DocLengthField)field;
+        return new DocLengthField(name, stored);
+    }
+    
+    private static PositionGapsField getGapsField(Document luceneDoc, String name) {
+        IndexableField field = luceneDoc.getField(name);
+        luceneDoc.removeFields(name);
+        if (field instanceof PositionGapsField)
+            return (PositionGapsField)field;
+        return new PositionGapsField(name);
+    }
+    
+    /**
+     * Name of the BinaryDocValues field holding the position gaps of a text
+     * field (see PositionGapsField)
+     */
+    public static String getFieldGapsName(String fieldName) {
+        return FIELD_POSITION_GAPS + "_" + fieldName;
     }
     
+    /**
+     * Name of the NumericDocValues field holding the length of a text field
+     */
+    public static String getFieldLengthName(String fieldName) {
+        return FIELD_DOC_LEN + "_" + fieldName;
+    }
+    
+    private static long countTokens(Analyzer analyzer, String fieldName, String value) 
+            throws IOException
+    {
+        TokenStream stream = analyzer.tokenStream(fieldName, new StringReader(value));
+        long count = 0;
+        try {
+            stream.reset();
+            while (stream.incrementToken())
+                count++;
+            stream.end();
+        } finally {
+            stream.close();
+        }
+        return count;
+    }
+    
+    /**
+     * Adds a single-valued DocValues field. Only the first value for a field
+     * is kept. Encoding:
+     * <ul>
+     * <li> int, long: NumericDocValues
+     * <li> double: SortedNumericDocValues (NumericUtils sortable long)
+     * <li> everything else: SortedDocValues
+     * </ul>
+     * IndexWrapperLuceneImpl decodes hit metadata from these types.
+     */
+    protected void addDocValuesField(Document luceneDoc, String fieldName, String type, String value) 
+    {
+        for (IndexableField field: luceneDoc.getFields(fieldName)) {
+            if (field.fieldType().docValuesType() != DocValuesType.NONE)
+                return;
+        }
+        
+        if (type.equals(FieldConfig.TYPE_INT) || type.equals(FieldConfig.TYPE_LONG)) {
+            luceneDoc.add(new NumericDocValuesField(fieldName, Long.valueOf(value)));
+        }
+        else if (type.equals(FieldConfig.TYPE_DOUBLE)) {
+            luceneDoc.add(new SortedNumericDocValuesField(fieldName, 
+                    NumericUtils.doubleToSortableLong(Double.valueOf(value))));
+        }
+        else {
+            luceneDoc.add(new SortedDocValuesField(fieldName, new BytesRef(value)));
+        }
+    }
+    
+    
+    /**
+     * Indexes each file entry of a gzipped tar archive as a file named by
+     * getEntryName. With more than one entry thread, entries are indexed on
+     * a pool of threads while the archive is read. Errors are reported per
+     * entry.
+     */
+    protected long buildIndexFromTar(final IndexWriter writer, final Set<FieldConfig> fields,
+            File file) throws Exception 
+    {
+        TarEntryReader reader = new TarEntryReader(file);
+        try {
+            return reader.process(new TarEntryReader.EntryHandler() {
+                public void process(String path, byte[] data) {
+                    try {
+                        buildIndex(writer, fields, getEntryName(path), new ByteArrayInputStream(data));
+                    } catch (Exception e) {
+                        System.err.println("Error processing entry " + path);
+                        e.printStackTrace();
+                    }
+                }
+            }, getEntryThreads());
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Name passed to buildIndex for a tar entry: the file name without 
+     * extension
+     */
+    protected String getEntryName(String path) {
+        String name = path.substring(path.lastIndexOf("/") + 1);
+        if (name.contains("."))
+            name = name.substring(0, name.lastIndexOf("."));
+        return name;
+    }
+    
+    /**
+     * Number of threads indexing tar entries. Defaults to the configured
+     * threads; indexers that parallelize within a file use 1.
+     */
+    protected int getEntryThreads() {
+        return threads;
+    }
     
     public long buildIndex(IndexWriter writer, Set<FieldConfig> fields,
             File file) throws Exception 
@@ -144,34 +397,7 @@ public abstract class Indexer
         }
         else if (file.getName().endsWith("tgz")) {
             System.out.println("Indexing " + file.getName());
-            TarArchiveInputStream tis = 
-                    new TarArchiveInputStream(
-                            new GzipCompressorInputStream(
-                                    new BufferedInputStream(
-                                            new FileInputStream(file))));
-            TarArchiveEntry entry;
-            while (null != (entry = tis.getNextTarEntry())) 
-            {
-                if (entry.isFile()) {
-                    int size = 0;
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    int c;
-                    while (size < entry.getSize()) {
-                        c = tis.read();
-                        size++;
-                        bos.write(c);
-                    }
-                    
-                    String name = entry.getName();
-                    if (name.contains("."))
-                        name = name.substring(name.lastIndexOf("/")+1, name.lastIndexOf("."));
-                    else
-                        name = name.substring(name.lastIndexOf("/")+1, name.length());
-                    InputStream is = new ByteArrayInputStream(bos.toByteArray());
-                    buildIndex(writer, fields, name, is);
-                }
-            }
-            tis.close();
+            count += buildIndexFromTar(writer, fields, file);
         }
         else {
             String name = file.getName();
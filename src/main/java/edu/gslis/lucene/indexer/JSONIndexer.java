@@ -1,17 +1,11 @@
 package edu.gslis.lucene.indexer;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Set;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -38,39 +32,7 @@ public class JSONIndexer extends Indexer {
             }
         }
         else if (file.getName().endsWith("tgz")) {
-            TarArchiveInputStream tis = 
-                    new TarArchiveInputStream(
-                            new GzipCompressorInputStream(
-                                    new BufferedInputStream(
-                                            new FileInputStream(file))));
-            TarArchiveEntry entry;
-            while (null != (entry = tis.getNextTarEntry())) 
-            {
-                if (entry.isFile()) {
-                    try
-                    {
-                        int size = 0;
-                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                        int c;
-                        while (size < entry.getSize()) {
-                            c = tis.read();
-                            size++;
-                            bos.write(c);
-                        }
-                        
-                        String name = entry.getName();
-                        name = name.substring(0, name.lastIndexOf("."));
-                        name = name.replaceAll("/", "_");
-                        InputStream is = new ByteArrayInputStream(bos.toByteArray());
-                        buildIndex(writer, fields, name, is);
-                        is.close();
-                    } catch (Exception e) {
-                        System.err.println("Error processing entry " + entry.getName());
-                        e.printStackTrace();
-                    }
-                }
-            }
-            tis.close();
+            count += buildIndexFromTar(writer, fields, file);
         }
         else {
             InputStream is = null;
@@ -97,6 +59,15 @@ public class JSONIndexer extends Indexer {
 
     }
     
+    /**
+     * Tar entries are named by their path without extension, with '/'
+     * replaced by '_'
+     */
+    @Override
+    protected String getEntryName(String path) {
+        return path.substring(0, path.lastIndexOf(".")).replace('/', '_');
+    }
+    
     public void buildIndex(IndexWriter writer, Set<FieldConfig> fields, String name,
         InputStream is) throws Exception  
     {
@@ -164,7 +135,9 @@ public class JSONIndexer extends Indexer {
 
             }
         }
+        addBuildFields(luceneDoc);
         writer.addDocument(luceneDoc);
+        docCount.incrementAndGet();
       
     }
 }
@@ -0,0 +1,78 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Append-only list of keys, each with a value, kept in a file in the index
+ * directory so that it survives restarts. One line per key: key and value,
+ * tab separated. A later line for a key replaces an earlier one.
+ * 
+ * Used by LuceneBuildIndex for:
+ * <ul>
+ * <li> MANIFEST: the corpus files already added to the index (incremental 
+ *      mode), by absolute path, with length and last-modified time
+ * <li> SKIPPED: documents that failed to parse or timed out (TikaIndexer), 
+ *      with the reason. Delete the file to retry them.
+ * </ul>
+ */
+public class KeyedList 
+{
+    public static final String MANIFEST = "indexed.manifest";
+    public static final String SKIPPED = "skipped.list";
+    
+    File listFile;
+    Map<String, String> values = new HashMap<String, String>();
+    
+    public KeyedList(String indexPath, String fileName) throws IOException {
+        listFile = new File(indexPath, fileName);
+        if (listFile.exists()) {
+            List<String> lines = FileUtils.readLines(listFile, "UTF-8");
+            for (String line: lines) {
+                int tab = line.indexOf('\t');
+                if (tab > 0)
+                    values.put(line.substring(0, tab), line.substring(tab + 1));
+                else if (!line.isEmpty())
+                    values.put(line, "");
+            }
+        }
+    }
+    
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+    
+    /**
+     * True if the key is listed with the given value
+     */
+    public synchronized boolean contains(String key, String value) {
+        return value.equals(values.get(key));
+    }
+    
+    /**
+     * Records the key with its value, unless it is already listed with that
+     * value
+     */
+    public synchronized void add(String key, String value) throws IOException {
+        if (value.equals(values.put(key, value)))
+            return;
+        listFile.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(listFile, true);
+        try {
+            writer.write(key + "\t" + value + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+    
+    public synchronized int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,155 @@
+package edu.gslis.lucene.indexer;
+
+import java.util.Arrays;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+
+
+/**
+ * Position gaps of one text field in a document, filled in by
+ * CountingTextField while the IndexWriter analyzes the text, and written as
+ * BinaryDocValues.
+ *
+ * Removed tokens (stopwords) leave positions with no term in the index.
+ * Proximity models count positions densely, skipping those gaps, which
+ * otherwise can only be recovered by reading the positions of every term
+ * in the term vector. With the gaps recorded, the dense position of any
+ * term occurrence is known from its own position (see Gaps.toDense).
+ *
+ * Encoded as vints: the number of occupied positions, the number of gap
+ * runs, then for each run the delta of the position that ends it and the
+ * number of empty positions before it.
+ *
+ * Like DocLengthField, this must come after the text it describes in the
+ * Document.
+ */
+public class PositionGapsField extends Field
+{
+    static final FieldType TYPE = new FieldType();
+    static {
+        TYPE.setDocValuesType(DocValuesType.BINARY);
+        TYPE.freeze();
+    }
+
+    // Position of the last token, and the position increments are added to
+    int lastToken = -1;
+    int position = -1;
+    int holes = 0;
+    int[] runStarts = new int[8];
+    int[] runHoles = new int[8];
+    int runs = 0;
+
+    public PositionGapsField(String name) {
+        super(name, TYPE);
+    }
+
+    /**
+     * Called for each token
+     * @param increment Token's position increment
+     */
+    void addToken(int increment) {
+        position += increment;
+        if (position > lastToken + 1) {
+            holes += position - lastToken - 1;
+            if (runs == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runs * 2);
+                runHoles = Arrays.copyOf(runHoles, runs * 2);
+            }
+            runStarts[runs] = position;
+            runHoles[runs++] = holes;
+        }
+        if (position > lastToken)
+            lastToken = position;
+    }
+
+    /**
+     * Called at the end of each value, as the IndexWriter does, with the
+     * final position increment plus the analyzer's gap between values
+     */
+    void endValue(int increment) {
+        position += increment;
+    }
+
+    @Override
+    public BytesRef binaryValue() {
+        byte[] bytes = new byte[5 * (2 + 2 * runs)];
+        int n = writeVInt(bytes, 0, lastToken + 1 - holes);
+        n = writeVInt(bytes, n, runs);
+        int prevStart = 0;
+        int prevHoles = 0;
+        for (int i = 0; i < runs; i++) {
+            n = writeVInt(bytes, n, runStarts[i] - prevStart);
+            n = writeVInt(bytes, n, runHoles[i] - prevHoles);
+            prevStart = runStarts[i];
+            prevHoles = runHoles[i];
+        }
+        return new BytesRef(bytes, 0, n);
+    }
+
+    private static int writeVInt(byte[] bytes, int offset, int i) {
+        while ((i & ~0x7F) != 0) {
+            bytes[offset++] = (byte)((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        bytes[offset++] = (byte)i;
+        return offset;
+    }
+
+    /**
+     * Decodes a value written by this field
+     *
+     * @return the gaps, or null if the value is empty (document without
+     *         the field, or index built without gaps)
+     */
+    public static Gaps decode(BytesRef value) {
+        if (value == null || value.length == 0)
+            return null;
+        ByteArrayDataInput in = new ByteArrayDataInput(value.bytes, value.offset, value.length);
+        int length = in.readVInt();
+        int runs = in.readVInt();
+        int[] starts = new int[runs];
+        int[] holes = new int[runs];
+        int start = 0;
+        int hole = 0;
+        for (int i = 0; i < runs; i++) {
+            start += in.readVInt();
+            hole += in.readVInt();
+            starts[i] = start;
+            holes[i] = hole;
+        }
+        return new Gaps(length, starts, holes);
+    }
+
+    public static class Gaps {
+        final int length;
+        final int[] starts;
+        final int[] holes;
+
+        Gaps(int length, int[] starts, int[] holes) {
+            this.length = length;
+            this.starts = starts;
+            this.holes = holes;
+        }
+
+        /**
+         * Number of occupied positions, i.e. the field's dense length
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Dense position of a token at the specified index position
+         */
+        public int toDense(int position) {
+            int i = Arrays.binarySearch(starts, position);
+            if (i < 0)
+                i = -i - 2;
+            return (i < 0) ? position : position - holes[i];
+        }
+    }
+}
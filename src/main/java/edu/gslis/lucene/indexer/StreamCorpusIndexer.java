@@ -3,13 +3,24 @@ package edu.gslis.lucene.indexer;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
@@ -19,7 +30,6 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
@@ -31,12 +41,40 @@ import edu.gslis.lucene.main.config.FieldConfig;
 
 
 /**
- * Builds a Lucene index from a thrift-formatted Stream corpus.
+ * Builds a Lucene index from a thrift-formatted Stream corpus. Items are read
+ * with StreamItemDecoder, which only decodes the fields used by the 
+ * configured field sources.
  *
+ * With more than one thread, a file or directory of chunk files is indexed
+ * by a three stage pipeline, each stage with its own thread pool and 
+ * bounded queues in between:
+ * <ol>
+ * <li> decode: each thread decompresses and decodes whole chunk files
+ * <li> strip: removes leftover tags from clean_visible and decodes the url
+ * <li> index: builds the Lucene documents and adds them to the IndexWriter
+ * </ol>
+ * Document order in the index is then not guaranteed. Items that fail in a
+ * stage are skipped; if a stage itself fails, the pipeline is stopped and
+ * the file fails.
+ *
+ * Items are added with updateDocument on the stream id, so a stream id seen
+ * twice replaces the earlier document. In append-only mode addDocument is
+ * used instead, which avoids a delete lookup per item; duplicates are left
+ * for the caller to remove (see LuceneBuildIndex).
  */
 public class StreamCorpusIndexer extends Indexer 
 {
     public final static String SERIF = "serif";
+    static final int XZ_HEADER_SIZE = 12;
+    static final int QUEUE_SIZE_PER_THREAD = 64;
+    
+    // Bug in KBA processing leaves some tags
+    static final Pattern TAG_PATTERN = Pattern.compile("<[^>]*>");
+
+    // Mark the end of input for a stage (compared by reference)
+    static final StreamItem END_ITEM = new StreamItem();
+    static final StreamDoc END_DOC = new StreamDoc();
+    
     /**
      * Recurses files in a directory
      */
@@ -44,6 +82,13 @@ public class StreamCorpusIndexer extends Indexer
     public long buildIndex(IndexWriter writer, Set<FieldConfig> fields,
             File file) throws Exception 
     {
+        if (threads > 1) {
+            List<File> files = new ArrayList<File>();
+            listFiles(file, files);
+            buildIndexPipelined(writer, fields, files);
+            return files.size();
+        }
+        
         long count = 0;
         if (file.isDirectory()) {
             File[] files = file.listFiles();
@@ -77,93 +122,377 @@ public class StreamCorpusIndexer extends Indexer
     public void buildIndex(IndexWriter writer, Set<FieldConfig> fields, String name,
             InputStream is) throws Exception 
     {
-        Analyzer analyzer = writer.getAnalyzer();
-                
+        TTransport inTransport = openTransport(is);
+        TBinaryProtocol inProtocol = new TBinaryProtocol(inTransport);
+        try 
+        {
+            CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+            StreamItemDecoder itemDecoder = new StreamItemDecoder(fields);
+
+            // Run through items in the thrift file
+            while (true) 
+            {
+                // Only decode the fields we index
+                StreamItem item = itemDecoder.read(inProtocol);
+                // We're only using the cleaned/visible text
+                if (item.body == null || item.body.clean_visible == null) {
+                    // Can't work with empty text...
+                    continue;
+                }
+                addDocument(writer, fields, new StreamDoc(item, decoder));
+            }
+    
+        } catch (TTransportException te) {
+            if (te.getType() == TTransportException.END_OF_FILE) {
+                //System.out.println("*** EOF ***");
+            } else {
+                throw te;
+            }
+        } finally {
+            inTransport.close();
+        }
+        System.out.println("Finished " + name);
+    }
+    
+    /**
+     * Opens a thrift transport over an optionally compressed stream
+     */
+    private TTransport openTransport(InputStream is) throws Exception {
+        // All attempts read from the same buffered stream, reset to the start
+        // after each failure, so no bytes are lost for uncompressed files
         InputStream input;
+        InputStream ois = new BufferedInputStream(is);
         try {
             // Use commons-compress to detect compressed format
-            InputStream ois = new BufferedInputStream(is);
             input = new CompressorStreamFactory().createCompressorInputStream(ois);                
         } catch (Exception e) {
+            ois.mark(XZ_HEADER_SIZE);
             try { 
                 // If necessary, try XZ directly
-                InputStream ois = new BufferedInputStream(is);
                 input = new XZCompressorInputStream(ois);
             } catch (Exception e2) {
                 // Otherwise treat as uncompressed
-                input = is;
+                ois.reset();
+                input = ois;
             }
         }            
         
         // Setup the thrift inputstream
-        TTransport inTransport = 
-            new TIOStreamTransport(new BufferedInputStream(input));
-        TBinaryProtocol inProtocol = new TBinaryProtocol(inTransport);
+        TTransport inTransport = new TBufferedInputTransport(input);
         inTransport.open();
-        try 
-        {
-            Charset charset = Charset.forName("UTF-8");
-            CharsetDecoder decoder = charset.newDecoder();
+        return inTransport;
+    }
+    
+    /**
+     * Builds the Lucene document for an item and adds it to the index
+     */
+    private void addDocument(IndexWriter writer, Set<FieldConfig> fields, StreamDoc doc) 
+            throws Exception
+    {
+        Analyzer analyzer = writer.getAnalyzer();
+        
+        // One Lucene document per thrift item
+        Document luceneDoc = new Document();
+        String docnoField = "";
+        
+        for (FieldConfig field: fields) {
+            String source = field.getSource();
 
-            // Run through items in the thrift file
-            while (true) 
+            if (!StringUtils.isEmpty(source))
             {
-                // One Lucene document per thrift item
-                Document luceneDoc = new Document();
-
-                final StreamItem item = new StreamItem();
-                item.read(inProtocol);
-                // We're only using the cleaned/visible text
-                if (item.body == null || item.body.clean_visible == null) {
-                    // Can't work with empty text...
-                    continue;
+                if (source.equals(StreamItemDecoder.SOURCE_DOC_ID))  {
+                    docnoField = field.getName();
+                    addField(luceneDoc, field, doc.streamId, analyzer);
+                }
+                else if (source.equals(StreamItemDecoder.SOURCE_TIMESTAMP)) 
+                    addField(luceneDoc, field, doc.timestamp, analyzer);
+                else if (source.equals(StreamItemDecoder.SOURCE_BODY)) 
+                    addField(luceneDoc, field, doc.text, analyzer);
+                else if (source.equals(StreamItemDecoder.SOURCE_SOURCE)) 
+                    addField(luceneDoc, field, doc.source, analyzer);
+                else if (source.equals(StreamItemDecoder.SOURCE_URL)) 
+                    addField(luceneDoc, field, doc.url, analyzer);
+            }
+        }
+        addBuildFields(luceneDoc);
+        if (appendOnly)
+            writer.addDocument(luceneDoc);
+        else
+            writer.updateDocument(new Term(docnoField, doc.streamId), luceneDoc);
+        docCount.incrementAndGet();
+    }
+    
+    /**
+     * Removes tags from the text, if it has any
+     */
+    static String stripTags(String text) {
+        if (text.indexOf('<') < 0)
+            return text;
+        return TAG_PATTERN.matcher(text).replaceAll("");
+    }
+    
+    private static void listFiles(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] listed = file.listFiles();
+            Arrays.sort(listed);
+            for (File f: listed)
+                listFiles(f, files);
+        } else {
+            files.add(file);
+        }
+    }
+    
+    /**
+     * Indexes the chunk files with the decode, strip and index stages, 
+     * each running on its own pool of threads. Items that fail are reported
+     * and skipped. If a stage fails as a whole (e.g., the IndexWriter is 
+     * closed after a tragic error), every stage is stopped and the failure
+     * is thrown.
+     */
+    private void buildIndexPipelined(IndexWriter writer, Set<FieldConfig> fields, 
+            List<File> files) throws Exception
+    {
+        BlockingQueue<File> fileQueue = new LinkedBlockingQueue<File>(files);
+        BlockingQueue<StreamItem> itemQueue = 
+                new ArrayBlockingQueue<StreamItem>(threads * QUEUE_SIZE_PER_THREAD);
+        BlockingQueue<StreamDoc> docQueue = 
+                new ArrayBlockingQueue<StreamDoc>(threads * QUEUE_SIZE_PER_THREAD);
+        
+        int decoders = Math.max(1, Math.min(threads, files.size()));
+        Pipeline pipeline = new Pipeline(Executors.newFixedThreadPool(decoders),
+                Executors.newFixedThreadPool(threads), Executors.newFixedThreadPool(threads));
+        for (int t = 0; t < decoders; t++)
+            pipeline.decodePool.submit(new DecodeWorker(pipeline, fileQueue, itemQueue, fields));
+        for (int t = 0; t < threads; t++) {
+            pipeline.stripPool.submit(new StripWorker(pipeline, itemQueue, docQueue));
+            pipeline.indexPool.submit(new IndexWorker(pipeline, docQueue, writer, fields));
+        }
+        
+        // Shut the stages down in order, each once the one before is done
+        pipeline.decodePool.shutdown();
+        pipeline.decodePool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        for (int t = 0; t < threads; t++)
+            pipeline.put(itemQueue, END_ITEM);
+        pipeline.stripPool.shutdown();
+        pipeline.stripPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        for (int t = 0; t < threads; t++)
+            pipeline.put(docQueue, END_DOC);
+        pipeline.indexPool.shutdown();
+        pipeline.indexPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        
+        if (pipeline.failure != null)
+            throw new IOException("Indexing pipeline failed", pipeline.failure);
+    }
+    
+    /**
+     * The stages' thread pools and the first failure of a stage, if any
+     */
+    static class Pipeline {
+        final ExecutorService decodePool;
+        final ExecutorService stripPool;
+        final ExecutorService indexPool;
+        volatile Throwable failure;
+        
+        Pipeline(ExecutorService decodePool, ExecutorService stripPool, 
+                ExecutorService indexPool) 
+        {
+            this.decodePool = decodePool;
+            this.stripPool = stripPool;
+            this.indexPool = indexPool;
+        }
+        
+        /**
+         * Records the failure and stops every stage. Threads blocked on a
+         * queue are interrupted.
+         */
+        synchronized void fail(Throwable t) {
+            if (failure != null)
+                return;
+            failure = t;
+            decodePool.shutdownNow();
+            stripPool.shutdownNow();
+            indexPool.shutdownNow();
+        }
+        
+        /**
+         * Puts to a queue, unless the pipeline has failed (its consumers may
+         * be gone)
+         * @return false if the pipeline has failed
+         */
+        <T> boolean put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            while (failure == null) {
+                if (queue.offer(item, 100, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Indexed values of a stream item
+     */
+    static class StreamDoc {
+        String streamId;
+        String timestamp = "";
+        String text;
+        String source;
+        String url = "";
+        
+        StreamDoc() {
+        }
+        
+        StreamDoc(StreamItem item, CharsetDecoder decoder) throws CharacterCodingException {
+            streamId = item.stream_id;
+            if (item.stream_time != null)
+                timestamp = String.valueOf((long)item.getStream_time().getEpoch_ticks());
+            text = stripTags(item.getBody().getClean_visible());
+            source = item.getSource();
+            if (item.abs_url != null)
+                url = decoder.decode(item.abs_url).toString();
+        }
+    }
+    
+    /**
+     * Decodes chunk files from the queue until it is empty
+     */
+    private class DecodeWorker implements Runnable {
+        Pipeline pipeline;
+        BlockingQueue<File> fileQueue;
+        BlockingQueue<StreamItem> itemQueue;
+        Set<FieldConfig> fields;
+        
+        public DecodeWorker(Pipeline pipeline, BlockingQueue<File> fileQueue, 
+                BlockingQueue<StreamItem> itemQueue, Set<FieldConfig> fields)
+        {
+            this.pipeline = pipeline;
+            this.fileQueue = fileQueue;
+            this.itemQueue = itemQueue;
+            this.fields = fields;
+        }
+        
+        public void run() {
+            try {
+                StreamItemDecoder itemDecoder = new StreamItemDecoder(fields);
+                File file;
+                while ((file = fileQueue.poll()) != null && pipeline.failure == null) {
+                    try {
+                        decode(file, itemDecoder);
+                        System.out.println("Finished " + file.getName());
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        System.out.println("Error processing file " + file.getAbsolutePath());
+                        e.printStackTrace();
+                    }
                 }
-                    
-                String streamId = item.stream_id;
-                String timestamp = String.valueOf((long)item.getStream_time().getEpoch_ticks());
-                String clean_visible = item.getBody().getClean_visible();
-                // Bug in KBA processing leaves some tags
-                clean_visible = clean_visible.replaceAll("<[^>]*>", ""); 
-                String stream_source = item.getSource();
-                        
-                String url = "";
-                if (item.abs_url != null) {
-                    url = decoder.decode(item.abs_url).toString();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                pipeline.fail(t);
+            }
+        }
+        
+        private void decode(File file, StreamItemDecoder itemDecoder) throws Exception {
+            TTransport inTransport = openTransport(new FileInputStream(file));
+            TBinaryProtocol inProtocol = new TBinaryProtocol(inTransport);
+            try {
+                while (true) {
+                    StreamItem item = itemDecoder.read(inProtocol);
+                    if (item.body != null && item.body.clean_visible != null
+                            && !pipeline.put(itemQueue, item))
+                        return;
                 }
-                        
-                String docnoField = "";
-                
-                for (FieldConfig field: fields) {
-                    String source = field.getSource();
-
-                    if (!StringUtils.isEmpty(source))
-                    {
-                        if (source.equals("doc_id"))  {
-                            docnoField = field.getName();
-                            addField(luceneDoc, field, streamId, analyzer);
-                        }
-                        else if (source.equals("timestamp")) 
-                            addField(luceneDoc, field, timestamp, analyzer);
-                        else if (source.equals("body")) 
-                            addField(luceneDoc, field, clean_visible, analyzer);
-                        else if (source.equals("source")) 
-                            addField(luceneDoc, field, stream_source, analyzer);
-                        else if (source.equals("url")) 
-                            addField(luceneDoc, field, url, analyzer);
+            } catch (TTransportException te) {
+                if (te.getType() != TTransportException.END_OF_FILE)
+                    throw te;
+            } finally {
+                inTransport.close();
+            }
+        }
+    }
+    
+    /**
+     * Turns decoded items into StreamDocs until END_ITEM
+     */
+    private class StripWorker implements Runnable {
+        Pipeline pipeline;
+        BlockingQueue<StreamItem> itemQueue;
+        BlockingQueue<StreamDoc> docQueue;
+        
+        public StripWorker(Pipeline pipeline, BlockingQueue<StreamItem> itemQueue, 
+                BlockingQueue<StreamDoc> docQueue) 
+        {
+            this.pipeline = pipeline;
+            this.itemQueue = itemQueue;
+            this.docQueue = docQueue;
+        }
+        
+        public void run() {
+            try {
+                CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+                while (true) {
+                    StreamItem item = itemQueue.take();
+                    if (item == END_ITEM)
+                        return;
+                    StreamDoc doc;
+                    try {
+                        doc = new StreamDoc(item, decoder);
+                    } catch (Exception e) {
+                        System.out.println("Error processing item " + item.stream_id);
+                        e.printStackTrace();
+                        continue;
                     }
+                    if (!pipeline.put(docQueue, doc))
+                        return;
                 }
-                writer.updateDocument(new Term(docnoField, streamId), luceneDoc);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                pipeline.fail(t);
             }
+        }
+    }
     
-        } catch (TTransportException te) {
-            if (te.getType() == TTransportException.END_OF_FILE) {
-                //System.out.println("*** EOF ***");
-            } else {
-                throw te;
+    /**
+     * Adds StreamDocs to the index until END_DOC
+     */
+    private class IndexWorker implements Runnable {
+        Pipeline pipeline;
+        BlockingQueue<StreamDoc> docQueue;
+        IndexWriter writer;
+        Set<FieldConfig> fields;
+        
+        public IndexWorker(Pipeline pipeline, BlockingQueue<StreamDoc> docQueue, 
+                IndexWriter writer, Set<FieldConfig> fields)
+        {
+            this.pipeline = pipeline;
+            this.docQueue = docQueue;
+            this.writer = writer;
+            this.fields = fields;
+        }
+        
+        public void run() {
+            try {
+                while (true) {
+                    StreamDoc doc = docQueue.take();
+                    if (doc == END_DOC)
+                        return;
+                    try {
+                        addDocument(writer, fields, doc);
+                    } catch (Exception e) {
+                        // Nothing more can be added once the writer is closed
+                        if (!writer.isOpen())
+                            throw e;
+                        System.out.println("Error indexing item " + doc.streamId);
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                pipeline.fail(t);
             }
         }
-        inTransport.close(); 
-        System.out.println("Finished " + name);
     }
     
     /**
@@ -0,0 +1,241 @@
+package edu.gslis.lucene.indexer;
+
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.thrift.TBaseHelper;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+
+import streamcorpus_v3.ContentItem;
+import streamcorpus_v3.StreamItem;
+import streamcorpus_v3.StreamTime;
+import edu.gslis.lucene.main.config.FieldConfig;
+
+
+/**
+ * Reads only the StreamItem fields used for indexing: stream_id and,
+ * depending on the configured field sources, stream_time (timestamp),
+ * source, abs_url (url) and body.clean_visible (body). Everything else,
+ * including the sentence, token, tagging and label structures in the body,
+ * is skipped at the protocol level without being deserialized.
+ *
+ * With TBinaryProtocol, skipped strings and fixed-width lists are not
+ * allocated: they are skipped in the TBufferedInputTransport buffer, or read
+ * into a scratch buffer with other transports. Other protocols fall back to
+ * TProtocolUtil.skip.
+ *
+ * The returned StreamItem has only the selected fields set. If body isn't
+ * selected but the item has clean_visible text, body.clean_visible is set to
+ * the empty string so callers can still tell items without text apart.
+ *
+ * Instances are not thread-safe.
+ */
+public class StreamItemDecoder
+{
+    public static final String SOURCE_DOC_ID = "doc_id";
+    public static final String SOURCE_TIMESTAMP = "timestamp";
+    public static final String SOURCE_BODY = "body";
+    public static final String SOURCE_SOURCE = "source";
+    public static final String SOURCE_URL = "url";
+
+    // Thrift field IDs (streamcorpus v0.3)
+    static final short ITEM_ABS_URL = 3;
+    static final short ITEM_SOURCE = 6;
+    static final short ITEM_BODY = 7;
+    static final short ITEM_STREAM_ID = 9;
+    static final short ITEM_STREAM_TIME = 10;
+    static final short CONTENT_CLEAN_VISIBLE = 5;
+
+    boolean readTime;
+    boolean readBody;
+    boolean readSource;
+    boolean readUrl;
+
+    byte[] scratch = new byte[8192];
+
+    /**
+     * Decodes the fields needed for the configured field sources
+     */
+    public StreamItemDecoder(Set<FieldConfig> fields) {
+        for (FieldConfig field: fields) {
+            String source = field.getSource();
+            if (StringUtils.isEmpty(source))
+                continue;
+            if (source.equals(SOURCE_TIMESTAMP))
+                readTime = true;
+            else if (source.equals(SOURCE_BODY))
+                readBody = true;
+            else if (source.equals(SOURCE_SOURCE))
+                readSource = true;
+            else if (source.equals(SOURCE_URL))
+                readUrl = true;
+        }
+    }
+
+    public StreamItemDecoder(boolean readTime, boolean readBody, boolean readSource,
+            boolean readUrl)
+    {
+        this.readTime = readTime;
+        this.readBody = readBody;
+        this.readSource = readSource;
+        this.readUrl = readUrl;
+    }
+
+    /**
+     * Reads the next StreamItem
+     */
+    public StreamItem read(TProtocol prot) throws TException {
+        StreamItem item = new StreamItem();
+        prot.readStructBegin();
+        while (true) {
+            TField field = prot.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+
+            if (field.id == ITEM_STREAM_ID && field.type == TType.STRING) {
+                item.setStream_id(prot.readString());
+            } else if (field.id == ITEM_STREAM_TIME && field.type == TType.STRUCT && readTime) {
+                StreamTime time = new StreamTime();
+                time.read(prot);
+                item.setStream_time(time);
+            } else if (field.id == ITEM_SOURCE && field.type == TType.STRING && readSource) {
+                item.setSource(prot.readString());
+            } else if (field.id == ITEM_ABS_URL && field.type == TType.STRING && readUrl) {
+                // readBinary may return a view of the transport buffer
+                item.setAbs_url(TBaseHelper.copyBinary(prot.readBinary()));
+            } else if (field.id == ITEM_BODY && field.type == TType.STRUCT) {
+                item.setBody(readContentItem(prot));
+            } else {
+                skip(prot, field.type);
+            }
+            prot.readFieldEnd();
+        }
+        prot.readStructEnd();
+        return item;
+    }
+
+    private ContentItem readContentItem(TProtocol prot) throws TException {
+        ContentItem content = new ContentItem();
+        prot.readStructBegin();
+        while (true) {
+            TField field = prot.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+
+            if (field.id == CONTENT_CLEAN_VISIBLE && field.type == TType.STRING) {
+                if (readBody) {
+                    content.setClean_visible(prot.readString());
+                } else {
+                    skip(prot, field.type);
+                    content.setClean_visible("");
+                }
+            } else {
+                skip(prot, field.type);
+            }
+            prot.readFieldEnd();
+        }
+        prot.readStructEnd();
+        return content;
+    }
+
+    /**
+     * Skips a value of the given type
+     */
+    void skip(TProtocol prot, byte type) throws TException {
+        boolean binary = prot instanceof TBinaryProtocol;
+        switch (type) {
+        case TType.STRING:
+            if (binary)
+                skipBytes(prot.getTransport(), prot.readI32());
+            else
+                TProtocolUtil.skip(prot, type);
+            break;
+        case TType.STRUCT:
+            prot.readStructBegin();
+            while (true) {
+                TField field = prot.readFieldBegin();
+                if (field.type == TType.STOP)
+                    break;
+                skip(prot, field.type);
+                prot.readFieldEnd();
+            }
+            prot.readStructEnd();
+            break;
+        case TType.MAP:
+            TMap map = prot.readMapBegin();
+            for (int i = 0; i < map.size; i++) {
+                skip(prot, map.keyType);
+                skip(prot, map.valueType);
+            }
+            prot.readMapEnd();
+            break;
+        case TType.SET:
+            TSet set = prot.readSetBegin();
+            skipElements(prot, set.elemType, set.size, binary);
+            prot.readSetEnd();
+            break;
+        case TType.LIST:
+            TList list = prot.readListBegin();
+            skipElements(prot, list.elemType, list.size, binary);
+            prot.readListEnd();
+            break;
+        default:
+            TProtocolUtil.skip(prot, type);
+        }
+    }
+
+    private void skipElements(TProtocol prot, byte type, int size, boolean binary)
+            throws TException
+    {
+        int width = binary ? fixedWidth(type) : 0;
+        if (width > 0) {
+            skipBytes(prot.getTransport(), (long)width * size);
+        } else {
+            for (int i = 0; i < size; i++)
+                skip(prot, type);
+        }
+    }
+
+    /**
+     * Encoded size of fixed-width types in TBinaryProtocol, 0 otherwise
+     */
+    private static int fixedWidth(byte type) {
+        switch (type) {
+        case TType.BOOL:
+        case TType.BYTE:
+            return 1;
+        case TType.I16:
+            return 2;
+        case TType.I32:
+            return 4;
+        case TType.I64:
+        case TType.DOUBLE:
+            return 8;
+        default:
+            return 0;
+        }
+    }
+
+    private void skipBytes(TTransport transport, long length) throws TException {
+        if (transport instanceof TBufferedInputTransport) {
+            TBufferedInputTransport buffered = (TBufferedInputTransport)transport;
+            while (length > 0)
+                length -= buffered.skip(length);
+            return;
+        }
+        while (length > 0) {
+            int n = (int)Math.min(length, scratch.length);
+            transport.readAll(scratch, 0, n);
+            length -= n;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+
+/**
+ * Read-only thrift transport over an InputStream with an exposed buffer.
+ * TBinaryProtocol reads integers and strings directly from the buffer of
+ * transports that expose one (getBuffer/consumeBuffer), instead of making a
+ * read call per value as it does with TIOStreamTransport.
+ */
+public class TBufferedInputTransport extends TTransport
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    InputStream is;
+    byte[] buffer;
+    int pos = 0;
+    int limit = 0;
+
+    public TBufferedInputTransport(InputStream is) {
+        this(is, DEFAULT_BUFFER_SIZE);
+    }
+
+    public TBufferedInputTransport(InputStream is, int bufferSize) {
+        this.is = is;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public boolean isOpen() {
+        return is != null;
+    }
+
+    @Override
+    public void open() throws TTransportException {
+    }
+
+    @Override
+    public void close() {
+        if (is == null)
+            return;
+        try {
+            is.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+        is = null;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        if (pos == limit) {
+            if (len >= buffer.length)
+                return readStream(buf, off, len);
+            fill();
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, buf, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Discards up to len bytes
+     *
+     * @return the number of bytes skipped
+     */
+    public long skip(long len) throws TTransportException {
+        if (pos == limit)
+            fill();
+        int n = (int)Math.min(len, limit - pos);
+        pos += n;
+        return n;
+    }
+
+    private void fill() throws TTransportException {
+        pos = 0;
+        limit = 0;
+        int n = readStream(buffer, 0, buffer.length);
+        limit = n;
+    }
+
+    private int readStream(byte[] buf, int off, int len) throws TTransportException {
+        if (is == null)
+            throw new TTransportException(TTransportException.NOT_OPEN, "Cannot read from null inputStream");
+        int n;
+        try {
+            n = is.read(buf, off, len);
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        }
+        if (n < 0)
+            throw new TTransportException(TTransportException.END_OF_FILE);
+        return n;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+        throw new UnsupportedOperationException("Read-only transport");
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int getBufferPosition() {
+        return pos;
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+        return limit - pos;
+    }
+
+    @Override
+    public void consumeBuffer(int len) {
+        pos += len;
+    }
+}
@@ -0,0 +1,150 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Reads the file entries of a gzipped tar archive into byte arrays, one bulk
+ * read per entry.
+ *
+ * process() hands entries to a handler, optionally on a pool of worker
+ * threads while the calling thread keeps reading the archive. Entries are
+ * only read while the entries being processed take up less than
+ * maxBytesInFlight, so memory use doesn't depend on the archive size. An
+ * entry larger than the limit is processed on its own.
+ */
+public class TarEntryReader implements Closeable
+{
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_BYTES_IN_FLIGHT = 128 * 1024 * 1024;
+
+    TarArchiveInputStream tis;
+    TarArchiveEntry entry;
+    int maxBytesInFlight = DEFAULT_MAX_BYTES_IN_FLIGHT;
+
+    /**
+     * Handles one archive entry
+     */
+    public interface EntryHandler {
+        public void process(String path, byte[] data) throws Exception;
+    }
+
+    public TarEntryReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * @param is gzipped tar stream
+     */
+    public TarEntryReader(InputStream is) throws IOException {
+        tis = new TarArchiveInputStream(
+                new GzipCompressorInputStream(
+                        new BufferedInputStream(is, BUFFER_SIZE)));
+    }
+
+    public void setMaxBytesInFlight(int maxBytesInFlight) {
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    /**
+     * Advances to the next file entry
+     *
+     * @return the entry path, or null at the end of the archive
+     */
+    public String nextEntry() throws IOException {
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (entry.isFile())
+                return entry.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the content of the current entry
+     */
+    public byte[] readEntry() throws IOException {
+        long size = entry.getSize();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Entry too large: " + entry.getName() + " (" + size + " bytes)");
+        byte[] data = new byte[(int)size];
+        IOUtils.readFully(tis, data);
+        return data;
+    }
+
+    /**
+     * Passes every file entry to the handler. With more than one thread,
+     * entries are processed by a pool of that many threads; the first
+     * exception thrown by the handler stops reading and is rethrown once the
+     * entries already read are done.
+     *
+     * @return the number of entries processed
+     */
+    public long process(final EntryHandler handler, int threads) throws Exception {
+        long count = 0;
+        String path;
+        if (threads <= 1) {
+            while ((path = nextEntry()) != null) {
+                handler.process(path, readEntry());
+                count++;
+            }
+            return count;
+        }
+
+        final Semaphore bytesInFlight = new Semaphore(maxBytesInFlight);
+        final Exception[] error = new Exception[1];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            while ((path = nextEntry()) != null) {
+                final int permits = (int)Math.max(1, Math.min(entry.getSize(), maxBytesInFlight));
+                bytesInFlight.acquire(permits);
+                synchronized (error) {
+                    if (error[0] != null) {
+                        bytesInFlight.release(permits);
+                        break;
+                    }
+                }
+                final String entryPath = path;
+                final byte[] data = readEntry();
+                executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            handler.process(entryPath, data);
+                        } catch (Exception e) {
+                            synchronized (error) {
+                                if (error[0] == null)
+                                    error[0] = e;
+                            }
+                        } finally {
+                            bytesInFlight.release(permits);
+                        }
+                    }
+                });
+                count++;
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+        if (error[0] != null)
+            throw error[0];
+        return count;
+    }
+
+    public void close() throws IOException {
+        tis.close();
+    }
+}
@@ -1,16 +1,25 @@
 package edu.gslis.lucene.indexer;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -21,12 +30,82 @@ import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
 
 import edu.gslis.lucene.main.config.FieldConfig;
 
 
+/**
+ * Indexes files of any format Tika can parse.
+ *
+ * All documents are parsed by one shared AutoDetectParser (Tika parsers are
+ * thread-safe), on a bounded pool of daemon threads. Each parse opens and
+ * closes its own input stream. With a timeout, a parse is abandoned after
+ * timeout seconds from its start; the calling thread moves on even if the
+ * parser doesn't respond to the interrupt. The pool has room for as many
+ * abandoned parses as running ones. If a document still waits for a thread
+ * after timeout seconds, the pool is taken to be held by stuck parses: the
+ * document is counted as timed out and not indexed (but not added to the 
+ * skip list), and later documents go to a new pool.
+ * Extracted text is capped at maxChars characters (-1 for no cap).
+ *
+ * Documents that fail to parse or time out are recorded in the skip list,
+ * if one is set, and not tried again on a rebuild. They are identified by
+ * parent directory (or tar entry path) and file name, with its extension.
+ * Parse times are kept per content type (see printStats).
+ */
 public class TikaIndexer extends Indexer {
     
+    static final String UNKNOWN_TYPE = "unknown";
+    
+    Parser parser = new AutoDetectParser();
+    int timeout = 0;
+    int maxChars = -1;
+    KeyedList skipList;
+    ExecutorService executor;
+    
+    ConcurrentMap<String, TimeHistogram> parseTimes = new ConcurrentHashMap<String, TimeHistogram>();
+    AtomicLong timeouts = new AtomicLong();
+    AtomicLong failures = new AtomicLong();
+    AtomicLong truncated = new AtomicLong();
+    AtomicLong skipped = new AtomicLong();
+    
+    /**
+     * Seconds to wait for a document to be parsed (0 for no limit)
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * Maximum number of characters extracted per document (-1 for no limit)
+     */
+    public void setMaxChars(int maxChars) {
+        this.maxChars = maxChars;
+    }
+    
+    /**
+     * Skip list for documents that failed or timed out (KeyedList.SKIPPED)
+     */
+    public void setSkipList(KeyedList skipList) {
+        this.skipList = skipList;
+    }
+    
+    /**
+     * Parse time histograms by content type
+     */
+    public Map<String, TimeHistogram> getParseTimes() {
+        return parseTimes;
+    }
+    
+    @Override
+    public void printStats(PrintStream out) {
+        out.println(String.format("Tika: %d timed out, %d failed, %d truncated, %d skipped",
+                timeouts.get(), failures.get(), truncated.get(), skipped.get()));
+        for (Map.Entry<String, TimeHistogram> entry: new TreeMap<String, TimeHistogram>(parseTimes).entrySet())
+            out.println("  " + entry.getKey() + ": " + entry.getValue());
+    }
+    
     @Override
     public long buildIndex(IndexWriter writer, Set<FieldConfig> fields,
             File file) throws Exception 
@@ -39,84 +118,94 @@ public class TikaIndexer extends Indexer {
             }
         }
         else if (file.getName().endsWith("tgz")) {
-            TarArchiveInputStream tis = 
-                    new TarArchiveInputStream(
-                            new GzipCompressorInputStream(
-                                    new BufferedInputStream(
-                                            new FileInputStream(file))));
-            TarArchiveEntry entry;
-            while (null != (entry = tis.getNextTarEntry())) 
-            {
-                if (entry.isFile()) {
-                    try
-                    {
-                        int size = 0;
-                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                        int c;
-                        while (size < entry.getSize()) {
-                            c = tis.read();
-                            size++;
-                            bos.write(c);
-                        }
-                        
-                        String name = entry.getName();
-                        name = name.substring(0, name.lastIndexOf("."));
-                        name = name.replaceAll("/", "_");
-                        InputStream is = new ByteArrayInputStream(bos.toByteArray());
-                        buildIndex(writer, fields, name, is);
-                        is.close();
-                    } catch (Exception e) {
-                        System.err.println("Error processing entry " + entry.getName());
-                        e.printStackTrace();
-                    }
-                }
-            }
-            tis.close();
+            count += buildIndexFromTar(writer, fields, file);
         }
         else {
-            InputStream is = null;
             try
             { 
                 String parent = "";
                 if (file.getParentFile() != null)
                     parent = file.getParentFile().getName();
-                String name = file.getName();
-                name = name.substring(0, name.lastIndexOf("."));
-                is = new FileInputStream(file);
-                buildIndex(writer, fields, parent, name, is);
+                final File input = file;
+                buildIndex(writer, fields, parent, file.getName(), new Callable<InputStream>() {
+                    public InputStream call() throws Exception {
+                        return new FileInputStream(input);
+                    }
+                });
                 count++;
             } catch (Exception e) { 
                 System.out.println("Error processing " + file.getAbsolutePath());
                 e.printStackTrace();              
             }
-            finally {
-                if (is != null) 
-                    is.close();
-            }
         }
         return count;
 
     }
     
+    /**
+     * Tar entries are named by their path, with '/' replaced by '_'. The
+     * extension is kept for the skip list and dropped from the docno.
+     */
+    @Override
+    protected String getEntryName(String path) {
+        return path.replace('/', '_');
+    }
+    
+    /**
+     * Indexes one document. The stream is closed by the parse, which may
+     * still be running after this returns if it timed out.
+     */
     public void buildIndex(IndexWriter writer, Set<FieldConfig> fields, String name,
-        InputStream is) throws Exception  
+        final InputStream is) throws Exception  
     {
-        buildIndex(writer, fields, "", name, is);
+        buildIndex(writer, fields, "", name, new Callable<InputStream>() {
+            public InputStream call() {
+                return is;
+            }
+        });
     }
-        
+    
+    /**
+     * Indexes one document
+     * @param parentDir Parent directory name, if any
+     * @param name File name, with extension
+     * @param input Opens the document, on the parse thread
+     */
     public void buildIndex(IndexWriter writer, Set<FieldConfig> fields, String parentDir, String name,
-            InputStream is) throws Exception 
+            Callable<InputStream> input) throws Exception 
     {
-        Analyzer analyzer = writer.getAnalyzer();
-        Document luceneDoc = new Document();
-                                        
+        String key = StringUtils.isEmpty(parentDir) ? name : parentDir + "/" + name;
+        if (skipList != null && skipList.contains(key)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        
         // Use Tika to parse text from different file types
-        BodyContentHandler handler = new BodyContentHandler(-1);
-        Metadata metadata = new Metadata();
-        Parser parser = new AutoDetectParser();
-        parser.parse(is, handler, metadata, new ParseContext());
+        Extraction extraction;
+        try {
+            extraction = extract(input);
+        } catch (NotStartedException e) {
+            timeouts.incrementAndGet();
+            System.err.println("Timed out waiting to parse " + key);
+            return;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            System.err.println("Timed out parsing " + key);
+            if (skipList != null)
+                skipList.add(key, "timeout");
+            return;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            System.err.println("Error parsing " + key + ": " + e);
+            if (skipList != null)
+                skipList.add(key, "error");
+            return;
+        }
         
-        String output = handler.toString();
+        Analyzer analyzer = writer.getAnalyzer();
+        Document luceneDoc = new Document();
+        Metadata metadata = extraction.metadata;
+        String output = extraction.text;
         
         if (StringUtils.isEmpty(output))
             return;
@@ -177,7 +266,129 @@ public class TikaIndexer extends Indexer {
                 }
             }
         }
+        addBuildFields(luceneDoc);
         writer.addDocument(luceneDoc);
+        docCount.incrementAndGet();
       
     }
+    
+    /**
+     * Opens and parses the document on the executor, waiting up to timeout
+     * seconds (if any) for the parse to start and as long again once it has
+     */
+    private Extraction extract(final Callable<InputStream> input) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        ExecutorService pool = getExecutor();
+        Future<Extraction> future = pool.submit(new Callable<Extraction>() {
+            public Extraction call() throws Exception {
+                started.countDown();
+                InputStream is = input.call();
+                try {
+                    return parse(is);
+                } finally {
+                    is.close();
+                }
+            }
+        });
+        try {
+            if (timeout <= 0)
+                return future.get();
+            if (!started.await(timeout, TimeUnit.SECONDS)) {
+                future.cancel(true);
+                replaceExecutor(pool);
+                throw new NotStartedException();
+            }
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception)e.getCause();
+            throw e;
+        }
+    }
+    
+    private Extraction parse(InputStream is) throws Exception {
+        long start = System.nanoTime();
+        WriteOutContentHandler text = new WriteOutContentHandler(maxChars);
+        Metadata metadata = new Metadata();
+        try {
+            parser.parse(is, new BodyContentHandler(text), metadata, new ParseContext());
+        } catch (Exception e) {
+            // Keep the text up to the limit
+            if (!text.isWriteLimitReached(e))
+                throw e;
+            truncated.incrementAndGet();
+        } finally {
+            getParseTimes(metadata).add(System.nanoTime() - start);
+        }
+        return new Extraction(text.toString(), metadata);
+    }
+    
+    private TimeHistogram getParseTimes(Metadata metadata) {
+        String type = metadata.get(Metadata.CONTENT_TYPE);
+        if (StringUtils.isEmpty(type))
+            type = UNKNOWN_TYPE;
+        else if (type.contains(";"))
+            type = type.substring(0, type.indexOf(';')).trim();
+        
+        TimeHistogram histogram = parseTimes.get(type);
+        if (histogram == null) {
+            parseTimes.putIfAbsent(type, new TimeHistogram());
+            histogram = parseTimes.get(type);
+        }
+        return histogram;
+    }
+    
+    /**
+     * Pool of twice as many threads as can parse at once (the tar entry 
+     * threads), so parses that ignore the interrupt after a timeout don't
+     * hold up the others
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(2 * Math.max(1, getEntryThreads()), 
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+    
+    /**
+     * Leaves the executor to its stuck threads (they exit once their parse
+     * does), unless another caller already replaced it
+     */
+    private synchronized void replaceExecutor(ExecutorService stuck) {
+        if (executor == stuck) {
+            System.err.println("Parse threads stuck, starting new ones");
+            stuck.shutdown();
+            executor = null;
+        }
+    }
+    
+    /**
+     * No thread was free to parse the document within the timeout
+     */
+    static class NotStartedException extends TimeoutException {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    /**
+     * Extracted text and metadata of a document
+     */
+    static class Extraction {
+        String text;
+        Metadata metadata;
+        
+        Extraction(String text, Metadata metadata) {
+            this.text = text;
+            this.metadata = metadata;
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package edu.gslis.lucene.indexer;
+
+
+/**
+ * Thread-safe histogram of durations with power-of-two millisecond buckets
+ * (&lt;1ms, &lt;2ms, &lt;4ms, ... and one overflow bucket).
+ */
+public class TimeHistogram 
+{
+    static final int NUM_BUCKETS = 20;
+    
+    long[] buckets = new long[NUM_BUCKETS + 1];
+    long count = 0;
+    long totalNanos = 0;
+    long maxNanos = 0;
+    
+    public synchronized void add(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < NUM_BUCKETS && millis >= (1L << bucket))
+            bucket++;
+        buckets[bucket]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+    
+    public synchronized long getCount() {
+        return count;
+    }
+    
+    /**
+     * Number of durations below 2^bucket ms (the last bucket holds the rest)
+     */
+    public synchronized long getBucketCount(int bucket) {
+        return buckets[bucket];
+    }
+    
+    public synchronized double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+    
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+    
+    /**
+     * Count, mean and max, followed by the non-empty buckets
+     */
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder(String.format("count=%d mean=%.1fms max=%.1fms",
+                count, getMeanMillis(), getMaxMillis()));
+        for (int i = 0; i <= NUM_BUCKETS; i++) {
+            if (buckets[i] == 0)
+                continue;
+            if (i < NUM_BUCKETS)
+                out.append(" <" + (1L << i) + "ms:" + buckets[i]);
+            else
+                out.append(" >=" + (1L << NUM_BUCKETS) + "ms:" + buckets[i]);
+        }
+        return out.toString();
+    }
+}
@@ -1,98 +1,236 @@
 package edu.gslis.lucene.indexer;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.apache.commons.io.IOUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexWriter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import edu.gslis.lucene.main.config.FieldConfig;
 
 
 /**
- * Constructs a Lucene index from a TREC-text formatted collection
+ * Constructs a Lucene index from a TREC-text formatted collection.
+ *
+ * The input is read in blocks of characters and cut into chunks that end
+ * at a &lt;/DOC&gt; tag, so documents may span blocks and share lines.
+ * TrecTextParser extracts only the configured elements of every DOC in a
+ * chunk. With more than one thread, the calling thread reads chunks into a
+ * bounded queue and a pool of workers parses them and adds the documents to
+ * the IndexWriter. Document order in the index is then not guaranteed.
+ * Documents that fail are reported and skipped; if a worker fails as a
+ * whole (e.g., the IndexWriter is closed), the others are stopped and the
+ * failure is thrown.
  */
 public class TrecTextIndexer extends Indexer
 {
     ClassLoader loader = ClassLoader.getSystemClassLoader();
     static final String DOC_TAG = "DOC";
-    
+    static final String DOC_END = "</DOC>";
+    static final int QUEUE_SIZE_PER_THREAD = 4;
+    static final int CHUNK_SIZE = 1 << 16;
+
+    // Marks the end of input for a worker (compared by reference)
+    static final String END = new String("");
+
     public void buildIndex(IndexWriter writer, Set<FieldConfig> fields, String name,
-            InputStream is) throws Exception 
-    { 
-
-      
-
-        BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-        String line = "";
-        StringBuffer xml = new StringBuffer("");
-        int i=0;
-        while ((line = br.readLine()) != null) {
-        	xml.append(line + "\n");
-        	if (line.contains("</DOC>")) {
-        		try {
-        			addDocument(xml.toString(), writer, fields, name);
-        		} catch (Exception e) {
-        			e.printStackTrace();
-        		}
-        		xml = new StringBuffer("");
-        		
-            	if (i % 1000 == 0)
-            		System.out.println("Added " + i + " files"); 
-
-        		i++;
-        	}
+            InputStream is) throws Exception
+    {
+        TrecTextParser parser = new TrecTextParser(getElements(fields));
+
+        Reader reader = new InputStreamReader(is, "UTF-8");
+
+        ParserPool pool = null;
+        if (threads > 1)
+            pool = new ParserPool(parser, writer, fields);
+
+        try
+        {
+            char[] block = new char[CHUNK_SIZE];
+            StringBuilder pending = new StringBuilder();
+            int n;
+            while ((n = reader.read(block)) >= 0) {
+                pending.append(block, 0, n);
+                if (pending.length() < CHUNK_SIZE)
+                    continue;
+                // Hand over everything up to the last complete document
+                int end = pending.lastIndexOf(DOC_END);
+                if (end < 0)
+                    continue;
+                end += DOC_END.length();
+                String chunk = pending.substring(0, end);
+                pending.delete(0, end);
+                if (pool == null)
+                    addDocuments(chunk, parser, writer, fields);
+                else if (!pool.put(chunk))
+                    break;
+            }
+            // Text after the last </DOC> isn't a complete document
+            int end = pending.lastIndexOf(DOC_END);
+            if (end >= 0) {
+                String chunk = pending.substring(0, end + DOC_END.length());
+                if (pool == null)
+                    addDocuments(chunk, parser, writer, fields);
+                else
+                    pool.put(chunk);
+            }
+        } catch (Exception e) {
+            if (pool != null)
+                pool.fail(e);
+            throw e;
         }
+        if (pool != null)
+            pool.finish();
     }
-    
-    private void addDocument(String xml, IndexWriter writer, Set<FieldConfig> fields, String name) throws Exception {
-    	        
+
+    /**
+     * Tar entries are indexed one at a time, each parsed by the worker pool
+     */
+    @Override
+    protected int getEntryThreads() {
+        return 1;
+    }
+
+    /**
+     * Parses and indexes every document in a chunk. A document that fails
+     * is reported and skipped, unless the writer is closed.
+     */
+    private void addDocuments(String chunk, TrecTextParser parser, IndexWriter writer,
+            Set<FieldConfig> fields) throws Exception
+    {
         Analyzer analyzer = writer.getAnalyzer();
 
-       
-        xml = xml.replace("&amp;", "&");
-        xml = xml.replace("&", "&amp;");
-
-        // Add a root element
-        DocumentBuilderFactory factory =  DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new ByteArrayInputStream(xml.getBytes()));
-        NodeList docs = xmlDoc.getElementsByTagName(DOC_TAG);
-        for (int i=0; i<docs.getLength(); i++) {
-            Element doc = (Element) docs.item(i);
-            org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
-            for (FieldConfig field: fields) {
-                
-                String fieldName = field.getName();
-                String elementName = field.getElement();
-                NodeList elements = doc.getElementsByTagName(elementName);
-                
-                fieldName = fieldName.toLowerCase();
-                for (int j=0; j < elements.getLength(); j++) {
-                    Element elem = (Element) elements.item(j);
-                    
-                    Node child = elem.getFirstChild();
-                    String value = "";
-                    if (child != null)
-                        value = child.getNodeValue();
-                    
-                    addField(luceneDoc, field, value, analyzer);
+        for (Map<String, List<String>> values: parser.parseAll(chunk)) {
+            try {
+                org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
+                for (FieldConfig field: fields) {
+                    List<String> elements = values.get(field.getElement());
+                    if (elements == null)
+                        continue;
+                    for (String value: elements)
+                        addField(luceneDoc, field, value, analyzer);
+                }
+                addBuildFields(luceneDoc);
+                writer.addDocument(luceneDoc);
+            } catch (Exception e) {
+                // Nothing more can be added once the writer is closed
+                if (!writer.isOpen())
+                    throw e;
+                e.printStackTrace();
+                continue;
+            }
+            long i = docCount.incrementAndGet();
+            if (i % 1000 == 0)
+                System.out.println("Added " + i + " files");
+        }
+    }
+
+    private static List<String> getElements(Set<FieldConfig> fields) {
+        List<String> elements = new ArrayList<String>();
+        for (FieldConfig field: fields) {
+            String element = field.getElement();
+            if (element != null && !elements.contains(element))
+                elements.add(element);
+        }
+        return elements;
+    }
+
+    /**
+     * Workers that parse and index chunks from a bounded queue, and the 
+     * first failure of a worker, if any. After a failure, every worker is
+     * stopped and buildIndex throws, so the file isn't taken as indexed.
+     */
+    private class ParserPool {
+        final BlockingQueue<String> queue = 
+                new ArrayBlockingQueue<String>(threads * QUEUE_SIZE_PER_THREAD);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        volatile Throwable failure;
+
+        ParserPool(TrecTextParser parser, IndexWriter writer, Set<FieldConfig> fields) {
+            for (int t = 0; t < threads; t++)
+                executor.submit(new ParserWorker(this, parser, writer, fields));
+        }
+
+        /**
+         * Records the failure and stops the workers. Workers blocked on the
+         * queue are interrupted.
+         */
+        synchronized void fail(Throwable t) {
+            if (failure != null)
+                return;
+            failure = t;
+            executor.shutdownNow();
+        }
+
+        /**
+         * Puts a chunk to the queue, unless a worker has failed (the others
+         * may be gone)
+         * @return false if a worker has failed
+         */
+        boolean put(String chunk) throws InterruptedException {
+            while (failure == null) {
+                if (queue.offer(chunk, 100, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Waits for the workers to index the queued chunks, then throws the
+         * failure, if any
+         */
+        void finish() throws Exception {
+            for (int t = 0; t < threads; t++)
+                put(END);
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            if (failure != null)
+                throw new IOException("Parsing failed", failure);
+        }
+    }
+
+    /**
+     * Parses and indexes chunks from the queue until END
+     */
+    private class ParserWorker implements Runnable {
+        ParserPool pool;
+        TrecTextParser parser;
+        IndexWriter writer;
+        Set<FieldConfig> fields;
+
+        public ParserWorker(ParserPool pool, TrecTextParser parser, IndexWriter writer,
+                Set<FieldConfig> fields)
+        {
+            this.pool = pool;
+            this.parser = parser;
+            this.writer = writer;
+            this.fields = fields;
+        }
 
+        public void run() {
+            try {
+                while (true) {
+                    String chunk = pool.queue.take();
+                    if (chunk == END)
+                        return;
+                    addDocuments(chunk, parser, writer, fields);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                pool.fail(t);
             }
-            writer.addDocument(luceneDoc);
         }
     }
 }
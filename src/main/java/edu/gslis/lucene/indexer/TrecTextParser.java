@@ -0,0 +1,196 @@
+package edu.gslis.lucene.indexer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Single-pass tag scanner for TREC-text documents. Extracts the values of a
+ * fixed set of elements from each &lt;DOC&gt; without building a DOM.
+ *
+ * Values match what TrecTextIndexer previously read from the DOM: the first
+ * text (or CDATA) child of each matching element, at any depth, in document
+ * order. Only &amp;amp; is decoded; all other entities are kept literally.
+ *
+ * Unlike the DOM parser, malformed markup doesn't cause the whole document
+ * to be rejected, and an element whose first child is another element
+ * yields an empty value rather than an error.
+ *
+ * Instances are immutable and can be shared across threads.
+ */
+public class TrecTextParser
+{
+    static final String DOC_START = "<DOC";
+    static final String DOC_END = "</DOC>";
+    static final String CDATA_START = "<![CDATA[";
+    static final String CDATA_END = "]]>";
+    static final String COMMENT_START = "<!--";
+    static final String COMMENT_END = "-->";
+
+    final String[] elements;
+
+    /**
+     * @param elements Names of the elements to extract (case-sensitive)
+     */
+    public TrecTextParser(Collection<String> elements) {
+        this.elements = elements.toArray(new String[elements.size()]);
+    }
+
+    /**
+     * Parses the first &lt;DOC&gt; in the text
+     * @param text Text containing a TREC document
+     * @return element name to values in document order, or null if there is
+     *      no DOC element
+     */
+    public Map<String, List<String>> parse(String text) {
+        int start = findStartTag(text, 0);
+        if (start < 0)
+            return null;
+        Map<String, List<String>> values = new HashMap<String, List<String>>();
+        if (parse(text, start, values) < 0)
+            return null;
+        return values;
+    }
+
+    /**
+     * Parses every &lt;DOC&gt; in the text
+     * @param text Text containing any number of TREC documents
+     * @return the values of each document, in text order
+     */
+    public List<Map<String, List<String>>> parseAll(String text) {
+        List<Map<String, List<String>>> docs = new ArrayList<Map<String, List<String>>>();
+        int start = findStartTag(text, 0);
+        while (start >= 0) {
+            Map<String, List<String>> values = new HashMap<String, List<String>>();
+            int end = parse(text, start, values);
+            if (end < 0)
+                break;
+            docs.add(values);
+            start = findStartTag(text, end);
+        }
+        return docs;
+    }
+
+    /**
+     * Parses the DOC whose start tag is at start into values
+     * @return the position after the DOC's end tag, or -1 if the start tag
+     *      isn't closed
+     */
+    private int parse(String text, int start, Map<String, List<String>> values) {
+        int i = text.indexOf('>', start);
+        if (i < 0)
+            return -1;
+        i++;
+        int end = text.indexOf(DOC_END, i);
+        if (end < 0)
+            end = text.length();
+
+        while (i < end) {
+            int lt = text.indexOf('<', i);
+            if (lt < 0 || lt >= end)
+                break;
+
+            if (text.startsWith(COMMENT_START, lt)) {
+                i = skipPast(text, COMMENT_END, lt);
+                continue;
+            }
+            if (text.startsWith(CDATA_START, lt)) {
+                i = skipPast(text, CDATA_END, lt);
+                continue;
+            }
+            if (lt + 1 >= text.length())
+                break;
+            char c = text.charAt(lt + 1);
+            if (c == '/' || c == '!' || c == '?') {
+                i = skipPast(text, ">", lt);
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                // Stray '<' in text
+                i = lt + 1;
+                continue;
+            }
+
+            int nameEnd = lt + 1;
+            while (nameEnd < text.length()) {
+                c = text.charAt(nameEnd);
+                if (c == '>' || c == '/' || Character.isWhitespace(c))
+                    break;
+                nameEnd++;
+            }
+            int gt = text.indexOf('>', nameEnd);
+            if (gt < 0)
+                break;
+            i = gt + 1;
+
+            String element = match(text, lt + 1, nameEnd);
+            if (element == null)
+                continue;
+
+            String value = "";
+            if (text.charAt(gt - 1) != '/') {
+                int next = text.indexOf('<', i);
+                if (next < 0)
+                    next = text.length();
+                value = text.substring(i, next);
+                if (value.isEmpty() && text.startsWith(CDATA_START, next)) {
+                    int cdataEnd = text.indexOf(CDATA_END, next);
+                    if (cdataEnd < 0)
+                        cdataEnd = text.length();
+                    value = text.substring(next + CDATA_START.length(), cdataEnd);
+                } else {
+                    value = decode(value);
+                }
+            }
+
+            List<String> list = values.get(element);
+            if (list == null) {
+                list = new ArrayList<String>(2);
+                values.put(element, list);
+            }
+            list.add(value);
+        }
+        return Math.min(end + DOC_END.length(), text.length());
+    }
+
+    /**
+     * Finds the next &lt;DOC&gt; start tag, skipping names that only begin
+     * with DOC (e.g., DOCNO)
+     */
+    private static int findStartTag(String text, int from) {
+        int pos = text.indexOf(DOC_START, from);
+        while (pos >= 0) {
+            int after = pos + DOC_START.length();
+            if (after >= text.length())
+                return -1;
+            char c = text.charAt(after);
+            if (c == '>' || Character.isWhitespace(c))
+                return pos;
+            pos = text.indexOf(DOC_START, after);
+        }
+        return -1;
+    }
+
+    private String match(String text, int start, int end) {
+        int len = end - start;
+        for (String element: elements) {
+            if (element.length() == len && text.regionMatches(start, element, 0, len))
+                return element;
+        }
+        return null;
+    }
+
+    private static int skipPast(String text, String marker, int from) {
+        int pos = text.indexOf(marker, from);
+        return (pos < 0) ? text.length() : pos + marker.length();
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('&') < 0)
+            return value;
+        return value.replace("&amp;", "&");
+    }
+}
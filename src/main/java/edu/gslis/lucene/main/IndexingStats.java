@@ -0,0 +1,99 @@
+package edu.gslis.lucene.main;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.util.InfoStream;
+
+
+/**
+ * Flush and merge counts and times, shared by the IndexWriters of a build.
+ *
+ * Flushes are counted from the "flush time" messages IndexWriter logs to its
+ * InfoStream (component DWPT); set this as the InfoStream of each writer.
+ * Merges are timed by the scheduler returned by newMergeScheduler, one per
+ * writer.
+ */
+public class IndexingStats extends InfoStream
+{
+    static final String FLUSH_COMPONENT = "DWPT";
+    static final String FLUSH_TIME = "flush time ";
+
+    AtomicLong flushes = new AtomicLong();
+    AtomicLong flushNanos = new AtomicLong();
+    AtomicLong merges = new AtomicLong();
+    AtomicLong mergeNanos = new AtomicLong();
+    AtomicLong mergeBytes = new AtomicLong();
+
+    @Override
+    public boolean isEnabled(String component) {
+        return FLUSH_COMPONENT.equals(component);
+    }
+
+    @Override
+    public void message(String component, String message) {
+        // flush time 123.4 msec
+        if (!message.startsWith(FLUSH_TIME))
+            return;
+        String millis = message.substring(FLUSH_TIME.length(), message.indexOf(' ', FLUSH_TIME.length()));
+        flushes.incrementAndGet();
+        flushNanos.addAndGet((long)(Double.parseDouble(millis) * 1000000));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * ConcurrentMergeScheduler that records merge times here
+     *
+     * @param maxThreads
+     *          Merge threads (0 for the Lucene default)
+     * @param maxMerges
+     *          Merges queued before indexing stalls (0 for maxThreads + 5)
+     */
+    public ConcurrentMergeScheduler newMergeScheduler(int maxThreads, int maxMerges) {
+        ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+                long start = System.nanoTime();
+                super.doMerge(writer, merge);
+                merges.incrementAndGet();
+                mergeNanos.addAndGet(System.nanoTime() - start);
+                mergeBytes.addAndGet(merge.totalBytesSize());
+            }
+        };
+        if (maxThreads > 0)
+            scheduler.setMaxMergesAndThreads(maxMerges > 0 ? maxMerges : maxThreads + 5, maxThreads);
+        return scheduler;
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public double getFlushSeconds() {
+        return flushNanos.get() / 1e9;
+    }
+
+    public long getMergeCount() {
+        return merges.get();
+    }
+
+    public double getMergeSeconds() {
+        return mergeNanos.get() / 1e9;
+    }
+
+    public long getMergeBytes() {
+        return mergeBytes.get();
+    }
+
+    public String toString() {
+        return String.format("%d flushes (%.1f s), %d merges (%.1f s, %.1f MB)",
+                getFlushCount(), getFlushSeconds(), getMergeCount(), getMergeSeconds(),
+                getMergeBytes() / (1024.0 * 1024));
+    }
+}
@@ -11,12 +11,20 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
@@ -24,20 +32,41 @@ import org.apache.lucene.analysis.StopwordAnalyzerBase;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
 
 import edu.gslis.lucene.indexer.Indexer;
 import edu.gslis.lucene.indexer.JSONIndexer;
+import edu.gslis.lucene.indexer.KeyedList;
 import edu.gslis.lucene.indexer.StreamCorpusIndexer;
+import edu.gslis.lucene.indexer.StreamItemDecoder;
 import edu.gslis.lucene.indexer.TikaIndexer;
 import edu.gslis.lucene.indexer.TrecTextIndexer;
 import edu.gslis.lucene.main.config.CorpusConfig;
@@ -54,9 +83,25 @@ import edu.gslis.lucene.main.config.IndexConfig;
  * indexPath: /path/to/lucene/index
  * analyzer: org.apache.lucene.analysis.standard.StandardAnalyzer
  * similarity: method:dir,mu:2500
+ * docValues: true
+ * fieldStats: false
+ * timeField: epoch
+ * ramBufferMB: 1024
+ * mergePolicy: tiered
+ * mergeFactor: 10
+ * mergeThreads: 2
  * corpus:
  * 	 path: /path/to/input/data
  *   type: json
+ *   threads: 4
+ *   shards: 4
+ *   mode: shards
+ *   merge: false
+ *   incremental: false
+ *   pollInterval: 0
+ *   appendOnly: false
+ *   timeout: 0
+ *   maxChars: -1
  * fields:
  *  - name: docno
  *    source: element
@@ -77,14 +122,60 @@ import edu.gslis.lucene.main.config.IndexConfig;
  * A few things to note:
  * <ul>
  * <li> Corpus types include html, trecweb, trectext, etc.
+ * <li> corpus threads sets the number of parser threads per file (trectext) or
+ *      threads per decode/strip/index pipeline stage (streamcorpus)
+ * <li> corpus mode is "shards" (default: one worker and index per shard, under 
+ *      indexPath/shardN) or "single" (workers share one IndexWriter at indexPath)
+ * <li> corpus workers sets the number of workers in single mode (default: shards)
+ * <li> corpus merge combines the shards into one index at indexPath
+ * <li> corpus incremental skips files listed in indexPath/indexed.manifest and
+ *      commits after each file, so readers (see IndexWrapperLuceneImpl.maybeRefresh)
+ *      see new documents without waiting for the build to finish. With 
+ *      pollInterval (seconds), the corpus path is rescanned for new or changed
+ *      files until the process is stopped. Documents are tagged with their
+ *      file (Indexer.FIELD_SOURCE_FILE), and a file's documents are deleted
+ *      before it is indexed again and when it fails. In shards mode, each
+ *      file always goes to the same shard (by the hash of its path), so an
+ *      earlier copy of its documents is in the shard it is deleted from.
+ * <li> corpus appendOnly adds documents without replacing earlier ones with the
+ *      same id (streamcorpus), then deletes duplicate ids in each index after
+ *      the build (after each scan in incremental mode), keeping the document 
+ *      added last. Documents are numbered in the order they are added 
+ *      (Indexer.FIELD_SEQUENCE), and after the first scan only the ids in 
+ *      segments with new documents are checked. Duplicates in different
+ *      shards are not removed.
+ * <li> corpus timeout (seconds) and maxChars bound the time and text per 
+ *      document for tika. Documents that fail or time out are listed in 
+ *      indexPath/skipped.list and skipped when the index is built again.
  * <li> analyzer sets the analyzere class
  * <li> similarity is a string indicating model and parameters (modeled after IndriRunQuery)
+ * <li> ramBufferMB is the IndexWriter RAM buffer for the whole build (default: 
+ *      a quarter of the max heap), split evenly across the writers still being
+ *      added to and rebalanced as shards finish
+ * <li> mergePolicy (tiered, logbyte or logdoc), mergeFactor, maxMergedSegmentMB, 
+ *      mergeThreads and maxMerges configure segment merging of each writer. 
+ *      Flush and merge counts and times are printed at the end of the build.
+ * <li> docValues also stores docno, doclen and timeField as DocValues for faster hit retrieval
+ * <li> fieldStats also stores the length and position gaps of each text field
+ *      (doclen_&lt;field&gt;, posgaps_&lt;field&gt;), so getTermPositions reads only
+ *      the query terms from the term vector
  * <li> fields object gives fine-grained control over field indexing.
  * </ul>
  */
 public class LuceneBuildIndex {
     ClassLoader loader = ClassLoader.getSystemClassLoader();
     IndexConfig config;
+    KeyedList skipList;
+    IndexingStats stats = new IndexingStats();
+    // Writers still being added to, with the number of workers using each
+    Map<IndexWriter, Integer> activeWriters = new HashMap<IndexWriter, Integer>();
+    // Append-only: next sequence number of each writer, and the first one 
+    // not yet checked for duplicates (-1 to check the whole index)
+    Map<IndexWriter, AtomicLong> sequences = new HashMap<IndexWriter, AtomicLong>();
+    Map<IndexWriter, Long> deduplicated = new HashMap<IndexWriter, Long>();
+    // Incremental: workers hold the read lock while adding a file and commit
+    // under the write lock, so a commit never includes part of a file
+    Map<IndexWriter, ReadWriteLock> commitLocks = new HashMap<IndexWriter, ReadWriteLock>();
     
     public LuceneBuildIndex(IndexConfig config) {
         this.config = config;
@@ -98,50 +189,516 @@ public class LuceneBuildIndex {
 
         CorpusConfig corpusConfig = config.getCorpus();
 
-        int numShards = corpusConfig.getShards();
+        int numShards = Math.max(1, corpusConfig.getShards());
+        boolean single = CorpusConfig.MODE_SINGLE.equals(corpusConfig.getMode());
+        boolean incremental = corpusConfig.isIncremental();
+        
+        List<IndexWriter> writers = new ArrayList<IndexWriter>();
+        List<String> indexPaths = new ArrayList<String>();
+        int numWorkers;
+        if (single) {
+            // One shared IndexWriter (thread-safe) for all workers
+            writers.add(openWriter(config.getIndexPath()));
+            indexPaths.add(config.getIndexPath());
+            writeIndexMetadata(config.getIndexPath(), config);
+            numWorkers = (corpusConfig.getWorkers() > 0) ? corpusConfig.getWorkers() : numShards;
+        } else {
+            // One worker and IndexWriter per shard
+            for (int i = 0; i < numShards; i++) {
+                String indexPath = config.getIndexPath() + File.separator + "shard" + i;
+                writers.add(openWriter(indexPath));
+                indexPaths.add(indexPath);
+                writeIndexMetadata(indexPath, config);
+            }
+            numWorkers = numShards;
+        }
+        for (IndexWriter writer: writers)
+            commitLocks.put(writer, new ReentrantReadWriteLock(true));
+        
+        if (Indexer.FORMAT_TIKA.equals(corpusConfig.getType()))
+            skipList = new KeyedList(config.getIndexPath(), KeyedList.SKIPPED);
+        
+        if (corpusConfig.isAppendOnly()) {
+            for (IndexWriter writer: writers) {
+                sequences.put(writer, new AtomicLong(Math.max(1, maxSequence(writer) + 1)));
+                deduplicated.put(writer, -1L);
+            }
+        }
+        
+        KeyedList manifest = null;
+        if (incremental) {
+            manifest = new KeyedList(config.getIndexPath(), KeyedList.MANIFEST);
+            System.out.println(manifest.size() + " files already indexed");
+        }
+        
+        while (true) {
+            List<File> files = listFiles(corpusConfig, manifest);
+            if (!files.isEmpty()) {
+                List<BlockingQueue<File>> queues = queueFiles(files, 
+                        (incremental && !single) ? numShards : 1);
+                List<Thread> threads = new LinkedList<Thread>();
+                for (int i = 0; i < numWorkers; i++) {
+                    IndexWriter writer = writers.get(single ? 0 : i);
+                    BlockingQueue<File> queue = queues.get(queues.size() == 1 ? 0 : i);
+                    writerStarted(writer);
+                    threads.add(startWorker(new IndexerWorker(String.valueOf(i), queue, writer, manifest)));
+                }
+                for (Thread thread: threads) {
+                    thread.join();
+                }
+                if (corpusConfig.isAppendOnly()) {
+                    for (IndexWriter writer: writers) {
+                        long next = sequences.get(writer).get();
+                        removeDuplicates(writer, getIdField(), deduplicated.get(writer));
+                        deduplicated.put(writer, next);
+                        if (incremental)
+                            writer.commit();
+                    }
+                }
+            }
+            
+            if (!incremental || corpusConfig.getPollInterval() <= 0)
+                break;
+            Thread.sleep(corpusConfig.getPollInterval() * 1000L);
+        }
+        
+        for (IndexWriter writer: writers)
+            writer.close();
+        
+        if (!single && corpusConfig.isMerge()) {
+            if (incremental)
+                System.err.println("Not merging shards in incremental mode");
+            else
+                mergeShards(indexPaths);
+        }
+        System.out.println("Index writers: " + stats);
+    }
+    
+    /**
+     * Flush and merge statistics for the writers of this build
+     */
+    public IndexingStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Total RAM buffer for all writers in MB
+     */
+    private double getRAMBudgetMB() {
+        if (config.getRamBufferMB() > 0)
+            return config.getRamBufferMB();
+        return Runtime.getRuntime().maxMemory() / 4.0 / (1024 * 1024);
+    }
+    
+    /**
+     * Divides the RAM budget evenly across the active writers. The buffer
+     * size is a live setting, so it applies to documents already buffered.
+     */
+    private synchronized void rebalanceRAM() {
+        if (activeWriters.isEmpty())
+            return;
+        double share = getRAMBudgetMB() / activeWriters.size();
+        for (IndexWriter writer: activeWriters.keySet())
+            writer.getConfig().setRAMBufferSizeMB(share);
+    }
+    
+    private synchronized void writerStarted(IndexWriter writer) {
+        Integer workers = activeWriters.get(writer);
+        activeWriters.put(writer, workers == null ? 1 : workers + 1);
+        rebalanceRAM();
+    }
+    
+    /**
+     * Called when a worker is done with its writer. Once no worker uses the
+     * writer, its buffer is flushed and its share of the budget goes to the
+     * remaining writers.
+     */
+    private synchronized void writerFinished(IndexWriter writer) throws IOException {
+        int workers = activeWriters.get(writer) - 1;
+        if (workers > 0) {
+            activeWriters.put(writer, workers);
+            return;
+        }
+        activeWriters.remove(writer);
+        writer.flush();
+        rebalanceRAM();
+    }
     
+    /**
+     * Lists the corpus files not yet in the manifest (if any), largest 
+     * first. Workers pull from a shared queue in this order, so no worker is
+     * left with a long tail of big files (except in incremental shards mode,
+     * where each shard has its own queue).
+     */
+    private List<File> listFiles(CorpusConfig corpusConfig, KeyedList manifest) {
         String filter = corpusConfig.getFilter();
         String corpusPath = corpusConfig.getPath();
         File corpusFile = new File(corpusPath);
         
         // Top level list of files to be processed
-        List<File> files = new ArrayList<File>();
+        File[] listed;
         if (!StringUtils.isEmpty(filter)) {
             FileFilter fileFilter = new WildcardFileFilter(filter);
-            File[] filtered = corpusFile.listFiles(fileFilter);
-            for (File file: filtered)
-                files.add(file);
+            listed = corpusFile.listFiles(fileFilter);
         } else if (corpusFile.isDirectory()){
-            File[] fs = corpusFile.listFiles();
-            for (File file: fs)
-                files.add(file);
+            listed = corpusFile.listFiles();
         } else
-            files.add(corpusFile);
+            listed = new File[] { corpusFile };
         
-        Collections.sort(files);
+        List<File> files = new ArrayList<File>();
+        if (listed != null) {
+            for (File file: listed) {
+                if (manifest == null || !manifest.contains(file.getAbsolutePath(), getStamp(file)))
+                    files.add(file);
+            }
+        }
         
-        int shardSize = files.size() / numShards;
-        List<List<File>> shards = new LinkedList<List<File>>(); 
-        for (int i = 0; i < files.size(); i += shardSize) {
-            shards.add(files.subList(i, i + Math.min(shardSize, files.size() - i)));
+        Collections.sort(files);
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return Long.compare(f2.length(), f1.length());
+            }
+        });
+        return files;
+    }
+    
+    /**
+     * Splits the files into one queue per shard by the hash of their path,
+     * keeping their order. With one shard, all workers pull from the same 
+     * queue.
+     */
+    private static List<BlockingQueue<File>> queueFiles(List<File> files, int numShards) {
+        List<BlockingQueue<File>> queues = new ArrayList<BlockingQueue<File>>();
+        for (int i = 0; i < numShards; i++)
+            queues.add(new LinkedBlockingQueue<File>());
+        for (File file: files)
+            queues.get(getShard(file, numShards)).add(file);
+        return queues;
+    }
+    
+    /**
+     * Shard a file is indexed into in incremental mode. It depends only on
+     * the path, so a file indexed again replaces its documents in the same
+     * shard.
+     */
+    static int getShard(File file, int numShards) {
+        int hash = file.getAbsolutePath().hashCode();
+        return ((hash % numShards) + numShards) % numShards;
+    }
+    
+    /**
+     * Length and last-modified time of a file, recorded in the manifest. A
+     * file whose stamp changed is indexed again.
+     */
+    private static String getStamp(File file) {
+        return file.length() + "\t" + file.lastModified();
+    }
+    
+    private Thread startWorker(IndexerWorker task) {
+        Thread worker = new Thread(task);
+        worker.setName(task.id);
+        worker.start();
+        return worker;
+    }
+    
+    /**
+     * Merges the shard indexes into a single index at indexPath and removes 
+     * the shard directories
+     */
+    private void mergeShards(List<String> shardPaths) throws Exception {
+        System.out.println("Merging " + shardPaths.size() + " shards");
+        long start = System.currentTimeMillis();
+        IndexWriter writer = openWriter(config.getIndexPath());
+        List<Directory> shardDirs = new ArrayList<Directory>();
+        for (String shardPath: shardPaths)
+            shardDirs.add(FSDirectory.open(FileSystems.getDefault().getPath(shardPath)));
+        try {
+            writer.addIndexes(shardDirs.toArray(new Directory[shardDirs.size()]));
+            writer.forceMerge(1);
+        } finally {
+            writer.close();
+            for (Directory dir: shardDirs)
+                dir.close();
+        }
+        writeIndexMetadata(config.getIndexPath(), config);
+        for (String shardPath: shardPaths)
+            FileUtils.deleteDirectory(new File(shardPath));
+        System.out.println("Merged in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    /**
+     * Deletes all but the last added document (highest FIELD_SEQUENCE) for
+     * each id that occurs more than once. Only ids in segments holding
+     * documents numbered since (or every id, if since is negative) are
+     * checked. Deletes are by document number in a near-real-time reader,
+     * which fails for segments merged away in the meantime, so the pass is
+     * repeated on a new reader until nothing is left to delete.
+     */
+    private void removeDuplicates(IndexWriter writer, String idField, long since) throws IOException {
+        long start = System.currentTimeMillis();
+        long deleted = 0;
+        boolean retry = true;
+        while (retry) {
+            retry = false;
+            DirectoryReader reader = DirectoryReader.open(writer);
+            try {
+                Terms terms = MultiFields.getTerms(reader, idField);
+                if (terms == null)
+                    break;
+                Bits liveDocs = MultiFields.getLiveDocs(reader);
+                NumericDocValues seqs = MultiDocValues.getNumericValues(reader, Indexer.FIELD_SEQUENCE);
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                List<Integer> docs = new ArrayList<Integer>();
+                
+                if (since < 0) {
+                    BytesRef term;
+                    while ((term = termsEnum.next()) != null) {
+                        if (termsEnum.docFreq() < 2)
+                            continue;
+                        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                        getDuplicates(postings, liveDocs, seqs, docs);
+                    }
+                } else {
+                    // Ids in the segments with new documents; an id seen in
+                    // more than one of them is checked once
+                    Set<BytesRef> checked = new HashSet<BytesRef>();
+                    for (LeafReaderContext leaf: reader.leaves()) {
+                        if (maxSequence(leaf.reader()) < since)
+                            continue;
+                        Terms leafTerms = leaf.reader().terms(idField);
+                        if (leafTerms == null)
+                            continue;
+                        TermsEnum leafEnum = leafTerms.iterator();
+                        BytesRef term;
+                        while ((term = leafEnum.next()) != null) {
+                            if (!termsEnum.seekExact(term) || termsEnum.docFreq() < 2)
+                                continue;
+                            if (!checked.add(BytesRef.deepCopyOf(term)))
+                                continue;
+                            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                            getDuplicates(postings, liveDocs, seqs, docs);
+                        }
+                    }
+                }
+                
+                for (int doc: docs) {
+                    if (writer.tryDeleteDocument(reader, doc) != -1)
+                        deleted++;
+                    else
+                        retry = true;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        System.out.println("Removed " + deleted + " duplicate documents in " 
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    /**
+     * Adds the live documents of the postings other than the last added one
+     * to docs. Sequence numbers start at 1; documents without one (0) come
+     * first, in docID order.
+     */
+    private static void getDuplicates(PostingsEnum postings, Bits liveDocs, NumericDocValues seqs,
+            List<Integer> docs) throws IOException
+    {
+        int last = -1;
+        long lastSeq = Long.MIN_VALUE;
+        int doc;
+        while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            if (liveDocs != null && !liveDocs.get(doc))
+                continue;
+            long seq = (seqs == null) ? 0 : seqs.get(doc);
+            if (last < 0) {
+                last = doc;
+                lastSeq = seq;
+            } else if (seq >= lastSeq) {
+                docs.add(last);
+                last = doc;
+                lastSeq = seq;
+            } else {
+                docs.add(doc);
+            }
+        }
+    }
+    
+    /**
+     * Highest sequence number in the writer's index, or -1 if none
+     */
+    private static long maxSequence(IndexWriter writer) throws IOException {
+        DirectoryReader reader = DirectoryReader.open(writer);
+        try {
+            return maxSequence(reader);
+        } finally {
+            reader.close();
+        }
+    }
+    
+    private static long maxSequence(IndexReader reader) throws IOException {
+        byte[] max = PointValues.getMaxPackedValue(reader, Indexer.FIELD_SEQUENCE);
+        return (max == null) ? -1 : LongPoint.decodeDimension(max, 0);
+    }
+    
+    /**
+     * Name of the document id field: the field with source doc_id, if any,
+     * otherwise docno
+     */
+    private String getIdField() {
+        for (FieldConfig field: config.getFields()) {
+            if (StreamItemDecoder.SOURCE_DOC_ID.equals(field.getSource()))
+                return field.getName();
         }
+        return Indexer.FIELD_DOCNO;
+    }
+    
+    /**
+     * Creates an IndexWriter with the configured analyzers and similarity
+     */
+    private IndexWriter openWriter(String indexPath) throws Exception {
+        Path path = FileSystems.getDefault().getPath(indexPath);
+        Directory dir = FSDirectory.open(path);
 
-        List<Thread> threads = new LinkedList<Thread>();
-        int i= 0;
-        for (List<File> shardFiles: shards) {
-            Runnable task = new IndexerThread(String.valueOf(i), shardFiles);
-            Thread worker = new Thread(task);
-            worker.setName(String.valueOf(i));
-            worker.start();
-            threads.add(worker);
-            i++;
-        }        
+        // Initialize the analyzer
+        StopwordAnalyzerBase defaultAnalyzer;
+        String stopwordsPath = config.getStopwords();
+        String analyzerClass = config.getAnalyzer();
+        if (!StringUtils.isEmpty(analyzerClass))
+        {
+            @SuppressWarnings("rawtypes")
+            Class analyzerCls = loader.loadClass(analyzerClass);
+    
+            if (!StringUtils.isEmpty(stopwordsPath))
+            {
+                @SuppressWarnings({ "rawtypes", "unchecked" })
+                java.lang.reflect.Constructor analyzerConst = analyzerCls.getConstructor(Version.class, Reader.class);
+                analyzerConst.setAccessible(true);
+                defaultAnalyzer = (StopwordAnalyzerBase)analyzerConst.newInstance(Indexer.VERSION, new FileReader(stopwordsPath) );            
+            } else {
+                @SuppressWarnings({ "rawtypes", "unchecked" })
+                java.lang.reflect.Constructor analyzerConst = analyzerCls.getConstructor(Version.class);
+                analyzerConst.setAccessible(true);                        
+                defaultAnalyzer = (StopwordAnalyzerBase)analyzerConst.newInstance(Indexer.VERSION);            
+            }
+        } else {
+            defaultAnalyzer = new StandardAnalyzer();
+        }
+        
+        // Assumes LM similarity, but can be changed via config file
+        Similarity similarity = new LMDirichletSimilarity();
+        String similarityClass = config.getSimilarity();
+        if (!StringUtils.isEmpty(similarityClass))
+            similarity = (Similarity)loader.loadClass(similarityClass).newInstance();
+        
+        // Setup any per-field analyzers.
+        Map<String, Analyzer> perFieldAnalyzers = new HashMap<String, Analyzer>();
+        Set<FieldConfig> fields = config.getFields();
+        for (FieldConfig field: fields) {
+            String fieldAnalyzerClass = field.getAnalyzer();            
+            String fieldType = field.getType();
+
+            if (!StringUtils.isEmpty(fieldAnalyzerClass)) {
+                // Use per-field analyzer, if present
+                @SuppressWarnings("rawtypes")
+                Class fieldAnalyzerCls = loader.loadClass(fieldAnalyzerClass);
+                Analyzer fieldAnalyzer = (Analyzer)fieldAnalyzerCls.newInstance();
+                perFieldAnalyzers.put(field.getName(), fieldAnalyzer);
+            }
+            else if (!StringUtils.isEmpty(fieldType)&& fieldType.equals(FieldConfig.TYPE_ID)) {
+                // If the field type is ID, default to KeywordAnalyzer.
+                Analyzer fieldAnalyzer = new KeywordAnalyzer();
+                perFieldAnalyzers.put(field.getName(), fieldAnalyzer);
+            }            
+        }
+        
+        Analyzer analyzer = new PerFieldAnalyzerWrapper(defaultAnalyzer, perFieldAnalyzers);
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        // Divided across writers by rebalanceRAM
+        iwc.setRAMBufferSizeMB(getRAMBudgetMB());
+        iwc.setMergePolicy(createMergePolicy());
+        iwc.setMergeScheduler(stats.newMergeScheduler(config.getMergeThreads(), config.getMaxMerges()));
+        iwc.setInfoStream(stats);
+        iwc.setSimilarity(similarity);
+                    
+        return new IndexWriter(dir, iwc);
+    }
+    
+    private MergePolicy createMergePolicy() throws Exception {
+        String name = config.getMergePolicy();
+        int mergeFactor = config.getMergeFactor();
+        double maxMergedSegmentMB = config.getMaxMergedSegmentMB();
         
-        for (Thread thread: threads) {
-            thread.join();
+        if (StringUtils.isEmpty(name) || name.equals(IndexConfig.MERGE_TIERED)) {
+            TieredMergePolicy policy = new TieredMergePolicy();
+            if (mergeFactor > 0) {
+                policy.setSegmentsPerTier(mergeFactor);
+                policy.setMaxMergeAtOnce(mergeFactor);
+            }
+            if (maxMergedSegmentMB > 0)
+                policy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+            return policy;
+        } else if (name.equals(IndexConfig.MERGE_LOG_BYTE)) {
+            LogByteSizeMergePolicy policy = new LogByteSizeMergePolicy();
+            if (mergeFactor > 0)
+                policy.setMergeFactor(mergeFactor);
+            if (maxMergedSegmentMB > 0)
+                policy.setMaxMergeMB(maxMergedSegmentMB);
+            return policy;
+        } else if (name.equals(IndexConfig.MERGE_LOG_DOC)) {
+            LogDocMergePolicy policy = new LogDocMergePolicy();
+            if (mergeFactor > 0)
+                policy.setMergeFactor(mergeFactor);
+            return policy;
+        }
+        throw new Exception("Unsupported merge policy: " + name);
+    }
+    
+    private Indexer createIndexer() throws Exception {
+        CorpusConfig corpusConfig = config.getCorpus();
+        String corpusType = corpusConfig.getType();
+            
+        Indexer indexer;
+        if (corpusType.equals(Indexer.FORMAT_TRECTEXT)){ 
+            indexer = new TrecTextIndexer();
+        } else if (corpusType.equals(Indexer.FORMAT_TIKA)) {
+            indexer = new TikaIndexer();                
+        } else if (corpusType.equals(Indexer.FORMAT_STREAMCORPUS)) {
+            indexer = new StreamCorpusIndexer();  
+        } else if (corpusType.equals(Indexer.FORMAT_JSON)) {
+            indexer = new JSONIndexer();                         
+        } else {
+            throw new Exception("Unsupported corpus type/format.");                
         }
+        indexer.setDocValues(config.isDocValues());
+        indexer.setFieldStats(config.isFieldStats());
+        indexer.setThreads(corpusConfig.getThreads());
+        indexer.setAppendOnly(corpusConfig.isAppendOnly());
+        if (!StringUtils.isEmpty(config.getTimeField()))
+            indexer.setTimeFieldName(config.getTimeField());
+        if (indexer instanceof TikaIndexer) {
+            TikaIndexer tikaIndexer = (TikaIndexer)indexer;
+            tikaIndexer.setTimeout(corpusConfig.getTimeout());
+            tikaIndexer.setMaxChars(corpusConfig.getMaxChars());
+            tikaIndexer.setSkipList(skipList);
+        }
+        return indexer;
     }
     
+    public void writeIndexMetadata(String indexPath, IndexConfig config) 
+            throws IOException {
+        // Need to hold on to a few pieces of information
+        FileWriter metadataWriter = new FileWriter(indexPath + File.separator + "index.metadata");
+        
+        String analyzer = config.getAnalyzer();
+        if (!StringUtils.isEmpty(analyzer))
+            metadataWriter.write("analyzer=" + analyzer);
+        String similarity = config.getSimilarity();
+        if (!StringUtils.isEmpty(similarity))
+            metadataWriter.write("similarity=" + similarity);
+        metadataWriter.close();
+    }
 
     public static void main(String[] args) throws Exception {
         
@@ -163,137 +720,110 @@ public class LuceneBuildIndex {
         builder.buildIndex();
     }
     
-    private class IndexerThread implements Runnable {
-        List<File> files;
+    /**
+     * Pulls files from the shared queue until it is empty, reporting
+     * throughput after each file
+     */
+    private class IndexerWorker implements Runnable {
         String id;
+        BlockingQueue<File> queue;
+        IndexWriter writer;
+        KeyedList manifest;
         
-        public IndexerThread(String id, List<File> files)
+        public IndexerWorker(String id, BlockingQueue<File> queue, IndexWriter writer,
+                KeyedList manifest)
         {
             this.id = id;
-            this.files = files;
+            this.queue = queue;
+            this.writer = writer;
+            this.manifest = manifest;
         }
          
         public void run() {
             
-            System.out.println("Starting thread " + id);
-            long count = 0;
+            System.out.println("Starting worker " + id);
+            long files = 0;
+            long bytes = 0;
+            long start = System.currentTimeMillis();
             try
             {
-                String indexPath = config.getIndexPath() + File.separator + "shard" + id;    
-    			Path path = FileSystems.getDefault().getPath(indexPath);
-                Directory dir = FSDirectory.open(path);
-    
-                // Initialize the analyzer
-                StopwordAnalyzerBase defaultAnalyzer;
-                String stopwordsPath = config.getStopwords();
-                String analyzerClass = config.getAnalyzer();
-                if (!StringUtils.isEmpty(analyzerClass))
-                {
-                    @SuppressWarnings("rawtypes")
-                    Class analyzerCls = loader.loadClass(analyzerClass);
-            
-                    if (!StringUtils.isEmpty(stopwordsPath))
-                    {
-                        @SuppressWarnings({ "rawtypes", "unchecked" })
-                        java.lang.reflect.Constructor analyzerConst = analyzerCls.getConstructor(Version.class, Reader.class);
-                        analyzerConst.setAccessible(true);
-                        defaultAnalyzer = (StopwordAnalyzerBase)analyzerConst.newInstance(Indexer.VERSION, new FileReader(stopwordsPath) );            
-                    } else {
-                        @SuppressWarnings({ "rawtypes", "unchecked" })
-                        java.lang.reflect.Constructor analyzerConst = analyzerCls.getConstructor(Version.class);
-                        analyzerConst.setAccessible(true);                        
-                        defaultAnalyzer = (StopwordAnalyzerBase)analyzerConst.newInstance(Indexer.VERSION);            
-                    }
-                } else {
-                    defaultAnalyzer = new StandardAnalyzer();
-                }
-                
-                // Assumes LM similarity, but can be changed via config file
-                Similarity similarity = new LMDirichletSimilarity();
-                String similarityClass = config.getSimilarity();
-                if (!StringUtils.isEmpty(similarityClass))
-                    similarity = (Similarity)loader.loadClass(similarityClass).newInstance();
-                
-                // Setup any per-field analyzers.
-                Map<String, Analyzer> perFieldAnalyzers = new HashMap<String, Analyzer>();
+                Indexer indexer = createIndexer();
+                indexer.setSequence(sequences.get(writer));
                 Set<FieldConfig> fields = config.getFields();
-                for (FieldConfig field: fields) {
-                    String fieldAnalyzerClass = field.getAnalyzer();            
-                    String fieldType = field.getType();
-    
-                    if (!StringUtils.isEmpty(fieldAnalyzerClass)) {
-                        // Use per-field analyzer, if present
-                        @SuppressWarnings("rawtypes")
-                        Class fieldAnalyzerCls = loader.loadClass(fieldAnalyzerClass);
-                        Analyzer fieldAnalyzer = (Analyzer)fieldAnalyzerCls.newInstance();
-                        perFieldAnalyzers.put(field.getName(), fieldAnalyzer);
-                    }
-                    else if (!StringUtils.isEmpty(fieldType)&& fieldType.equals(FieldConfig.TYPE_ID)) {
-                        // If the field type is ID, default to KeywordAnalyzer.
-                        Analyzer fieldAnalyzer = new KeywordAnalyzer();
-                        perFieldAnalyzers.put(field.getName(), fieldAnalyzer);
-                    }            
-                }
                 
-                Analyzer analyzer = new PerFieldAnalyzerWrapper(defaultAnalyzer, perFieldAnalyzers);
-                IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-                iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
-                iwc.setRAMBufferSizeMB(256.0);
-                iwc.setSimilarity(similarity);
-                            
-                IndexWriter writer = new IndexWriter(dir, iwc);
-                CorpusConfig corpusConfig = config.getCorpus();
-                String corpusType = corpusConfig.getType();
-                    
-                try
-                {
-                    Indexer indexer;
-                    if (corpusType.equals(Indexer.FORMAT_TRECTEXT)){ 
-                        indexer = new TrecTextIndexer();
-                    } else if (corpusType.equals(Indexer.FORMAT_TIKA)) {
-                        indexer = new TikaIndexer();                
-                    } else if (corpusType.equals(Indexer.FORMAT_STREAMCORPUS)) {
-                        indexer = new StreamCorpusIndexer();  
-                    } else if (corpusType.equals(Indexer.FORMAT_JSON)) {
-                        indexer = new JSONIndexer();                         
-                    } else {
-                        throw new Exception("Unsupported corpus type/format.");                
+                ReadWriteLock lock = commitLocks.get(writer);
+                File file;
+                while ((file = queue.poll()) != null) {
+                    boolean indexed = false;
+                    if (manifest != null)
+                        lock.readLock().lock();
+                    try {
+                        indexed = indexFile(indexer, fields, file);
+                    } finally {
+                        if (manifest != null)
+                            lock.readLock().unlock();
                     }
-        
-                    for (File file: files) {
-                    	if (count % 100 == 0)
-                    		System.out.println("Indexed " + count + " files"); 
-                		count += indexer.buildIndex(writer,  fields, file);   
+                    if (indexed && manifest != null) {
+                        // Checkpoint: make the file visible to readers, then
+                        // record it so it's skipped on restart. No other 
+                        // worker of this writer is in the middle of a file.
+                        lock.writeLock().lock();
+                        try {
+                            writer.commit();
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                        manifest.add(file.getAbsolutePath(), getStamp(file));
                     }
-            		System.out.println("Indexed " + count + " files");
-                
-    
-                    writeIndexMetadata(indexPath, config);
-                } catch (Exception e) {
-                    System.out.println("Fatal: " + e.getMessage());
-                    e.printStackTrace();
-                } finally {
-                    writer.close();
-                }   
+                    files++;
+                    bytes += FileUtils.sizeOf(file);
+                    report(files, indexer.getDocCount(), bytes, start);
+                }
+                System.out.print("Finished: ");
+                report(files, indexer.getDocCount(), bytes, start);
+                indexer.printStats(System.out);
             } catch (Exception e) {
                 System.out.println("Fatal: " + e.getMessage());
                 e.printStackTrace();                
+            } finally {
+                try {
+                    writerFinished(writer);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
         
-        public void writeIndexMetadata(String indexPath, IndexConfig config) 
-                throws IOException {
-            // Need to hold on to a few pieces of information
-            FileWriter metadataWriter = new FileWriter(indexPath + File.separator + "index.metadata");
-            
-            String analyzer = config.getAnalyzer();
-            if (!StringUtils.isEmpty(analyzer))
-                metadataWriter.write("analyzer=" + analyzer);
-            String similarity = config.getSimilarity();
-            if (!StringUtils.isEmpty(similarity))
-                metadataWriter.write("similarity=" + similarity);
-            metadataWriter.close();
+        /**
+         * Adds the documents of a file, returns false if it failed
+         */
+        boolean indexFile(Indexer indexer, Set<FieldConfig> fields, File file) throws IOException {
+            Term source = null;
+            if (manifest != null) {
+                // Remove what an earlier attempt at the file left in the 
+                // index (a crash before the manifest was updated, or an
+                // earlier version of the file)
+                source = new Term(Indexer.FIELD_SOURCE_FILE, file.getAbsolutePath());
+                writer.deleteDocuments(source);
+                indexer.setSourceFile(file.getAbsolutePath());
+            }
+            try {
+                indexer.buildIndex(writer, fields, file);
+                return true;
+            } catch (Exception e) {
+                System.err.println("Error processing file: " + file.getName());
+                e.printStackTrace();
+                // Don't commit part of the file; it's retried on the next scan
+                if (source != null)
+                    writer.deleteDocuments(source);
+                return false;
+            }
+        }
+        
+        void report(long files, long docs, long bytes, long start) {
+            double secs = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+            System.out.println(String.format("Worker %s: %d files, %d docs, %.1f docs/s, %.2f MB/s",
+                    id, files, docs, docs / secs, bytes / secs / (1024 * 1024)));
         }
-
     }
 }
@@ -17,6 +17,7 @@ import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
 
+import edu.gslis.docscoring.support.MappedCollectionStatsWriter;
 import edu.gslis.indexes.IndexWrapperLuceneImpl;
 import edu.gslis.lucene.indexer.Indexer;
 import edu.gslis.textrepresentation.FeatureVector;
@@ -144,6 +145,11 @@ public class LuceneDumpIndex
             }
             
             
+        }
+        else if (cmd.equals("termstats") || cmd.equals("ts")) {
+            // Write the binary term statistics read by MappedCollectionStats to arg
+            long terms = MappedCollectionStatsWriter.fromIndex(index, StringUtils.isEmpty(field) ? null : field, arg);
+            System.out.println(terms + " terms written to " + arg);
         }
         else if (cmd.equals("xcount") || cmd.equals("x")) {
             // 3
@@ -3,9 +3,17 @@ package edu.gslis.lucene.main;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -36,6 +44,8 @@ import edu.gslis.utils.Stopper;
  */
 public class LuceneRunQuery 
 {
+    static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    
     ClassLoader loader = ClassLoader.getSystemClassLoader();
     RunQueryConfig config;
     
@@ -72,6 +82,7 @@ public class LuceneRunQuery
             String querynum = cmd.getOptionValue("querynum", "1");
             String runname = cmd.getOptionValue("name", "default");
             int numResults = Integer.parseInt(cmd.getOptionValue("numResults", "1000"));
+            int threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
             
             String similarity = cmd.getOptionValue("similarity", Indexer.DEFAULT_SIMILARITY);
 
@@ -110,6 +121,7 @@ public class LuceneRunQuery
             config.setFbAlpha(fbAlpha);
             config.setFbBeta(fbBeta);
             config.setNumResults(numResults);
+            config.setThreads(threads);
         }            
         LuceneRunQuery runner = new LuceneRunQuery(config);
         runner.run();
@@ -162,7 +174,9 @@ public class LuceneRunQuery
     }
     
     /**
-     * Run the specified query configuration
+     * Run the specified query configuration. Queries are executed on a pool of
+     * config.getThreads() workers against the shared index; results are written
+     * in query order regardless of completion order.
      * @throws Exception
      */
     private void run() throws Exception 
@@ -189,24 +203,86 @@ public class LuceneRunQuery
         // Setup the index searcher
         IndexWrapper index = IndexWrapperFactory.getIndexWrapper(indexPath);
 
+        Map<String, String> fbParams = null;
         if (config.getFbDocs() > 0 && config.getFbTerms() > 0) {
         	System.err.println("Running Rocchio expansion: " + config.getFbDocs() + "," + config.getFbTerms() +
         			"," + config.getFbAlpha() + "," + config.getFbBeta());
+        	fbParams = getParamsFromModel(config.getSimilarity());
+        }
+        
+        int numThreads = Math.max(1, config.getThreads());
+        if (numThreads > 1 && !index.isThreadSafe()) {
+            System.err.println("Warning: " + index.getClass().getSimpleName() 
+                    + " is not safe for concurrent queries, running on one thread");
+            numThreads = 1;
+        }
+        int numQueries = config.getQueries().numQueries();
+        long[] latencies = new long[numQueries];
+        
+        // Bound the number of completed-but-unprinted queries so large topic
+        // sets don't hold every result list in memory.
+        int window = numThreads * 4;
+        Deque<Future<String>> pending = new ArrayDeque<Future<String>>(window);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        
+        long start = System.nanoTime();
+        try
+        {
+            Iterator<GQuery> it = config.getQueries().iterator();
+            int i = 0;
+            while (it.hasNext()) {
+                GQuery query = it.next();
+                pending.add(executor.submit(
+                        new QueryTask(index, query, stopper, similarityModel, fbParams, latencies, i++)));
+                if (pending.size() >= window)
+                    System.out.print(pending.poll().get());
+            }
+            while (!pending.isEmpty())
+                System.out.print(pending.poll().get());
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        reportTimings(latencies, elapsed, numThreads);
+    }
+    
+    /**
+     * Runs a single query (with optional Rocchio expansion) and returns its
+     * TREC-formatted result lines.
+     */
+    private class QueryTask implements Callable<String> {
+        IndexWrapper index;
+        GQuery query;
+        Stopper stopper;
+        String similarityModel;
+        Map<String, String> fbParams;
+        long[] latencies;
+        int queryIndex;
+        
+        public QueryTask(IndexWrapper index, GQuery query, Stopper stopper, String similarityModel,
+                Map<String, String> fbParams, long[] latencies, int queryIndex) 
+        {
+            this.index = index;
+            this.query = query;
+            this.stopper = stopper;
+            this.similarityModel = similarityModel;
+            this.fbParams = fbParams;
+            this.latencies = latencies;
+            this.queryIndex = queryIndex;
         }
         
-        // Run each query
-        for (int i=0; i<config.getQueries().numQueries(); i++) {
-        	GQuery query = config.getQueries().getIthQuery(i);
+        public String call() throws Exception {
+            long start = System.nanoTime();
+            
         	if (stopper != null)
         		query.applyStopper(stopper);
         	
         	SearchHits hits = index.runQuery(query, config.getNumResults(), similarityModel);
             
-            if (config.getFbDocs() > 0 && config.getFbTerms() > 0) {            	
-            	
-        		Map<String, String> params = getParamsFromModel(config.getSimilarity());
-        		double b = Double.parseDouble(params.get("b"));
-        		double k1 = Double.parseDouble(params.get("k1"));
+            if (fbParams != null) {            	
+        		double b = Double.parseDouble(fbParams.get("b"));
+        		double k1 = Double.parseDouble(fbParams.get("k1"));
             	
             	Rocchio rocchioFb = new Rocchio(config.getFbAlpha(), config.getFbBeta(), k1, b);
             	rocchioFb.setStopper(stopper);
@@ -216,14 +292,47 @@ public class LuceneRunQuery
             }
             hits.rank();
             
+            StringBuilder out = new StringBuilder();
             int rank=0;
             for (SearchHit hit: hits.hits()) {
-            	System.out.println(query.getTitle() + " Q0 " + hit.getDocno() + " " + rank + " "  + hit.getScore() + " " + config.getRunName());
+            	out.append(query.getTitle() + " Q0 " + hit.getDocno() + " " + rank + " "  + hit.getScore() + " " + config.getRunName());
+            	out.append(LINE_SEPARATOR);
             	rank++;
-            }            
+            }
+            latencies[queryIndex] = System.nanoTime() - start;
+            return out.toString();
         }
     }
     
+    /**
+     * Print per-query latency percentiles and overall throughput to stderr
+     * @param latencies Per-query latency in nanoseconds
+     * @param elapsed Total wall time in nanoseconds
+     * @param numThreads Number of query threads
+     */
+    private void reportTimings(long[] latencies, long elapsed, int numThreads) {
+        if (latencies.length == 0)
+            return;
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsed / 1e9;
+        System.err.println(String.format(
+                "Ran %d queries on %d threads in %.2fs (%.1f QPS)", 
+                sorted.length, numThreads, seconds, sorted.length / seconds));
+        System.err.println(String.format(
+                "Query latency ms: p50=%.1f p90=%.1f p95=%.1f p99=%.1f max=%.1f",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.95), 
+                percentile(sorted, 0.99), sorted[sorted.length-1] / 1e6));
+    }
+    
+    /**
+     * Nearest-rank percentile of a sorted array of nanosecond values, in ms
+     */
+    private static double percentile(long[] sorted, double p) {
+        int rank = (int)Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+    
     /**
      * Given a model specification, return a map of key/value pairs.
      * @param model
@@ -263,6 +372,7 @@ public class LuceneRunQuery
         options.addOption("alpha", true, "Rocchio alpha");
         options.addOption("beta", true, "Rocchio beta");
         options.addOption("numResults", true, "Number of results (defaults to 10000");
+        options.addOption("threads", true, "Number of concurrent query threads (defaults to 1)");
 
         return options;
     }
@@ -1,11 +1,31 @@
 package edu.gslis.lucene.main.config;
 
 public class CorpusConfig {
+    public static final String MODE_SHARDS = "shards";
+    public static final String MODE_SINGLE = "single";
+    
     String path = "";
     // html, trecweb, trectext, trecalt, doc, ppt, pdf, txt
     String type = "";
     String filter = "";
     int shards = 1;
+    int threads = 1;
+    // shards: one IndexWriter per shard; single: one shared IndexWriter
+    String mode = MODE_SHARDS;
+    int workers = 0;
+    boolean merge = false;
+    // Skip files already in the index manifest, commit after each file
+    boolean incremental = false;
+    // Seconds between scans for new files in incremental mode (0: scan once)
+    int pollInterval = 0;
+    // Add documents without replacing by id, remove duplicates after the build
+    boolean appendOnly = false;
+    // Seconds per document before giving up on parsing it (tika, 0: no limit).
+    // Documents that fail or time out are listed in skipped.list by parent
+    // directory and file name, with its extension.
+    int timeout = 0;
+    // Characters extracted per document (tika, -1: no limit)
+    int maxChars = -1;
     
     public String getPath() {
         return path;
@@ -32,4 +52,58 @@ public class CorpusConfig {
     public void setShards(int shards) {
         this.shards = shards;
     }
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    public String getMode() {
+        return mode;
+    }
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+    public int getWorkers() {
+        return workers;
+    }
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+    public boolean isMerge() {
+        return merge;
+    }
+    public void setMerge(boolean merge) {
+        this.merge = merge;
+    }
+    public boolean isIncremental() {
+        return incremental;
+    }
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+    public int getPollInterval() {
+        return pollInterval;
+    }
+    public void setPollInterval(int pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+    public boolean isAppendOnly() {
+        return appendOnly;
+    }
+    public void setAppendOnly(boolean appendOnly) {
+        this.appendOnly = appendOnly;
+    }
+    public int getTimeout() {
+        return timeout;
+    }
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+    public int getMaxChars() {
+        return maxChars;
+    }
+    public void setMaxChars(int maxChars) {
+        this.maxChars = maxChars;
+    }
 }
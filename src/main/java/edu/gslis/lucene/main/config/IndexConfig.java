@@ -3,13 +3,35 @@ import java.util.Set;
 
 
 public class IndexConfig {
+    public static final String MERGE_TIERED = "tiered";
+    public static final String MERGE_LOG_BYTE = "logbyte";
+    public static final String MERGE_LOG_DOC = "logdoc";
+    
     String indexPath = "";
     CorpusConfig corpus;
     
     String stopwords = "";
     String analyzer = "";
     String similarity = "";
+    boolean docValues = false;
+    String timeField = "epoch";
+    // Also store each text field's length and position gaps (doclen_<field>,
+    // posgaps_<field>)
+    boolean fieldStats = false;
     Set<FieldConfig> fields;
+    // Total IndexWriter RAM buffer in MB, divided across active writers 
+    // (0: a quarter of the maximum heap)
+    double ramBufferMB = 0;
+    // tiered, logbyte or logdoc
+    String mergePolicy = MERGE_TIERED;
+    // Segments per tier (tiered) or merge factor (log), 0 for the default
+    int mergeFactor = 0;
+    // Largest merged segment in MB (tiered, logbyte), 0 for the default
+    double maxMergedSegmentMB = 0;
+    // Merge threads per writer, 0 for the default
+    int mergeThreads = 0;
+    // Merges queued per writer before indexing stalls, 0 for mergeThreads + 5
+    int maxMerges = 0;
     public String getIndexPath() {
         return indexPath;
     }
@@ -40,10 +62,64 @@ public class IndexConfig {
     public void setSimilarity(String similarity) {
         this.similarity = similarity;
     }
+    public boolean isDocValues() {
+        return docValues;
+    }
+    public void setDocValues(boolean docValues) {
+        this.docValues = docValues;
+    }
+    public boolean isFieldStats() {
+        return fieldStats;
+    }
+    public void setFieldStats(boolean fieldStats) {
+        this.fieldStats = fieldStats;
+    }
+    public String getTimeField() {
+        return timeField;
+    }
+    public void setTimeField(String timeField) {
+        this.timeField = timeField;
+    }
     public Set<FieldConfig> getFields() {
         return fields;
     }
     public void setFields(Set<FieldConfig> fields) {
         this.fields = fields;
     }
-}
\ No newline at end of file
+    public double getRamBufferMB() {
+        return ramBufferMB;
+    }
+    public void setRamBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+    }
+    public String getMergePolicy() {
+        return mergePolicy;
+    }
+    public void setMergePolicy(String mergePolicy) {
+        this.mergePolicy = mergePolicy;
+    }
+    public int getMergeFactor() {
+        return mergeFactor;
+    }
+    public void setMergeFactor(int mergeFactor) {
+        this.mergeFactor = mergeFactor;
+    }
+    public double getMaxMergedSegmentMB() {
+        return maxMergedSegmentMB;
+    }
+    public void setMaxMergedSegmentMB(double maxMergedSegmentMB) {
+        this.maxMergedSegmentMB = maxMergedSegmentMB;
+    }
+    public int getMergeThreads() {
+        return mergeThreads;
+    }
+    public void setMergeThreads(int mergeThreads) {
+        this.mergeThreads = mergeThreads;
+    }
+    public int getMaxMerges() {
+        return maxMerges;
+    }
+    public void setMaxMerges(int maxMerges) {
+        this.maxMerges = maxMerges;
+    }
+}
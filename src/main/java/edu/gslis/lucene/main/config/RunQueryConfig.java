@@ -18,6 +18,7 @@ public class RunQueryConfig {
     double fbAlpha = 0;
     double fbBeta = 0;
     int numResults = 0;
+    int threads = 1;
 
     
     
@@ -27,6 +28,12 @@ public class RunQueryConfig {
 	public void setNumResults(int numResults) {
 		this.numResults = numResults;
 	}
+	public int getThreads() {
+		return threads;
+	}
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
 	public int getFbDocs() {
 		return fbDocs;
 	}
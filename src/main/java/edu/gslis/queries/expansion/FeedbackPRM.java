@@ -2,13 +2,13 @@ package edu.gslis.queries.expansion;
 
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 
 import edu.gslis.searchhits.SearchHit;
+import edu.gslis.textrepresentation.PositionalDocument;
 import edu.gslis.utils.KeyValuePair;
 import edu.gslis.utils.KeyValuePairs;
 
@@ -20,8 +20,8 @@ import edu.gslis.utils.KeyValuePairs;
  * Ported from: *  http://sifaka.cs.uiuc.edu/~ylv2/pub/prm/PositionalRelevanceModel.cpp
  */
 public class FeedbackPRM extends Feedback {
-	private double sigma = 10;
-	private double lambda = 0.1;
+	protected double sigma = 10;
+	protected double lambda = 0.1;
 	int fbMethod = 2;
 	
     Map<String, Integer> queryTerms = new HashMap<String, Integer>();
@@ -76,7 +76,17 @@ public class FeedbackPRM extends Feedback {
 			// For each query result
 			while (hitIterator.hasNext()) {
 	            SearchHit hit = hitIterator.next();
-	            List<String> docTerms = index.getDocTerms(hit.getDocID());
+	            PositionalDocument posDoc = index.getPositionalDocument(hit.getDocID());
+	            int[] positions = posDoc.getPositions();
+	            String[] terms = posDoc.getTerms();
+	            
+	            // Check each distinct term once rather than at every position
+	            boolean[] valid = new boolean[terms.length];
+	            boolean[] isQueryTerm = new boolean[terms.length];
+	            for (int id = 0; id < terms.length; id++) {
+	                valid[id] = isValidWord(terms[id]);
+	                isQueryTerm[id] = queryTerms.containsKey(terms[id]);
+	            }
 			    
 	            // First pass: record the position of each query term
                 Map<Integer, String> posQTermMap = new HashMap<Integer, String>();
@@ -84,30 +94,25 @@ public class FeedbackPRM extends Feedback {
                 // double docLength = termPosMap.size();
                 double stoppedDocLength = 0;
                 
-	            for (int pos = 0; pos < docTerms.size(); pos++) {
-	                String term = docTerms.get(pos);
+	            for (int pos = 0; pos < positions.length; pos++) {
+	                int id = positions[pos];
 	                
-                    if (!isValidWord(term))
+                    if (!valid[id])
 	                    continue;
 	                
 	                stoppedDocLength++;
 	                
-    			    for (String qterm: queryTerms.keySet()) {
-    			        if (term.equals(qterm)) {
-      			            posQTermMap.put(pos, term);
-    			        }
-    			    }
+	                if (isQueryTerm[id])
+	                    posQTermMap.put(pos, terms[id]);
 	            }
 			    
-	            double[] posScores = new double[docTerms.size()];
+	            double[] posScores = new double[positions.length];
 	            double posScoreSum = 0;
 	            
 			    // Second pass: estimate PLMs
 			    double lenNorm = Math.sqrt(2 * Math.PI) * sigma;
-			    for (int i=0; i< docTerms.size(); i++) {
-			        String term = docTerms.get(i);
-			        
-                    if (!isValidWord(term))
+			    for (int i=0; i< positions.length; i++) {
+                    if (!valid[positions[i]])
 			            continue;
 			        
 			        // Language model for position
@@ -140,12 +145,13 @@ public class FeedbackPRM extends Feedback {
 			    }
 			    
 	             // Third pass: aggregate feedback counts
-			    for (int i=0; i<docTerms.size(); i++) {
+			    for (int i=0; i<positions.length; i++) {
                     double posScore = posScores[i];
-                    String term = docTerms.get(i);
+                    int id = positions[i];
                     
-                    if (!isValidWord(term))
+                    if (!valid[id])
                         continue;
+                    String term = terms[id];
                     
                     if (fbMethod == 1) 
                         posScore = posScore/stoppedDocLength;
@@ -0,0 +1,256 @@
+package edu.gslis.queries.expansion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import edu.gslis.indexes.IndexTaskRunner;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.textrepresentation.PositionalDocument;
+import edu.gslis.textrepresentation.Vocabulary;
+import edu.gslis.utils.KeyValuePair;
+import edu.gslis.utils.KeyValuePairs;
+
+
+/**
+ * Positional relevance model (Lv and Zhai 2010) over primitive arrays.
+ *
+ * Same estimate as FeedbackPRM, with the following changes:
+ *
+ * 1. Per-position language models are double[] indexed by query term, and the
+ * Gaussian kernel is precomputed and truncated at a configurable number of
+ * sigmas. Each position only sums over query positions in a sliding window
+ * instead of every query position. The default (8) is wider than for
+ * ScorerPLMFast: the smoothing term lambda * p(q|C) is small enough that
+ * kernel tails still matter at 5 sigmas, where term weights on trectest are
+ * off by up to a few percent. At 8 sigmas they are within 1e-8 relative of
+ * FeedbackPRM (see TestFeedbackPRMFast).
+ *
+ * 2. With setThreads, feedback documents are processed in parallel (see
+ * IndexTaskRunner). Each document produces
+ * term weights against a shared Vocabulary, which are merged in rank order
+ * into a double[] accumulator so results don't depend on thread scheduling.
+ */
+public class FeedbackPRMFast extends FeedbackPRM {
+    public static final double DEFAULT_TRUNCATION = 8;
+
+    double truncation = DEFAULT_TRUNCATION;
+    IndexTaskRunner runner = new IndexTaskRunner(1);
+
+    public FeedbackPRMFast(String query) {
+        super(query);
+    }
+
+    /**
+     * Number of sigmas beyond which the kernel is treated as zero
+     * @param truncation
+     */
+    public void setTruncation(double truncation) {
+        this.truncation = truncation;
+    }
+
+    /**
+     * Number of feedback documents to process concurrently. Defaults to 1.
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        if (threads != runner.getThreads()) {
+            runner.shutdown();
+            runner = new IndexTaskRunner(threads);
+        }
+    }
+
+    @Override
+    public void build() {
+
+        features = new KeyValuePairs();
+
+        try
+        {
+            if(relDocs == null) {
+                relDocs = index.runQuery(originalQuery, fbDocCount);
+            }
+
+            relDocs.logToPosterior();
+
+            // Query terms and a simple collection language model
+            String[] qterms = queryTerms.keySet().toArray(new String[0]);
+            double[] qcounts = new double[qterms.length];
+            double[] colLM = new double[qterms.length];
+            double colFreq = index.termCount();
+            for (int q = 0; q < qterms.length; q++) {
+                qcounts[q] = queryTerms.get(qterms[q]);
+                colLM[q] = index.termFreq(qterms[q]) / colFreq;
+            }
+
+            // Truncated Gaussian kernel, including the length normalization
+            int window = (int)Math.floor(truncation * sigma);
+            double lenNorm = Math.sqrt(2 * Math.PI) * sigma;
+            double[] kernel = new double[window + 1];
+            for (int d = 0; d <= window; d++) {
+                double dis = d / sigma;
+                kernel[d] = Math.exp( - dis * dis/2.0) / lenNorm;
+            }
+
+            Vocabulary vocabulary = new Vocabulary();
+            List<PRMTask> tasks = new ArrayList<PRMTask>();
+            Iterator<SearchHit> hitIterator = relDocs.iterator();
+            while (hitIterator.hasNext()) {
+                tasks.add(new PRMTask(hitIterator.next(), qterms, qcounts, colLM,
+                        kernel, vocabulary));
+            }
+
+            List<DocWeights> results = runner.invokeAll(index, tasks);
+
+            // Merge in rank order
+            double[] weights = new double[vocabulary.size()];
+            for (DocWeights result: results) {
+                for (int k = 0; k < result.ids.length; k++)
+                    weights[result.ids[k]] += result.weights[k];
+            }
+
+            // Term ids depend on thread scheduling, so sum in term order
+            List<String> terms = new ArrayList<String>();
+            for (int id = 0; id < weights.length; id++) {
+                String term = vocabulary.getTerm(id);
+                if (weights[id] > 0 && !stopper.isStopWord(term))
+                    terms.add(term);
+            }
+            String[] sorted = terms.toArray(new String[terms.size()]);
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (String term: sorted)
+                sum += weights[vocabulary.lookup(term)];
+            for (String term: sorted) {
+                KeyValuePair tuple = new KeyValuePair(term, weights[vocabulary.lookup(term)]/sum);
+                features.add(tuple);
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Feedback term weights for one document
+     */
+    static class DocWeights {
+        int[] ids;
+        double[] weights;
+    }
+
+    /**
+     * Estimates the positional relevance model for one feedback document
+     */
+    class PRMTask implements Callable<DocWeights> {
+        SearchHit hit;
+        String[] qterms;
+        double[] qcounts;
+        double[] colLM;
+        double[] kernel;
+        Vocabulary vocabulary;
+
+        PRMTask(SearchHit hit, String[] qterms, double[] qcounts, double[] colLM,
+                double[] kernel, Vocabulary vocabulary) {
+            this.hit = hit;
+            this.qterms = qterms;
+            this.qcounts = qcounts;
+            this.colLM = colLM;
+            this.kernel = kernel;
+            this.vocabulary = vocabulary;
+        }
+
+        public DocWeights call() {
+            PositionalDocument posDoc = index.getPositionalDocument(hit.getDocID());
+            int[] positions = posDoc.getPositions();
+            String[] terms = posDoc.getTerms();
+            int window = kernel.length - 1;
+
+            boolean[] valid = new boolean[terms.length];
+            int[] qindex = new int[terms.length];
+            Arrays.fill(qindex, -1);
+            for (int id = 0; id < terms.length; id++)
+                valid[id] = isValidWord(terms[id]);
+            for (int q = 0; q < qterms.length; q++) {
+                int id = posDoc.getTermId(qterms[q]);
+                if (id != PositionalDocument.UNKNOWN)
+                    qindex[id] = q;
+            }
+
+            // First pass: record the position of each query term
+            int[] qpos = new int[positions.length];
+            int[] qterm = new int[positions.length];
+            int numQpos = 0;
+            double stoppedDocLength = 0;
+            for (int pos = 0; pos < positions.length; pos++) {
+                int id = positions[pos];
+                if (!valid[id])
+                    continue;
+                stoppedDocLength++;
+                if (qindex[id] >= 0) {
+                    qpos[numQpos] = pos;
+                    qterm[numQpos++] = qindex[id];
+                }
+            }
+
+            // Second pass: smoothed PLM and query likelihood at each position
+            double[] posScores = new double[positions.length];
+            double posScoreSum = 0;
+            double[] plm = new double[qterms.length];
+            int lo = 0;
+            for (int i = 0; i < positions.length; i++) {
+                if (!valid[positions[i]])
+                    continue;
+
+                while (lo < numQpos && qpos[lo] < i - window)
+                    lo++;
+                Arrays.fill(plm, 0);
+                for (int b = lo; b < numQpos && qpos[b] <= i + window; b++)
+                    plm[qterm[b]] += kernel[Math.abs(qpos[b] - i)];
+
+                double ql = 1.0;
+                for (int q = 0; q < qterms.length; q++) {
+                    double dpr = (1 - lambda) * plm[q] + lambda * colLM[q];
+                    ql *= Math.pow(dpr / colLM[q], qcounts[q]);
+                }
+                posScores[i] = ql;
+                posScoreSum += ql;
+            }
+
+            // Third pass: aggregate feedback counts by term
+            double[] termWeights = new double[terms.length];
+            for (int i = 0; i < positions.length; i++) {
+                int id = positions[i];
+                if (!valid[id])
+                    continue;
+
+                double posScore = posScores[i];
+                if (fbMethod == 1)
+                    posScore = posScore/stoppedDocLength;
+                else
+                    posScore = posScore * hit.getScore() / posScoreSum;
+
+                if (posScore > 0)
+                    termWeights[id] += posScore;
+            }
+
+            int n = 0;
+            for (int id = 0; id < terms.length; id++)
+                if (termWeights[id] > 0)
+                    n++;
+            DocWeights result = new DocWeights();
+            result.ids = new int[n];
+            result.weights = new double[n];
+            n = 0;
+            for (int id = 0; id < terms.length; id++) {
+                if (termWeights[id] > 0) {
+                    result.ids[n] = vocabulary.intern(terms[id]);
+                    result.weights[n++] = termWeights[id];
+                }
+            }
+            return result;
+        }
+    }
+}
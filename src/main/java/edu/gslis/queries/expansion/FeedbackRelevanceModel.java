@@ -1,29 +1,41 @@
 package edu.gslis.queries.expansion;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
 
+import edu.gslis.indexes.IndexTaskRunner;
 import edu.gslis.searchhits.SearchHit;
 import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.Vocabulary;
 import edu.gslis.utils.KeyValuePair;
 import edu.gslis.utils.KeyValuePairs;
 
 
 
 
+/**
+ * Relevance model (RM1) estimated from the top-ranked documents.
+ * 
+ * Each feedback document's vector is visited once and its weighted term 
+ * probabilities are added into a double[] accumulator indexed by a per-build
+ * Vocabulary, so cost is proportional to the total number of (doc, term) 
+ * entries rather than vocabulary size times fbDocs. With setThreads, document
+ * vectors are fetched in parallel when the index is thread-safe. With 
+ * setMaxTerms, only the top-k terms are selected (bounded heap) and kept as
+ * features.
+ */
 public class FeedbackRelevanceModel extends Feedback {
 	private boolean adHocGroom = false;
 	private double[] docWeights = null;
+	private IndexTaskRunner runner = new IndexTaskRunner(1);
+	private int maxTerms = 0;
 	
 	@Override
 	public void build() {
 		try {
-			Set<String> vocab = new HashSet<String>();
-			List<FeatureVector> fbDocVectors = new LinkedList<FeatureVector>();
-
 			if(relDocs == null) {
 				relDocs = index.runQuery(originalQuery, fbDocCount);
 			}
@@ -36,60 +48,132 @@ public class FeedbackRelevanceModel extends Feedback {
 				rsvs[k++] = Math.exp(hit.getScore());
 			}
 			
+			List<Callable<FeatureVector>> fetches = new ArrayList<Callable<FeatureVector>>();
 			hitIterator = relDocs.iterator();
 			while(hitIterator.hasNext()) {
-				SearchHit hit = hitIterator.next();
-				FeatureVector docVector = index.getDocVector(hit.getDocID(), stopper);
-				vocab.addAll(docVector.getFeatures());
-				fbDocVectors.add(docVector);
+				final SearchHit hit = hitIterator.next();
+				fetches.add(new Callable<FeatureVector>() {
+					public FeatureVector call() {
+						return index.getDocVector(hit.getDocID(), stopper);
+					}
+				});
 			}
+			
+			List<FeatureVector> fbDocVectors = runner.invokeAll(index, fetches);
 
-			features = new KeyValuePairs();
+			// Accumulate each document's terms, in rank order
+			Vocabulary vocab = new Vocabulary();
+			double[] fbWeights = new double[1024];
+			k=0;
+			for (FeatureVector docVector: fbDocVectors) {
+				double docLength = docVector.getLength();
+				double docWeight = 1.0;
+				if(docWeights != null)
+					docWeight = docWeights[k];
+				double rsv = rsvs[k++];
 
-			
-			Iterator<String> it = vocab.iterator();
-			while(it.hasNext()) {
-				String term = it.next();
-
-				/*
-				if(!term.matches(".*[a-z].*"))
-					continue;
-				
-				if(adHocGroom && (term.matches(".*[0-9].*") || term.length()<3)) {
-					continue;
-				}
-				*/
-				
-				
-				double fbWeight = 0.0;
-				
-				
-
-				Iterator<FeatureVector> docIT = fbDocVectors.iterator();
-				k=0;
-				while(docIT.hasNext()) {
-					FeatureVector docVector = docIT.next();
-					double docProb = docVector.getFeatureWeight(term) / docVector.getLength();
-					double docWeight = 1.0;
-					if(docWeights != null)
-						docWeight = docWeights[k];
-					docProb *= rsvs[k++];
+				Iterator<String> it = docVector.iterator();
+				while(it.hasNext()) {
+					String term = it.next();
+
+					/*
+					if(!term.matches(".*[a-z].*"))
+						continue;
+					
+					if(adHocGroom && (term.matches(".*[0-9].*") || term.length()<3)) {
+						continue;
+					}
+					*/
+
+					int id = vocab.intern(term);
+					if (id >= fbWeights.length)
+						fbWeights = Arrays.copyOf(fbWeights, Math.max(id + 1, fbWeights.length * 2));
+
+					double docProb = docVector.getFeatureWeight(term) / docLength;
+					docProb *= rsv;
 					docProb *= docWeight;
-					fbWeight += docProb;
+					fbWeights[id] += docProb;
 				}
-				
-				fbWeight /= (double)fbDocVectors.size();
-				
-				KeyValuePair tuple = new KeyValuePair(term, fbWeight);
-				features.add(tuple);
 			}
-			
-			
+
+			int numTerms = vocab.size();
+			for (int id = 0; id < numTerms; id++)
+				fbWeights[id] /= (double)fbDocVectors.size();
+
+			features = new KeyValuePairs();
+			if (maxTerms > 0 && maxTerms < numTerms) {
+				for (int id: topTerms(fbWeights, numTerms, maxTerms))
+					features.add(new KeyValuePair(vocab.getTerm(id), fbWeights[id]));
+			} else {
+				for (int id = 0; id < numTerms; id++)
+					features.add(new KeyValuePair(vocab.getTerm(id), fbWeights[id]));
+			}
 			
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Selects the ids of the k largest weights with a bounded min-heap,
+	 * largest first. Ties go to the lower id.
+	 */
+	static int[] topTerms(double[] weights, int n, int k) {
+		int[] heap = new int[k];
+		int size = 0;
+		for (int id = 0; id < n; id++) {
+			if (size < k) {
+				heap[size] = id;
+				siftUp(heap, size++, weights);
+			} else if (less(heap[0], id, weights)) {
+				heap[0] = id;
+				siftDown(heap, size, weights);
+			}
+		}
+		// Drain smallest first into the back of the result
+		int[] top = new int[size];
+		for (int i = size - 1; i >= 0; i--) {
+			top[i] = heap[0];
+			heap[0] = heap[--size];
+			siftDown(heap, size, weights);
+		}
+		return top;
+	}
+
+	/**
+	 * Heap order: lower weight first, and for equal weights the higher id
+	 */
+	private static boolean less(int a, int b, double[] weights) {
+		if (weights[a] != weights[b])
+			return weights[a] < weights[b];
+		return a > b;
+	}
+
+	private static void siftUp(int[] heap, int i, double[] weights) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!less(heap[i], heap[parent], weights))
+				break;
+			int tmp = heap[i]; heap[i] = heap[parent]; heap[parent] = tmp;
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, double[] weights) {
+		int i = 0;
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size)
+				break;
+			int child = left;
+			if (left + 1 < size && less(heap[left + 1], heap[left], weights))
+				child = left + 1;
+			if (!less(heap[child], heap[i], weights))
+				break;
+			int tmp = heap[i]; heap[i] = heap[child]; heap[child] = tmp;
+			i = child;
+		}
+	}
 	
 	public void setGroom(boolean groomModels) {
 		this.adHocGroom = groomModels;
@@ -99,5 +183,25 @@ public class FeedbackRelevanceModel extends Feedback {
 		this.docWeights = docWeights;
 	}
 
+	/**
+	 * Number of threads used to fetch document vectors. Defaults to 1.
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		if (threads != runner.getThreads()) {
+			runner.shutdown();
+			runner = new IndexTaskRunner(threads);
+		}
+	}
+
+	/**
+	 * If positive, keep only the top-k weighted terms as features.
+	 * Defaults to 0 (all terms).
+	 * @param maxTerms
+	 */
+	public void setMaxTerms(int maxTerms) {
+		this.maxTerms = maxTerms;
+	}
+
 
 }
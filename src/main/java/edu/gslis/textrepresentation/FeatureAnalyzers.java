@@ -0,0 +1,120 @@
+package edu.gslis.textrepresentation;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.store.AlreadyClosedException;
+
+import edu.gslis.utils.Stopper;
+
+
+/**
+ * Shared analysis pipeline for turning raw text into FeatureVector terms.
+ *
+ * One StandardAnalyzer is kept per Stopper instance (by identity), so the
+ * stoplist is copied into a CharArraySet once rather than per vector.  Lucene
+ * analyzers reuse their TokenStream components per thread, so concurrent
+ * callers each get their own stream without locking.
+ *
+ * Stoppers are mutable, including through asSet(); an analyzer is rebuilt,
+ * and the old one closed, when the stopper's version has changed since it
+ * was cached. The analyzer used last is checked without locking.
+ */
+public class FeatureAnalyzers {
+	private static final String FIELD = "text";
+	private static final Analyzer DEFAULT = new StandardAnalyzer();
+	private static final Map<Stopper, CachedAnalyzer> analyzers =
+			new WeakHashMap<Stopper, CachedAnalyzer>();
+	private static volatile CachedAnalyzer last;
+
+	/**
+	 * Returns the shared analyzer for the specified stopper. The analyzer is
+	 * closed once the stopper changes, so get it again rather than keep it.
+	 * @param stopper Stopper, or null
+	 * @return analyzer
+	 */
+	public static Analyzer getAnalyzer(Stopper stopper) {
+		if(stopper==null || stopper.isEmpty())
+			return DEFAULT;
+
+		// Read the version before the stoplist: a change made while it is
+		// copied leaves the analyzer out of date, so it is rebuilt next time
+		int version = stopper.getVersion();
+		CachedAnalyzer cached = last;
+		if (cached != null && cached.stopper.get() == stopper && cached.version == version)
+			return cached.analyzer;
+
+		synchronized (analyzers) {
+			cached = analyzers.get(stopper);
+			if (cached == null || cached.version != version) {
+				if (cached != null)
+					cached.analyzer.close();
+				CharArraySet charArraySet = new CharArraySet(stopper.asSet(), true);
+				cached = new CachedAnalyzer(stopper, new StandardAnalyzer(charArraySet), version);
+				analyzers.put(stopper, cached);
+			}
+			last = cached;
+			return cached.analyzer;
+		}
+	}
+
+	/**
+	 * Tokenizes the text with the shared analyzer for this stopper
+	 * @param text Text
+	 * @param stopper Stopper, or null
+	 * @return terms in document order
+	 */
+	public static List<String> analyze(String text, Stopper stopper) {
+		List<String> result = new ArrayList<String>();
+		TokenStream stream = null;
+		try {
+			while (stream == null) {
+				try {
+					stream = getAnalyzer(stopper).tokenStream(FIELD, text);
+				} catch (AlreadyClosedException e) {
+					// Replaced after the stopper changed; use the new one
+				}
+			}
+			CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while(stream.incrementToken()) {
+				result.add(charTermAttribute.toString());
+			}
+			stream.end();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			// Must close before this thread can reuse the stream
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return result;
+	}
+
+	private static class CachedAnalyzer {
+		// Weak, since the stopper is also the map key
+		final WeakReference<Stopper> stopper;
+		final Analyzer analyzer;
+		final int version;
+
+		CachedAnalyzer(Stopper stopper, Analyzer analyzer, int version) {
+			this.stopper = new WeakReference<Stopper>(stopper);
+			this.analyzer = analyzer;
+			this.version = version;
+		}
+	}
+}
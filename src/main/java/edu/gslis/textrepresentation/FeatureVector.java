@@ -1,23 +1,16 @@
 package edu.gslis.textrepresentation;
 
 
-import java.io.IOException;
-import java.io.StringReader;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.analysis.util.CharArraySet;
 
 import edu.gslis.indexes.IndexWrapper;
 import edu.gslis.utils.KeyValuePair;
@@ -34,9 +27,8 @@ import edu.gslis.utils.Stopper;
  *
  */
 public class FeatureVector  {
-	private static StandardAnalyzer analyzer;	
 	private Map<String, Double> features;
-	private Stopper stopper;
+	protected Stopper stopper;
 	private double length = 0.0;
 
 
@@ -44,39 +36,31 @@ public class FeatureVector  {
 	public FeatureVector(String text, Stopper stopper) {
 		this.stopper = stopper;
 		
-		if(stopper==null || stopper.asSet().size()==0) {
-			analyzer = new StandardAnalyzer();
-		} else {
-			CharArraySet charArraySet = new CharArraySet(stopper.asSet(), true);
-			analyzer = new StandardAnalyzer(charArraySet);
-		}
 		features = new HashMap<String, Double>();
-		List<String> terms = this.analyze(text);
+		List<String> terms = FeatureAnalyzers.analyze(text, stopper);
 		Iterator<String> termsIt = terms.iterator();
 		while(termsIt.hasNext()) {
 			String term = termsIt.next();
 			length += 1.0;
 			Double val = (Double)features.get(term);
 			if(val == null) {
-				features.put(term, new Double(1.0));
+				features.put(term, 1.0);
 			} else {
-				double v = val.doubleValue() + 1.0;
-				features.put(term, new Double(v));
+				features.put(term, val.doubleValue() + 1.0);
 			}
 		}
 	}
 
 	public FeatureVector(Stopper stopper) {
 		this.stopper = stopper;
-		if(stopper==null || stopper.asSet().size()==0) {
-			analyzer = new StandardAnalyzer();
-		} else {
-			CharArraySet charArraySet = new CharArraySet(stopper.asSet(), true);
-			analyzer = new StandardAnalyzer(charArraySet);
-		}
 		features = new HashMap<String,Double>();
 	}
 
+	/**
+	 * For subclasses that supply their own term storage (e.g. InternedFeatureVector).
+	 */
+	protected FeatureVector() {
+	}
 
 
 
@@ -89,7 +73,7 @@ public class FeatureVector  {
 	 * @param text a space-delimited string where we want to add each word.
 	 */
 	public void addText(String text) {
-		List<String> terms = this.analyze(text);
+		List<String> terms = FeatureAnalyzers.analyze(text, stopper);
 		Iterator<String> termsIt = terms.iterator();
 		while(termsIt.hasNext()) {
 			String term = termsIt.next();		
@@ -309,23 +293,6 @@ public class FeatureVector  {
 
 
 	// UTILS
-	private List<String> analyze(String text) {
-		List<String> result = new LinkedList<String>();
-		try {
-			TokenStream stream = null;
-			stream = analyzer.tokenStream("text", new StringReader(text));
-
-			CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
-			stream.reset();
-			while(stream.incrementToken()) {
-				String term = charTermAttribute.toString();
-				result.add(term);
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return result;
-	}
 
 	public static FeatureVector interpolate(FeatureVector x, FeatureVector y, double xWeight) {
 		FeatureVector z = new FeatureVector(null);
@@ -1,6 +1,7 @@
 package edu.gslis.textrepresentation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import edu.gslis.utils.Stopper;
@@ -70,8 +71,19 @@ public class IndriDocument {
 	}
 
 	public FeatureVector getFeatureVector(int docID, Stopper stopper) {
+		return getFeatureVector(docID, stopper, null);
+	}
+
+	/**
+	 * @param docID the indri-internal numeric ID of the document
+	 * @param stopper stopper, or null
+	 * @param vocabulary if non-null, build an InternedFeatureVector against this vocabulary
+	 * @return document vector
+	 */
+	public FeatureVector getFeatureVector(int docID, Stopper stopper, Vocabulary vocabulary) {
 		String[] toks = getDocToks(docID);
-		FeatureVector features = new FeatureVector(stopper);
+		FeatureVector features = (vocabulary == null) ? new FeatureVector(stopper) 
+				: new InternedFeatureVector(stopper, vocabulary, toks.length);
 		for(String tok : toks) {
 			if(tok.equals("[OOV]"))
 				continue;
@@ -174,5 +186,31 @@ public class IndriDocument {
         }
         return terms;
     }
+    
+    /**
+     * Returns the document as stems and positions, dropping [OOV] positions
+     */
+    public PositionalDocument getPositionalDocument(int docID) {
+        int[] inds = new int[1];
+        inds[0] = docID;
+        String[] stems = new String[0];
+        int[] positions = new int[0];
+        try{
+            DocumentVector[] dv = env.documentVectors(inds);
+            stems = dv[0].stems;
+            positions = dv[0].positions;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        int length = 0;
+        int[] compact = new int[positions.length];
+        for(int i=0; i<positions.length; i++) {
+            if(stems[positions[i]].equals("[OOV]"))
+                continue;
+            compact[length++] = positions[i];
+        }
+        return new PositionalDocument(stems, Arrays.copyOf(compact, length));
+    }
 
 }
@@ -0,0 +1,403 @@
+package edu.gslis.textrepresentation;
+
+import java.text.DecimalFormat;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import edu.gslis.indexes.IndexWrapper;
+import edu.gslis.utils.KeyValuePair;
+import edu.gslis.utils.ScorableComparator;
+import edu.gslis.utils.Stopper;
+
+
+/**
+ * FeatureVector keyed by interned term ids rather than term strings.
+ *
+ * Weights are held in an open-addressing table of parallel int[]/double[]
+ * arrays, so getFeatureWeight and addTerm do not box or allocate once the
+ * table has grown to the document size.  Term strings are resolved through
+ * a shared Vocabulary; scorers that already hold term ids can skip the
+ * string lookup via getFeatureWeight(int).
+ */
+public class InternedFeatureVector extends FeatureVector {
+	private static final int EMPTY = -1;
+	private static final int MIN_CAPACITY = 16;
+
+	private Vocabulary vocabulary;
+	private int[] keys;
+	private double[] values;
+	private int count = 0;
+	private double length = 0.0;
+
+	public InternedFeatureVector(Stopper stopper) {
+		this(stopper, Vocabulary.getDefault(), MIN_CAPACITY);
+	}
+
+	public InternedFeatureVector(Stopper stopper, Vocabulary vocabulary) {
+		this(stopper, vocabulary, MIN_CAPACITY);
+	}
+
+	/**
+	 * @param stopper Stopper
+	 * @param vocabulary Vocabulary used to intern terms
+	 * @param expectedSize Expected number of distinct terms
+	 */
+	public InternedFeatureVector(Stopper stopper, Vocabulary vocabulary, int expectedSize) {
+		super();
+		// The base class's stopper, so addText analyzes with it too
+		this.stopper = stopper;
+		this.vocabulary = vocabulary;
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+
+	// MUTATORS
+
+	@Override
+	public void addTerm(String term, double weight) {
+		if(stopper != null && stopper.isStopWord(term))
+			return;
+		addTerm(vocabulary.intern(term), weight);
+	}
+
+	/**
+	 * Add a term id to this vector with this weight.  if it's already here, supplement its weight.
+	 * @param termId Term id in this vector's vocabulary
+	 * @param weight
+	 */
+	public void addTerm(int termId, double weight) {
+		int slot = slot(termId);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = termId;
+			values[slot] = weight;
+			if (++count > keys.length * 3 / 4)
+				rehash(keys.length << 1);
+		} else {
+			values[slot] += weight;
+		}
+		length += weight;
+	}
+
+	@Override
+	public void setTerm(String term, double weight) {
+		if(stopper != null && stopper.isStopWord(term))
+			return;
+		int termId = vocabulary.intern(term);
+		int slot = slot(termId);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = termId;
+			values[slot] = weight;
+			if (++count > keys.length * 3 / 4)
+				rehash(keys.length << 1);
+		} else {
+			values[slot] = weight;
+		}
+		// As in FeatureVector.setTerm, the new weight is added to the length
+		// even when it replaces one
+		length += weight;
+	}
+
+	@Override
+	public void removeTerm(String term) {
+		int termId = vocabulary.lookup(term);
+		if (termId == Vocabulary.UNKNOWN)
+			return;
+		int slot = slot(termId);
+		if (keys[slot] == EMPTY)
+			return;
+		length -= values[slot];
+		count--;
+
+		// Backward-shift deletion keeps probe sequences intact
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (keys[next] != EMPTY) {
+			int home = mix(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[hole] = EMPTY;
+		values[hole] = 0.0;
+	}
+
+	@Override
+	public void clip(int k) {
+		List<KeyValuePair> kvpList = getOrderedFeatures();
+		int n = Math.min(k, kvpList.size());
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < n)
+			capacity <<= 1;
+		allocate(capacity);
+		count = 0;
+		length = 0;
+		for (int i = 0; i < n; i++) {
+			KeyValuePair kvp = kvpList.get(i);
+			addTerm(vocabulary.intern(kvp.getKey()), kvp.getScore());
+		}
+	}
+
+	@Override
+	public void normalize() {
+		double sum = 0.0;
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY)
+				sum += values[i];
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY)
+				values[i] /= sum;
+		length = 1.0;
+	}
+
+	@Override
+	public void l2Normalize() {
+		double l2Norm = getVectorNorm();
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY)
+				values[i] /= l2Norm;
+		length = 1.0;
+	}
+
+	@Override
+	public void toIdf(IndexWrapper index, boolean logTf) {
+		double len = 0.0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == EMPTY)
+				continue;
+			double obs = values[i];
+			if(logTf)
+				obs = Math.log(obs + 1.0);
+			double idf = Math.log(index.docCount() / (index.docFreq(vocabulary.getTerm(keys[i])) + 1.0));
+			double tfidf = obs * idf;
+			len += tfidf;
+			values[i] = tfidf;
+		}
+		length = len;
+	}
+
+	@Override
+	public double clarity(IndexWrapper index) {
+		double kld = 0.0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == EMPTY)
+				continue;
+			double obs = values[i] / length;
+			double bg  = (index.termFreq(vocabulary.getTerm(keys[i])) + 1) / index.termCount();
+			kld += obs * Math.log(obs / bg);
+		}
+		return kld;
+	}
+
+
+	// ACCESSORS
+
+	@Override
+	public Set<String> getFeatures() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new TermIterator();
+			}
+			@Override
+			public int size() {
+				return count;
+			}
+			@Override
+			public boolean contains(Object o) {
+				return InternedFeatureVector.this.contains(o);
+			}
+		};
+	}
+
+	@Override
+	public double getLength() {
+		return length;
+	}
+
+	@Override
+	public int getFeatureCount() {
+		return count;
+	}
+
+	@Override
+	public double getFeatureWeight(String feature) {
+		int termId = vocabulary.lookup(feature);
+		if (termId == Vocabulary.UNKNOWN)
+			return 0.0;
+		return getFeatureWeight(termId);
+	}
+
+	/**
+	 * Returns the weight for a term id in this vector's vocabulary
+	 * @param termId Term id
+	 * @return weight, or 0 if absent
+	 */
+	public double getFeatureWeight(int termId) {
+		int slot = slot(termId);
+		return (keys[slot] == EMPTY) ? 0.0 : values[slot];
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new TermIterator();
+	}
+
+	@Override
+	public boolean contains(Object key) {
+		if (!(key instanceof String))
+			return false;
+		int termId = vocabulary.lookup((String)key);
+		if (termId == Vocabulary.UNKNOWN)
+			return false;
+		return keys[slot(termId)] != EMPTY;
+	}
+
+	@Override
+	public double getVectorNorm() {
+		double norm = 0.0;
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY)
+				norm += Math.pow(values[i], 2.0);
+		return Math.sqrt(norm);
+	}
+
+	/**
+	 * Copies the term ids in this vector into a new array
+	 * @return term ids
+	 */
+	public int[] getTermIds() {
+		int[] ids = new int[count];
+		int j = 0;
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY)
+				ids[j++] = keys[i];
+		return ids;
+	}
+
+
+	// VIEWING
+
+	@Override
+	public String toString() {
+		return this.toString(count);
+	}
+
+	@Override
+	public String toString(int k) {
+		DecimalFormat format = new DecimalFormat("#.#########");
+		StringBuilder b = new StringBuilder();
+		List<KeyValuePair> kvpList = getOrderedFeatures();
+		Iterator<KeyValuePair> it = kvpList.iterator();
+		int i=0;
+		while(it.hasNext() && i++ < k) {
+			KeyValuePair pair = it.next();
+			b.append(format.format(pair.getScore()) + " " + pair.getKey() + "\n");
+		}
+		return b.toString();
+	}
+
+	@Override
+	public FeatureVector deepCopy() {
+		InternedFeatureVector copy = new InternedFeatureVector(null, vocabulary, MIN_CAPACITY);
+		copy.keys = Arrays.copyOf(keys, keys.length);
+		copy.values = Arrays.copyOf(values, values.length);
+		copy.count = count;
+		copy.length = length;
+		return copy;
+	}
+
+
+	// UTILS
+
+	private List<KeyValuePair> getOrderedFeatures() {
+		List<KeyValuePair> kvpList = new ArrayList<KeyValuePair>(count);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				kvpList.add(new KeyValuePair(vocabulary.getTerm(keys[i]), values[i]));
+		}
+		ScorableComparator comparator = new ScorableComparator(true);
+		Collections.sort(kvpList, comparator);
+		return kvpList;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new double[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int slot = mix(oldKeys[i]) & mask;
+			while (keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	/**
+	 * Returns the slot holding termId, or the empty slot where it would go
+	 */
+	private int slot(int termId) {
+		int mask = keys.length - 1;
+		int slot = mix(termId) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != termId)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private static int mix(int termId) {
+		int h = termId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private class TermIterator implements Iterator<String> {
+		int next = advance(0);
+
+		private int advance(int i) {
+			while (i < keys.length && keys[i] == EMPTY)
+				i++;
+			return i;
+		}
+
+		public boolean hasNext() {
+			return next < keys.length;
+		}
+
+		public String next() {
+			if (next >= keys.length)
+				throw new NoSuchElementException();
+			String term = vocabulary.getTerm(keys[next]);
+			next = advance(next + 1);
+			return term;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package edu.gslis.textrepresentation;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Ordered term sequence for a single document, stored the same way as an Indri
+ * DocumentVector: a per-document dictionary of distinct terms and an int array
+ * holding, for each position, the index of the term at that position.
+ *
+ * Positions are dense (0 .. length-1). Gaps left by the analyzer (e.g.,
+ * removed stopwords) are not represented, and multiple fields are
+ * concatenated in index order.
+ *
+ * Proximity models should compare term ids rather than strings: look up the
+ * ids of interest once with getTermId(String) and scan getPositions().
+ */
+public class PositionalDocument {
+	public static final int UNKNOWN = -1;
+
+	private final String[] terms;
+	private final int[] positions;
+	private Map<String, Integer> termIds = null;
+
+	/**
+	 * @param terms Distinct terms in the document
+	 * @param positions Index into terms for each position
+	 */
+	public PositionalDocument(String[] terms, int[] positions) {
+		this.terms = terms;
+		this.positions = positions;
+	}
+
+	/**
+	 * Number of positions (document length)
+	 */
+	public int length() {
+		return positions.length;
+	}
+
+	/**
+	 * Returns the term ids by position. The array is not copied.
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Returns the distinct terms, indexed by term id. The array is not copied.
+	 */
+	public String[] getTerms() {
+		return terms;
+	}
+
+	public int getTermId(int pos) {
+		return positions[pos];
+	}
+
+	public String getTerm(int pos) {
+		return terms[positions[pos]];
+	}
+
+	/**
+	 * Returns the id of the specified term in this document
+	 * @param term Term
+	 * @return term id or UNKNOWN if the term does not occur
+	 */
+	public int getTermId(String term) {
+		if (termIds == null) {
+			Map<String, Integer> ids = new HashMap<String, Integer>(terms.length * 2);
+			for (int i = 0; i < terms.length; i++)
+				ids.put(terms[i], i);
+			termIds = ids;
+		}
+		Integer id = termIds.get(term);
+		return (id == null) ? UNKNOWN : id;
+	}
+
+	/**
+	 * Read-only List view of the terms by position, for callers written
+	 * against IndexWrapper.getDocTerms
+	 */
+	public List<String> asList() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return getTerm(index);
+			}
+
+			@Override
+			public int size() {
+				return positions.length;
+			}
+		};
+	}
+}
@@ -0,0 +1,77 @@
+package edu.gslis.textrepresentation;
+
+import java.util.Arrays;
+
+
+/**
+ * Positions of a fixed set of terms in a single document, in the same
+ * coordinates as PositionalDocument (dense positions, fields concatenated in
+ * index order), along with the document length in those coordinates.
+ *
+ * Returned by IndexWrapper.getTermPositions for proximity models that only
+ * need the query term occurrences, not the whole document.
+ */
+public class TermPositions {
+	private final String[] terms;
+	private final int[][] positions;
+	private final int length;
+
+	/**
+	 * @param terms Terms requested
+	 * @param positions Sorted positions of each term; empty if absent
+	 * @param length Document length
+	 */
+	public TermPositions(String[] terms, int[][] positions, int length) {
+		this.terms = terms;
+		this.positions = positions;
+		this.length = length;
+	}
+
+	/**
+	 * Builds term positions from a full positional document
+	 */
+	public static TermPositions fromDocument(PositionalDocument doc, String[] terms) {
+		int[] counts = new int[terms.length];
+		int[] termIndex = new int[doc.getTerms().length];
+		Arrays.fill(termIndex, -1);
+		for (int t = 0; t < terms.length; t++) {
+			int id = doc.getTermId(terms[t]);
+			if (id != PositionalDocument.UNKNOWN)
+				termIndex[id] = t;
+		}
+		int[] docPositions = doc.getPositions();
+		for (int pos = 0; pos < docPositions.length; pos++) {
+			int t = termIndex[docPositions[pos]];
+			if (t >= 0)
+				counts[t]++;
+		}
+		int[][] positions = new int[terms.length][];
+		for (int t = 0; t < terms.length; t++)
+			positions[t] = new int[counts[t]];
+		Arrays.fill(counts, 0);
+		for (int pos = 0; pos < docPositions.length; pos++) {
+			int t = termIndex[docPositions[pos]];
+			if (t >= 0)
+				positions[t][counts[t]++] = pos;
+		}
+		return new TermPositions(terms, positions, docPositions.length);
+	}
+
+	public String[] getTerms() {
+		return terms;
+	}
+
+	/**
+	 * Returns the sorted positions of the i-th term. The array is not copied.
+	 */
+	public int[] getPositions(int i) {
+		return positions[i];
+	}
+
+	/**
+	 * Document length
+	 */
+	public int length() {
+		return length;
+	}
+}
@@ -0,0 +1,103 @@
+package edu.gslis.textrepresentation;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Interned term dictionary mapping each distinct term string to a dense
+ * integer id.  Ids are assigned in order of first appearance and never change,
+ * so vectors built against the same vocabulary can be compared id-by-id.
+ *
+ * Lookups are lock-free; only the assignment of a new id is synchronized.
+ * Vocabularies only grow, so a single instance should be shared for the life
+ * of a scoring run rather than per document.  Code that only reads terms
+ * (e.g. QueryKernel resolving query terms) should use lookup rather than
+ * intern, so that it doesn't add terms that no document contains.
+ */
+public class Vocabulary {
+	private static final Vocabulary DEFAULT = new Vocabulary();
+
+	public static final int UNKNOWN = -1;
+
+	private final ConcurrentHashMap<String, Integer> ids;
+	private volatile String[] terms;
+	private volatile int size = 0;
+
+	public Vocabulary() {
+		this(1024);
+	}
+
+	public Vocabulary(int initialCapacity) {
+		ids = new ConcurrentHashMap<String, Integer>(initialCapacity);
+		terms = new String[Math.max(initialCapacity, 16)];
+	}
+
+	/**
+	 * Returns the process-wide shared vocabulary, used by InternedFeatureVectors
+	 * created without one.  It is never cleared, so it holds every distinct
+	 * term interned by the process; long-running processes that read several
+	 * collections should create a Vocabulary per run and pass it in (see
+	 * IndexWrapper.setVocabulary) so it can be collected afterwards.
+	 */
+	public static Vocabulary getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the id for the specified term, assigning a new one if the
+	 * term has not been seen before.
+	 * @param term Term
+	 * @return term id
+	 */
+	public int intern(String term) {
+		Integer id = ids.get(term);
+		if (id != null)
+			return id;
+		return add(term);
+	}
+
+	/**
+	 * Returns the id for the specified term without adding it
+	 * @param term Term
+	 * @return term id or UNKNOWN
+	 */
+	public int lookup(String term) {
+		Integer id = ids.get(term);
+		return (id == null) ? UNKNOWN : id;
+	}
+
+	/**
+	 * Returns the term for the specified id
+	 * @param id Term id
+	 * @return term
+	 */
+	public String getTerm(int id) {
+		return terms[id];
+	}
+
+	/**
+	 * Returns the number of terms.  Once a size has been read, lookup
+	 * finds every term with a smaller id.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private synchronized int add(String term) {
+		Integer id = ids.get(term);
+		if (id != null)
+			return id;
+
+		if (size == terms.length) {
+			String[] grown = new String[terms.length * 2];
+			System.arraycopy(terms, 0, grown, 0, size);
+			terms = grown;
+		}
+		int newId = size;
+		terms[newId] = term;
+		ids.put(term, newId);
+		// Published last, after the term can be looked up
+		size = newId + 1;
+		return newId;
+	}
+}
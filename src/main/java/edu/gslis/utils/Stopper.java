@@ -1,10 +1,12 @@
 package edu.gslis.utils;
 
 import java.io.FileInputStream;
+import java.util.AbstractSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
@@ -12,6 +14,9 @@ import org.apache.commons.io.IOUtils;
 public class Stopper {
 	public static final Pattern SPACE_PATTERN = Pattern.compile(" ", Pattern.DOTALL);
 	private Set<String> stopwords;
+	// Incremented whenever the stoplist changes, including through asSet()
+	private final AtomicInteger version = new AtomicInteger();
+	private final Set<String> view = new StopwordSet();
 
 	public Stopper() {
 		stopwords = new HashSet<String>();
@@ -41,13 +46,85 @@ public class Stopper {
 		return b.toString().trim();
 	}
 	public void addStopword(String term) {
-		stopwords.add(term);
+		if (stopwords.add(term))
+			version.incrementAndGet();
 	}
 	public boolean isStopWord(String term) {
 		return (stopwords.contains(term)) ? true : false;
 	}
 	
+	/**
+	 * Returns the stoplist. Changes made through the set are reflected in
+	 * getVersion().
+	 */
 	public Set<String> asSet() {
-		return stopwords;
+		return view;
+	}
+
+	public boolean isEmpty() {
+		return stopwords.isEmpty();
+	}
+
+	/**
+	 * Returns a number that changes whenever the stoplist does, so that
+	 * callers can cache what they derive from it
+	 */
+	public int getVersion() {
+		return version.get();
+	}
+
+	private class StopwordSet extends AbstractSet<String> {
+		@Override
+		public Iterator<String> iterator() {
+			final Iterator<String> it = stopwords.iterator();
+			return new Iterator<String>() {
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				public String next() {
+					return it.next();
+				}
+
+				public void remove() {
+					it.remove();
+					version.incrementAndGet();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return stopwords.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return stopwords.contains(o);
+		}
+
+		@Override
+		public boolean add(String term) {
+			if (!stopwords.add(term))
+				return false;
+			version.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!stopwords.remove(o))
+				return false;
+			version.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public void clear() {
+			if (stopwords.isEmpty())
+				return;
+			stopwords.clear();
+			version.incrementAndGet();
+		}
 	}
 }
@@ -0,0 +1,215 @@
+package edu.gslis.docscoring;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.docscoring.support.IndexBackedCollectionStatsLucene;
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+import edu.gslis.indexes.TrecTestIndex;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.Vocabulary;
+
+/**
+ * Rescoring throughput: each query's top 1000 hits from the trectest
+ * collection, with document vectors attached, are scored against
+ * IndexBackedCollectionStatsLucene. The hits counter is reported as hits/s.
+ *
+ * <ul>
+ * <li> perTermLookup: the previous ScorerDirichlet loop, which looks up
+ * each query term's collection frequency for every hit (the scorer
+ * parameter doesn't apply)
+ * <li> precomputed: ScorerDirichlet, ScorerDirichletKL or ScorerBM25, with
+ * the query statistics looked up and the query compiled once in setQuery
+ * <li> batch: the same scorers through scoreAll, which gathers the query
+ * term frequencies of the hits into one array before scoring them
+ * </ul>
+ *
+ * The model parameter selects the title query or a 50-term expansion model
+ * built from the top 10 hits; the vectors parameter selects plain or
+ * interned (term id) document vectors.
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.docscoring.ScorerBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScorerBenchmark {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "market",
+            "government", "company shares" };
+    static final int HITS = 1000;
+    static final int FEEDBACK_DOCS = 10;
+    static final int EXPANSION_TERMS = 50;
+    static final double MU = 2500;
+
+    @Param({ "title", "expansion" })
+    String model;
+
+    @Param({ "dirichlet", "kl", "bm25" })
+    String scorer;
+
+    @Param({ "plain", "interned" })
+    String vectors;
+
+    File tmpDir;
+    IndexWrapperLuceneImpl index;
+    CollectionStats stats;
+    List<GQuery> queries = new ArrayList<GQuery>();
+    List<SearchHits> results = new ArrayList<SearchHits>();
+    QueryDocScorer docScorer;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long hits;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("scorer").toFile();
+        // Not the shared index: the vocabulary is set per trial
+        index = new IndexWrapperLuceneImpl(TrecTestIndex.build(TrecTestIndex.loadConfig(), tmpDir));
+        if (vectors.equals("interned"))
+            index.setVocabulary(new Vocabulary());
+
+        IndexBackedCollectionStatsLucene lucene = new IndexBackedCollectionStatsLucene();
+        lucene.setStatSource(index);
+        stats = lucene;
+
+        for (String text: QUERIES) {
+            SearchHits hits = index.runQuery(text, HITS);
+            Iterator<SearchHit> it = hits.iterator();
+            while (it.hasNext()) {
+                SearchHit hit = it.next();
+                FeatureVector dv = index.getDocVector(hit.getDocID(), null);
+                hit.setFeatureVector(dv);
+                hit.setLength(dv.getLength());
+            }
+
+            FeatureVector qv = new FeatureVector(text, null);
+            if (model.equals("expansion")) {
+                for (int i = 0; i < Math.min(FEEDBACK_DOCS, hits.size()); i++) {
+                    FeatureVector dv = hits.getHit(i).getFeatureVector();
+                    for (String term: dv.getFeatures())
+                        qv.addTerm(term, dv.getFeatureWeight(term) / dv.getLength());
+                }
+                qv.clip(EXPANSION_TERMS);
+            }
+            GQuery query = new GQuery();
+            query.setText(text);
+            query.setFeatureVector(qv);
+            queries.add(query);
+            results.add(hits);
+        }
+
+        if (scorer.equals("kl"))
+            docScorer = new ScorerDirichletKL();
+        else if (scorer.equals("bm25"))
+            docScorer = new ScorerBM25(null, stats);
+        else
+            docScorer = new ScorerDirichlet();
+        docScorer.setParameter("mu", MU);
+        docScorer.setCollectionStats(stats);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Benchmark
+    public double perTermLookup(Counters counters) {
+        double sum = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            FeatureVector qv = queries.get(q).getFeatureVector();
+            Iterator<SearchHit> hits = results.get(q).iterator();
+            while (hits.hasNext()) {
+                SearchHit doc = hits.next();
+                double logLikelihood = 0.0;
+                Iterator<String> queryIterator = qv.iterator();
+                while (queryIterator.hasNext()) {
+                    String feature = queryIterator.next();
+                    double docFreq = doc.getFeatureVector().getFeatureWeight(feature);
+                    double docLength = doc.getLength();
+                    double collectionProb = (1.0 + stats.termCount(feature)) / stats.getTokCount();
+                    double pr = (docFreq + MU * collectionProb) / (docLength + MU);
+                    logLikelihood += qv.getFeatureWeight(feature) * Math.log(pr);
+                }
+                sum += logLikelihood;
+                counters.hits++;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double precomputed(Counters counters) {
+        double sum = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            docScorer.setQuery(queries.get(q));
+            Iterator<SearchHit> hits = results.get(q).iterator();
+            while (hits.hasNext()) {
+                sum += docScorer.score(hits.next());
+                counters.hits++;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double batch(Counters counters) {
+        double sum = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            docScorer.setQuery(queries.get(q));
+            for (double score: docScorer.scoreAll(results.get(q)))
+                sum += score;
+            counters.hits += results.get(q).size();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(ScorerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,387 @@
+package edu.gslis.docscoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.gslis.docscoring.support.CollectionStats;
+import edu.gslis.docscoring.support.TermStats;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.InternedFeatureVector;
+import edu.gslis.textrepresentation.Vocabulary;
+
+/**
+ * Checks that scorers which look up the query term statistics once per
+ * query (QueryDocScorer.precompute) give bit-identical scores to the
+ * per-term lookups they replaced, and that scorers which don't use the
+ * statistics never look them up. Also checks the compiled kernels' batch
+ * scores against score(SearchHit).
+ */
+public class TestQueryDocScorer {
+
+    static final int VOCABULARY = 200;
+    static final int DOCS = 100;
+
+    /**
+     * Random collection statistics that count bulk lookups
+     */
+    static class Stats extends CollectionStats {
+        Map<String, Double> termCounts = new HashMap<String, Double>();
+        Map<String, Double> docCounts = new HashMap<String, Double>();
+        int lookups = 0;
+
+        Stats(Random random) {
+            for (int i = 0; i < VOCABULARY; i++) {
+                double df = 1 + random.nextInt(500);
+                docCounts.put("t" + i, df);
+                termCounts.put("t" + i, df + random.nextInt(5000));
+                tokCount += termCounts.get("t" + i);
+            }
+            docCount = 1000;
+            termTypeCount = VOCABULARY;
+        }
+
+        public double termCount(String term) {
+            Double count = termCounts.get(term);
+            return (count == null) ? 0 : count;
+        }
+
+        public double docCount(String term) {
+            Double count = docCounts.get(term);
+            return (count == null) ? 0 : count;
+        }
+
+        public void setStatSource(String statSource) {
+        }
+
+        @Override
+        public TermStats getTermStats(FeatureVector fv) {
+            lookups++;
+            return super.getTermStats(fv);
+        }
+    }
+
+    static GQuery query(Random random, int length) {
+        FeatureVector fv = new FeatureVector(null);
+        while (fv.getFeatureCount() < length)
+            fv.addTerm("t" + random.nextInt(VOCABULARY), 1 + random.nextInt(4) / 2.0);
+        GQuery query = new GQuery();
+        query.setFeatureVector(fv);
+        return query;
+    }
+
+    static List<SearchHit> hits(Random random) {
+        return hits(random, DOCS, null);
+    }
+
+    /**
+     * Random documents, with InternedFeatureVectors if there is a vocabulary
+     */
+    static List<SearchHit> hits(Random random, int count, Vocabulary vocabulary) {
+        List<SearchHit> hits = new ArrayList<SearchHit>();
+        for (int d = 0; d < count; d++) {
+            FeatureVector fv = (vocabulary == null) ? new FeatureVector(null) :
+                new InternedFeatureVector(null, vocabulary);
+            int length = 1 + random.nextInt(300);
+            for (int i = 0; i < length; i++)
+                fv.addTerm("t" + random.nextInt(VOCABULARY));
+            SearchHit hit = new SearchHit();
+            hit.setDocID(d);
+            hit.setFeatureVector(fv);
+            hit.setLength(fv.getLength());
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    // The scorers' score(SearchHit) before the query statistics were
+    // precomputed
+
+    static double dirichlet(GQuery query, SearchHit doc, CollectionStats stats, double mu) {
+        double logLikelihood = 0.0;
+        Iterator<String> it = query.getFeatureVector().iterator();
+        while (it.hasNext()) {
+            String feature = it.next();
+            double docFreq = doc.getFeatureVector().getFeatureWeight(feature);
+            double docLength = doc.getLength();
+            double collectionProb = (1.0 + stats.termCount(feature)) / stats.getTokCount();
+            double pr = (docFreq + mu * collectionProb) / (docLength + mu);
+            double queryWeight = query.getFeatureVector().getFeatureWeight(feature);
+            logLikelihood += queryWeight * Math.log(pr);
+        }
+        return logLikelihood;
+    }
+
+    static double kl(GQuery query, SearchHit doc, CollectionStats stats, double mu) {
+        double logLikelihood = 0.0;
+        double dl = doc.getLength();
+        Iterator<String> it = query.getFeatureVector().iterator();
+        while (it.hasNext()) {
+            String feature = it.next();
+            double cwd = doc.getFeatureVector().getFeatureWeight(feature);
+            double pwc = stats.termCount(feature) / stats.getTokCount();
+            double pwq = query.getFeatureVector().getFeatureWeight(feature) /
+                    query.getFeatureVector().getFeatureCount();
+            double pwd = (cwd + mu * pwc) / (dl + mu);
+            logLikelihood += pwq * Math.log(pwq) - pwq * Math.log(pwd);
+        }
+        return -1 * logLikelihood;
+    }
+
+    static double bm25(GQuery query, SearchHit doc, CollectionStats stats, double k1, double b, double k2) {
+        double N = stats.getDocCount();
+        double avgDocLength = stats.getTokCount() / N;
+        double docLength = doc.getLength();
+        double docScore = 0;
+        Iterator<String> it = query.getFeatureVector().iterator();
+        while (it.hasNext()) {
+            String term = it.next();
+            double termFreq = doc.getFeatureVector().getFeatureWeight(term);
+            double n = stats.docCount(term);
+            double idf = Math.log((N - n + 0.5) / (n + 0.5));
+            double K = k1 * ((1 - b) + b * (docLength / avgDocLength));
+            double documentScaling = ((termFreq * (k1 + 1)) / (K + termFreq));
+            double termScore = idf * documentScaling;
+            if (k2 >= 0) {
+                double termFreqQuery = query.getFeatureVector().getFeatureWeight(term);
+                termScore *= (k2 + 1) * termFreqQuery / (k2 + termFreqQuery);
+            }
+            docScore += termScore;
+        }
+        return docScore;
+    }
+
+    @Test
+    public void testBitIdenticalScores() {
+        Random random = new Random(42);
+        Stats stats = new Stats(random);
+        List<SearchHit> hits = hits(random);
+
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        dirichlet.setParameter("mu", 1000);
+        dirichlet.setCollectionStats(stats);
+        ScorerDirichletKL kl = new ScorerDirichletKL();
+        kl.setCollectionStats(stats);
+        ScorerBM25 bm25 = new ScorerBM25(null, stats);
+        ScorerBM25 bm25NoK2 = new ScorerBM25(null, stats, 0.9, 0.4);
+
+        for (int q = 0; q < 20; q++) {
+            GQuery query = query(random, 1 + q % 8);
+            dirichlet.setQuery(query);
+            kl.setQuery(query);
+            bm25.setQuery(query);
+            bm25NoK2.setQuery(query);
+            for (SearchHit hit: hits) {
+                assertEquals(dirichlet(query, hit, stats, 1000), dirichlet.score(hit), 0);
+                assertEquals(kl(query, hit, stats, 2500), kl.score(hit), 0);
+                assertEquals(bm25(query, hit, stats, 1.2, 0.75, 2.0), bm25.score(hit), 0);
+                assertEquals(bm25(query, hit, stats, 0.9, 0.4, -1), bm25NoK2.score(hit), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testPrecomputeIsOptIn() {
+        Random random = new Random(7);
+        Stats stats = new Stats(random);
+        GQuery query = query(random, 3);
+
+        QueryDocScorer[] scorers = { new ScorerDummy(), new ScorerNull(), new ScorerPLM(),
+                new ScorerPLMFast() };
+        for (QueryDocScorer scorer: scorers) {
+            scorer.setCollectionStats(stats);
+            scorer.setQuery(query);
+            assertNull(scorer.getKernel());
+        }
+        assertEquals(0, stats.lookups);
+
+        // Once per setQuery, and once per setCollectionStats with a query
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        dirichlet.setQuery(query);
+        dirichlet.setCollectionStats(stats);
+        dirichlet.setQuery(query);
+        assertEquals(2, stats.lookups);
+    }
+
+    @Test
+    public void testKernelScores() {
+        Random random = new Random(11);
+        Stats stats = new Stats(random);
+        // Enough hits to be scored in parallel ranges
+        List<SearchHit> hits = hits(random, BatchScoring.PARALLEL_THRESHOLD, null);
+        hits.addAll(hits(random, BatchScoring.PARALLEL_THRESHOLD, new Vocabulary()));
+
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        ScorerDirichletKL kl = new ScorerDirichletKL();
+        // Default parameters, not set through a constructor
+        ScorerBM25 bm25 = new ScorerBM25();
+        QueryDocScorer[] scorers = { dirichlet, kl, bm25 };
+
+        for (int q = 0; q < 5; q++) {
+            GQuery query = query(random, 1 + 2 * q);
+            for (QueryDocScorer scorer: scorers) {
+                scorer.setCollectionStats(stats);
+                scorer.setQuery(query);
+                double[] scores = scorer.scoreAll(new SearchHits(hits));
+                for (int d = 0; d < hits.size(); d++) {
+                    SearchHit hit = hits.get(d);
+                    assertEquals(scorer.score(hit), scores[d], 0);
+                    assertEquals(scores[d], hit.getScore(), 0);
+                }
+            }
+            for (SearchHit hit: hits)
+                assertEquals(bm25(query, hit, stats, 1.2, 0.75, 2.0), bm25.score(hit), 0);
+        }
+    }
+
+    /**
+     * forScorer returns a compiled scorer's kernel, and adapts any other
+     * scorer by calling its score method
+     */
+    @Test
+    public void testForScorer() {
+        Random random = new Random(13);
+        Stats stats = new Stats(random);
+        List<SearchHit> hits = hits(random);
+        GQuery query = query(random, 4);
+
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        dirichlet.setCollectionStats(stats);
+        dirichlet.setQuery(query);
+        assertSame(dirichlet.getKernel(), ScoringKernel.forScorer(dirichlet));
+
+        // Not a QueryDocScorer: Dirichlet by per-term lookups
+        Scorer scorer = new Scorer() {
+            public double score(SearchHit doc) {
+                return dirichlet(query, doc, stats, 1000);
+            }
+
+            public void setParameter(String paramName, double paramValue) {
+            }
+        };
+        ScoringKernel kernel = ScoringKernel.forScorer(scorer);
+        SearchHit[] array = hits.toArray(new SearchHit[hits.size()]);
+        double[] scores = new double[array.length];
+        kernel.scoreAll(array, scores);
+        for (int d = 0; d < array.length; d++) {
+            assertEquals(scorer.score(array[d]), kernel.score(array[d]), 0);
+            assertEquals(scorer.score(array[d]), scores[d], 0);
+        }
+    }
+
+    /**
+     * Query terms that no document contains aren't added to the vocabulary,
+     * and are picked up once a document containing them is read
+     */
+    @Test
+    public void testKernelVocabulary() {
+        Random random = new Random(5);
+        Stats stats = new Stats(random);
+        Vocabulary vocabulary = new Vocabulary();
+        List<SearchHit> hits = hits(random, 10, vocabulary);
+        int size = vocabulary.size();
+
+        GQuery query = query(random, 3);
+        query.getFeatureVector().addTerm("unseen", 1);
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        dirichlet.setCollectionStats(stats);
+        dirichlet.setQuery(query);
+        dirichlet.scoreAll(new SearchHits(hits));
+        assertEquals(size, vocabulary.size());
+        assertEquals(Vocabulary.UNKNOWN, vocabulary.lookup("unseen"));
+
+        SearchHit hit = hits.get(0);
+        hit.getFeatureVector().addTerm("unseen", 2);
+        hit.setLength(hit.getFeatureVector().getLength());
+        double[] scores = dirichlet.scoreAll(new SearchHits(hits));
+        assertEquals(dirichlet(query, hit, stats, 2500), scores[0], 1e-12);
+        for (int d = 0; d < hits.size(); d++)
+            assertEquals(dirichlet.score(hits.get(d)), scores[d], 0);
+    }
+
+    /**
+     * Compiled scorers can't score before they have a query and collection
+     * stats
+     */
+    @Test
+    public void testNotCompiled() {
+        Random random = new Random(19);
+        Stats stats = new Stats(random);
+        SearchHit hit = hits(random).get(0);
+        QueryDocScorer[] scorers = { new ScorerDirichlet(), new ScorerDirichletKL(), new ScorerBM25() };
+        for (QueryDocScorer scorer: scorers) {
+            try {
+                scorer.score(hit);
+                fail(scorer.getClass().getSimpleName() + " scored without a query");
+            } catch (IllegalStateException e) {
+            }
+            scorer.setCollectionStats(stats);
+            try {
+                scorer.score(hit);
+                fail(scorer.getClass().getSimpleName() + " scored without a query");
+            } catch (IllegalStateException e) {
+            }
+        }
+    }
+
+    /**
+     * A query vector changed in place after setQuery is compiled again
+     */
+    @Test
+    public void testQueryChangedInPlace() {
+        Random random = new Random(23);
+        Stats stats = new Stats(random);
+        List<SearchHit> hits = hits(random);
+        GQuery query = query(random, 3);
+
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        dirichlet.setCollectionStats(stats);
+        dirichlet.setQuery(query);
+        ScorerBM25 bm25 = new ScorerBM25(null, stats);
+        bm25.setQuery(query);
+
+        FeatureVector fv = query.getFeatureVector();
+        // A new term, then a new weight for an existing one
+        fv.addTerm("t" + VOCABULARY / 2, 3);
+        for (SearchHit hit: hits) {
+            assertEquals(dirichlet(query, hit, stats, 2500), dirichlet.score(hit), 0);
+            assertEquals(bm25(query, hit, stats, 1.2, 0.75, 2.0), bm25.score(hit), 0);
+        }
+        fv.setTerm(fv.iterator().next(), 5);
+        double[] scores = dirichlet.scoreAll(new SearchHits(hits));
+        for (int d = 0; d < hits.size(); d++) {
+            SearchHit hit = hits.get(d);
+            assertEquals(dirichlet(query, hit, stats, 2500), scores[d], 0);
+            assertEquals(bm25(query, hit, stats, 1.2, 0.75, 2.0), bm25.score(hit), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVector() {
+        Random random = new Random(3);
+        Stats stats = new Stats(random);
+        List<SearchHit> hits = hits(random);
+        // As runQuery leaves a hit: a length, but no vector
+        SearchHit hit = new SearchHit();
+        hit.setDocID(DOCS);
+        hit.setLength(100);
+        hits.add(DOCS / 2, hit);
+        ScorerDirichlet dirichlet = new ScorerDirichlet();
+        dirichlet.setCollectionStats(stats);
+        dirichlet.setQuery(query(random, 2));
+        dirichlet.scoreAll(new SearchHits(hits));
+    }
+}
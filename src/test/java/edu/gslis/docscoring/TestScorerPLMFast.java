@@ -0,0 +1,119 @@
+package edu.gslis.docscoring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+import edu.gslis.indexes.TrecTestIndex;
+import edu.gslis.lucene.main.config.IndexConfig;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.textrepresentation.TermPositions;
+
+/**
+ * Checks ScorerPLMFast against ScorerPLM on the trectest collection: the
+ * query term positions read from the index must be the ones in the
+ * positional document, with and without the position gaps stored at
+ * indexing (IndexConfig fieldStats), and the scores must agree within the
+ * truncated kernel mass.
+ */
+public class TestScorerPLMFast {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "raf cranwell",
+            "market government company shares" };
+    static final double[] SIGMAS = { 10, 50, 200 };
+
+    // Relative tolerance at the default truncation of 5 sigmas
+    static final double EPSILON = 1e-5;
+
+    static IndexWrapperLuceneImpl index;
+    static IndexWrapperLuceneImpl gapsIndex;
+    static File tmpDir;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        index = TrecTestIndex.get();
+        tmpDir = Files.createTempDirectory("fieldstats").toFile();
+        IndexConfig config = TrecTestIndex.loadConfig();
+        config.setFieldStats(true);
+        gapsIndex = new IndexWrapperLuceneImpl(TrecTestIndex.build(config, tmpDir));
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    static GQuery query(String text) {
+        GQuery query = new GQuery();
+        query.setText(text);
+        query.setFeatureVector(new FeatureVector(text, null));
+        return query;
+    }
+
+    @Test
+    public void testTermPositions() {
+        checkTermPositions(index);
+    }
+
+    @Test
+    public void testTermPositionsWithGaps() {
+        checkTermPositions(gapsIndex);
+    }
+
+    static void checkTermPositions(IndexWrapperLuceneImpl index) {
+        for (String text: QUERIES) {
+            String[] terms = text.split(" ");
+            SearchHits hits = index.runQuery(text, 50);
+            assertTrue(hits.size() > 0);
+            Iterator<SearchHit> it = hits.iterator();
+            while (it.hasNext()) {
+                int docID = it.next().getDocID();
+                TermPositions expected = TermPositions.fromDocument(index.getPositionalDocument(docID), terms);
+                TermPositions actual = index.getTermPositions(docID, terms);
+                assertEquals(expected.length(), actual.length());
+                for (int t = 0; t < terms.length; t++)
+                    assertArrayEquals(expected.getPositions(t), actual.getPositions(t));
+            }
+        }
+    }
+
+    @Test
+    public void testScores() {
+        for (double sigma: SIGMAS) {
+            ScorerPLM reference = new ScorerPLM();
+            reference.setIndex(index);
+            reference.setSigma(sigma);
+            ScorerPLMFast fast = new ScorerPLMFast();
+            fast.setIndex(index);
+            fast.setSigma(sigma);
+
+            for (String text: QUERIES) {
+                GQuery query = query(text);
+                reference.setQuery(query);
+                fast.setQuery(query);
+                SearchHits hits = index.runQuery(text, 50);
+                Iterator<SearchHit> it = hits.iterator();
+                while (it.hasNext()) {
+                    SearchHit hit = it.next();
+                    double expected = reference.score(hit);
+                    double actual = fast.score(hit);
+                    assertEquals(text + " sigma=" + sigma + " doc " + hit.getDocno(),
+                            expected, actual, EPSILON * Math.abs(expected));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.gslis.docscoring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.gslis.docscoring.TestQueryDocScorer.Stats;
+import edu.gslis.docscoring.smart.IDFWeights;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+
+/**
+ * Checks ScorerSMART with cached document frequencies against the
+ * per-term docCount lookups they replaced, including when the hits' terms
+ * don't fit in the IDF weight's cache.
+ */
+public class TestScorerSMART {
+
+    static final String SPEC = "ltc.ltc";
+
+    static ScorerSMART scorer(Stats stats, GQuery query, int maxCachedTerms) {
+        ScorerSMART scorer = new ScorerSMART();
+        scorer.setCollectionStats(stats);
+        scorer.setParameter(ScorerSMART.PARAM_SMART_SPEC, SPEC);
+        scorer.init();
+        scorer.getDocIDFWeight().setMaxCachedTerms(maxCachedTerms);
+        scorer.setQuery(query);
+        return scorer;
+    }
+
+    /**
+     * Copies of the hits; scoring reweights their vectors in place
+     */
+    static List<SearchHit> copy(List<SearchHit> hits) {
+        List<SearchHit> copies = new ArrayList<SearchHit>();
+        for (SearchHit hit: hits) {
+            SearchHit copy = new SearchHit();
+            copy.setDocID(hit.getDocID());
+            copy.setFeatureVector(hit.getFeatureVector().deepCopy());
+            copy.setLength(hit.getLength());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    // The document side of score(SearchHit) with a docCount lookup per term
+    static double smart(ScorerSMART scorer, SearchHit doc, Stats stats) throws Exception {
+        FeatureVector dfv = doc.getFeatureVector().deepCopy();
+        scorer.getDocTFWeight().weight(dfv);
+        List<String> terms = new ArrayList<String>();
+        Iterator<String> it = dfv.iterator();
+        while (it.hasNext())
+            terms.add(it.next());
+        for (String term: terms) {
+            double weight = dfv.getFeatureWeight(term);
+            double docFreq = stats.docCount(term);
+            if (docFreq > 0)
+                weight = weight * Math.log(stats.getDocCount() / docFreq);
+            dfv.setTerm(term, weight);
+        }
+        scorer.getDocNormalizer().normalize(dfv);
+
+        double score = 0;
+        it = scorer.qfv.iterator();
+        while (it.hasNext()) {
+            String term = it.next();
+            score += dfv.getFeatureWeight(term) * scorer.qfv.getFeatureWeight(term);
+        }
+        return score;
+    }
+
+    @Test
+    public void testCachedDocFreqs() throws Exception {
+        Random random = new Random(17);
+        Stats stats = new Stats(random);
+        List<SearchHit> hits = TestQueryDocScorer.hits(random);
+
+        // Default cache, a cache smaller than the collection, and a cache
+        // smaller than most document vectors
+        int[] caps = { IDFWeights.MAX_CACHED_TERMS, TestQueryDocScorer.VOCABULARY / 2, 10 };
+        for (int q = 0; q < 5; q++) {
+            GQuery query = TestQueryDocScorer.query(random, 1 + q);
+            for (int cap: caps) {
+                ScorerSMART scorer = scorer(stats, query, cap);
+                for (SearchHit hit: copy(hits))
+                    assertEquals(smart(scorer, hit, stats), scorer.score(hit), 1e-12);
+
+                scorer = scorer(stats, query, cap);
+                List<SearchHit> batch = copy(hits);
+                double[] expected = new double[batch.size()];
+                for (int d = 0; d < batch.size(); d++)
+                    expected[d] = smart(scorer, batch.get(d), stats);
+                double[] scores = scorer.scoreAll(new SearchHits(batch));
+                for (int d = 0; d < batch.size(); d++)
+                    assertEquals(expected[d], scores[d], 1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package edu.gslis.docscoring.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes term statistics with MappedCollectionStatsWriter and reads them
+ * back with MappedCollectionStats, against InMemoryCollectionStats on the
+ * same dumpindex file: cf and df of every term (across the 32-term block
+ * boundaries), missing terms, repeated terms and the totals.
+ */
+public class TestMappedCollectionStats {
+
+    static final double EPSILON = 1e-9;
+
+    File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("mapped").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    /**
+     * Writes a shuffled dumpindex file of the terms, with some repeated
+     * (with other counts) before their final value
+     */
+    File writeDumpIndex(Map<String, long[]> terms, Random random) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, long[]> entry: terms.entrySet()) {
+            if (random.nextInt(10) == 0)
+                lines.add(entry.getKey() + " " + (entry.getValue()[0] + 7) + " " + (entry.getValue()[1] + 3));
+        }
+        Collections.shuffle(lines, random);
+        List<String> last = new ArrayList<String>();
+        for (Map.Entry<String, long[]> entry: terms.entrySet())
+            last.add(entry.getKey() + " " + entry.getValue()[0] + " " + entry.getValue()[1]);
+        Collections.shuffle(last, random);
+        lines.addAll(last);
+
+        File file = new File(tmpDir, "dumpindex.txt");
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write("TOTAL 123456 789\n");
+        for (String line: lines)
+            out.write(line + "\n");
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(42);
+        Map<String, long[]> terms = new LinkedHashMap<String, long[]>();
+        // Shared prefixes, non-ASCII terms, and 3 full blocks plus a partial one
+        String[] stems = { "a", "ab", "abc", "econom", "caf\u00e9", "\u00fcber", "\u4e2d\u6587", "z" };
+        for (int i = 0; terms.size() < 3 * MappedCollectionStatsWriter.DEFAULT_BLOCK_SIZE + 5; i++) {
+            String term = stems[i % stems.length] + (i / stems.length);
+            long df = 1 + random.nextInt(1000);
+            long cf = df + random.nextInt(100000);
+            terms.put(term, new long[] { cf, df });
+        }
+        // Large counts need wider packed values
+        terms.put("the", new long[] { 5000000000L, 3000000L });
+        File input = writeDumpIndex(terms, random);
+
+        InMemoryCollectionStats expected = new InMemoryCollectionStats();
+        expected.setStatSource(input.getPath());
+
+        // In memory, and merged from runs of 10 terms
+        for (int runSize: new int[] { MappedCollectionStatsWriter.RUN_SIZE, 10 }) {
+            File output = new File(tmpDir, "stats" + runSize + ".bin");
+            long count = MappedCollectionStatsWriter.fromDumpIndex(input.getPath(), output.getPath(), runSize);
+            assertEquals(terms.size(), count);
+            // Only the output is left in the directory
+            assertEquals(2 + (runSize == 10 ? 1 : 0), tmpDir.list().length);
+
+            MappedCollectionStats actual = new MappedCollectionStats(output.getPath());
+            assertEquals(terms.size(), actual.size());
+            assertEquals(expected.getTokCount(), actual.getTokCount(), EPSILON);
+            assertEquals(expected.getDocCount(), actual.getDocCount(), EPSILON);
+            assertEquals(terms.size(), actual.getTermTypeCount(), EPSILON);
+
+            List<String> sorted = new ArrayList<String>(terms.keySet());
+            Collections.sort(sorted);
+            for (String term: terms.keySet()) {
+                // InMemoryCollectionStats reads the platform charset
+                if (term.matches("\\p{ASCII}*")) {
+                    assertEquals(term, expected.termCount(term), actual.termCount(term), EPSILON);
+                    assertEquals(term, expected.docCount(term), actual.docCount(term), EPSILON);
+                }
+                assertEquals(term, terms.get(term)[0], actual.termCount(term), EPSILON);
+                assertEquals(term, terms.get(term)[1], actual.docCount(term), EPSILON);
+            }
+            // Ordinals follow byte order (the same as String order here,
+            // with no supplementary characters)
+            for (int i = 0; i < sorted.size(); i++)
+                assertEquals(sorted.get(i), i, actual.getOrdinal(sorted.get(i)));
+
+            // Before the first term, between terms, after the last, and
+            // longer than any term
+            for (String missing: new String[] { "", "0", "ab0x", "econom", "zz", "\uffff",
+                    "a12345678901234567890123456789" }) {
+                assertEquals(missing, -1, actual.getOrdinal(missing));
+                assertEquals(missing, 0, actual.termCount(missing), EPSILON);
+                assertEquals(missing, 0, actual.docCount(missing), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testVocabulary() throws Exception {
+        File input = new File(tmpDir, "vocab.txt");
+        FileUtils.writeStringToFile(input, "b\t4\na\t2\nc\t9\nb\t5\n", "UTF-8");
+        File output = new File(tmpDir, "vocab.bin");
+        assertEquals(3, MappedCollectionStatsWriter.fromVocabulary(input.getPath(), output.getPath(), 0, 2));
+
+        MappedCollectionStats stats = new MappedCollectionStats(output.getPath());
+        // The last b wins; the totals are taken from the terms kept
+        assertEquals(5, stats.docCount("b"), EPSILON);
+        assertEquals(5, stats.termCount("b"), EPSILON);
+        assertEquals(16, stats.getTokCount(), EPSILON);
+        assertEquals(9, stats.getDocCount(), EPSILON);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        File input = new File(tmpDir, "empty.txt");
+        FileUtils.writeStringToFile(input, "TOTAL 0 0\n", "UTF-8");
+        File output = new File(tmpDir, "empty.bin");
+        assertEquals(0, MappedCollectionStatsWriter.fromDumpIndex(input.getPath(), output.getPath()));
+        MappedCollectionStats stats = new MappedCollectionStats(output.getPath());
+        assertEquals(0, stats.size());
+        assertEquals(0, stats.termCount("a"), EPSILON);
+
+        File empty = new File(tmpDir, "zero.bin");
+        empty.createNewFile();
+        try {
+            new MappedCollectionStats(empty.getPath());
+            fail("Opened an empty file");
+        } catch (IOException e) {
+        }
+    }
+}
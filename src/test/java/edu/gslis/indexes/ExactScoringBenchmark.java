@@ -0,0 +1,128 @@
+package edu.gslis.indexes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.gslis.docscoring.QueryDocScorer;
+import edu.gslis.docscoring.ScorerBM25;
+import edu.gslis.docscoring.ScorerDirichlet;
+import edu.gslis.docscoring.ScorerDirichletKL;
+import edu.gslis.docscoring.support.IndexBackedCollectionStatsLucene;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+
+/**
+ * Compares retrieve-then-rescore against exact first-stage scoring on the
+ * trectest collection, for the top count hits of each query.
+ *
+ * <ul>
+ * <li> rescore: runQuery with the default (Lucene) similarity, then
+ * getDocVector and the scorer for every hit
+ * <li> exact: runQuery with the scorer, which scores every matching
+ * document with the scorer's kernel (KernelQuery)
+ * </ul>
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.indexes.ExactScoringBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExactScoringBenchmark {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "market",
+            "government", "company shares" };
+
+    @Param({ "1000" })
+    int count;
+
+    @Param({ "dirichlet", "kl", "bm25" })
+    String scorer;
+
+    IndexWrapperLuceneImpl index;
+    List<GQuery> queries = new ArrayList<GQuery>();
+    QueryDocScorer docScorer;
+
+    @Setup
+    public void setUp() throws Exception {
+        index = TrecTestIndex.get();
+
+        for (String text: QUERIES) {
+            GQuery query = new GQuery();
+            query.setText(text);
+            query.setFeatureVector(new FeatureVector(text, null));
+            queries.add(query);
+        }
+
+        if (scorer.equals("kl"))
+            docScorer = new ScorerDirichletKL();
+        else if (scorer.equals("bm25"))
+            docScorer = new ScorerBM25(null, null);
+        else
+            docScorer = new ScorerDirichlet();
+        IndexBackedCollectionStatsLucene stats = new IndexBackedCollectionStatsLucene();
+        stats.setStatSource(index);
+        docScorer.setCollectionStats(stats);
+    }
+
+    @Benchmark
+    public double rescore() {
+        double sum = 0;
+        for (GQuery query: queries) {
+            SearchHits hits = index.runQuery(query.getText(), count);
+            docScorer.setQuery(query);
+            Iterator<SearchHit> it = hits.iterator();
+            while (it.hasNext()) {
+                SearchHit hit = it.next();
+                hit.setFeatureVector(index.getDocVector(hit.getDocID(), null));
+            }
+            for (double score: docScorer.scoreAll(hits))
+                sum += score;
+            hits.rank();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double exact() {
+        double sum = 0;
+        for (GQuery query: queries) {
+            SearchHits hits = index.runQuery(query, docScorer, count);
+            Iterator<SearchHit> it = hits.iterator();
+            while (it.hasNext())
+                sum += it.next().getScore();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(ExactScoringBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,99 @@
+package edu.gslis.indexes;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.gslis.lucene.main.config.IndexConfig;
+import edu.gslis.searchhits.SearchHits;
+
+/**
+ * Compares hit materialization (docno, doclen, epoch) from stored fields
+ * against DocValues. Builds the trectest collection twice, with and without
+ * docValues, and runs the same queries against each. Query evaluation is
+ * identical, so the difference is the cost of reading hit metadata.
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.indexes.HitMaterializationBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitMaterializationBenchmark {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "market",
+            "government", "company shares" };
+
+    @Param({ "1000" })
+    int count;
+
+    File tmpDir;
+    IndexWrapperLuceneImpl storedIndex;
+    IndexWrapperLuceneImpl docValuesIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("hits").toFile();
+        storedIndex = new IndexWrapperLuceneImpl(build(false));
+        docValuesIndex = new IndexWrapperLuceneImpl(build(true));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    String build(boolean docValues) throws Exception {
+        IndexConfig config = TrecTestIndex.loadConfig();
+        config.setDocValues(docValues);
+        return TrecTestIndex.build(config, new File(tmpDir, docValues ? "docvalues" : "stored"));
+    }
+
+    @Benchmark
+    public int storedFields() {
+        return run(storedIndex);
+    }
+
+    @Benchmark
+    public int docValues() {
+        return run(docValuesIndex);
+    }
+
+    int run(IndexWrapperLuceneImpl index) {
+        int n = 0;
+        for (String query: QUERIES) {
+            SearchHits hits = index.runQuery(query, count);
+            n += hits.size();
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(HitMaterializationBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,162 @@
+package edu.gslis.indexes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.gslis.lucene.main.config.IndexConfig;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+
+/**
+ * Builds trectest, split into several files, as three shards and as one
+ * merged index, and checks that IndexWrapperShardedLuceneImpl gives the
+ * merged index's collection statistics and query results.
+ */
+public class TestIndexWrapperShardedLuceneImpl {
+
+    static final int SHARDS = 3;
+    static final String[] RULES = { "method:bm25,k1:1.2,b:0.75", "method:dirichlet,mu:2500" };
+    static final String[] QUERIES = { "raf cranwell", "oil prices", "british economy",
+            "bank interest rates", "european community trade", "stock market" };
+    static final double EPSILON = 1e-5;
+
+    static File tmpDir;
+    static IndexWrapperShardedLuceneImpl sharded;
+    static IndexWrapperLuceneImpl merged;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("sharded").toFile();
+
+        // Split the collection into one file per shard
+        File corpus = new File(tmpDir, "corpus");
+        corpus.mkdirs();
+        TarArchiveInputStream tis = new TarArchiveInputStream(new GzipCompressorInputStream(
+                new FileInputStream("testdata/trectest/trectest.tgz")));
+        List<String> docs = new ArrayList<String>();
+        TarArchiveEntry entry;
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (!entry.isFile())
+                continue;
+            String text = new String(IOUtils.toByteArray(tis), "UTF-8");
+            int start = 0;
+            int end;
+            while ((end = text.indexOf("</DOC>", start)) >= 0) {
+                docs.add(text.substring(start, end + 6) + "\n");
+                start = end + 6;
+            }
+        }
+        tis.close();
+        for (int i = 0; i < SHARDS; i++) {
+            OutputStream out = new FileOutputStream(new File(corpus, "part" + i + ".trec"));
+            for (int d = i; d < docs.size(); d += SHARDS)
+                out.write(docs.get(d).getBytes("UTF-8"));
+            out.close();
+        }
+
+        build(corpus, new File(tmpDir, "sharded"), false);
+        build(corpus, new File(tmpDir, "merged"), true);
+        sharded = new IndexWrapperShardedLuceneImpl(new File(tmpDir, "sharded").getPath());
+        merged = new IndexWrapperLuceneImpl(new File(tmpDir, "merged").getPath());
+    }
+
+    static void build(File corpus, File indexPath, boolean merge) throws Exception {
+        IndexConfig config = TrecTestIndex.loadConfig();
+        config.getCorpus().setPath(corpus.getPath());
+        config.getCorpus().setFilter("*.trec");
+        config.getCorpus().setShards(SHARDS);
+        config.getCorpus().setMerge(merge);
+        TrecTestIndex.build(config, indexPath);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testCollectionStats() {
+        assertEquals(SHARDS, IndexWrapperShardedLuceneImpl.getShardDirs(
+                new File(tmpDir, "sharded").getPath()).size());
+        assertEquals(1047, merged.docCount(), 0);
+        assertEquals(merged.docCount(), sharded.docCount(), 0);
+        assertEquals(merged.termCount(), sharded.termCount(), 0);
+        assertEquals(merged.termTypeCount(), sharded.termTypeCount(), 0);
+        assertEquals(merged.docLengthAvg(), sharded.docLengthAvg(), EPSILON);
+        for (String query: QUERIES) {
+            for (String term: query.split(" ")) {
+                assertEquals(term, merged.docFreq(term), sharded.docFreq(term), 0);
+                assertEquals(term, merged.termFreq(term), sharded.termFreq(term), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testDocuments() {
+        String docno = "FT911-1";
+        FeatureVector expected = merged.getDocVector(docno, null);
+        FeatureVector actual = sharded.getDocVector(docno, null);
+        assertEquals(expected.getFeatureCount(), actual.getFeatureCount());
+        assertEquals(expected.getLength(), actual.getLength(), 0);
+        for (String term: expected.getFeatures())
+            assertEquals(term, expected.getFeatureWeight(term), actual.getFeatureWeight(term), 0);
+        assertEquals(merged.getDocLength(merged.getDocId(docno)),
+                sharded.getDocLength(sharded.getDocId(docno)), 0);
+    }
+
+    @Test
+    public void testQueries() {
+        for (String rule: RULES) {
+            for (String text: QUERIES) {
+                GQuery query = new GQuery();
+                query.setText(text);
+                query.setFeatureVector(new FeatureVector(text, null));
+
+                // Every match, so ties at the cutoff can't change the sets
+                SearchHits expected = merged.runQuery(query, 2000, rule);
+                SearchHits actual = sharded.runQuery(query, 2000, rule);
+                assertTrue(expected.size() > 0);
+                assertEquals(rule + " " + text, expected.size(), actual.size());
+
+                Map<String, Double> scores = new HashMap<String, Double>();
+                Iterator<SearchHit> it = expected.iterator();
+                while (it.hasNext()) {
+                    SearchHit hit = it.next();
+                    scores.put(hit.getDocno(), hit.getScore());
+                }
+                for (int i = 0; i < actual.size(); i++) {
+                    SearchHit hit = actual.getHit(i);
+                    Double score = scores.get(hit.getDocno());
+                    assertTrue(rule + " " + text + " " + hit.getDocno(), score != null);
+                    assertEquals(rule + " " + text + " " + hit.getDocno(), score, hit.getScore(),
+                            EPSILON * Math.abs(score));
+                    // Same ranking, up to the order of tied documents
+                    assertEquals(expected.getHit(i).getScore(), hit.getScore(),
+                            EPSILON * Math.abs(score));
+                }
+            }
+        }
+    }
+}
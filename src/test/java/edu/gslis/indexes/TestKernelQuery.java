@@ -0,0 +1,220 @@
+package edu.gslis.indexes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.gslis.docscoring.QueryDocScorer;
+import edu.gslis.docscoring.ScorerBM25;
+import edu.gslis.docscoring.ScorerDirichlet;
+import edu.gslis.docscoring.ScorerDirichletKL;
+import edu.gslis.docscoring.ScorerSMART;
+import edu.gslis.docscoring.support.IndexBackedCollectionStatsLucene;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+
+/**
+ * Checks first-stage exact scoring (KernelQuery) on the trectest
+ * collection: every hit's score must be the scorer's score(SearchHit) for
+ * the document's vector, and the hits must be the documents that
+ * rescoring the whole collection ranks highest. Also checks the exact rules' scorer and statistics
+ * caching.
+ */
+public class TestKernelQuery {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "raf cranwell",
+            "market government company shares" };
+    static final double EPSILON = 1e-9;
+    static final int COUNT = 100;
+
+    static IndexWrapperLuceneImpl index;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        index = TrecTestIndex.get();
+    }
+
+    static GQuery query(String text) {
+        GQuery query = new GQuery();
+        query.setText(text);
+        query.setFeatureVector(new FeatureVector(text, null));
+        return query;
+    }
+
+    /**
+     * The query with weights 1, 2, 3, ... in term order
+     */
+    static GQuery weighted(String text) {
+        GQuery query = query(text);
+        FeatureVector fv = query.getFeatureVector();
+        List<String> terms = new ArrayList<String>();
+        Iterator<String> it = fv.iterator();
+        while (it.hasNext())
+            terms.add(it.next());
+        for (int i = 0; i < terms.size(); i++)
+            fv.setTerm(terms.get(i), i + 1);
+        return query;
+    }
+
+    static QueryDocScorer[] scorers() {
+        QueryDocScorer[] scorers = { new ScorerDirichlet(), new ScorerDirichletKL(),
+                new ScorerBM25(null, null) };
+        IndexBackedCollectionStatsLucene stats = new IndexBackedCollectionStatsLucene();
+        stats.setStatSource(index);
+        for (QueryDocScorer scorer: scorers)
+            scorer.setCollectionStats(stats);
+        return scorers;
+    }
+
+    @Test
+    public void testScores() {
+        for (QueryDocScorer scorer: scorers()) {
+            String name = scorer.getClass().getSimpleName();
+            for (String text: QUERIES) {
+                GQuery query = query(text);
+                SearchHits hits = index.runQuery(query, scorer, COUNT);
+                assertTrue(hits.size() > 0);
+                Iterator<SearchHit> it = hits.iterator();
+                while (it.hasNext()) {
+                    SearchHit hit = it.next();
+                    // The scalar score of the same hit, with its vector
+                    SearchHit rescored = new SearchHit();
+                    rescored.setDocID(hit.getDocID());
+                    rescored.setLength(hit.getLength());
+                    rescored.setFeatureVector(index.getDocVector(hit.getDocID(), null));
+                    assertEquals(index.getDocLength(hit.getDocID()), hit.getLength(), 0);
+                    double expected = scorer.score(rescored);
+                    assertEquals(name + " " + text + " " + hit.getDocno(), expected, hit.getScore(),
+                            EPSILON * Math.abs(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTopDocuments() {
+        List<SearchHit> documents = new ArrayList<SearchHit>();
+        for (int docID = 0; docID < index.docCount(); docID++) {
+            SearchHit hit = new SearchHit();
+            hit.setDocID(docID);
+            hit.setLength(index.getDocLength(docID));
+            hit.setFeatureVector(index.getDocVector(docID, null));
+            documents.add(hit);
+        }
+
+        for (QueryDocScorer scorer: scorers()) {
+            String name = scorer.getClass().getSimpleName();
+            for (String text: QUERIES) {
+                GQuery query = query(text);
+
+                // Rescore every document with a query term in its vector
+                SearchHits all = new SearchHits();
+                for (SearchHit hit: documents) {
+                    for (String term: text.split(" ")) {
+                        if (hit.getFeatureVector().getFeatureWeight(term) > 0) {
+                            all.add(hit);
+                            break;
+                        }
+                    }
+                }
+                scorer.setQuery(query);
+                scorer.scoreAll(all);
+                all.rank();
+                Map<Integer, Double> scores = new HashMap<Integer, Double>();
+                Iterator<SearchHit> it = all.iterator();
+                while (it.hasNext()) {
+                    SearchHit hit = it.next();
+                    scores.put(hit.getDocID(), hit.getScore());
+                }
+
+                SearchHits exact = index.runQuery(query, scorer, COUNT);
+                assertEquals(name + " " + text, Math.min(COUNT, all.size()), exact.size());
+                for (int i = 0; i < exact.size(); i++) {
+                    SearchHit hit = exact.getHit(i);
+                    Double score = scores.get(hit.getDocID());
+                    assertTrue(name + " " + text + " " + hit.getDocno(), score != null);
+                    assertEquals(score, hit.getScore(), EPSILON * Math.abs(score));
+                    // Same ranking, up to the order of tied documents
+                    assertEquals(all.getHit(i).getScore(), hit.getScore(), EPSILON * Math.abs(score));
+                }
+            }
+        }
+    }
+
+    /**
+     * Scorers without a kernel rescore the default rule's results with the
+     * hits' document vectors
+     */
+    @Test
+    public void testScorerWithoutKernel() {
+        IndexBackedCollectionStatsLucene stats = new IndexBackedCollectionStatsLucene();
+        stats.setStatSource(index);
+        ScorerSMART scorer = new ScorerSMART();
+        scorer.setCollectionStats(stats);
+        scorer.init();
+        for (String text: QUERIES) {
+            SearchHits hits = index.runQuery(query(text), scorer, COUNT);
+            assertTrue(text, hits.size() > 0);
+            Iterator<SearchHit> it = hits.iterator();
+            while (it.hasNext()) {
+                SearchHit hit = it.next();
+                SearchHit rescored = new SearchHit();
+                rescored.setDocID(hit.getDocID());
+                rescored.setLength(hit.getLength());
+                rescored.setFeatureVector(index.getDocVector(hit.getDocID(), null));
+                double score = scorer.score(rescored);
+                assertTrue(text + " " + hit.getDocno(), score > 0);
+                assertEquals(text + " " + hit.getDocno(), score, hit.getScore(), EPSILON * score);
+            }
+        }
+    }
+
+    @Test
+    public void testExactRules() {
+        String rule = "method:bm25,k1:1.2,b:0.75,k2:0.5,exact:true";
+        QueryDocScorer first = index.getExactScorer(rule);
+        QueryDocScorer second = index.getExactScorer(rule);
+        assertTrue(first instanceof ScorerBM25);
+        // A scorer per call, sharing the statistics of the current reader
+        assertNotSame(first, second);
+        assertSame(index.getExactStats(), index.getExactStats());
+        assertTrue(index.getExactScorer("method:kl,mu:1000,exact:true") instanceof ScorerDirichletKL);
+        assertTrue(index.getExactScorer("method:dirichlet,exact:true") instanceof ScorerDirichlet);
+        assertNull(index.getExactScorer("method:bm25,k1:1.2,b:0.75"));
+        assertNull(index.getExactScorer("method:tfidf,exact:true"));
+
+        // The exact rule gives the same results as its scorer. The query
+        // weights aren't all 1, so that k2 changes the scores.
+        QueryDocScorer scorer = new ScorerBM25(null, null, 1.2, 0.75, 0.5);
+        IndexBackedCollectionStatsLucene stats = new IndexBackedCollectionStatsLucene();
+        stats.setStatSource(index);
+        scorer.setCollectionStats(stats);
+        for (String text: QUERIES) {
+            SearchHits expected = index.runQuery(weighted(text), scorer, COUNT);
+            SearchHits actual = index.runQuery(weighted(text), COUNT, rule);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getHit(i).getDocno(), actual.getHit(i).getDocno());
+                assertEquals(expected.getHit(i).getScore(), actual.getHit(i).getScore(), 0);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExactRuleWithoutMethod() {
+        index.getExactScorer("mu:1000,exact:true");
+    }
+}
@@ -0,0 +1,78 @@
+package edu.gslis.indexes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+
+/**
+ * Runs BM25 and Dirichlet queries concurrently against one
+ * IndexWrapperLuceneImpl and checks every result list against a
+ * single-threaded run.
+ */
+public class TestLuceneIndexWrapperConcurrency {
+
+    static final String[] RULES = { "method:bm25,k1:1.2,b:0.75", "method:dirichlet,mu:2500" };
+    static final String[] QUERIES = { "raf cranwell", "oil prices", "british economy",
+            "bank interest rates", "european community trade", "stock market" };
+    static final int THREADS = 8;
+    static final int ROUNDS = 25;
+
+    @Test
+    public void testMixedRules() throws Exception {
+        final IndexWrapperLuceneImpl index = TrecTestIndex.get();
+
+        // Expected results, single-threaded
+        final Map<String, String> expected = new HashMap<String, String>();
+        for (String rule: RULES)
+            for (String query: QUERIES)
+                expected.put(rule + "|" + query, toString(index.runQuery(query, 100, rule)));
+
+        // The rules must actually produce different rankings for this to mean anything
+        assertTrue(!expected.get(RULES[0] + "|" + QUERIES[1]).equals(expected.get(RULES[1] + "|" + QUERIES[1])));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            futures.add(executor.submit(new Callable<Integer>() {
+                public Integer call() {
+                    int mismatches = 0;
+                    for (int i = 0; i < ROUNDS; i++) {
+                        String rule = RULES[(offset + i) % RULES.length];
+                        String query = QUERIES[(offset + i) % QUERIES.length];
+                        String actual = TestLuceneIndexWrapperConcurrency.toString(index.runQuery(query, 100, rule));
+                        if (!actual.equals(expected.get(rule + "|" + query)))
+                            mismatches++;
+                    }
+                    return mismatches;
+                }
+            }));
+        }
+        int mismatches = 0;
+        for (Future<Integer> future: futures)
+            mismatches += future.get();
+        executor.shutdown();
+
+        assertEquals(0, mismatches);
+    }
+
+    static String toString(SearchHits hits) {
+        StringBuilder b = new StringBuilder();
+        for (SearchHit hit: hits.hits())
+            b.append(hit.getDocno() + " " + hit.getScore() + "\n");
+        return b.toString();
+    }
+}
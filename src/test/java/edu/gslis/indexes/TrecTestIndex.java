@@ -0,0 +1,70 @@
+package edu.gslis.indexes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import edu.gslis.lucene.main.LuceneBuildIndex;
+import edu.gslis.lucene.main.config.IndexConfig;
+
+/**
+ * Test fixture for the trectest collection (testdata/build_index_trectest.yml).
+ *
+ * get() builds the collection once per JVM into a temporary directory,
+ * deleted when the JVM exits, and returns a wrapper shared by the tests
+ * that only read it. Tests that need a different build start from
+ * loadConfig() and build().
+ */
+public class TrecTestIndex {
+
+    public static final String CONFIG = "testdata/build_index_trectest.yml";
+    public static final int DOCS = 1047;
+
+    static File dir;
+    static IndexWrapperLuceneImpl index;
+
+    public static IndexConfig loadConfig() throws IOException {
+        Yaml yaml = new Yaml(new Constructor(IndexConfig.class));
+        InputStream in = new FileInputStream(CONFIG);
+        try {
+            return (IndexConfig)yaml.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the collection with the config into indexPath
+     *
+     * @return the path of the first shard, i.e. the index in the default
+     *         (one shard, not merged) layout
+     */
+    public static String build(IndexConfig config, File indexPath) throws Exception {
+        config.setIndexPath(indexPath.getAbsolutePath());
+        new LuceneBuildIndex(config).buildIndex();
+        return indexPath.getAbsolutePath() + File.separator + "shard0";
+    }
+
+    /**
+     * The shared index, built with the default configuration
+     */
+    public static synchronized IndexWrapperLuceneImpl get() throws Exception {
+        if (index == null) {
+            dir = Files.createTempDirectory("trectest").toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    FileUtils.deleteQuietly(dir);
+                }
+            });
+            index = new IndexWrapperLuceneImpl(build(loadConfig(), dir));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,229 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import streamcorpus_v3.ContentItem;
+import streamcorpus_v3.EntityType;
+import streamcorpus_v3.Sentence;
+import streamcorpus_v3.StreamItem;
+import streamcorpus_v3.StreamTime;
+import streamcorpus_v3.Tagging;
+import streamcorpus_v3.Token;
+
+/**
+ * StreamItem decoding throughput on a synthetic chunk shaped like KBA data:
+ * raw and clean_html copies of the text plus a tagged sentence/token list,
+ * which make up most of the bytes. The items counter is reported in items/s.
+ *
+ * <ul>
+ * <li> fullRead: StreamItem.read over TIOStreamTransport, as
+ * StreamCorpusIndexer used to do
+ * <li> selectiveRead: StreamItemDecoder with all indexed fields selected
+ * <li> *Buffered: the same over TBufferedInputTransport, as
+ * StreamCorpusIndexer now does
+ * </ul>
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.lucene.indexer.StreamItemDecoderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamItemDecoderBenchmark {
+
+    static final int NUM_ITEMS = 500;
+    static final int NUM_SENTENCES = 40;
+    static final int SENTENCE_LENGTH = 20;
+
+    byte[] chunk;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long items;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            items = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        chunk = makeChunk(NUM_ITEMS);
+    }
+
+    /**
+     * Serialized chunk of synthetic items (see TestStreamItemDecoder)
+     */
+    static byte[] makeChunk(int numItems) throws Exception {
+        Random random = new Random(42);
+        String[] words = new String[2000];
+        for (int i = 0; i < words.length; i++)
+            words[i] = Integer.toString(random.nextInt(1 << 24), 36);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TBinaryProtocol out = new TBinaryProtocol(new TIOStreamTransport(bos));
+        for (int n = 0; n < numItems; n++) {
+            StringBuilder text = new StringBuilder();
+            List<Sentence> sentences = new ArrayList<Sentence>();
+            for (int s = 0; s < NUM_SENTENCES; s++) {
+                List<Token> tokens = new ArrayList<Token>();
+                for (int t = 0; t < SENTENCE_LENGTH; t++) {
+                    String word = words[random.nextInt(words.length)];
+                    text.append(word).append(' ');
+                    Token token = new Token();
+                    token.setToken_num(t);
+                    token.setToken(word);
+                    token.setSentence_pos(t);
+                    token.setLemma(word);
+                    token.setPos("NN");
+                    token.setEntity_type(EntityType.PER);
+                    token.setMention_id(random.nextInt(10));
+                    token.setEquiv_id(random.nextInt(10));
+                    token.setParent_id(t - 1);
+                    token.setDependency_path("nsubj");
+                    tokens.add(token);
+                }
+                Sentence sentence = new Sentence();
+                sentence.setTokens(tokens);
+                sentences.add(sentence);
+            }
+            String visible = text.toString();
+
+            Map<String, List<Sentence>> sentenceMap = new HashMap<String, List<Sentence>>();
+            sentenceMap.put(StreamCorpusIndexer.SERIF, sentences);
+            Map<String, Tagging> taggings = new HashMap<String, Tagging>();
+            Tagging tagging = new Tagging();
+            tagging.setTagger_id(StreamCorpusIndexer.SERIF);
+            tagging.setRaw_tagging(visible.getBytes("UTF-8"));
+            taggings.put(StreamCorpusIndexer.SERIF, tagging);
+
+            ContentItem body = new ContentItem();
+            body.setRaw(("<html><body>" + visible + "</body></html>").getBytes("UTF-8"));
+            body.setEncoding("UTF-8");
+            body.setMedia_type("text/html");
+            body.setClean_html("<html><body>" + visible + "</body></html>");
+            body.setClean_visible(visible);
+            body.setSentences(sentenceMap);
+            body.setTaggings(taggings);
+
+            StreamItem item = new StreamItem();
+            item.setDoc_id("doc" + n);
+            item.setStream_id("1325376000-doc" + n);
+            item.setAbs_url(ByteBuffer.wrap(("http://example.com/" + n).getBytes("UTF-8")));
+            item.setSource("news");
+            item.setStream_time(new StreamTime(1325376000.0 + n, "2012-01-01T00:00:00.000000Z"));
+            item.setBody(body);
+            item.write(out);
+        }
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public int fullRead(Counters counters) throws Exception {
+        TBinaryProtocol in = new TBinaryProtocol(new TIOStreamTransport(new ByteArrayInputStream(chunk)));
+        int n = 0;
+        try {
+            while (true) {
+                StreamItem item = new StreamItem();
+                item.read(in);
+                n += item.getBody().getClean_visible().length();
+                counters.items++;
+            }
+        } catch (TTransportException e) {
+            // End of chunk
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int fullReadBuffered(Counters counters) throws Exception {
+        TBinaryProtocol in = new TBinaryProtocol(new TBufferedInputTransport(new ByteArrayInputStream(chunk)));
+        int n = 0;
+        try {
+            while (true) {
+                StreamItem item = new StreamItem();
+                item.read(in);
+                n += item.getBody().getClean_visible().length();
+                counters.items++;
+            }
+        } catch (TTransportException e) {
+            // End of chunk
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int selectiveRead(Counters counters) throws Exception {
+        TBinaryProtocol in = new TBinaryProtocol(new TIOStreamTransport(new ByteArrayInputStream(chunk)));
+        StreamItemDecoder decoder = new StreamItemDecoder(true, true, true, true);
+        int n = 0;
+        try {
+            while (true) {
+                StreamItem item = decoder.read(in);
+                n += item.getBody().getClean_visible().length();
+                counters.items++;
+            }
+        } catch (TTransportException e) {
+            // End of chunk
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int selectiveReadBuffered(Counters counters) throws Exception {
+        TBinaryProtocol in = new TBinaryProtocol(new TBufferedInputTransport(new ByteArrayInputStream(chunk)));
+        StreamItemDecoder decoder = new StreamItemDecoder(true, true, true, true);
+        int n = 0;
+        try {
+            while (true) {
+                StreamItem item = decoder.read(in);
+                n += item.getBody().getClean_visible().length();
+                counters.items++;
+            }
+        } catch (TTransportException e) {
+            // End of chunk
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(StreamItemDecoderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,178 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Tar entry reading throughput on a synthetic tgz with many small entries
+ * (JSON-sized documents) and a few large ones. The entries and bytes
+ * counters are reported as rates (entries/s and bytes/s; divide by 2^20 for
+ * MB/s). Every entry is checksummed, as a stand-in for parsing.
+ *
+ * <ul>
+ * <li> byteLoop: the previous read() per byte into a ByteArrayOutputStream,
+ * copied again into a ByteArrayInputStream
+ * <li> bulkRead: TarEntryReader.readEntry
+ * <li> process: TarEntryReader.process with the given number of threads
+ * </ul>
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.lucene.indexer.TarEntryReaderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TarEntryReaderBenchmark {
+
+    static final int NUM_SMALL = 4000;
+    static final int SMALL_SIZE = 2 * 1024;
+    static final int NUM_LARGE = 4;
+    static final int LARGE_SIZE = 8 * 1024 * 1024;
+
+    @Param({"1", "4"})
+    int threads;
+
+    byte[] archive;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long entries;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entries = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        String[] words = new String[2000];
+        for (int i = 0; i < words.length; i++)
+            words[i] = Integer.toString(random.nextInt(1 << 24), 36);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(new GzipCompressorOutputStream(bos));
+        int large = NUM_SMALL / NUM_LARGE;
+        for (int i = 0; i < NUM_SMALL + NUM_LARGE; i++) {
+            int size = (i % (large + 1) == large) ? LARGE_SIZE : SMALL_SIZE;
+            StringBuilder text = new StringBuilder(size);
+            while (text.length() < size)
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            byte[] data = text.substring(0, size).getBytes("UTF-8");
+
+            TarArchiveEntry entry = new TarArchiveEntry("batch" + (i / 1000) + "/doc" + i + ".json");
+            entry.setSize(data.length);
+            tos.putArchiveEntry(entry);
+            tos.write(data);
+            tos.closeArchiveEntry();
+        }
+        tos.close();
+        archive = bos.toByteArray();
+    }
+
+    static long checksum(InputStream is) throws Exception {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            crc.update(buf, 0, n);
+        return crc.getValue();
+    }
+
+    @Benchmark
+    public long byteLoop(Counters counters) throws Exception {
+        TarArchiveInputStream tis = new TarArchiveInputStream(
+                new GzipCompressorInputStream(new ByteArrayInputStream(archive)));
+        long sum = 0;
+        TarArchiveEntry entry;
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (!entry.isFile())
+                continue;
+            int size = 0;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            while (size < entry.getSize()) {
+                bos.write(tis.read());
+                size++;
+            }
+            sum += checksum(new ByteArrayInputStream(bos.toByteArray()));
+            counters.entries++;
+            counters.bytes += size;
+        }
+        tis.close();
+        return sum;
+    }
+
+    @Benchmark
+    public long bulkRead(Counters counters) throws Exception {
+        TarEntryReader reader = new TarEntryReader(new ByteArrayInputStream(archive));
+        long sum = 0;
+        while (reader.nextEntry() != null) {
+            byte[] data = reader.readEntry();
+            sum += checksum(new ByteArrayInputStream(data));
+            counters.entries++;
+            counters.bytes += data.length;
+        }
+        reader.close();
+        return sum;
+    }
+
+    @Benchmark
+    public long process(final Counters counters) throws Exception {
+        TarEntryReader reader = new TarEntryReader(new ByteArrayInputStream(archive));
+        final long[] sum = new long[1];
+        reader.process(new TarEntryReader.EntryHandler() {
+            public void process(String path, byte[] data) throws Exception {
+                long crc = checksum(new ByteArrayInputStream(data));
+                synchronized (counters) {
+                    sum[0] += crc;
+                    counters.entries++;
+                    counters.bytes += data.length;
+                }
+            }
+        }, threads);
+        reader.close();
+        return sum[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(TarEntryReaderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,134 @@
+package edu.gslis.lucene.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import streamcorpus_v3.ContentItem;
+import streamcorpus_v3.StreamItem;
+import edu.gslis.lucene.main.config.FieldConfig;
+
+/**
+ * Indexes small uncompressed chunk files, with and without the pipeline
+ */
+public class TestStreamCorpusIndexer {
+
+    static final int FILES = 4;
+    static final int ITEMS = 200;
+
+    File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("streamcorpus").toFile();
+        for (int f = 0; f < FILES; f++) {
+            String[][] items = new String[ITEMS][];
+            for (int i = 0; i < ITEMS; i++)
+                items[i] = new String[] { "doc-" + f + "-" + i, "item " + i + " of chunk " + f };
+            writeChunk(new File(tmpDir, "chunk" + f + ".sc"), items);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    /**
+     * Writes an uncompressed chunk file of items with a stream id and
+     * clean_visible text each
+     */
+    public static void writeChunk(File file, String[]... items) throws Exception {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            TBinaryProtocol out = new TBinaryProtocol(new TIOStreamTransport(os));
+            for (String[] values: items)
+                item(values[0], values[1]).write(out);
+        } finally {
+            os.close();
+        }
+    }
+
+    static StreamItem item(String streamId, String text) {
+        ContentItem body = new ContentItem();
+        body.setClean_visible(text);
+        StreamItem item = new StreamItem();
+        item.setStream_id(streamId);
+        item.setBody(body);
+        return item;
+    }
+
+    /**
+     * docno from the stream id, text from clean_visible
+     */
+    public static Set<FieldConfig> fields() {
+        Set<FieldConfig> fields = new HashSet<FieldConfig>();
+        FieldConfig docno = new FieldConfig();
+        docno.setName(Indexer.FIELD_DOCNO);
+        docno.setSource(StreamItemDecoder.SOURCE_DOC_ID);
+        docno.setType(FieldConfig.TYPE_STRING);
+        fields.add(docno);
+        FieldConfig text = new FieldConfig();
+        text.setName(Indexer.FIELD_TEXT);
+        text.setSource(StreamItemDecoder.SOURCE_BODY);
+        text.setType(FieldConfig.TYPE_TEXT);
+        fields.add(text);
+        return fields;
+    }
+
+    @Test
+    public void testIndexer() throws Exception {
+        for (int threads: new int[] { 1, 3 }) {
+            StreamCorpusIndexer indexer = new StreamCorpusIndexer();
+            indexer.setThreads(threads);
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()));
+            indexer.buildIndex(writer, fields(), tmpDir);
+            writer.close();
+
+            DirectoryReader reader = DirectoryReader.open(dir);
+            assertEquals("threads=" + threads, FILES * ITEMS, reader.numDocs());
+            reader.close();
+        }
+    }
+
+    /**
+     * A closed writer stops the pipeline and fails the build, rather than
+     * skipping every item
+     */
+    @Test(timeout = 60000)
+    public void testClosedWriter() throws Exception {
+        StreamCorpusIndexer indexer = new StreamCorpusIndexer();
+        indexer.setThreads(3);
+        IndexWriter writer = new IndexWriter(new RAMDirectory(),
+                new IndexWriterConfig(new StandardAnalyzer()));
+        writer.close();
+        try {
+            indexer.buildIndex(writer, fields(), tmpDir);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof AlreadyClosedException);
+        }
+    }
+}
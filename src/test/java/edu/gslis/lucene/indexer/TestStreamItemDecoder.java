@@ -0,0 +1,111 @@
+package edu.gslis.lucene.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import streamcorpus_v3.StreamItem;
+
+/**
+ * Checks that StreamItemDecoder gives the same values as StreamItem.read
+ * for the selected fields, over the plain and buffered transports, on the
+ * synthetic chunk of StreamItemDecoderBenchmark.
+ */
+public class TestStreamItemDecoder {
+
+    static final int NUM_ITEMS = 200;
+
+    static byte[] chunk;
+    static List<StreamItem> expected = new ArrayList<StreamItem>();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        chunk = StreamItemDecoderBenchmark.makeChunk(NUM_ITEMS);
+        TBinaryProtocol in = new TBinaryProtocol(new TIOStreamTransport(new ByteArrayInputStream(chunk)));
+        try {
+            while (true) {
+                StreamItem item = new StreamItem();
+                item.read(in);
+                expected.add(item);
+            }
+        } catch (TTransportException e) {
+            // End of chunk
+        }
+        assertEquals(NUM_ITEMS, expected.size());
+    }
+
+    static TTransport plain() {
+        return new TIOStreamTransport(new ByteArrayInputStream(chunk));
+    }
+
+    static TTransport buffered() {
+        return new TBufferedInputTransport(new ByteArrayInputStream(chunk));
+    }
+
+    /**
+     * Decodes the whole chunk before any item is checked, so values that
+     * still pointed into the transport buffer would have been overwritten
+     */
+    static List<StreamItem> decode(StreamItemDecoder decoder, TTransport transport) throws Exception {
+        TBinaryProtocol in = new TBinaryProtocol(transport);
+        List<StreamItem> items = new ArrayList<StreamItem>();
+        try {
+            while (true)
+                items.add(decoder.read(in));
+        } catch (TTransportException e) {
+            if (e.getType() != TTransportException.END_OF_FILE)
+                throw e;
+        }
+        assertEquals(NUM_ITEMS, items.size());
+        return items;
+    }
+
+    @Test
+    public void testAllFields() throws Exception {
+        for (TTransport transport: new TTransport[] { plain(), buffered() }) {
+            List<StreamItem> items = decode(new StreamItemDecoder(true, true, true, true), transport);
+            for (int i = 0; i < NUM_ITEMS; i++) {
+                StreamItem item = items.get(i);
+                StreamItem full = expected.get(i);
+                assertEquals(full.getStream_id(), item.getStream_id());
+                assertEquals(full.getStream_time(), item.getStream_time());
+                assertEquals(full.getSource(), item.getSource());
+                assertEquals(full.bufferForAbs_url(), item.bufferForAbs_url());
+                assertEquals(full.getBody().getClean_visible(), item.getBody().getClean_visible());
+                // Everything else is skipped
+                assertNull(item.getBody().getRaw());
+                assertTrue(item.getBody().getSentences().isEmpty());
+                assertNull(item.getDoc_id());
+            }
+        }
+    }
+
+    @Test
+    public void testNoFields() throws Exception {
+        for (TTransport transport: new TTransport[] { plain(), buffered() }) {
+            List<StreamItem> items = decode(new StreamItemDecoder(false, false, false, false), transport);
+            for (int i = 0; i < NUM_ITEMS; i++) {
+                StreamItem item = items.get(i);
+                assertEquals(expected.get(i).getStream_id(), item.getStream_id());
+                assertNull(item.getStream_time());
+                assertNull(item.getSource());
+                assertNull(item.getAbs_url());
+                // The body is still there, so the item isn't taken as empty
+                assertNotNull(item.getBody());
+                assertEquals("", item.getBody().getClean_visible());
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package edu.gslis.lucene.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+
+import edu.gslis.lucene.main.config.FieldConfig;
+
+/**
+ * Parse timeouts, with a parser that never returns from documents starting
+ * with "stuck", even when interrupted
+ */
+public class TestTikaIndexer {
+
+    static final int TIMEOUT = 1;
+
+    File tmpDir;
+    IndexWriter writer;
+    Set<FieldConfig> fields = new HashSet<FieldConfig>();
+    CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("tika").toFile();
+        writer = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(new StandardAnalyzer()));
+        FieldConfig text = new FieldConfig();
+        text.setName("text");
+        text.setSource(FieldConfig.SOURCE_FILE);
+        text.setType(FieldConfig.TYPE_TEXT);
+        fields.add(text);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        writer.close();
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    void index(TikaIndexer indexer, String name, final String content) throws Exception {
+        indexer.buildIndex(writer, fields, "dir", name, new Callable<InputStream>() {
+            public InputStream call() throws Exception {
+                return new ByteArrayInputStream(content.getBytes("UTF-8"));
+            }
+        });
+    }
+
+    @Test
+    public void testStuckParses() throws Exception {
+        TikaIndexer indexer = new TikaIndexer();
+        indexer.parser = new StuckParser();
+        indexer.setTimeout(TIMEOUT);
+        KeyedList skipList = new KeyedList(tmpDir.getPath(), KeyedList.SKIPPED);
+        indexer.setSkipList(skipList);
+
+        // One entry thread: two stuck parses fill the pool
+        index(indexer, "stuck1.txt", "stuck");
+        index(indexer, "stuck2.txt", "stuck");
+        // Waits for a thread, gives up and replaces the pool
+        index(indexer, "waiting.txt", "waiting");
+        index(indexer, "ok.txt", "ok");
+
+        assertEquals(3, indexer.timeouts.get());
+        assertEquals(1, indexer.getDocCount());
+        assertTrue(skipList.contains("dir/stuck1.txt"));
+        assertTrue(skipList.contains("dir/stuck2.txt"));
+        // Not its fault, tried again on the next build
+        assertFalse(skipList.contains("dir/waiting.txt"));
+        assertFalse(skipList.contains("dir/ok.txt"));
+    }
+
+    class StuckParser implements Parser {
+        private static final long serialVersionUID = 1L;
+
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return Collections.singleton(MediaType.TEXT_PLAIN);
+        }
+
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
+                ParseContext context) {
+            try {
+                String text = IOUtils.toString(stream, "UTF-8");
+                while (text.startsWith("stuck")) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        // Ignored, like a parser stuck in a loop
+                    }
+                }
+                metadata.set(Metadata.CONTENT_TYPE, "text/plain");
+                XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+                xhtml.startDocument();
+                xhtml.element("p", text);
+                xhtml.endDocument();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package edu.gslis.lucene.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import edu.gslis.indexes.TrecTestIndex;
+import edu.gslis.lucene.main.config.FieldConfig;
+import edu.gslis.lucene.main.config.IndexConfig;
+
+/**
+ * Checks TrecTextParser against the DOM parse TrecTextIndexer used before
+ * it, on testdata/trectest, and that every DOC in a chunk is parsed.
+ * Also checks that TrecTextIndexer indexes every document, or throws.
+ */
+public class TestTrecTextParser {
+
+    static List<byte[]> files = new ArrayList<byte[]>();
+    static Set<FieldConfig> fields;
+    static List<String> elements = new ArrayList<String>();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        TarArchiveInputStream tis = new TarArchiveInputStream(new GzipCompressorInputStream(
+                new FileInputStream("testdata/trectest/trectest.tgz")));
+        TarArchiveEntry entry;
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (entry.isFile())
+                files.add(IOUtils.toByteArray(tis));
+        }
+        tis.close();
+
+        IndexConfig config = TrecTestIndex.loadConfig();
+        fields = config.getFields();
+        for (FieldConfig field: fields)
+            if (!elements.contains(field.getElement()))
+                elements.add(field.getElement());
+    }
+
+    /**
+     * The previous parse: split on lines containing &lt;/DOC&gt;, then build
+     * a DOM for each document
+     */
+    static List<Map<String, List<String>>> domParse(byte[] data) throws Exception {
+        List<Map<String, List<String>>> docs = new ArrayList<Map<String, List<String>>>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(data), "UTF-8"));
+        StringBuilder xml = new StringBuilder();
+        String line;
+        while ((line = br.readLine()) != null) {
+            xml.append(line).append('\n');
+            if (!line.contains("</DOC>"))
+                continue;
+            String doc = xml.toString().replace("&amp;", "&").replace("&", "&amp;");
+            xml.setLength(0);
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            org.w3c.dom.Document xmlDoc = builder.parse(new ByteArrayInputStream(doc.getBytes("UTF-8")));
+            Element root = (Element)xmlDoc.getElementsByTagName("DOC").item(0);
+            Map<String, List<String>> values = new HashMap<String, List<String>>();
+            for (String element: elements) {
+                NodeList nodes = root.getElementsByTagName(element);
+                if (nodes.getLength() == 0)
+                    continue;
+                List<String> list = new ArrayList<String>();
+                for (int j = 0; j < nodes.getLength(); j++) {
+                    Node child = nodes.item(j).getFirstChild();
+                    list.add((child == null) ? "" : child.getNodeValue());
+                }
+                values.put(element, list);
+            }
+            docs.add(values);
+        }
+        return docs;
+    }
+
+    @Test
+    public void testMatchesDomParse() throws Exception {
+        TrecTextParser parser = new TrecTextParser(elements);
+        int total = 0;
+        for (byte[] data: files) {
+            List<Map<String, List<String>>> expected = domParse(data);
+            List<Map<String, List<String>>> actual = parser.parseAll(new String(data, "UTF-8"));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.get(i), actual.get(i));
+            total += actual.size();
+        }
+        assertEquals(1047, total);
+    }
+
+    @Test
+    public void testEveryDoc() {
+        TrecTextParser parser = new TrecTextParser(Arrays.asList("DOCNO", "TEXT"));
+        String text = "<DOC><DOCNO>a</DOCNO><TEXT>one &amp; two</TEXT></DOC><DOC>"
+                + "<DOCNO>b</DOCNO></DOC>\n<DOC>\n<DOCNO>c</DOCNO>\n<TEXT><![CDATA[x < y]]></TEXT>\n</DOC>\n";
+        List<Map<String, List<String>>> docs = parser.parseAll(text);
+        assertEquals(3, docs.size());
+        assertEquals(Arrays.asList("a"), docs.get(0).get("DOCNO"));
+        assertEquals(Arrays.asList("one & two"), docs.get(0).get("TEXT"));
+        assertEquals(Arrays.asList("b"), docs.get(1).get("DOCNO"));
+        assertNull(docs.get(1).get("TEXT"));
+        assertEquals(Arrays.asList("c"), docs.get(2).get("DOCNO"));
+        assertEquals(Arrays.asList("x < y"), docs.get(2).get("TEXT"));
+
+        assertEquals(Arrays.asList("a"), parser.parse(text).get("DOCNO"));
+        assertNull(parser.parse("no documents"));
+    }
+
+    @Test
+    public void testIndexer() throws Exception {
+        // Documents on one stream, with two sharing a line, and chunks
+        // cut across document boundaries
+        StringBuilder sb = new StringBuilder();
+        for (byte[] data: files)
+            sb.append(new String(data, "UTF-8"));
+        sb.append("<DOC><DOCNO>x1</DOCNO></DOC><DOC><DOCNO>x2</DOCNO></DOC>\n");
+        byte[] data = sb.toString().getBytes("UTF-8");
+
+        for (int threads: new int[] { 1, 4 }) {
+            TrecTextIndexer indexer = new TrecTextIndexer();
+            indexer.setThreads(threads);
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()));
+            indexer.buildIndex(writer, fields, "test", new ByteArrayInputStream(data));
+            writer.close();
+
+            DirectoryReader reader = DirectoryReader.open(dir);
+            assertEquals(1049, reader.numDocs());
+            Set<String> docnos = new HashSet<String>();
+            for (int i = 0; i < reader.maxDoc(); i++)
+                docnos.add(reader.document(i).get(Indexer.FIELD_DOCNO));
+            assertEquals(1049, docnos.size());
+            reader.close();
+        }
+    }
+
+    /**
+     * A closed writer fails the build instead of dropping every document,
+     * and the reader isn't left blocked on a full queue
+     */
+    @Test(timeout = 60000)
+    public void testClosedWriter() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte[] data: files)
+            sb.append(new String(data, "UTF-8"));
+        byte[] data = sb.toString().getBytes("UTF-8");
+
+        for (int threads: new int[] { 1, 4 }) {
+            TrecTextIndexer indexer = new TrecTextIndexer();
+            indexer.setThreads(threads);
+            IndexWriter writer = new IndexWriter(new RAMDirectory(), 
+                    new IndexWriterConfig(new StandardAnalyzer()));
+            writer.close();
+            try {
+                indexer.buildIndex(writer, fields, "test", new ByteArrayInputStream(data));
+                fail("threads=" + threads);
+            } catch (AlreadyClosedException e) {
+                assertEquals(1, threads);
+            } catch (IOException e) {
+                assertTrue(e.getCause() instanceof AlreadyClosedException);
+            }
+        }
+    }
+}
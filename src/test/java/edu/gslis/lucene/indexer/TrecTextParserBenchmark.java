@@ -0,0 +1,186 @@
+package edu.gslis.lucene.indexer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import edu.gslis.lucene.main.config.FieldConfig;
+import edu.gslis.lucene.main.config.IndexConfig;
+
+/**
+ * Parsing and indexing throughput over testdata/trectest. The docs and bytes
+ * counters are reported as rates (docs/s and bytes/s; divide by 2^20 for
+ * MB/s).
+ *
+ * <ul>
+ * <li> domParse: the previous per-document DOM parse
+ * <li> streamParse: TrecTextParser, over each whole file
+ * <li> index: TrecTextIndexer into a RAMDirectory with the given number of
+ * parser threads
+ * </ul>
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.lucene.indexer.TrecTextParserBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrecTextParserBenchmark {
+
+    List<byte[]> files = new ArrayList<byte[]>();
+    List<String> docs = new ArrayList<String>();
+    long bytes = 0;
+    Set<FieldConfig> fields;
+    TrecTextParser parser;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long docs;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            docs = 0;
+            bytes = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class IndexParams {
+        @Param({ "1", "4" })
+        int threads;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        TarArchiveInputStream tis = new TarArchiveInputStream(new GzipCompressorInputStream(
+                new FileInputStream("testdata/trectest/trectest.tgz")));
+        TarArchiveEntry entry;
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (!entry.isFile())
+                continue;
+            byte[] data = IOUtils.toByteArray(tis);
+            files.add(data);
+            bytes += data.length;
+
+            BufferedReader br = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(data), "UTF-8"));
+            StringBuilder xml = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                xml.append(line).append('\n');
+                if (line.contains("</DOC>")) {
+                    docs.add(xml.toString());
+                    xml.setLength(0);
+                }
+            }
+        }
+        tis.close();
+
+        Yaml yaml = new Yaml(new Constructor(IndexConfig.class));
+        IndexConfig config = (IndexConfig)yaml.load(new FileInputStream("testdata/build_index_trectest.yml"));
+        fields = config.getFields();
+        List<String> elements = new ArrayList<String>();
+        for (FieldConfig field: fields)
+            elements.add(field.getElement());
+        parser = new TrecTextParser(elements);
+    }
+
+    @Benchmark
+    public int domParse(Counters counters) throws Exception {
+        int n = 0;
+        for (String doc: docs) {
+            String xml = doc.replace("&amp;", "&").replace("&", "&amp;");
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            org.w3c.dom.Document xmlDoc = builder.parse(new ByteArrayInputStream(xml.getBytes()));
+            Element root = (Element)xmlDoc.getElementsByTagName("DOC").item(0);
+            for (FieldConfig field: fields) {
+                NodeList elements = root.getElementsByTagName(field.getElement());
+                for (int j = 0; j < elements.getLength(); j++) {
+                    Node child = elements.item(j).getFirstChild();
+                    if (child != null)
+                        n += child.getNodeValue().length();
+                }
+            }
+        }
+        counters.docs += docs.size();
+        counters.bytes += bytes;
+        return n;
+    }
+
+    @Benchmark
+    public int streamParse(Counters counters) throws Exception {
+        int n = 0;
+        for (byte[] data: files)
+            n += parser.parseAll(new String(data, "UTF-8")).size();
+        counters.docs += docs.size();
+        counters.bytes += bytes;
+        return n;
+    }
+
+    @Benchmark
+    public int index(Counters counters, IndexParams params) throws Exception {
+        TrecTextIndexer indexer = new TrecTextIndexer();
+        indexer.setThreads(params.threads);
+        IndexWriter writer = new IndexWriter(new RAMDirectory(),
+                new IndexWriterConfig(new StandardAnalyzer()));
+        for (byte[] data: files)
+            indexer.buildIndex(writer, fields, "bench", new ByteArrayInputStream(data));
+        int n = writer.numDocs();
+        writer.close();
+        counters.docs += n;
+        counters.bytes += bytes;
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(TrecTextParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
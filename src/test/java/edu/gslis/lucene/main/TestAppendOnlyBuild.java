@@ -0,0 +1,103 @@
+package edu.gslis.lucene.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+import edu.gslis.lucene.indexer.Indexer;
+import edu.gslis.lucene.indexer.TestStreamCorpusIndexer;
+import edu.gslis.lucene.main.config.CorpusConfig;
+import edu.gslis.lucene.main.config.IndexConfig;
+
+/**
+ * Append-only stream corpus builds: documents are added without replacing
+ * earlier ones with the same id, and duplicates are removed after the
+ * build, keeping the document added last.
+ */
+public class TestAppendOnlyBuild {
+
+    File tmpDir;
+    File corpus;
+    File indexPath;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("appendonly").toFile();
+        corpus = new File(tmpDir, "corpus");
+        corpus.mkdirs();
+        indexPath = new File(tmpDir, "index");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    void build() throws Exception {
+        CorpusConfig corpusConfig = new CorpusConfig();
+        corpusConfig.setPath(corpus.getPath());
+        corpusConfig.setType(Indexer.FORMAT_STREAMCORPUS);
+        corpusConfig.setAppendOnly(true);
+        corpusConfig.setIncremental(true);
+        IndexConfig config = new IndexConfig();
+        config.setIndexPath(indexPath.getPath());
+        config.setCorpus(corpusConfig);
+        config.setFields(TestStreamCorpusIndexer.fields());
+        new LuceneBuildIndex(config).buildIndex();
+    }
+
+    IndexWrapperLuceneImpl open() {
+        return new IndexWrapperLuceneImpl(new File(indexPath, "shard0").getPath());
+    }
+
+    /**
+     * Live documents matching a term (docFreq also counts deleted ones)
+     */
+    static int hits(IndexWrapperLuceneImpl index, String term) {
+        return index.runQuery(term, 10).size();
+    }
+
+    @Test
+    public void testDuplicateInFile() throws Exception {
+        TestStreamCorpusIndexer.writeChunk(new File(corpus, "chunk0.sc"),
+                new String[] { "a", "alpha first" },
+                new String[] { "b", "beta" },
+                new String[] { "a", "alpha second" });
+        build();
+
+        IndexWrapperLuceneImpl index = open();
+        assertEquals(2, index.docCount(), 0);
+        assertEquals(1, hits(index, "alpha"));
+        assertEquals(0, hits(index, "first"));
+        assertEquals(1, hits(index, "second"));
+    }
+
+    @Test
+    public void testDuplicateInLaterRound() throws Exception {
+        TestStreamCorpusIndexer.writeChunk(new File(corpus, "chunk0.sc"),
+                new String[] { "a", "alpha" },
+                new String[] { "b", "beta first" });
+        build();
+        assertEquals(2, open().docCount(), 0);
+
+        // Only the new file is indexed; its copy of b replaces the old one
+        TestStreamCorpusIndexer.writeChunk(new File(corpus, "chunk1.sc"),
+                new String[] { "b", "beta second" },
+                new String[] { "c", "gamma" });
+        build();
+
+        IndexWrapperLuceneImpl index = open();
+        assertEquals(3, index.docCount(), 0);
+        assertEquals(1, hits(index, "beta"));
+        assertEquals(0, hits(index, "first"));
+        assertEquals(1, hits(index, "second"));
+        assertEquals(1, hits(index, "alpha"));
+    }
+}
@@ -0,0 +1,146 @@
+package edu.gslis.lucene.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+import edu.gslis.indexes.IndexWrapperShardedLuceneImpl;
+import edu.gslis.indexes.TrecTestIndex;
+import edu.gslis.lucene.main.config.CorpusConfig;
+import edu.gslis.lucene.main.config.IndexConfig;
+
+/**
+ * Builds trectest, split into several files, incrementally, then changes
+ * one file and builds again: the file's old documents must be replaced, in
+ * whichever shard they were, and no other document may be lost.
+ */
+public class TestIncrementalBuild {
+
+    static final int FILES = 8;
+    static final int SHARDS = 3;
+    static final String ADDED = "<DOC>\n<DOCNO>ADDED-1</DOCNO>\n<TEXT>\nzyzzyva\n</TEXT>\n</DOC>\n";
+
+    File tmpDir;
+    File corpus;
+    List<List<String>> parts = new ArrayList<List<String>>();
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("incremental").toFile();
+        corpus = new File(tmpDir, "corpus");
+        corpus.mkdirs();
+        TarArchiveInputStream tis = new TarArchiveInputStream(new GzipCompressorInputStream(
+                new FileInputStream("testdata/trectest/trectest.tgz")));
+        for (int i = 0; i < FILES; i++)
+            parts.add(new ArrayList<String>());
+        int d = 0;
+        TarArchiveEntry entry;
+        while ((entry = tis.getNextTarEntry()) != null) {
+            if (!entry.isFile())
+                continue;
+            String text = new String(IOUtils.toByteArray(tis), "UTF-8");
+            int start = 0;
+            int end;
+            while ((end = text.indexOf("</DOC>", start)) >= 0) {
+                parts.get(d++ % FILES).add(text.substring(start, end + 6) + "\n");
+                start = end + 6;
+            }
+        }
+        tis.close();
+        for (int i = 0; i < FILES; i++)
+            write(i, parts.get(i));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    void write(int part, List<String> docs) throws Exception {
+        OutputStream out = new FileOutputStream(new File(corpus, "part" + part + ".trec"));
+        for (String doc: docs)
+            out.write(doc.getBytes("UTF-8"));
+        out.close();
+    }
+
+    void build(File indexPath, String mode) throws Exception {
+        IndexConfig config = TrecTestIndex.loadConfig();
+        config.getCorpus().setPath(corpus.getPath());
+        config.getCorpus().setFilter("*.trec");
+        config.getCorpus().setShards(SHARDS);
+        config.getCorpus().setMode(mode);
+        config.getCorpus().setIncremental(true);
+        TrecTestIndex.build(config, indexPath);
+    }
+
+    /**
+     * Rewrites every file but the first with one document less and the
+     * first with a new document, and builds again
+     */
+    void modify(File indexPath, String mode) throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            List<String> docs = new ArrayList<String>(parts.get(i));
+            if (i == 0)
+                docs.add(ADDED);
+            else
+                docs.remove(0);
+            write(i, docs);
+        }
+        build(indexPath, mode);
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        File indexPath = new File(tmpDir, "index");
+        build(indexPath, CorpusConfig.MODE_SHARDS);
+        assertEquals(TrecTestIndex.DOCS,
+                new IndexWrapperShardedLuceneImpl(indexPath.getPath()).docCount(), 0);
+
+        modify(indexPath, CorpusConfig.MODE_SHARDS);
+        IndexWrapperLuceneImpl index = new IndexWrapperShardedLuceneImpl(indexPath.getPath());
+        assertEquals(TrecTestIndex.DOCS - (FILES - 1) + 1, index.docCount(), 0);
+        assertEquals(1, index.docFreq("zyzzyva"), 0);
+        assertTrue(index.getDocId("ADDED-1") >= 0);
+        assertEquals(-1, index.getDocId(docno(parts.get(1).get(0))));
+    }
+
+    @Test
+    public void testSingle() throws Exception {
+        File indexPath = new File(tmpDir, "index");
+        build(indexPath, CorpusConfig.MODE_SINGLE);
+        modify(indexPath, CorpusConfig.MODE_SINGLE);
+        IndexWrapperLuceneImpl index = new IndexWrapperLuceneImpl(indexPath.getPath());
+        assertEquals(TrecTestIndex.DOCS - (FILES - 1) + 1, index.docCount(), 0);
+        assertEquals(1, index.docFreq("zyzzyva"), 0);
+    }
+
+    @Test
+    public void testShardRouting() {
+        File file = new File(corpus, "part0.trec");
+        int shard = LuceneBuildIndex.getShard(file, SHARDS);
+        assertTrue(shard >= 0 && shard < SHARDS);
+        assertEquals(shard, LuceneBuildIndex.getShard(new File(file.getAbsolutePath()), SHARDS));
+    }
+
+    static String docno(String doc) {
+        int start = doc.indexOf("<DOCNO>") + 7;
+        return doc.substring(start, doc.indexOf("</DOCNO>", start)).trim();
+    }
+}
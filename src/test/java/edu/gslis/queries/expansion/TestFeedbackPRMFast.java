@@ -0,0 +1,119 @@
+package edu.gslis.queries.expansion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+import edu.gslis.indexes.TrecTestIndex;
+import edu.gslis.queries.GQuery;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+
+/**
+ * Checks FeedbackPRMFast against FeedbackPRM on the trectest collection:
+ * the same expansion terms, with weights that agree within the truncated
+ * kernel mass, and the same result with several threads.
+ */
+public class TestFeedbackPRMFast {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "raf cranwell",
+            "market government company shares" };
+    static final double[] SIGMAS = { 10, 50, 200 };
+    static final int TOP_TERMS = 20;
+
+    // Relative tolerance at the default truncation of 8 sigmas
+    static final double EPSILON = 1e-8;
+
+    static IndexWrapperLuceneImpl index;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        index = TrecTestIndex.get();
+    }
+
+    static Map<String, Double> build(FeedbackPRM prm, String text, double sigma) {
+        GQuery query = new GQuery();
+        query.setText(text);
+        query.setFeatureVector(new FeatureVector(text, null));
+        prm.setIndex(index);
+        prm.setOriginalQuery(query);
+        prm.setStopper(new Stopper());
+        prm.setSigma(sigma);
+        prm.build();
+        return prm.asMap();
+    }
+
+    static List<String> topTerms(final Map<String, Double> weights) {
+        List<String> terms = new ArrayList<String>(weights.keySet());
+        Collections.sort(terms, new Comparator<String>() {
+            public int compare(String t1, String t2) {
+                return Double.compare(weights.get(t2), weights.get(t1));
+            }
+        });
+        return terms.subList(0, Math.min(TOP_TERMS, terms.size()));
+    }
+
+    /**
+     * Largest relative difference in the weight of any expansion term
+     */
+    static double maxError(Map<String, Double> expected, Map<String, Double> actual) {
+        double max = 0;
+        for (String term: expected.keySet()) {
+            Double weight = actual.get(term);
+            if (weight == null)
+                return Double.POSITIVE_INFINITY;
+            max = Math.max(max, Math.abs(weight - expected.get(term)) / expected.get(term));
+        }
+        return max;
+    }
+
+    @Test
+    public void testWeights() {
+        for (double sigma: SIGMAS) {
+            for (String text: QUERIES) {
+                Map<String, Double> expected = build(new FeedbackPRM(text), text, sigma);
+                Map<String, Double> actual = build(new FeedbackPRMFast(text), text, sigma);
+                String message = text + " sigma=" + sigma;
+                assertTrue(message, expected.size() > TOP_TERMS);
+                assertEquals(message, expected.keySet(), actual.keySet());
+                assertEquals(message, topTerms(expected), topTerms(actual));
+                assertTrue(message, maxError(expected, actual) < EPSILON);
+            }
+        }
+    }
+
+    /**
+     * The default truncation is wider than ScorerPLMFast's: at 5 sigmas the
+     * weights are off by more than the tolerance
+     */
+    @Test
+    public void testTruncation() {
+        double worst = 0;
+        for (String text: QUERIES) {
+            Map<String, Double> expected = build(new FeedbackPRM(text), text, 10);
+            FeedbackPRMFast fast = new FeedbackPRMFast(text);
+            fast.setTruncation(5);
+            worst = Math.max(worst, maxError(expected, build(fast, text, 10)));
+        }
+        assertTrue(String.valueOf(worst), worst > EPSILON);
+    }
+
+    @Test
+    public void testThreads() {
+        for (String text: QUERIES) {
+            Map<String, Double> expected = build(new FeedbackPRMFast(text), text, 50);
+            FeedbackPRMFast fast = new FeedbackPRMFast(text);
+            fast.setThreads(4);
+            assertEquals(text, expected, build(fast, text, 50));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package edu.gslis.queries.expansion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.gslis.indexes.IndexWrapperLuceneImpl;
+import edu.gslis.indexes.TrecTestIndex;
+import edu.gslis.queries.GQuery;
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.textrepresentation.FeatureVector;
+import edu.gslis.utils.Stopper;
+
+/**
+ * Checks FeedbackRelevanceModel's accumulator against the vocabulary by
+ * documents loop it replaced on the trectest collection, and topTerms
+ * against a full sort.
+ */
+public class TestFeedbackRelevanceModel {
+
+    static final String[] QUERIES = { "oil prices", "british economy", "raf cranwell",
+            "market government company shares" };
+    static final int FB_DOCS = 20;
+
+    static IndexWrapperLuceneImpl index;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        index = TrecTestIndex.get();
+    }
+
+    static GQuery query(String text) {
+        GQuery query = new GQuery();
+        query.setText(text);
+        query.setFeatureVector(new FeatureVector(text, null));
+        return query;
+    }
+
+    static Map<String, Double> build(FeedbackRelevanceModel rm, GQuery query, SearchHits relDocs,
+            double[] docWeights) {
+        rm.setIndex(index);
+        rm.setOriginalQuery(query);
+        rm.setStopper(new Stopper());
+        rm.setRes(relDocs);
+        rm.setDocWeights(docWeights);
+        rm.build();
+        return rm.asMap();
+    }
+
+    // build() before the accumulator: every vocabulary term against every
+    // feedback document
+    static Map<String, Double> nested(SearchHits relDocs, double[] docWeights) {
+        Set<String> vocab = new HashSet<String>();
+        List<FeatureVector> fbDocVectors = new ArrayList<FeatureVector>();
+        double[] rsvs = new double[relDocs.size()];
+        int k = 0;
+        Iterator<SearchHit> hitIterator = relDocs.iterator();
+        while (hitIterator.hasNext()) {
+            SearchHit hit = hitIterator.next();
+            rsvs[k++] = Math.exp(hit.getScore());
+            FeatureVector docVector = index.getDocVector(hit.getDocID(), new Stopper());
+            vocab.addAll(docVector.getFeatures());
+            fbDocVectors.add(docVector);
+        }
+
+        Map<String, Double> weights = new HashMap<String, Double>();
+        for (String term: vocab) {
+            double fbWeight = 0.0;
+            k = 0;
+            for (FeatureVector docVector: fbDocVectors) {
+                double docProb = docVector.getFeatureWeight(term) / docVector.getLength();
+                double docWeight = (docWeights == null) ? 1.0 : docWeights[k];
+                docProb *= rsvs[k++];
+                docProb *= docWeight;
+                fbWeight += docProb;
+            }
+            fbWeight /= (double)fbDocVectors.size();
+            weights.put(term, fbWeight);
+        }
+        return weights;
+    }
+
+    static double[] sortedWeights(Map<String, Double> weights, int k) {
+        List<Double> values = new ArrayList<Double>(weights.values());
+        Collections.sort(values, Collections.reverseOrder());
+        double[] top = new double[Math.min(k, values.size())];
+        for (int i = 0; i < top.length; i++)
+            top[i] = values.get(i);
+        return top;
+    }
+
+    @Test
+    public void testBuild() {
+        Random random = new Random(9);
+        for (String text: QUERIES) {
+            GQuery query = query(text);
+            SearchHits relDocs = index.runQuery(query, FB_DOCS);
+            double[] docWeights = new double[relDocs.size()];
+            for (int i = 0; i < docWeights.length; i++)
+                docWeights[i] = random.nextDouble();
+
+            // The same additions in the same document order, so the weights
+            // are identical
+            assertEquals(text, nested(relDocs, null),
+                    build(new FeedbackRelevanceModel(), query, relDocs, null));
+            Map<String, Double> expected = nested(relDocs, docWeights);
+            assertEquals(text, expected, build(new FeedbackRelevanceModel(), query, relDocs, docWeights));
+
+            FeedbackRelevanceModel threaded = new FeedbackRelevanceModel();
+            threaded.setThreads(4);
+            assertEquals(text, expected, build(threaded, query, relDocs, docWeights));
+
+            for (int maxTerms: new int[] { 1, 20, expected.size(), expected.size() + 1 }) {
+                FeedbackRelevanceModel top = new FeedbackRelevanceModel();
+                top.setMaxTerms(maxTerms);
+                Map<String, Double> actual = build(top, query, relDocs, docWeights);
+                assertEquals(text, Math.min(maxTerms, expected.size()), actual.size());
+                for (String term: actual.keySet())
+                    assertEquals(text + " " + term, expected.get(term), actual.get(term));
+                assertArrayEquals(text, sortedWeights(expected, maxTerms), sortedWeights(actual, maxTerms), 0);
+            }
+        }
+    }
+
+    /**
+     * The k largest weights by a full sort: largest first, ties to the
+     * lower id
+     */
+    static int[] sortTopTerms(final double[] weights, int n, int k) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = 0; id < n; id++)
+            ids.add(id);
+        Collections.sort(ids, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (weights[a] != weights[b])
+                    return Double.compare(weights[b], weights[a]);
+                return a.compareTo(b);
+            }
+        });
+        int[] top = new int[Math.min(k, n)];
+        for (int i = 0; i < top.length; i++)
+            top[i] = ids.get(i);
+        return top;
+    }
+
+    @Test
+    public void testTopTerms() {
+        Random random = new Random(3);
+        for (int trial = 0; trial < 200; trial++) {
+            int n = random.nextInt(100);
+            // Spare capacity past n, as in build()'s accumulator
+            double[] weights = new double[n + random.nextInt(10)];
+            // Few distinct values, so there are many ties
+            int values = 1 + random.nextInt(8);
+            for (int id = 0; id < weights.length; id++)
+                weights[id] = random.nextInt(values) / (double)values;
+            for (int k: new int[] { 1, 1 + random.nextInt(n + 1), n, n + 1, 2 * n + 5 }) {
+                if (k < 1)
+                    continue;
+                String message = "n=" + n + " k=" + k;
+                int[] top = FeedbackRelevanceModel.topTerms(weights, n, k);
+                assertArrayEquals(message, sortTopTerms(weights, n, k), top);
+                assertTrue(message, top.length <= n);
+            }
+        }
+    }
+}
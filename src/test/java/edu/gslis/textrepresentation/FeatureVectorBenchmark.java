@@ -0,0 +1,120 @@
+package edu.gslis.textrepresentation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import edu.gslis.searchhits.SearchHit;
+import edu.gslis.searchhits.SearchHits;
+import edu.gslis.utils.Stopper;
+
+/**
+ * Compares FeatureVector construction through the shared FeatureAnalyzers
+ * pipeline against the previous per-instance StandardAnalyzer. The legacy
+ * methods reproduce the old constructor work inline.
+ *
+ * Run with the GC profiler to see allocation rate (gc.alloc.rate.norm):
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/test-classes:target/classes:... edu.gslis.textrepresentation.FeatureVectorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureVectorBenchmark {
+
+    static final String TEXT = "The RAF has ordered an inquiry into the crash of a Tornado "
+            + "fighter near Cranwell, the college where the service trains its officers. "
+            + "Both crew ejected safely and were taken to hospital for checks, the "
+            + "Ministry of Defence said, adding that the aircraft had been on a routine "
+            + "training flight from its base in Lincolnshire when the accident happened.";
+
+    static final int HITS = 1000;
+
+    Stopper stopper;
+
+    @Setup
+    public void setUp() {
+        stopper = new Stopper();
+        String[] stopwords = { "a", "an", "and", "are", "as", "at", "be", "but", "by",
+                "for", "if", "in", "into", "is", "it", "no", "not", "of", "on", "or",
+                "such", "that", "the", "their", "then", "there", "these", "they",
+                "this", "to", "was", "will", "with", "had", "been", "its", "were" };
+        for (String stopword: stopwords)
+            stopper.addStopword(stopword);
+    }
+
+    @Benchmark
+    public FeatureVector textVector() {
+        return new FeatureVector(TEXT, stopper);
+    }
+
+    @Benchmark
+    public Map<String, Double> textVectorLegacy() throws IOException {
+        StandardAnalyzer analyzer = new StandardAnalyzer(new CharArraySet(stopper.asSet(), true));
+        Map<String, Double> features = new HashMap<String, Double>();
+        TokenStream stream = analyzer.tokenStream("text", TEXT);
+        CharTermAttribute charTermAttribute = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            String term = charTermAttribute.toString();
+            Double val = features.get(term);
+            features.put(term, (val == null) ? 1.0 : val + 1.0);
+        }
+        stream.close();
+        analyzer.close();
+        return features;
+    }
+
+    @Benchmark
+    public SearchHits searchHits() {
+        SearchHits hits = new SearchHits();
+        for (int i = 0; i < HITS; i++)
+            hits.add(new SearchHit());
+        return hits;
+    }
+
+    @Benchmark
+    public SearchHits searchHitsLegacy() {
+        SearchHits hits = new SearchHits();
+        for (int i = 0; i < HITS; i++) {
+            // SearchHit() used to build a StandardAnalyzer via new FeatureVector(null)
+            new StandardAnalyzer().close();
+            hits.add(new SearchHit());
+        }
+        return hits;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(FeatureVectorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opts).run();
+    }
+}
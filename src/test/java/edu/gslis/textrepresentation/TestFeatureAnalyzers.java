@@ -0,0 +1,101 @@
+package edu.gslis.textrepresentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.junit.Test;
+
+import edu.gslis.utils.Stopper;
+
+/**
+ * Checks that the shared analyzers follow changes to their stopper
+ */
+public class TestFeatureAnalyzers {
+
+    static final String TEXT = "the oil prices of the economy";
+
+    @Test
+    public void testCached() {
+        Stopper stopper = new Stopper();
+        stopper.addStopword("the");
+        assertSame(FeatureAnalyzers.getAnalyzer(stopper), FeatureAnalyzers.getAnalyzer(stopper));
+    }
+
+    @Test
+    public void testAddStopword() {
+        Stopper stopper = new Stopper();
+        stopper.addStopword("the");
+        assertEquals(Arrays.asList("oil", "prices", "of", "economy"), FeatureAnalyzers.analyze(TEXT, stopper));
+        stopper.addStopword("of");
+        assertEquals(Arrays.asList("oil", "prices", "economy"), FeatureAnalyzers.analyze(TEXT, stopper));
+    }
+
+    /**
+     * Swapping one stopword for another leaves the size unchanged
+     */
+    @Test
+    public void testReplaceStopword() {
+        Stopper stopper = new Stopper();
+        stopper.addStopword("the");
+        stopper.addStopword("of");
+        assertEquals(Arrays.asList("oil", "prices", "economy"), FeatureAnalyzers.analyze(TEXT, stopper));
+        stopper.asSet().remove("of");
+        stopper.addStopword("oil");
+        assertEquals(Arrays.asList("prices", "of", "economy"), FeatureAnalyzers.analyze(TEXT, stopper));
+    }
+
+    /**
+     * Every change to the stoplist, including through the set's iterator,
+     * gives a new version
+     */
+    @Test
+    public void testVersion() {
+        Stopper stopper = new Stopper();
+        int version = stopper.getVersion();
+        stopper.addStopword("the");
+        assertTrue(stopper.getVersion() != version);
+        version = stopper.getVersion();
+        stopper.addStopword("the");
+        assertEquals(version, stopper.getVersion());
+        stopper.asSet().add("of");
+        assertTrue(stopper.getVersion() != version);
+        version = stopper.getVersion();
+        Iterator<String> it = stopper.asSet().iterator();
+        it.next();
+        it.remove();
+        assertTrue(stopper.getVersion() != version);
+        version = stopper.getVersion();
+        stopper.asSet().clear();
+        assertTrue(stopper.getVersion() != version);
+    }
+
+    @Test
+    public void testEmpty() {
+        Stopper stopper = new Stopper();
+        assertTrue(stopper.isEmpty());
+        assertSame(FeatureAnalyzers.getAnalyzer(null), FeatureAnalyzers.getAnalyzer(stopper));
+        stopper.asSet().add("the");
+        assertTrue(!stopper.isEmpty());
+        assertNotSame(FeatureAnalyzers.getAnalyzer(null), FeatureAnalyzers.getAnalyzer(stopper));
+        stopper.asSet().clear();
+        assertTrue(stopper.isEmpty());
+        assertSame(stopper.asSet(), stopper.asSet());
+    }
+
+    @Test(expected = AlreadyClosedException.class)
+    public void testReplacedAnalyzerClosed() {
+        Stopper stopper = new Stopper();
+        stopper.addStopword("the");
+        Analyzer analyzer = FeatureAnalyzers.getAnalyzer(stopper);
+        stopper.addStopword("of");
+        assertNotSame(analyzer, FeatureAnalyzers.getAnalyzer(stopper));
+        analyzer.tokenStream("text", TEXT);
+    }
+}
@@ -0,0 +1,186 @@
+package edu.gslis.textrepresentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.gslis.utils.Stopper;
+
+/**
+ * Checks the open-addressing table behind InternedFeatureVector: insert,
+ * replace, backward-shift removal (including probe runs that wrap around
+ * the end of the table) and iteration, against a HashMap model.
+ */
+public class TestInternedFeatureVector {
+
+    static final double EPSILON = 1e-9;
+
+    @Test
+    public void testInsertAndAdd() {
+        InternedFeatureVector fv = new InternedFeatureVector(null, new Vocabulary());
+        fv.addTerm("a", 1);
+        fv.addTerm("b", 2);
+        fv.addTerm("a", 3);
+        assertEquals(4, fv.getFeatureWeight("a"), EPSILON);
+        assertEquals(2, fv.getFeatureWeight("b"), EPSILON);
+        assertEquals(0, fv.getFeatureWeight("c"), EPSILON);
+        assertEquals(2, fv.getFeatureCount());
+        assertEquals(6, fv.getLength(), EPSILON);
+    }
+
+    @Test
+    public void testReplace() {
+        InternedFeatureVector fv = new InternedFeatureVector(null, new Vocabulary());
+        fv.addTerm("a", 5);
+        fv.addTerm("b", 1);
+        fv.setTerm("a", 2);
+        fv.setTerm("c", 4);
+        assertEquals(2, fv.getFeatureWeight("a"), EPSILON);
+        assertEquals(4, fv.getFeatureWeight("c"), EPSILON);
+        assertEquals(3, fv.getFeatureCount());
+        // As for FeatureVector, setTerm adds the new weight to the length
+        assertEquals(12, fv.getLength(), EPSILON);
+    }
+
+    /**
+     * The interned vector gives the same weights and length as
+     * FeatureVector, including when setTerm replaces a weight
+     */
+    @Test
+    public void testMatchesFeatureVector() {
+        Random random = new Random(7);
+        FeatureVector expected = new FeatureVector(null);
+        InternedFeatureVector fv = new InternedFeatureVector(null, new Vocabulary());
+        for (int op = 0; op < 2000; op++) {
+            String term = "t" + random.nextInt(20);
+            double weight = random.nextInt(10) + 1;
+            int kind = random.nextInt(3);
+            for (FeatureVector v: new FeatureVector[] { expected, fv }) {
+                if (kind == 0)
+                    v.addTerm(term, weight);
+                else if (kind == 1)
+                    v.setTerm(term, weight);
+                else
+                    v.removeTerm(term);
+            }
+            assertEquals(expected.getLength(), fv.getLength(), EPSILON);
+        }
+        assertEquals(expected.getFeatureCount(), fv.getFeatureCount());
+        for (String term: expected.getFeatures())
+            assertEquals(expected.getFeatureWeight(term), fv.getFeatureWeight(term), EPSILON);
+    }
+
+    /**
+     * addText analyzes with the vector's stopper, as FeatureVector does
+     */
+    @Test
+    public void testAddTextStopper() {
+        Stopper stopper = new Stopper();
+        stopper.addStopword("oil");
+        String text = "the oil prices of the economy";
+        FeatureVector expected = new FeatureVector(stopper);
+        expected.addText(text);
+        InternedFeatureVector fv = new InternedFeatureVector(stopper, new Vocabulary());
+        fv.addText(text);
+        assertEquals(expected.getFeatures(), fv.getFeatures());
+        assertEquals(expected.getLength(), fv.getLength(), EPSILON);
+        assertFalse(fv.contains("oil"));
+        assertTrue(fv.contains("the"));
+    }
+
+    @Test
+    public void testRemoveWithWraparound() {
+        // Find term ids whose home is the last slot of a 16-slot table, so
+        // their probe run wraps to the start of the table
+        Vocabulary vocabulary = new Vocabulary();
+        List<String> wrapping = new ArrayList<String>();
+        for (int i = 0; wrapping.size() < 3; i++) {
+            String term = "t" + i;
+            if ((mix(vocabulary.intern(term)) & 15) == 15)
+                wrapping.add(term);
+        }
+
+        InternedFeatureVector fv = new InternedFeatureVector(null, vocabulary);
+        for (int i = 0; i < wrapping.size(); i++)
+            fv.addTerm(wrapping.get(i), i + 1);
+
+        // Removing the first shifts the wrapped entries back; both must
+        // still be found
+        fv.removeTerm(wrapping.get(0));
+        assertEquals(0, fv.getFeatureWeight(wrapping.get(0)), EPSILON);
+        assertEquals(2, fv.getFeatureWeight(wrapping.get(1)), EPSILON);
+        assertEquals(3, fv.getFeatureWeight(wrapping.get(2)), EPSILON);
+        assertEquals(2, fv.getFeatureCount());
+        assertEquals(5, fv.getLength(), EPSILON);
+
+        fv.removeTerm(wrapping.get(1));
+        assertEquals(3, fv.getFeatureWeight(wrapping.get(2)), EPSILON);
+        assertEquals(1, fv.getFeatureCount());
+        assertFalse(fv.contains(wrapping.get(1)));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        Vocabulary vocabulary = new Vocabulary();
+        InternedFeatureVector fv = new InternedFeatureVector(null, vocabulary);
+        Map<String, Double> model = new HashMap<String, Double>();
+        double length = 0;
+
+        for (int op = 0; op < 20000; op++) {
+            String term = "t" + random.nextInt(40);
+            double weight = random.nextInt(10) + 1;
+            int kind = random.nextInt(3);
+            Double old = model.get(term);
+            if (kind == 0) {
+                fv.addTerm(term, weight);
+                model.put(term, (old == null) ? weight : old + weight);
+                length += weight;
+            } else if (kind == 1) {
+                fv.setTerm(term, weight);
+                model.put(term, weight);
+                length += weight;
+            } else {
+                fv.removeTerm(term);
+                if (old != null) {
+                    model.remove(term);
+                    length -= old;
+                }
+            }
+        }
+
+        assertEquals(model.size(), fv.getFeatureCount());
+        assertEquals(length, fv.getLength(), EPSILON);
+        for (int i = 0; i < 40; i++) {
+            String term = "t" + i;
+            Double expected = model.get(term);
+            assertEquals(expected != null, fv.contains(term));
+            assertEquals((expected == null) ? 0 : expected, fv.getFeatureWeight(term), EPSILON);
+        }
+
+        // Iteration visits each term once
+        Set<String> seen = new HashSet<String>();
+        Iterator<String> it = fv.iterator();
+        while (it.hasNext())
+            assertTrue(seen.add(it.next()));
+        assertEquals(model.keySet(), seen);
+        assertEquals(model.keySet(), fv.getFeatures());
+    }
+
+    // Same hash as InternedFeatureVector
+    static int mix(int termId) {
+        int h = termId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}